@@ -44,6 +44,7 @@ import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.EDBDirectory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.IOUtils;
@@ -69,7 +70,7 @@ import org.apache.lucene.util.IOUtils;
  *  <li><b>facet.source</b>=&lt;class name for facet-source| Default: RandomFacetSource&gt;
  *  <li><b>query.maker</b>=&lt;class name for query-maker| Default: SimpleQueryMaker&gt;
  *  <li><b>log.queries</b>=&lt;whether queries should be printed| Default: false&gt;
- *  <li><b>directory</b>=&lt;type of directory to use for the index| Default: RAMDirectory&gt;
+ *  <li><b>directory</b>=&lt;type of directory to use for the index: RAMDirectory, FSDirectory, or EDBDirectory which keeps the EmbeddedDB store in <code>index-store</code> next to the index| Default: RAMDirectory&gt;
  *  <li><b>taxonomy.directory</b>=&lt;type of directory for taxonomy index| Default: RAMDirectory&gt;
  * </ul>
  */
@@ -185,13 +186,21 @@ public class PerfRunData implements Closeable {
 
   private Directory createDirectory(boolean eraseIndex, String dirName,
       String dirParam) throws IOException {
-    if ("FSDirectory".equals(config.get(dirParam,"RAMDirectory"))) {
+    final String dirType = config.get(dirParam,"RAMDirectory");
+    if ("FSDirectory".equals(dirType) || "EDBDirectory".equals(dirType)) {
       File workDir = new File(config.get("work.dir","work"));
       File indexDir = new File(workDir,dirName);
       if (eraseIndex && indexDir.exists()) {
         FileUtils.fullyDelete(indexDir);
       }
       indexDir.mkdirs();
+      if ("EDBDirectory".equals(dirType)) {
+        File storeDir = new File(workDir,dirName + "-store");
+        if (eraseIndex && storeDir.exists()) {
+          FileUtils.fullyDelete(storeDir);
+        }
+        return new EDBDirectory(FSDirectory.open(indexDir), storeDir, null);
+      }
       return FSDirectory.open(indexDir);
     } 
 
@@ -0,0 +1,75 @@
+package org.apache.lucene.benchmark.byTask.tasks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.file.NoSuchFileException;
+import java.util.Locale;
+
+import org.apache.lucene.benchmark.byTask.PerfRunData;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.EDBDirectory;
+
+/**
+ * Reports the disk space taken by the index, to compare the footprint of codecs.
+ * <p>Prints the size of the index files and, if the index is kept in an {@link EDBDirectory}
+ * (<code>directory=EDBDirectory</code>), the size of the EmbeddedDB store holding its stored fields. The task counts
+ * the total size in KB, so the reports show the sizes of all rounds side by side.
+ * <p>Other side effects: none.
+ */
+public class DiskUsageTask extends PerfTask {
+
+  public DiskUsageTask(PerfRunData runData) {
+    super(runData);
+  }
+
+  @Override
+  public int doLogic() throws Exception {
+    final Directory dir = getRunData().getDirectory();
+    long indexBytes = 0;
+    for (String file : dir.listAll()) {
+      try {
+        indexBytes += dir.fileLength(file);
+      } catch (FileNotFoundException | NoSuchFileException e) {
+        // deleted by a concurrent commit or merge
+      }
+    }
+    long storeBytes = 0;
+    if (dir instanceof EDBDirectory) {
+      storeBytes = sizeOf(((EDBDirectory) dir).getStoreLocation());
+    }
+    System.out.println(String.format(Locale.ROOT, "--> DiskUsage: round=%d index=%,d bytes store=%,d bytes total=%,d bytes",
+        getRunData().getConfig().getRoundNumber(), indexBytes, storeBytes, indexBytes + storeBytes));
+    return (int) ((indexBytes + storeBytes) / 1024);
+  }
+
+  private static long sizeOf(File file) {
+    if (file.isDirectory()) {
+      long size = 0;
+      final File[] files = file.listFiles();
+      if (files != null) {
+        for (File child : files) {
+          size += sizeOf(child);
+        }
+      }
+      return size;
+    }
+    return file.length();
+  }
+}
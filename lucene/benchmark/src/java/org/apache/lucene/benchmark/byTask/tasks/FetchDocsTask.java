@@ -0,0 +1,134 @@
+package org.apache.lucene.benchmark.byTask.tasks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.lucene.benchmark.byTask.PerfRunData;
+import org.apache.lucene.benchmark.byTask.feeds.DocMaker;
+import org.apache.lucene.benchmark.byTask.utils.Config;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Fetches stored documents, to compare how fast codecs retrieve stored fields.
+ * <p>Takes one parameter, the kind of fetch:
+ * <ul>
+ *  <li><b>random</b> - fetches <code>fetch.count</code> random documents, one at a time (default).
+ *  <li><b>page</b> - fetches a page of <code>fetch.page.size</code> consecutive documents starting at a random
+ *  document, in a single {@link IndexReader#document(int[], StoredFieldVisitor[])} call as search results are.
+ *  <li><b>fields</b> - like <b>random</b>, but only loads the fields listed in <code>fetch.fields</code>
+ *  (comma separated, default: doctitle,docdate).
+ * </ul>
+ * Deleted documents are skipped. The task counts the documents it fetched, so the records per second of its report
+ * are the retrieval rate. Documents are picked by a generator seeded with <code>fetch.seed</code> (default: 17).
+ * <p>Other side effects: opens a reader for the duration of the task if none is open.
+ */
+public class FetchDocsTask extends PerfTask {
+
+  private static final String[] MODES = {"random", "page", "fields"};
+
+  private final int count;
+  private final int pageSize;
+  private final Set<String> fields;
+  private final Random random;
+  private String mode = "random";
+
+  public FetchDocsTask(PerfRunData runData) {
+    super(runData);
+    final Config config = runData.getConfig();
+    count = config.get("fetch.count", 100);
+    pageSize = config.get("fetch.page.size", 100);
+    fields = new HashSet<>(Arrays.asList(config.get("fetch.fields", DocMaker.TITLE_FIELD + "," + DocMaker.DATE_FIELD).split(",")));
+    random = new Random(config.get("fetch.seed", 17));
+  }
+
+  @Override
+  public int doLogic() throws Exception {
+    DirectoryReader reader = getRunData().getIndexReader(); // +1 ref, or null
+    if (reader == null) {
+      reader = DirectoryReader.open(getRunData().getDirectory());
+    }
+    try {
+      if (reader.numDocs() == 0) {
+        return 0;
+      }
+      final Bits liveDocs = MultiFields.getLiveDocs(reader);
+      if (mode.equals("page")) {
+        return fetchPage(reader, liveDocs);
+      }
+      int fetched = 0;
+      for (int i = 0; i < count; i++) {
+        final int docID = randomLiveDoc(reader, liveDocs);
+        final Document doc = mode.equals("fields") ? reader.document(docID, fields) : reader.document(docID);
+        fetched += doc != null ? 1 : 0;
+      }
+      return fetched;
+    } finally {
+      reader.decRef();
+    }
+  }
+
+  private int fetchPage(IndexReader reader, Bits liveDocs) throws Exception {
+    final int[] docIDs = new int[Math.min(pageSize, reader.numDocs())];
+    int numDocs = 0;
+    for (int docID = random.nextInt(reader.maxDoc()); numDocs < docIDs.length; docID = (docID + 1) % reader.maxDoc()) {
+      if (liveDocs == null || liveDocs.get(docID)) {
+        docIDs[numDocs++] = docID;
+      }
+    }
+    final StoredFieldVisitor[] visitors = new StoredFieldVisitor[numDocs];
+    for (int i = 0; i < numDocs; i++) {
+      visitors[i] = new DocumentStoredFieldVisitor();
+    }
+    reader.document(docIDs, visitors);
+    return numDocs;
+  }
+
+  private int randomLiveDoc(IndexReader reader, Bits liveDocs) {
+    int docID = random.nextInt(reader.maxDoc());
+    while (liveDocs != null && !liveDocs.get(docID)) {
+      docID = (docID + 1) % reader.maxDoc();
+    }
+    return docID;
+  }
+
+  @Override
+  public void setParams(String params) {
+    super.setParams(params);
+    final String mode = params.trim().toLowerCase(Locale.ROOT);
+    if (!Arrays.asList(MODES).contains(mode)) {
+      throw new IllegalArgumentException("unknown fetch mode '" + params + "', expected one of " + Arrays.toString(MODES));
+    }
+    this.mode = mode;
+  }
+
+  @Override
+  public boolean supportsParams() {
+    return true;
+  }
+}
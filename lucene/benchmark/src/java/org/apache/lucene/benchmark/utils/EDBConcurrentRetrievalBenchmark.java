@@ -0,0 +1,188 @@
+package org.apache.lucene.benchmark.utils;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.embeddeddb.EDBStoreConfig;
+import org.apache.lucene.codecs.embeddeddb.EmbeddedDBCodec;
+import org.apache.lucene.codecs.lucene410.Lucene410Codec;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.EDBDirectory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * Measures how document retrieval scales with the number of searching threads. An index of documents shaped like
+ * {@link EDBRecordFormatBenchmark}'s is written once per codec, then 1, 2, 4, ... up to maxThreads threads fetch
+ * random documents through one shared reader for the given number of seconds each. Every thread reads through its
+ * own clone of the segments' stored fields readers, as searches do, so with EmbeddedDB each thread keeps a cursor of
+ * its own and reads records without locks. The report gives documents per second and the speedup over one thread,
+ * with Lucene410's compressed stored fields files as the baseline.
+ * <pre>
+ *  java org.apache.lucene.benchmark.utils.EDBConcurrentRetrievalBenchmark [numDocs] [maxThreads] [seconds] [backend]
+ * </pre>
+ * The backend is <code>BERKELEYDB</code> (the default) or <code>MMAP_LOG</code>.
+ */
+public class EDBConcurrentRetrievalBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    final int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    final int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    final double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 5;
+    final EDBStoreConfig.Backend backend = args.length > 3
+        ? EDBStoreConfig.Backend.valueOf(args[3].toUpperCase(Locale.ROOT)) : EDBStoreConfig.Backend.BERKELEYDB;
+
+    final EDBStoreConfig config = new EDBStoreConfig().setBackend(backend);
+    run("Lucene410", new Lucene410Codec(), null, numDocs, maxThreads, seconds);
+    run("EmbeddedDB", new EmbeddedDBCodec(config), config, numDocs, maxThreads, seconds);
+  }
+
+  private static void run(String name, Codec codec, EDBStoreConfig config, int numDocs, int maxThreads, double seconds) throws Exception {
+    final File workDir = Files.createTempDirectory("edbbench").toFile();
+    final Directory dir = null == config
+        ? FSDirectory.open(new File(workDir, "index"))
+        : new EDBDirectory(FSDirectory.open(new File(workDir, "index")), new File(workDir, "store"), config);
+    try {
+      final IndexWriterConfig iwc = new IndexWriterConfig(Version.LATEST, new KeywordAnalyzer()).setCodec(codec);
+      try (IndexWriter writer = new IndexWriter(dir, iwc)) {
+        final Random random = new Random(42);
+        for (int i = 0; i < numDocs; i++) {
+          writer.addDocument(newDocument(random, i));
+        }
+        writer.forceMerge(1);
+      }
+
+      System.out.println(name + " (" + numDocs + " documents)");
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        // warms the caches and the JIT
+        measure(reader, maxThreads, seconds);
+        double singleThreaded = 0;
+        for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(2 * threads, maxThreads) : threads + 1) {
+          final double docsPerSecond = measure(reader, threads, seconds);
+          if (threads == 1) {
+            singleThreaded = docsPerSecond;
+          }
+          System.out.println(String.format(Locale.ROOT, "  threads=%3d  %12.0f docs/s  speedup=%5.2f",
+              threads, docsPerSecond, docsPerSecond / singleThreaded));
+        }
+      }
+    } finally {
+      dir.close();
+      rm(workDir);
+    }
+  }
+
+  /** Returns the documents per second the given number of threads fetch together */
+  private static double measure(final IndexReader reader, int threads, double seconds) throws Exception {
+    final long durationNanos = (long) (seconds * 1000000000L);
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicLong fetched = new AtomicLong();
+    final Thread[] workers = new Thread[threads];
+    final Throwable[] failure = new Throwable[1];
+    for (int t = 0; t < threads; t++) {
+      final Random random = new Random(t);
+      workers[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            final long end = System.nanoTime() + durationNanos;
+            long count = 0;
+            long checksum = 0;
+            while (System.nanoTime() < end) {
+              for (int i = 0; i < 100; i++) {
+                checksum += reader.document(random.nextInt(reader.maxDoc())).getFields().size();
+              }
+              count += 100;
+            }
+            fetched.addAndGet(count);
+            if (checksum == 0) {
+              throw new AssertionError("no fields were read");
+            }
+          } catch (Throwable e) {
+            synchronized (failure) {
+              failure[0] = e;
+            }
+          }
+        }
+      };
+      workers[t].start();
+    }
+    final long t0 = System.nanoTime();
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    final long elapsed = System.nanoTime() - t0;
+    synchronized (failure) {
+      if (failure[0] != null) {
+        throw new RuntimeException(failure[0]);
+      }
+    }
+    return fetched.get() * 1000000000.0 / elapsed;
+  }
+
+  private static void rm(File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        rm(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static Document newDocument(Random random, int id) {
+    final Document doc = new Document();
+    doc.add(new StringField("id", "doc" + id, Field.Store.YES));
+    doc.add(new StoredField("title", randomText(random, 40)));
+    doc.add(new StoredField("body", randomText(random, 2048)));
+    doc.add(new StoredField("timestamp", 1400000000000L + random.nextInt()));
+    doc.add(new StoredField("popularity", random.nextInt(1000)));
+    return doc;
+  }
+
+  private static String randomText(Random random, int length) {
+    final StringBuilder sb = new StringBuilder(length);
+    while (sb.length() < length) {
+      final int wordLength = 2 + random.nextInt(8);
+      for (int i = 0; i < wordLength; i++) {
+        sb.append((char) ('a' + random.nextInt(26)));
+      }
+      sb.append(' ');
+    }
+    sb.setLength(length);
+    return sb.toString();
+  }
+}
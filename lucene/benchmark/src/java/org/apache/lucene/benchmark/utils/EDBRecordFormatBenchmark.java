@@ -0,0 +1,145 @@
+package org.apache.lucene.benchmark.utils;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+import com.sleepycat.bind.EntryBinding;
+import com.sleepycat.bind.serial.SerialBinding;
+import com.sleepycat.bind.serial.StoredClassCatalog;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import org.apache.lucene.codecs.embeddeddb.EDBDocument;
+import org.apache.lucene.codecs.embeddeddb.EDBDocumentBinding;
+import org.apache.lucene.codecs.embeddeddb.EDBStoredField;
+
+/**
+ * Compares the cost of encoding and decoding EmbeddedDB stored documents with Java serialization
+ * ({@link SerialBinding}) against the binary record format ({@link EDBDocumentBinding}). Documents
+ * look like a typical result page: an id, a title, a body of configurable size and a couple of numerics.
+ * <pre>
+ *  java org.apache.lucene.benchmark.utils.EDBRecordFormatBenchmark [numDocs] [bodyChars] [iterations]
+ * </pre>
+ */
+public class EDBRecordFormatBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    final int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    final int bodyChars = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+    final int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    final EDBDocument[] docs = new EDBDocument[numDocs];
+    final Random random = new Random(42);
+    for (int i = 0; i < numDocs; i++) {
+      docs[i] = newDocument(random, i, bodyChars);
+    }
+
+    final File envDir = Files.createTempDirectory("edbbench").toFile();
+    final Properties properties = new Properties();
+    properties.put("je.log.memOnly", "true");
+    final EnvironmentConfig envConfig = new EnvironmentConfig(properties);
+    envConfig.setAllowCreate(true);
+    final Environment env = new Environment(envDir, envConfig);
+    final DatabaseConfig dbConfig = new DatabaseConfig();
+    dbConfig.setAllowCreate(true);
+    final Database catalogDb = env.openDatabase(null, "catalog", dbConfig);
+    final StoredClassCatalog catalog = new StoredClassCatalog(catalogDb);
+    try {
+      final EntryBinding serial = new SerialBinding(catalog, EDBDocument.class);
+      final EntryBinding binary = new EDBDocumentBinding(null);
+      for (int iter = 0; iter < iterations; iter++) {
+        System.out.println("iteration " + iter);
+        run("serialized", serial, docs);
+        run("binary", binary, docs);
+      }
+    } finally {
+      catalog.close();
+      env.close();
+      for (File f : envDir.listFiles()) {
+        f.delete();
+      }
+      envDir.delete();
+    }
+  }
+
+  private static void run(String name, EntryBinding binding, EDBDocument[] docs) {
+    final DatabaseEntry[] entries = new DatabaseEntry[docs.length];
+    long bytes = 0;
+    long t0 = System.nanoTime();
+    for (int i = 0; i < docs.length; i++) {
+      entries[i] = new DatabaseEntry();
+      binding.objectToEntry(docs[i], entries[i]);
+      bytes += entries[i].getSize();
+    }
+    final long encodeNanos = System.nanoTime() - t0;
+
+    long checksum = 0;
+    t0 = System.nanoTime();
+    for (DatabaseEntry entry : entries) {
+      checksum += ((EDBDocument) binding.entryToObject(entry)).getFields().size();
+    }
+    final long decodeNanos = System.nanoTime() - t0;
+
+    System.out.println(String.format(Locale.ROOT,
+        "  %-10s encode=%8.1f ms decode=%8.1f ms avgRecord=%7.1f bytes (fields=%d)",
+        name, encodeNanos / 1000000.0, decodeNanos / 1000000.0, bytes / (double) docs.length, checksum));
+  }
+
+  private static EDBDocument newDocument(Random random, int id, int bodyChars) {
+    final EDBDocument doc = new EDBDocument();
+    doc.addField(stringField(0, "doc" + id));
+    doc.addField(stringField(1, randomText(random, 40)));
+    doc.addField(stringField(2, randomText(random, bodyChars)));
+    final EDBStoredField timestamp = new EDBStoredField();
+    timestamp.setNumber(3);
+    timestamp.setNumericValue(1400000000000L + random.nextInt());
+    doc.addField(timestamp);
+    final EDBStoredField popularity = new EDBStoredField();
+    popularity.setNumber(4);
+    popularity.setNumericValue(random.nextInt(1000));
+    doc.addField(popularity);
+    return doc;
+  }
+
+  private static EDBStoredField stringField(int number, String value) {
+    final EDBStoredField field = new EDBStoredField();
+    field.setNumber(number);
+    field.setStringValue(value);
+    return field;
+  }
+
+  private static String randomText(Random random, int length) {
+    final StringBuilder sb = new StringBuilder(length);
+    while (sb.length() < length) {
+      final int wordLength = 2 + random.nextInt(8);
+      for (int i = 0; i < wordLength; i++) {
+        sb.append((char) ('a' + random.nextInt(26)));
+      }
+      sb.append(' ');
+    }
+    sb.setLength(length);
+    return sb.toString();
+  }
+}
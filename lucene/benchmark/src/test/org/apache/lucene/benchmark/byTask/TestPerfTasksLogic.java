@@ -848,6 +848,59 @@ public class TestPerfTasksLogic extends BenchmarkTestCase {
     assertEquals(3, infos.size());
   }
   
+  /**
+   * Test that DiskUsage and FetchDocs work with both the EmbeddedDB and the default codec
+   */
+  public void testStoredFieldsTasks() throws Exception {
+    // 1. alg definition (required in every "logic" test)
+    String algLines[] = {
+        "# ----- properties ",
+        "content.source=org.apache.lucene.benchmark.byTask.feeds.LineDocSource",
+        "docs.file=" + getReuters20LinesFile(),
+        "content.source.forever=false",
+        "directory=EDBDirectory",
+        "default.codec=codec:org.apache.lucene.codecs.lucene410.Lucene410Codec:org.apache.lucene.codecs.embeddeddb.EmbeddedDBCodec",
+        "doc.stored=true",
+        "fetch.count=5",
+        "fetch.page.size=8",
+        "# ----- alg ",
+        "{ \"Rounds\"",
+        "  ResetSystemErase",
+        "  CreateIndex",
+        "  { \"AddDocs\"  AddDoc > : * ",
+        "  CommitIndex",
+        "  CloseIndex",
+        "  DiskUsage",
+        "  OpenReader",
+        "  FetchDocs(random)",
+        "  FetchDocs(page)",
+        "  FetchDocs(fields)",
+        "  CloseReader",
+        "  NewRound",
+        "} : 2",
+    };
+
+    // 2. execute the algorithm  (required in every "logic" test)
+    Benchmark benchmark = execBenchmark(algLines);
+
+    // 3. test number of docs fetched and the reported size, in both rounds
+    int nChecked = 0;
+    for (final TaskStats stats : benchmark.getRunData().getPoints().taskStats()) {
+      String taskName = stats.getTask().getName();
+      if (taskName.equals("DiskUsage")) {
+        assertTrue("no disk usage reported", stats.getCount() > 0);
+        nChecked++;
+      } else if (taskName.startsWith("FetchDocs")) {
+        String mode = stats.getTask().getParams();
+        assertEquals("Wrong count for FetchDocs(" + mode + ")", mode.equals("page") ? 8 : 5, stats.getCount());
+        nChecked++;
+      }
+    }
+    assertEquals("Missing some tasks to check!", 8, nChecked);
+    assertTrue(new File(getWorkDir(), "index-store").isDirectory());
+    benchmark.getRunData().close();
+  }
+
   /**
    * Test disabling task count (LUCENE-1136).
    */
@@ -17,22 +17,102 @@ package org.apache.lucene.codecs.embeddeddb;
  * limitations under the License.
  */
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.apache.lucene.codecs.FilterCodec;
 import org.apache.lucene.codecs.StoredFieldsFormat;
+import org.apache.lucene.codecs.compressing.CompressionMode;
+import org.apache.lucene.codecs.lucene41.Lucene41StoredFieldsFormat;
 import org.apache.lucene.codecs.lucene410.Lucene410Codec;
+import org.apache.lucene.codecs.perfield.PerFieldStoredFieldsFormat;
 
 /**
  * Created by rlmathes on 7/15/17.
  *
  * Codec which stores document fields within an embedded database
  *
+ * The config given to the codec also selects the store new indexes get, e.g.
+ * {@code new EmbeddedDBCodec(new EDBStoreConfig().setBackend(EDBStoreConfig.Backend.MMAP_LOG))} keeps documents in
+ * the memory mapped log files of an {@link MMapLogStore} rather than in BerkeleyDB.
+ *
+ * Fields can also be kept out of the store: subclasses route them through {@link #getStoredFieldsFormatForField},
+ * e.g. small fields every result page loads to {@link #COMPRESSING_FORMAT}, which keeps them in the compressed
+ * stored fields files of the index. Reading documents then only goes to the store for the fields that live there.
  */
 public class EmbeddedDBCodec extends FilterCodec {
 
-    private final StoredFieldsFormat storedFields = new EmbeddedDBStoredFieldsFormat();
+    /**
+     * Name of the stored fields format keeping fields in the embedded database, the default
+     */
+    public static final String EMBEDDEDDB_FORMAT = "EmbeddedDB";
+
+    /**
+     * Name of the stored fields format keeping fields in compressed stored fields files, like {@link Lucene410Codec}
+     */
+    public static final String COMPRESSING_FORMAT = "Lucene41";
+
+    private final StoredFieldsFormat storedFields;
 
     public EmbeddedDBCodec() {
-        super("EmbeddedDB", new Lucene410Codec());
+        this(null);
+    }
+
+    /**
+     * Creates the codec with a tuned store configuration. Readers opened through the codec's name use the default
+     * config of {@link EDBStoreRegistry} instead, so applications which tune the store should normally also set
+     * it as the registry's default.
+     *
+     * @param config - Tuning of the stores opened by this codec, or null to use the registry's default config
+     */
+    public EmbeddedDBCodec(EDBStoreConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * Creates the codec with a tuned store configuration, writing documents in compressed blocks of the default
+     * size. Segments written either way are read by any instance of the codec.
+     *
+     * @param config - Tuning of the stores opened by this codec, or null to use the registry's default config
+     * @param compressionMode - Compression of document blocks, or null to store every document in a record of its own
+     */
+    public EmbeddedDBCodec(EDBStoreConfig config, CompressionMode compressionMode) {
+        this(new Lucene410Codec(), config, compressionMode);
+    }
+
+    /**
+     * Creates the codec on top of a {@link Lucene410Codec} which writes everything but the stored fields, e.g. one
+     * choosing postings and DocValues formats per field. Those formats are recorded in the index, so any instance of
+     * the codec reads the segments.
+     *
+     * @param delegate - Codec writing everything but the stored fields
+     * @param config - Tuning of the stores opened by this codec, or null to use the registry's default config
+     * @param compressionMode - Compression of document blocks, or null to store every document in a record of its own
+     */
+    public EmbeddedDBCodec(Lucene410Codec delegate, EDBStoreConfig config, CompressionMode compressionMode) {
+        super("EmbeddedDB", delegate);
+        final Map<String, StoredFieldsFormat> formats = new LinkedHashMap<>();
+        formats.put(EMBEDDEDDB_FORMAT, new EmbeddedDBStoredFieldsFormat(EmbeddedDBStoredFieldsFormat.DEFAULT_BATCH_SIZE, config,
+                compressionMode, EmbeddedDBStoredFieldsFormat.DEFAULT_BLOCK_SIZE, EmbeddedDBStoredFieldsFormat.DEFAULT_MAX_DOCS_PER_BLOCK));
+        formats.put(COMPRESSING_FORMAT, new Lucene41StoredFieldsFormat());
+        storedFields = new PerFieldStoredFieldsFormat(EMBEDDEDDB_FORMAT, formats) {
+            @Override
+            public String getStoredFieldsFormatForField(String field) {
+                return EmbeddedDBCodec.this.getStoredFieldsFormatForField(field);
+            }
+        };
+    }
+
+    /**
+     * Returns the name of the stored fields format new segments keep the given field in, either
+     * {@link #EMBEDDEDDB_FORMAT} or {@link #COMPRESSING_FORMAT}. The choice is recorded per segment, so any instance of
+     * the codec reads segments written with other choices. Stored fields can only be updated in segments all of whose
+     * fields are in the embedded database.
+     *
+     * The default implementation keeps every field in the embedded database.
+     */
+    public String getStoredFieldsFormatForField(String field) {
+        return EMBEDDEDDB_FORMAT;
     }
 
     @Override
@@ -0,0 +1,113 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Record cursors of a handle, kept open by the instances of a reader for all their reads. Lucene hands every thread
+ * a clone of a segment's stored fields reader of its own, so a cursor per instance gives every searching thread a
+ * positioned cursor with key and record buffers of its own, instead of every read opening one or allocating them.
+ *
+ * Clones are usually dropped without being closed, so the cursor of an instance which was garbage collected is
+ * closed the next time a cursor is opened, and all remaining ones when the reader they were cloned from is closed.
+ */
+final class EmbeddedDBReaderCursors implements Closeable {
+
+    private final EmbeddedDBStore store;
+    private final byte[] handle;
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+    private final Map<Reference<?>,EDBRecordCursor> cursors = new HashMap<>();
+    private boolean closed;
+
+    EmbeddedDBReaderCursors(EmbeddedDBStore store, byte[] handle) {
+        this.store = store;
+        this.handle = handle;
+    }
+
+    /**
+     * Opens a cursor on the handle for the given reader instance, which must not use it from several threads at once
+     */
+    EDBRecordCursor open(Object owner) throws IOException {
+        closeCollected();
+        final EDBRecordCursor cursor = store.openRecordCursor(handle);
+        synchronized (this) {
+            if (!closed) {
+                cursors.put(new WeakReference<>(owner, collected), cursor);
+                return cursor;
+            }
+        }
+        cursor.close();
+        throw new AlreadyClosedException("this FieldsReader is closed");
+    }
+
+    /**
+     * Closes a cursor opened by {@link #open} once its reader instance is closed
+     */
+    void release(EDBRecordCursor cursor) throws IOException {
+        synchronized (this) {
+            if (!cursors.values().remove(cursor)) {
+                return;
+            }
+        }
+        cursor.close();
+    }
+
+    private void closeCollected() throws IOException {
+        List<EDBRecordCursor> stale = null;
+        synchronized (this) {
+            for (Reference<?> owner = collected.poll(); null != owner; owner = collected.poll()) {
+                final EDBRecordCursor cursor = cursors.remove(owner);
+                if (null != cursor) {
+                    if (null == stale) {
+                        stale = new ArrayList<>();
+                    }
+                    stale.add(cursor);
+                }
+            }
+        }
+        if (null != stale) {
+            IOUtils.close(stale);
+        }
+    }
+
+    /**
+     * Closes every cursor still open, no instance of the reader may read afterwards
+     */
+    @Override
+    public void close() throws IOException {
+        final List<EDBRecordCursor> open;
+        synchronized (this) {
+            closed = true;
+            open = new ArrayList<>(cursors.values());
+            cursors.clear();
+        }
+        IOUtils.close(open);
+    }
+}
@@ -0,0 +1,183 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.lucene.codecs.compressing.CompressionMode;
+import org.apache.lucene.codecs.compressing.Compressor;
+import org.apache.lucene.codecs.compressing.Decompressor;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Record holding several consecutive documents compressed together, in the way CompressingStoredFieldsWriter
+ * compresses chunks of documents. A block is stored under the key of its last document, so seeking to the first key
+ * at or after a document finds the block holding it. The documents inside are records as described in
+ * {@link EDBDocumentBinding}:
+ *
+ * <pre>
+ *   Block      --&gt; Marker, Mode, DocCount, DocLength<sup>DocCount</sup>, CompressedDocs
+ *   Marker     --&gt; byte, never a record version nor the start of a serialized record
+ *   Mode       --&gt; byte, the {@link CompressionMode} the documents are compressed with
+ *   DocCount   --&gt; VInt
+ *   DocLength  --&gt; VInt
+ * </pre>
+ *
+ * An instance decodes one block at a time and keeps it, so consecutive documents of the same block are only
+ * decompressed once.
+ */
+final class EmbeddedDBRecordBlock implements Accountable {
+
+    static final byte MARKER = (byte) 0x80;
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(EmbeddedDBRecordBlock.class);
+
+    private static final CompressionMode[] MODES = {
+            CompressionMode.FAST, CompressionMode.HIGH_COMPRESSION, CompressionMode.FAST_DECOMPRESSION};
+
+    private final Decompressor[] decompressors = new Decompressor[MODES.length];
+    private final ByteArrayDataInput in = new ByteArrayDataInput();
+    private final BytesRef bytes = new BytesRef();
+    private int[] startOffsets = new int[16];
+    private int firstDocID = -1;
+    private int lastDocID = -1;
+
+    /**
+     * Returns the id the given mode is stored as, throwing an exception for modes a block cannot hold
+     */
+    static byte modeID(CompressionMode mode) {
+        for (int i = 0; i < MODES.length; i++) {
+            if (MODES[i] == mode) {
+                return (byte) i;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported compression mode for EmbeddedDB blocks: " + mode);
+    }
+
+    /**
+     * Returns true if the given record is a block rather than a single document
+     */
+    static boolean isBlock(byte[] record, int offset, int length) {
+        return length > 0 && record[offset] == MARKER;
+    }
+
+    /**
+     * Writes the given documents as one block
+     *
+     * @param docs - Buffer holding the encoded documents back to back
+     * @param endOffsets - End offset of each document in the buffer
+     * @param numDocs - Number of documents in the buffer
+     */
+    static void write(DataOutput out, byte modeID, Compressor compressor, byte[] docs, int[] endOffsets, int numDocs) throws IOException {
+        out.writeByte(MARKER);
+        out.writeByte(modeID);
+        out.writeVInt(numDocs);
+        int startOffset = 0;
+        for (int i = 0; i < numDocs; i++) {
+            out.writeVInt(endOffsets[i] - startOffset);
+            startOffset = endOffsets[i];
+        }
+        compressor.compress(docs, 0, startOffset, out);
+    }
+
+    /**
+     * Returns the number of documents of the given block
+     */
+    static int docCount(byte[] record, int offset, int length) {
+        final ByteArrayDataInput in = new ByteArrayDataInput(record, offset, length);
+        in.skipBytes(2);
+        return in.readVInt();
+    }
+
+    /**
+     * Decompresses the given block, stored under the given document ID, unless it is the block decoded last
+     */
+    void decode(byte[] record, int offset, int length, int keyDocID) throws IOException {
+        if (keyDocID == lastDocID) {
+            return;
+        }
+        lastDocID = -1;
+        in.reset(record, offset, length);
+        in.skipBytes(1);
+        final int mode = in.readByte();
+        if (mode < 0 || mode >= MODES.length) {
+            throw new IllegalStateException("Unknown compression mode of an EmbeddedDB block: " + mode);
+        }
+        final int numDocs = in.readVInt();
+        if (startOffsets.length < numDocs + 1) {
+            startOffsets = new int[ArrayUtil.oversize(numDocs + 1, 4)];
+        }
+        for (int i = 0; i < numDocs; i++) {
+            startOffsets[i + 1] = startOffsets[i] + in.readVInt();
+        }
+        if (null == decompressors[mode]) {
+            decompressors[mode] = MODES[mode].newDecompressor();
+        }
+        final int totalLength = startOffsets[numDocs];
+        decompressors[mode].decompress(in, totalLength, 0, totalLength, bytes);
+        firstDocID = keyDocID - numDocs + 1;
+        lastDocID = keyDocID;
+    }
+
+    /**
+     * Forgets the decoded block, e.g. because the records it was decoded from may have changed
+     */
+    void reset() {
+        firstDocID = lastDocID = -1;
+    }
+
+    /** Returns true if the decoded block holds the given document */
+    boolean contains(int docID) {
+        return lastDocID >= 0 && docID >= firstDocID && docID <= lastDocID;
+    }
+
+    int firstDocID() {
+        return firstDocID;
+    }
+
+    int lastDocID() {
+        return lastDocID;
+    }
+
+    /** Returns the buffer holding the decompressed documents */
+    byte[] bytes() {
+        return bytes.bytes;
+    }
+
+    /** Returns the start of the given document in {@link #bytes()} */
+    int docOffset(int docID) {
+        return bytes.offset + startOffsets[docID - firstDocID];
+    }
+
+    /** Returns the encoded length of the given document */
+    int docLength(int docID) {
+        final int index = docID - firstDocID;
+        return startOffsets[index + 1] - startOffsets[index];
+    }
+
+    /** Returns the memory held by the buffers of this block, which grow to the largest block decoded so far */
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(bytes.bytes) + RamUsageEstimator.sizeOf(startOffsets);
+    }
+}
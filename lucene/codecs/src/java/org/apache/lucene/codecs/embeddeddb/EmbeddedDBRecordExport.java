@@ -0,0 +1,213 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Records file of a handle, which holds a copy of the records written under it among the index files. The file is
+ * written by the same writer as the fields file when {@link EDBStoreConfig#getExportRecords()} is set, and so belongs
+ * to the files of the segment or of its generation of updates. Anything copying the files of a commit, such as
+ * replication, therefore carries the documents of the copied segments, and a reader whose store has no records
+ * under the handle imports them from the file before reading.
+ *
+ * The file holds a header, the handle, every record as its document ID, length and bytes in the order they were
+ * written, the ID of the last document, or -1 if there is none, and a checksum footer.
+ */
+final class EmbeddedDBRecordExport {
+
+    /** Extension of records files */
+    static final String EXPORT_EXTENSION = "edr";
+
+    static final String CODEC_NAME = "EmbeddedDBRecords";
+    static final int VERSION_START = 0;
+    /** The ID of the last document follows the records */
+    static final int VERSION_LAST_DOC = 1;
+    static final int VERSION_CURRENT = VERSION_LAST_DOC;
+
+    private EmbeddedDBRecordExport() {}
+
+    /**
+     * Returns whether writers export the records of new segments with the given config
+     *
+     * @param config - Config given to the writer, or null if it uses the default config
+     */
+    static boolean isEnabled(EDBStoreConfig config) {
+        return (null == config ? EDBStoreRegistry.getDefaultConfig() : config).getExportRecords();
+    }
+
+    /**
+     * Returns a write batch which also writes every record to a new records file. The file is complete once the batch
+     * commits; if it is aborted the caller deletes the file along with its fields file.
+     *
+     * @param batch - Batch writing the records to the store, aborted if the file cannot be created
+     * @param fileName - Name of the records file
+     * @param handle - Binary id of the handle the batch writes
+     */
+    static EDBWriteBatch exporting(EDBWriteBatch batch, Directory directory, String fileName, byte[] handle, IOContext context) throws IOException {
+        IndexOutput out = null;
+        boolean success = false;
+        try {
+            out = directory.createOutput(fileName, context);
+            CodecUtil.writeHeader(out, CODEC_NAME, VERSION_CURRENT);
+            out.writeVInt(handle.length);
+            out.writeBytes(handle, 0, handle.length);
+            success = true;
+        } finally {
+            if (!success) {
+                batch.abort();
+                IOUtils.closeWhileHandlingException(out);
+            }
+        }
+        return new ExportingWriteBatch(batch, out);
+    }
+
+    /**
+     * Writes the records of the given records file to the store, unless the store already holds them or there is no
+     * such file. A store may commit the records of a large batch in parts, so an import that was interrupted can have
+     * left some of them behind; the file's last record is committed last, so the import is complete once the store
+     * holds it. Files of earlier versions are taken as imported once the store holds any record of their handle.
+     *
+     * @param fileName - Name of the records file
+     * @param handle - Binary id of the handle the records file should belong to
+     * @return - True if records were imported
+     * @throws CorruptIndexException - If the file belongs to another handle or fails its checksum, nothing is imported
+     */
+    static boolean importRecords(Directory directory, String fileName, EmbeddedDBStore store, byte[] handle, IOContext context) throws IOException {
+        final IndexInput in;
+        try {
+            in = directory.openInput(fileName, context);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            // written without records file
+            return false;
+        }
+        try {
+            // readers of the same segment may be opened concurrently, only one of them imports
+            synchronized (store) {
+                final int version = CodecUtil.checkHeader(in, CODEC_NAME, VERSION_START, VERSION_CURRENT);
+                final long end = in.length() - CodecUtil.footerLength() - (version >= VERSION_LAST_DOC ? 4 : 0);
+                if (isImported(store, handle, in, version, end)) {
+                    return false;
+                }
+                // verified up front, so a damaged file fails as corrupt rather than wherever its records stop making sense
+                CodecUtil.checksumEntireFile(in);
+                final byte[] fileHandle = new byte[in.readVInt()];
+                in.readBytes(fileHandle, 0, fileHandle.length);
+                if (!Arrays.equals(handle, fileHandle)) {
+                    throw new CorruptIndexException("records file belongs to another handle (resource=" + in + ")");
+                }
+                final EDBWriteBatch batch = store.beginWriteBatch(handle);
+                boolean success = false;
+                try {
+                    byte[] record = new byte[1024];
+                    while (in.getFilePointer() < end) {
+                        final int docID = in.readVInt();
+                        final int length = in.readVInt();
+                        if (length > record.length) {
+                            record = new byte[ArrayUtil.oversize(length, 1)];
+                        }
+                        in.readBytes(record, 0, length);
+                        batch.put(docID, record, 0, length);
+                    }
+                    if (in.getFilePointer() != end) {
+                        throw new CorruptIndexException("records overlap the footer (resource=" + in + ")");
+                    }
+                    batch.commit();
+                    success = true;
+                } finally {
+                    if (!success) {
+                        batch.abort();
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the store already holds the records of the given records file
+     *
+     * @param end - Position after the file's last record
+     */
+    private static boolean isImported(EmbeddedDBStore store, byte[] handle, IndexInput in, int version, long end) throws IOException {
+        if (version < VERSION_LAST_DOC) {
+            try (EDBRecordCursor records = store.openRecordCursor(handle)) {
+                return records.next();
+            }
+        }
+        final long position = in.getFilePointer();
+        in.seek(end);
+        final int lastDocID = in.readInt();
+        in.seek(position);
+        return lastDocID < 0 || store.getRecord(handle, lastDocID) != null;
+    }
+
+    /** Writes the records of a batch to the store and to a records file */
+    private static final class ExportingWriteBatch implements EDBWriteBatch {
+
+        private final EDBWriteBatch delegate;
+        private IndexOutput out; // null once the batch is committed or aborted
+        private int lastDocID = -1;
+
+        ExportingWriteBatch(EDBWriteBatch delegate, IndexOutput out) {
+            this.delegate = delegate;
+            this.out = out;
+        }
+
+        @Override
+        public void put(int docID, byte[] record, int offset, int length) throws IOException {
+            delegate.put(docID, record, offset, length);
+            out.writeVInt(docID);
+            out.writeVInt(length);
+            out.writeBytes(record, offset, length);
+            lastDocID = docID;
+        }
+
+        @Override
+        public void commit() throws IOException {
+            // the file is complete before the last records are committed, so a committed handle always has its file
+            out.writeInt(lastDocID);
+            CodecUtil.writeFooter(out);
+            final IndexOutput out = this.out;
+            this.out = null;
+            out.close();
+            delegate.commit();
+        }
+
+        @Override
+        public void abort() {
+            delegate.abort();
+            IOUtils.closeWhileHandlingException(out);
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.codecs.StoredFieldsReader;
+import org.apache.lucene.codecs.perfield.PerFieldStoredFieldsFormat;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * Tool which rewrites the documents of every EmbeddedDB segment in an index from the Java serialized form used by
+ * earlier versions of the store into the binary record format. Reading legacy records keeps working without it,
+ * the upgrade only saves the decoding cost and space of the old form. It can be used from the command line:
+ * <pre>
+ *  java -cp lucene-core.jar:lucene-codecs.jar org.apache.lucene.codecs.embeddeddb.EmbeddedDBStoreUpgrader indexDir
+ * </pre>
+ */
+public final class EmbeddedDBStoreUpgrader {
+
+    private EmbeddedDBStoreUpgrader() {}
+
+    /**
+     * Migrates the legacy records of all segments in the latest commit of the given directory
+     *
+     * @param directory - Directory holding the index
+     * @return - The number of records which were rewritten
+     */
+    public static int upgrade(final Directory directory) throws IOException {
+        int migrated = 0;
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            for (final AtomicReaderContext context : reader.leaves()) {
+                final StoredFieldsReader fieldsReader = PerFieldStoredFieldsFormat.unwrap(((SegmentReader) context.reader()).getFieldsReader());
+                if (fieldsReader instanceof EmbeddedDBStoredFieldsReader) {
+                    migrated += ((EmbeddedDBStoredFieldsReader) fieldsReader).migrateLegacyRecords();
+                }
+            }
+        }
+        return migrated;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java " + EmbeddedDBStoreUpgrader.class.getName() + " indexDir");
+            System.exit(1);
+        }
+        try (Directory directory = FSDirectory.open(new File(args[0]))) {
+            Logger.info("Migrated " + upgrade(directory) + " legacy records to the binary record format");
+        }
+    }
+}
@@ -21,7 +21,9 @@ import java.io.IOException;
 
 import org.apache.lucene.codecs.StoredFieldsFormat;
 import org.apache.lucene.codecs.StoredFieldsReader;
+import org.apache.lucene.codecs.StoredFieldsUpdatesWriter;
 import org.apache.lucene.codecs.StoredFieldsWriter;
+import org.apache.lucene.codecs.compressing.CompressionMode;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.SegmentInfo;
 import org.apache.lucene.store.Directory;
@@ -31,13 +33,110 @@ import org.apache.lucene.store.IOContext;
  * Created by rlmathes on 7/15/17.
  */
 public class EmbeddedDBStoredFieldsFormat extends StoredFieldsFormat {
+
+    /** Default number of documents written to the store per batch */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    /** Default number of bytes of documents compressed into one block */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 14;
+
+    /** Default maximum number of documents compressed into one block */
+    public static final int DEFAULT_MAX_DOCS_PER_BLOCK = 128;
+
+    private final int batchSize;
+    private final EDBStoreConfig config;
+    private final CompressionMode compressionMode;
+    private final int blockSize;
+    private final int maxDocsPerBlock;
+
+    public EmbeddedDBStoredFieldsFormat() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize - Number of documents buffered by the writer before they are written to the store in one
+     *                  ordered batch. Larger batches trade heap for flush throughput.
+     */
+    public EmbeddedDBStoredFieldsFormat(int batchSize) {
+        this(batchSize, null);
+    }
+
+    /**
+     * @param batchSize - Number of documents buffered by the writer before they are written to the store in one
+     *                  ordered batch
+     * @param config - Tuning of the stores this format opens, or null to use the default config of
+     *               {@link EDBStoreRegistry}. A store which is already open keeps the config it was opened with.
+     */
+    public EmbeddedDBStoredFieldsFormat(int batchSize, EDBStoreConfig config) {
+        this(batchSize, config, null, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_DOCS_PER_BLOCK);
+    }
+
+    /**
+     * Creates a format which packs consecutive documents into compressed blocks, one record per block. Small
+     * documents then share the per-record overhead of the store and compress against each other, at the cost of
+     * decompressing a whole block to read one of its documents.
+     *
+     * @param batchSize - Number of documents buffered by the writer before they are written to the store in one
+     *                  ordered batch, if documents are not written in blocks
+     * @param config - Tuning of the stores this format opens, or null to use the default config of
+     *               {@link EDBStoreRegistry}
+     * @param compressionMode - Compression of the blocks, {@link CompressionMode#FAST},
+     *                        {@link CompressionMode#HIGH_COMPRESSION} or {@link CompressionMode#FAST_DECOMPRESSION},
+     *                        or null to write every document to a record of its own
+     * @param blockSize - Number of bytes of documents after which a block is written
+     * @param maxDocsPerBlock - Maximum number of documents in one block
+     */
+    public EmbeddedDBStoredFieldsFormat(int batchSize, EDBStoreConfig config, CompressionMode compressionMode, int blockSize, int maxDocsPerBlock) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be >= 1, got " + batchSize);
+        }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be >= 1, got " + blockSize);
+        }
+        if (maxDocsPerBlock < 1) {
+            throw new IllegalArgumentException("maxDocsPerBlock must be >= 1, got " + maxDocsPerBlock);
+        }
+        if (compressionMode != null) {
+            EmbeddedDBRecordBlock.modeID(compressionMode);
+        }
+        this.batchSize = batchSize;
+        this.config = null == config ? null : config.clone();
+        this.compressionMode = compressionMode;
+        this.blockSize = blockSize;
+        this.maxDocsPerBlock = maxDocsPerBlock;
+    }
+
     @Override
     public StoredFieldsReader fieldsReader(Directory directory, SegmentInfo si, FieldInfos fn, IOContext context) throws IOException {
-        return new EmbeddedDBStoredFieldsReader(directory, si, fn, context);
+        return new EmbeddedDBStoredFieldsReader(directory, si, fn, context, config);
     }
 
     @Override
     public StoredFieldsWriter fieldsWriter(Directory directory, SegmentInfo si, IOContext context) throws IOException {
-        return new EmbeddedDBStoredFieldsWriter(directory, si.name, context);
+        return new EmbeddedDBStoredFieldsWriter(directory, si.name, context, batchSize, config, compressionMode, blockSize, maxDocsPerBlock);
+    }
+
+    /**
+     * Returns true, the stored fields of documents can be updated in place through
+     * {@link org.apache.lucene.index.IndexWriter#updateStoredFields}
+     */
+    @Override
+    public boolean supportsUpdates() {
+        return true;
+    }
+
+    @Override
+    public StoredFieldsUpdatesWriter fieldsUpdatesWriter(Directory directory, SegmentInfo si, StoredFieldsReader reader,
+                                                         String segmentSuffix, IOContext context) throws IOException {
+        return new EmbeddedDBStoredFieldsUpdatesWriter(directory, si.name, reader, segmentSuffix, context, config);
+    }
+
+    @Override
+    public StoredFieldsReader updatedFieldsReader(StoredFieldsReader reader, Directory directory, SegmentInfo si, FieldInfos fn,
+                                                  String segmentSuffix, IOContext context) throws IOException {
+        if (!(reader instanceof EmbeddedDBStoredFieldsReader)) {
+            throw new IllegalArgumentException("segment " + si.name + " was not written by " + getClass().getSimpleName());
+        }
+        return new EmbeddedDBUpdatedFieldsReader((EmbeddedDBStoredFieldsReader) reader, directory, si, fn, segmentSuffix, context, config);
     }
 }
@@ -17,8 +17,11 @@ package org.apache.lucene.codecs.embeddeddb;
  * limitations under the License.
  */
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
 import java.util.Arrays;
+import org.apache.lucene.codecs.CodecUtil;
 import org.apache.lucene.codecs.StoredFieldsReader;
 import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.FieldInfos;
@@ -29,34 +32,70 @@ import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.RamUsageEstimator;
 import static org.apache.lucene.index.StoredFieldVisitor.Status.STOP;
 
 /**
  * Created by rlmathes on 7/15/17.
+ *
+ * Every instance reads through a record cursor of its own, opened on first use and kept until the instance is
+ * closed, see {@link EmbeddedDBReaderCursors}. Instances must not be used by several threads at once; Lucene reads
+ * through a clone per thread. Records are read without locks, the records of a handle never change once written.
  */
 public class EmbeddedDBStoredFieldsReader extends StoredFieldsReader{
 
     /** Extension of stored fields file */
     public static final String FIELDS_EXTENSION = "fdt";
+    /** Largest distance to the next requested document a batch visit covers by stepping the cursor forward rather than seeking */
+    private static final int MAX_STEP_DISTANCE = 8;
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(EmbeddedDBStoredFieldsReader.class);
     private Directory directory;
     private SegmentInfo si;
     private FieldInfos infos;
     private IOContext context;
-    private String associatedWriterHandle;
+    private EmbeddedDBStore store;
+    private byte[] associatedWriterHandle;
     private IndexInput fieldsStream;
     private boolean closed;
+    private boolean isClone;
+    /** Whether this reader holds its handle in the store, which keeps EDBDirectory from purging it */
+    private boolean handleRetained;
+    /** Whether the segment's documents are stored in compressed blocks */
+    private boolean blockLayout;
+    /** The block decoded last, consecutive hits of one block only decompress it once */
+    private EmbeddedDBRecordBlock block;
+    /** Cursors of this reader and its clones, shared with the clones and closed with the original reader */
+    private EmbeddedDBReaderCursors cursors;
+    /** Cursor of this instance, null until the first read */
+    private EDBRecordCursor cursor;
 
-    /** Used only by clone. */
-    private EmbeddedDBStoredFieldsReader(FieldInfos fieldInfos, IndexInput fieldsStream, String associatedWriterHandle, IOContext context) {
+    /** Used only by clone, the clone shares the store reference of the original reader. */
+    private EmbeddedDBStoredFieldsReader(Directory directory, SegmentInfo si, FieldInfos fieldInfos, IndexInput fieldsStream, EmbeddedDBStore store, byte[] associatedWriterHandle,
+                                         EmbeddedDBReaderCursors cursors, boolean blockLayout, IOContext context) {
+        this.isClone = true;
+        this.directory = directory;
+        this.cursors = cursors;
+        this.blockLayout = blockLayout;
+        this.si = si;
+        this.store = store;
         this.infos = fieldInfos;
         this.fieldsStream = fieldsStream;
         this.associatedWriterHandle = associatedWriterHandle;
         this.context = context;
     }
 
-    /** Main constructor */
     public EmbeddedDBStoredFieldsReader(Directory directory, SegmentInfo si, FieldInfos fn, IOContext context) throws IOException {
+        this(directory, si, fn, context, null);
+    }
+
+    /**
+     * Main constructor
+     *
+     * @param config - Config to open the directory's store with if it is not open yet, or null to use the default
+     */
+    public EmbeddedDBStoredFieldsReader(Directory directory, SegmentInfo si, FieldInfos fn, IOContext context, EDBStoreConfig config) throws IOException {
 
         this.directory = directory;
         this.si = si;
@@ -66,8 +105,18 @@ public class EmbeddedDBStoredFieldsReader extends StoredFieldsReader{
 
         try {
             fieldsStream = directory.openInput(IndexFileNames.segmentFileName(si.name, "", FIELDS_EXTENSION), context);
-            associatedWriterHandle = fieldsStream.readString();
+            associatedWriterHandle = EDBDocumentKey.handleID(fieldsStream.readString());
+            // fields files of earlier versions end after the handle, the checksum footer follows the layout
+            blockLayout = fieldsStream.getFilePointer() < fieldsStream.length()
+                    && fieldsStream.readByte() == EmbeddedDBStoredFieldsWriter.LAYOUT_BLOCKS;
             fieldsStream.close();
+            store = EDBStoreRegistry.acquire(directory, config);
+            store.retainHandle(associatedWriterHandle);
+            handleRetained = true;
+            cursors = new EmbeddedDBReaderCursors(store, associatedWriterHandle);
+            // a copied segment, e.g. of a replica, brings its documents in its records file
+            EmbeddedDBRecordExport.importRecords(directory, IndexFileNames.segmentFileName(si.name, "", EmbeddedDBRecordExport.EXPORT_EXTENSION),
+                    store, associatedWriterHandle, context);
             success = true;
         } finally {
             // With lock-less commits, it's entirely possible (and
@@ -87,19 +136,161 @@ public class EmbeddedDBStoredFieldsReader extends StoredFieldsReader{
     @Override
     public void visitDocument(int n, StoredFieldVisitor visitor) throws IOException {
 
-        StringBuilder documentKeyBuilder = new StringBuilder(associatedWriterHandle);
-        documentKeyBuilder.append("_");
-        documentKeyBuilder.append(n);
-        EDBDocument document = BerkeleyDBStore.INSTANCE.get(documentKeyBuilder.toString());
+        if(blockLayout) {
+            visitBlockDocument(n, visitor);
+            return;
+        }
+        final EDBRecordCursor records = cursor();
+        if(records.seek(n) && records.docID() == n) {
+            visitRecord(records.record(), records.recordOffset(), records.recordLength(), n, visitor);
+            return;
+        }
+        visitUnkeyedDocument(n, visitor);
+    }
+
+    /** Visits a document which is not stored under a binary key, e.g. a legacy record which was not migrated yet */
+    private void visitUnkeyedDocument(int n, StoredFieldVisitor visitor) throws IOException {
+
+        final BytesRef record = store.getRecord(associatedWriterHandle, n);
+        if(null != record) {
+            visitRecord(record.bytes, record.offset, record.length, n, visitor);
+        }
+    }
+
+    private void visitRecord(byte[] record, int offset, int length, int n, StoredFieldVisitor visitor) throws IOException {
+
+        if(EDBDocumentBinding.isLegacyRecord(record, offset, length)) {
+            visitLegacyDocument(store.get(associatedWriterHandle, n), visitor);
+        }
+        else {
+            EDBDocumentBinding.visit(record, offset, length, infos, visitor);
+        }
+    }
+
+    /** Returns the cursor of this instance, opening it on first use */
+    private EDBRecordCursor cursor() throws IOException {
+
+        ensureOpen();
+        if(null == cursor) {
+            cursor = cursors.open(this);
+        }
+        return cursor;
+    }
+
+    private void visitBlockDocument(int n, StoredFieldVisitor visitor) throws IOException {
+
+        if(null == block) {
+            block = new EmbeddedDBRecordBlock();
+        }
+        if(!block.contains(n)) {
+            final EDBRecordCursor records = cursor();
+            if(!records.seek(n)) {
+                return;
+            }
+            if(!EmbeddedDBRecordBlock.isBlock(records.record(), records.recordOffset(), records.recordLength())) {
+                if(records.docID() == n) {
+                    EDBDocumentBinding.visit(records.record(), records.recordOffset(), records.recordLength(), infos, visitor);
+                }
+                return;
+            }
+            block.decode(records.record(), records.recordOffset(), records.recordLength(), records.docID());
+            if(!block.contains(n)) {
+                return;
+            }
+        }
+        EDBDocumentBinding.visit(block.bytes(), block.docOffset(n), block.docLength(n), infos, visitor);
+    }
+
+    /**
+     * Visits the documents in key order through a single cursor. Nearby documents are reached by stepping the cursor
+     * forward, which avoids descending the B-tree once per document as separate {@link #visitDocument} calls do.
+     */
+    @Override
+    public void visitDocuments(int[] docIDs, StoredFieldVisitor[] visitors) throws IOException {
+
+        if(docIDs.length != visitors.length) {
+            throw new IllegalArgumentException("docIDs and visitors must have the same length: " + docIDs.length + " != " + visitors.length);
+        }
+        if(docIDs.length < 2) {
+            super.visitDocuments(docIDs, visitors);
+            return;
+        }
+        // document IDs are never negative, so sorting them with the request index in the low bits sorts by document
+        final long[] order = new long[docIDs.length];
+        for(int i = 0; i < docIDs.length; i++) {
+            order[i] = ((long) docIDs[i] << 32) | i;
+        }
+        Arrays.sort(order);
+        if(blockLayout && null == block) {
+            block = new EmbeddedDBRecordBlock();
+        }
+
+        final EDBRecordCursor records = cursor();
+        boolean positioned = false;
+        boolean exhausted = false;
+        for(long request : order) {
+            final int n = (int) (request >>> 32);
+            final StoredFieldVisitor visitor = visitors[(int) request];
+            if(blockLayout && block.contains(n)) {
+                EDBDocumentBinding.visit(block.bytes(), block.docOffset(n), block.docLength(n), infos, visitor);
+                continue;
+            }
+            if(exhausted || !moveTo(records, positioned, n)) {
+                // no binary key at or after this document, but legacy records are kept under other keys
+                exhausted = true;
+                if(!blockLayout) {
+                    visitUnkeyedDocument(n, visitor);
+                }
+                continue;
+            }
+            positioned = true;
+            final byte[] record = records.record();
+            final int offset = records.recordOffset();
+            final int length = records.recordLength();
+            if(blockLayout && EmbeddedDBRecordBlock.isBlock(record, offset, length)) {
+                block.decode(record, offset, length, records.docID());
+                if(block.contains(n)) {
+                    EDBDocumentBinding.visit(block.bytes(), block.docOffset(n), block.docLength(n), infos, visitor);
+                }
+            }
+            else if(records.docID() == n) {
+                visitRecord(record, offset, length, n, visitor);
+            }
+            else if(!blockLayout) {
+                visitUnkeyedDocument(n, visitor);
+            }
+        }
+    }
+
+    /**
+     * Moves the cursor to the first record stored under a document ID greater than or equal to n. Requests arrive in
+     * document order, so a positioned cursor is on that record already or a few records short of it.
+     */
+    private static boolean moveTo(EDBRecordCursor records, boolean positioned, int n) throws IOException {
+
+        if(!positioned || n - records.docID() > MAX_STEP_DISTANCE) {
+            return records.seek(n);
+        }
+        while(records.docID() < n) {
+            if(!records.next()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Records written through Java serialization can only be decoded as a whole and identify their fields by name */
+    private void visitLegacyDocument(EDBDocument document, StoredFieldVisitor visitor) throws IOException {
 
         for(EDBStoredField field : document.getFields()) {
 
-            FieldInfo info = this.infos.fieldInfo(field.getName());
+            FieldInfo info = null == field.getName() ? this.infos.fieldInfo(field.getNumber()) : this.infos.fieldInfo(field.getName());
             if(null == info) {
                 continue;
             }
 
-            if(visitor.needsField(info) == StoredFieldVisitor.Status.YES) {
+            StoredFieldVisitor.Status status = visitor.needsField(info);
+            if(status == StoredFieldVisitor.Status.YES) {
                 if(null != field.getStringValue()) {
                     visitor.stringField(info, field.getStringValue());
                 }
@@ -118,23 +309,54 @@ public class EmbeddedDBStoredFieldsReader extends StoredFieldsReader{
                     }
                 }
                 else if(null != field.getBinaryValue()) {
-                    int endOffset = field.getOffset() + field.getLength();
-                    visitor.binaryField(info, Arrays.copyOfRange(field.getBinaryValue(), field.getOffset(), endOffset));
+                    byte[] value = field.getBinaryValue();
+                    if(field.getOffset() != 0 || field.getLength() != value.length) {
+                        value = Arrays.copyOfRange(value, field.getOffset(), field.getOffset() + field.getLength());
+                    }
+                    visitor.binaryField(info, value);
                 }
                 else {
                     Logger.warn("Field retrieval was attempted, but value was not recognized.");
                 }
             }
-            else if(visitor.needsField(info) == STOP) {
+            else if(status == STOP) {
                 return;
             }
         }
     }
 
+    /**
+     * Rewrites the documents of this segment that are still in the Java serialized form, see
+     * {@link BerkeleyDBStore#migrateLegacyRecords}. Only BerkeleyDB stores can hold such documents.
+     */
+    int migrateLegacyRecords() {
+        ensureOpen();
+        if(!(store instanceof BerkeleyDBStore)) {
+            return 0;
+        }
+        return ((BerkeleyDBStore) store).migrateLegacyRecords(associatedWriterHandle, si.getDocCount(), infos);
+    }
+
+    /**
+     * Returns the binary id of the handle this segment's documents are stored under
+     */
+    byte[] getHandle() {
+        ensureOpen();
+        return associatedWriterHandle;
+    }
+
+    /**
+     * Returns the store this segment's documents are kept in
+     */
+    EmbeddedDBStore getStore() {
+        ensureOpen();
+        return store;
+    }
+
     @Override
     public StoredFieldsReader clone() {
         ensureOpen();
-        return new EmbeddedDBStoredFieldsReader(this.infos, this.fieldsStream, this.associatedWriterHandle, this.context);
+        return new EmbeddedDBStoredFieldsReader(this.directory, this.si, this.infos, this.fieldsStream, this.store, this.associatedWriterHandle, this.cursors, this.blockLayout, this.context);
     }
 
     /**
@@ -148,7 +370,37 @@ public class EmbeddedDBStoredFieldsReader extends StoredFieldsReader{
 
     @Override
     public void checkIntegrity() throws IOException {
+        ensureOpen();
+        checkIntegrity(directory, si.name, "", context);
+    }
 
+    /**
+     * Verifies the checksum of a fields file and of its records file, if there is one. Fields files of earlier
+     * versions have no footer, only their records file is verified.
+     *
+     * @param segmentSuffix - Suffix of the files, empty for the segment's own documents
+     * @throws org.apache.lucene.index.CorruptIndexException - If a checksum does not match
+     */
+    static void checkIntegrity(Directory directory, String segment, String segmentSuffix, IOContext context) throws IOException {
+        try(IndexInput in = directory.openInput(IndexFileNames.segmentFileName(segment, segmentSuffix, FIELDS_EXTENSION), context)) {
+            in.readString();
+            // anything after the layout is the footer
+            if(in.length() - in.getFilePointer() > 1) {
+                CodecUtil.checksumEntireFile(in);
+            }
+        }
+        final IndexInput records;
+        try {
+            records = directory.openInput(IndexFileNames.segmentFileName(segment, segmentSuffix, EmbeddedDBRecordExport.EXPORT_EXTENSION), context);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            // written without records file
+            return;
+        }
+        try {
+            CodecUtil.checksumEntireFile(records);
+        } finally {
+            records.close();
+        }
     }
 
     /**
@@ -160,14 +412,39 @@ public class EmbeddedDBStoredFieldsReader extends StoredFieldsReader{
     @Override
     public final void close() throws IOException {
         if (!closed) {
-            IOUtils.close(fieldsStream);
-            closed = true;
+            try {
+                if(isClone) {
+                    if(null != cursor) {
+                        cursors.release(cursor);
+                    }
+                }
+                else {
+                    // cursors must be closed before the store is released
+                    IOUtils.close(fieldsStream, cursors);
+                }
+            } finally {
+                cursor = null;
+                closed = true;
+                if (store != null && !isClone) {
+                    if (handleRetained) {
+                        store.releaseHandle(associatedWriterHandle);
+                    }
+                    EDBStoreRegistry.release(store);
+                }
+            }
         }
     }
 
+    /**
+     * Returns the memory held by this reader itself. The documents are cached by the store, which is shared by all
+     * readers of the index and reports its cache through {@link EmbeddedDBStore#ramBytesUsed()} and
+     * {@link EmbeddedDBStore#getStats()} instead.
+     */
     @Override
     public long ramBytesUsed() {
-        return 0;
+        final EmbeddedDBRecordBlock block = this.block;
+        return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(associatedWriterHandle)
+                + (null == block ? 0 : block.ramBytesUsed());
     }
 
 }
@@ -0,0 +1,163 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.UUID;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.codecs.StoredFieldsReader;
+import org.apache.lucene.codecs.StoredFieldsUpdatesWriter;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.GrowableByteArrayDataOutput;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Writes a generation of updated documents of a segment under a new handle, one record per document, in a single
+ * write batch that commits when the generation is finished. The documents of the previous generation which are not
+ * updated again are copied over byte-for-byte, so the new handle alone holds every updated document of the segment
+ * and the previous one can be purged once it is no longer read. Like segments, generations export their records if
+ * the config asks for it, see {@link EmbeddedDBRecordExport}.
+ */
+public class EmbeddedDBStoredFieldsUpdatesWriter extends StoredFieldsUpdatesWriter {
+
+    private final Directory directory;
+    private final String fieldsFile;
+    private final String exportFile;
+    private EmbeddedDBStore store;
+    private EDBWriteBatch writeBatch;
+    private EDBRecordCursor previousRecords; // null if the segment had no updates yet
+    private boolean hasPreviousRecord;
+    private final GrowableByteArrayDataOutput currentDocument = new GrowableByteArrayDataOutput(1024);
+    private final GrowableByteArrayDataOutput record = new GrowableByteArrayDataOutput(1024);
+    private int numStoredFieldsInDoc;
+    private int docID = -1;
+
+    /**
+     * @param reader - Reader of the segment's documents as of the current generation
+     * @param segmentSuffix - Suffix of the fields file of the new generation
+     * @param config - Config to open the directory's store with if it is not open yet, or null to use the default
+     */
+    public EmbeddedDBStoredFieldsUpdatesWriter(Directory directory, String segment, StoredFieldsReader reader, String segmentSuffix,
+                                               IOContext context, EDBStoreConfig config) throws IOException {
+
+        this.directory = directory;
+        this.fieldsFile = IndexFileNames.segmentFileName(segment, segmentSuffix, EmbeddedDBStoredFieldsWriter.FIELDS_EXTENSION);
+        this.exportFile = IndexFileNames.segmentFileName(segment, segmentSuffix, EmbeddedDBRecordExport.EXPORT_EXTENSION);
+        boolean success = false;
+        try {
+            final UUID writerUUID = UUID.randomUUID();
+            try(IndexOutput fieldsStream = directory.createOutput(fieldsFile, context)) {
+                fieldsStream.writeString(writerUUID.toString());
+                fieldsStream.writeByte(EmbeddedDBStoredFieldsWriter.LAYOUT_DOCUMENTS);
+                CodecUtil.writeFooter(fieldsStream);
+            }
+            store = EDBStoreRegistry.acquire(directory, config);
+            final byte[] handle = EDBDocumentKey.handleID(writerUUID.toString());
+            writeBatch = store.beginWriteBatch(handle);
+            if(EmbeddedDBRecordExport.isEnabled(config)) {
+                writeBatch = EmbeddedDBRecordExport.exporting(writeBatch, directory, exportFile, handle, context);
+            }
+            if(reader instanceof EmbeddedDBUpdatedFieldsReader) {
+                final EmbeddedDBUpdatedFieldsReader updatedReader = (EmbeddedDBUpdatedFieldsReader) reader;
+                previousRecords = updatedReader.getStore().openRecordCursor(updatedReader.getUpdatesHandle());
+                hasPreviousRecord = previousRecords.next();
+            }
+            success = true;
+        } finally {
+            if(!success) {
+                abort();
+            }
+        }
+    }
+
+    @Override
+    public void startDocument(int docID) throws IOException {
+        if(docID <= this.docID) {
+            throw new IllegalArgumentException("documents must be written in increasing order, got " + docID + " after " + this.docID);
+        }
+        copyPreviousRecords(docID);
+        this.docID = docID;
+        currentDocument.length = 0;
+        numStoredFieldsInDoc = 0;
+    }
+
+    @Override
+    public void writeField(FieldInfo info, IndexableField field) throws IOException {
+        EDBDocumentBinding.writeField(currentDocument, info.number, field);
+        ++numStoredFieldsInDoc;
+    }
+
+    @Override
+    public void finishDocument() throws IOException {
+        record.length = 0;
+        EDBDocumentBinding.writeHeader(record, numStoredFieldsInDoc);
+        record.writeBytes(currentDocument.bytes, 0, currentDocument.length);
+        writeBatch.put(docID, record.bytes, 0, record.length);
+    }
+
+    /** Copies the records of the previous generation stored under documents before the given one */
+    private void copyPreviousRecords(int upTo) throws IOException {
+        while(hasPreviousRecord && previousRecords.docID() < upTo) {
+            writeBatch.put(previousRecords.docID(), previousRecords.record(), previousRecords.recordOffset(), previousRecords.recordLength());
+            hasPreviousRecord = previousRecords.next();
+        }
+        // the document is written again, so its previous record is replaced
+        if(hasPreviousRecord && previousRecords.docID() == upTo) {
+            hasPreviousRecord = previousRecords.next();
+        }
+    }
+
+    @Override
+    public void finish(FieldInfos fis) throws IOException {
+        copyPreviousRecords(Integer.MAX_VALUE);
+        writeBatch.commit();
+    }
+
+    @Override
+    public void abort() {
+        try {
+            close();
+        } catch (Throwable ignored) {}
+        IOUtils.deleteFilesIgnoringExceptions(directory, fieldsFile, exportFile);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            // a batch that was not committed by finish belongs to a failed generation
+            if(writeBatch != null) {
+                writeBatch.abort();
+            }
+            IOUtils.close(previousRecords);
+        } finally {
+            writeBatch = null;
+            previousRecords = null;
+            if(store != null) {
+                EDBStoreRegistry.release(store);
+                store = null;
+            }
+        }
+    }
+}
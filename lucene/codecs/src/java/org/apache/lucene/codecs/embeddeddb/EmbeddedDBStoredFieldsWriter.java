@@ -18,43 +18,149 @@ package org.apache.lucene.codecs.embeddeddb;
  */
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.UUID;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.codecs.StoredFieldsReader;
 import org.apache.lucene.codecs.StoredFieldsWriter;
+import org.apache.lucene.codecs.compressing.CompressionMode;
+import org.apache.lucene.codecs.compressing.Compressor;
+import org.apache.lucene.codecs.perfield.PerFieldStoredFieldsFormat;
+import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.IndexFileNames;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.MergeState;
+import org.apache.lucene.index.SegmentReader;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexOutput;
-import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.GrowableByteArrayDataOutput;
 import org.apache.lucene.util.IOUtils;
 
 /**
  * Created by rlmathes on 7/15/17.
+ *
+ * Documents are encoded into a buffer as they are added and written to the store in batches of consecutive
+ * documents, all within one write batch that commits when the segment is finished. An aborted segment therefore
+ * leaves no documents behind in the store.
+ *
+ * With a {@link CompressionMode} the buffered documents are instead written as compressed blocks of up to
+ * maxDocsPerBlock documents or about blockSize bytes, see {@link EmbeddedDBRecordBlock}. The fields file records
+ * after the handle whether the segment holds single documents or blocks, and ends with a checksum footer.
+ *
+ * Merges copy the records of segments with the same field numbering byte-for-byte from their handle to the new one,
+ * scanning the source handle with a cursor and skipping deleted documents, so no document is decoded. Blocks without
+ * deleted documents are copied as a whole if they were compressed the way this writer compresses, other blocks are
+ * decompressed and their documents written again. Documents whose stored fields were updated in place are copied from
+ * the latest generation of updates, see {@link EmbeddedDBUpdatedFieldsReader}, and blocks holding any of them are
+ * never copied as a whole.
+ *
+ * If the config asks for it, every record is also written to a records file of the segment, see
+ * {@link EmbeddedDBRecordExport}, so copies of the index carry the segment's documents.
  */
 public class EmbeddedDBStoredFieldsWriter extends StoredFieldsWriter {
 
     /** Extension of stored fields file */
     public static final String FIELDS_EXTENSION = "fdt";
-    private String writerHandle;
-    private EDBDocument currentDocument;
+    /** Upper bound of buffered bytes, a batch is flushed early once its documents exceed it */
+    static final int MAX_BUFFERED_BYTES = 1 << 20;
+
+    /** Layout of a segment whose documents are stored one per record */
+    static final byte LAYOUT_DOCUMENTS = 0;
+    /** Layout of a segment whose documents are stored in compressed blocks */
+    static final byte LAYOUT_BLOCKS = 1;
+
+    private EmbeddedDBStore store;
+    private byte[] writerHandle;
     private int documentID = 0;
     private Directory directory;
     private String segment;
     private IndexOutput fieldsStream;
 
+    private final int batchSize;
+    private EDBWriteBatch writeBatch;
+    private final GrowableByteArrayDataOutput currentDocument = new GrowableByteArrayDataOutput(1024);
+    private int numStoredFieldsInDoc;
+    private final GrowableByteArrayDataOutput bufferedDocs = new GrowableByteArrayDataOutput(1024);
+    private int[] endOffsets = new int[16]; // end offsets in bufferedDocs
+    private int docBase; // doc ID at the beginning of the batch
+    private int numBufferedDocs; // docBase + numBufferedDocs == current doc ID
+
+    private final Compressor compressor; // null unless documents are written in blocks
+    private final byte compressionModeID;
+    private final int blockSize;
+    private final int maxDocsPerBlock;
+    private final GrowableByteArrayDataOutput blockBuffer;
+
     public EmbeddedDBStoredFieldsWriter(Directory directory, String segment, IOContext context) throws IOException {
+        this(directory, segment, context, EmbeddedDBStoredFieldsFormat.DEFAULT_BATCH_SIZE);
+    }
+
+    public EmbeddedDBStoredFieldsWriter(Directory directory, String segment, IOContext context, int batchSize) throws IOException {
+        this(directory, segment, context, batchSize, null);
+    }
+
+    /**
+     * @param batchSize - Number of documents written to the store per batch
+     * @param config - Config to open the directory's store with if it is not open yet, or null to use the default
+     */
+    public EmbeddedDBStoredFieldsWriter(Directory directory, String segment, IOContext context, int batchSize, EDBStoreConfig config) throws IOException {
+        this(directory, segment, context, batchSize, config, null, 0, 0);
+    }
+
+    /**
+     * @param batchSize - Number of documents written to the store per batch
+     * @param config - Config to open the directory's store with if it is not open yet, or null to use the default
+     * @param compressionMode - Compression of document blocks, or null to store every document in a record of its own
+     * @param blockSize - Number of bytes of documents after which a block is written, if blocks are written
+     * @param maxDocsPerBlock - Maximum number of documents in a block, if blocks are written
+     */
+    public EmbeddedDBStoredFieldsWriter(Directory directory, String segment, IOContext context, int batchSize, EDBStoreConfig config,
+                                        CompressionMode compressionMode, int blockSize, int maxDocsPerBlock) throws IOException {
 
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be >= 1, got " + batchSize);
+        }
         this.directory = directory;
         this.segment = segment;
+        this.batchSize = batchSize;
+        if (compressionMode != null) {
+            if (blockSize < 1) {
+                throw new IllegalArgumentException("blockSize must be >= 1, got " + blockSize);
+            }
+            if (maxDocsPerBlock < 1) {
+                throw new IllegalArgumentException("maxDocsPerBlock must be >= 1, got " + maxDocsPerBlock);
+            }
+            this.compressionModeID = EmbeddedDBRecordBlock.modeID(compressionMode);
+            this.compressor = compressionMode.newCompressor();
+            this.blockBuffer = new GrowableByteArrayDataOutput(blockSize);
+        }
+        else {
+            this.compressionModeID = -1;
+            this.compressor = null;
+            this.blockBuffer = null;
+        }
+        this.blockSize = blockSize;
+        this.maxDocsPerBlock = maxDocsPerBlock;
         boolean success = false;
         try {
             fieldsStream = directory.createOutput(IndexFileNames.segmentFileName(segment, "", FIELDS_EXTENSION), context);
             UUID writerUUID = UUID.randomUUID();
             fieldsStream.writeString(writerUUID.toString());
+            fieldsStream.writeByte(compressor == null ? LAYOUT_DOCUMENTS : LAYOUT_BLOCKS);
+            CodecUtil.writeFooter(fieldsStream);
             fieldsStream.close();
-            writerHandle = writerUUID.toString();
+            writerHandle = EDBDocumentKey.handleID(writerUUID.toString());
+            store = EDBStoreRegistry.acquire(directory, config);
+            writeBatch = store.beginWriteBatch(writerHandle);
+            if (EmbeddedDBRecordExport.isEnabled(config)) {
+                writeBatch = EmbeddedDBRecordExport.exporting(writeBatch, directory,
+                        IndexFileNames.segmentFileName(segment, "", EmbeddedDBRecordExport.EXPORT_EXTENSION), writerHandle, context);
+            }
             success = true;
         } finally {
             if (!success) {
@@ -65,39 +171,186 @@ public class EmbeddedDBStoredFieldsWriter extends StoredFieldsWriter {
 
     @Override
     public void startDocument() throws IOException {
-        currentDocument = new EDBDocument();
+        currentDocument.length = 0;
+        numStoredFieldsInDoc = 0;
     }
 
     @Override
     public void finishDocument() throws IOException {
-        StringBuilder documentKeyBuilder = new StringBuilder(writerHandle);
-        documentKeyBuilder.append("_");
-        documentKeyBuilder.append(documentID);
-        BerkeleyDBStore.INSTANCE.put(documentKeyBuilder.toString(), currentDocument);
+        if (numBufferedDocs == endOffsets.length) {
+            endOffsets = Arrays.copyOf(endOffsets, ArrayUtil.oversize(numBufferedDocs + 1, 4));
+        }
+        EDBDocumentBinding.writeHeader(bufferedDocs, numStoredFieldsInDoc);
+        bufferedDocs.writeBytes(currentDocument.bytes, 0, currentDocument.length);
+        endBufferedDocument();
+    }
+
+    /** Adds an already encoded document after the buffered ones */
+    private void addRecord(byte[] record, int offset, int length) throws IOException {
+        if (numBufferedDocs == endOffsets.length) {
+            endOffsets = Arrays.copyOf(endOffsets, ArrayUtil.oversize(numBufferedDocs + 1, 4));
+        }
+        bufferedDocs.writeBytes(record, offset, length);
+        endBufferedDocument();
+    }
+
+    private void endBufferedDocument() throws IOException {
+        endOffsets[numBufferedDocs] = bufferedDocs.length;
+        ++numBufferedDocs;
         documentID++;
+        if (compressor != null) {
+            if (numBufferedDocs >= maxDocsPerBlock || bufferedDocs.length >= blockSize) {
+                flush();
+            }
+        }
+        else if (numBufferedDocs >= batchSize || bufferedDocs.length >= MAX_BUFFERED_BYTES) {
+            flush();
+        }
     }
 
     @Override
     public void writeField(FieldInfo info, IndexableField field) throws IOException {
+        EDBDocumentBinding.writeField(currentDocument, info.number, field);
+        ++numStoredFieldsInDoc;
+    }
 
-        EDBStoredField edbStoredField = new EDBStoredField();
-        edbStoredField.setName(field.name());
-
-        if(null != field.numericValue()) {
-            edbStoredField.setNumericValue(field.numericValue());
+    /** Writes the buffered documents to the write batch in document order, as one block if blocks are written */
+    private void flush() throws IOException {
+        if (compressor != null) {
+            blockBuffer.length = 0;
+            EmbeddedDBRecordBlock.write(blockBuffer, compressionModeID, compressor, bufferedDocs.bytes, endOffsets, numBufferedDocs);
+            writeBatch.put(docBase + numBufferedDocs - 1, blockBuffer.bytes, 0, blockBuffer.length);
+            docBase += numBufferedDocs;
+            numBufferedDocs = 0;
+            bufferedDocs.length = 0;
+            return;
         }
-        else if(null != field.binaryValue()) {
-            edbStoredField.setBinaryValue(field.binaryValue().bytes);
-            edbStoredField.setOffset(field.binaryValue().offset);
-            edbStoredField.setLength(field.binaryValue().length);
+        int startOffset = 0;
+        for (int i = 0; i < numBufferedDocs; i++) {
+            writeBatch.put(docBase + i, bufferedDocs.bytes, startOffset, endOffsets[i] - startOffset);
+            startOffset = endOffsets[i];
+        }
+        docBase += numBufferedDocs;
+        numBufferedDocs = 0;
+        bufferedDocs.length = 0;
+    }
+
+    @Override
+    public int merge(MergeState mergeState) throws IOException {
+        int docCount = 0;
+        int idx = 0;
+
+        for (AtomicReader reader : mergeState.readers) {
+            final SegmentReader matchingSegmentReader = mergeState.matchingSegmentReaders[idx++];
+            EmbeddedDBStoredFieldsReader matchingFieldsReader = null;
+            EmbeddedDBUpdatedFieldsReader matchingUpdatesReader = null;
+            if (matchingSegmentReader != null) {
+                final StoredFieldsReader fieldsReader = PerFieldStoredFieldsFormat.unwrap(matchingSegmentReader.getFieldsReader());
+                // records hold field numbers, so they can only be copied if the segment numbers its fields the same way
+                if (fieldsReader != null && fieldsReader instanceof EmbeddedDBStoredFieldsReader) {
+                    matchingFieldsReader = (EmbeddedDBStoredFieldsReader) fieldsReader;
+                }
+                else if (fieldsReader != null && fieldsReader instanceof EmbeddedDBUpdatedFieldsReader) {
+                    matchingUpdatesReader = (EmbeddedDBUpdatedFieldsReader) fieldsReader;
+                    matchingFieldsReader = matchingUpdatesReader.getBase();
+                }
+            }
+
+            final int maxDoc = reader.maxDoc();
+            final Bits liveDocs = reader.getLiveDocs();
+
+            if (matchingFieldsReader == null) {
+                // naive merge...
+                for (int i = nextLiveDoc(0, liveDocs, maxDoc); i < maxDoc; i = nextLiveDoc(i + 1, liveDocs, maxDoc)) {
+                    addDocument(reader.document(i), mergeState.fieldInfos);
+                    ++docCount;
+                    mergeState.checkAbort.work(300);
+                }
+            }
+            else {
+                final EmbeddedDBRecordBlock block = new EmbeddedDBRecordBlock();
+                try (EDBRecordCursor records = matchingFieldsReader.getStore().openRecordCursor(matchingFieldsReader.getHandle());
+                     EDBRecordCursor updates = null == matchingUpdatesReader ? null
+                             : matchingUpdatesReader.getStore().openRecordCursor(matchingUpdatesReader.getUpdatesHandle())) {
+                    boolean hasRecord = records.next();
+                    // documents whose stored fields were updated are copied from the updates handle instead
+                    boolean hasUpdate = null != updates && updates.next();
+                    for (int i = nextLiveDoc(0, liveDocs, maxDoc); i < maxDoc; i = nextLiveDoc(i + 1, liveDocs, maxDoc)) {
+                        while (hasUpdate && updates.docID() < i) {
+                            hasUpdate = updates.next();
+                        }
+                        if (hasUpdate && updates.docID() == i) {
+                            addRecord(updates.record(), updates.recordOffset(), updates.recordLength());
+                            ++docCount;
+                            mergeState.checkAbort.work(300);
+                            continue;
+                        }
+                        while (hasRecord && records.docID() < i) {
+                            hasRecord = records.next();
+                        }
+                        final byte[] record = hasRecord ? records.record() : null;
+                        final int offset = hasRecord ? records.recordOffset() : 0;
+                        final int length = hasRecord ? records.recordLength() : 0;
+                        if (hasRecord && EmbeddedDBRecordBlock.isBlock(record, offset, length)
+                                && records.docID() - EmbeddedDBRecordBlock.docCount(record, offset, length) < i) {
+                            final int numDocs = EmbeddedDBRecordBlock.docCount(record, offset, length);
+                            final int lastDocID = records.docID();
+                            if (compressor != null && numBufferedDocs == 0 && i == lastDocID - numDocs + 1
+                                    && record[offset + 1] == compressionModeID && allLive(liveDocs, i, lastDocID)
+                                    && (!hasUpdate || updates.docID() > lastDocID)) {
+                                copyBlock(record, offset, length, numDocs);
+                                docCount += numDocs;
+                                mergeState.checkAbort.work(300 * numDocs);
+                                i = lastDocID;
+                                continue;
+                            }
+                            block.decode(record, offset, length, lastDocID);
+                            addRecord(block.bytes(), block.docOffset(i), block.docLength(i));
+                        }
+                        else if (hasRecord && records.docID() == i) {
+                            addRecord(record, offset, length);
+                        }
+                        else {
+                            // not stored under a binary key, e.g. a legacy record which was not migrated yet
+                            addDocument(reader.document(i), mergeState.fieldInfos);
+                        }
+                        ++docCount;
+                        mergeState.checkAbort.work(300);
+                    }
+                }
+            }
         }
-        else if(null != field.stringValue()) {
-            final BytesRef fieldBytesRef = new BytesRef(field.stringValue());
-            final String utf8AdjustedField = new String(fieldBytesRef.bytes, fieldBytesRef.offset, fieldBytesRef.length);
-            edbStoredField.setStringValue(utf8AdjustedField);
+        finish(mergeState.fieldInfos, docCount);
+        return docCount;
+    }
+
+    /** Adds an already compressed block of documents, nothing may be buffered */
+    private void copyBlock(byte[] record, int offset, int length, int numDocs) throws IOException {
+        assert numBufferedDocs == 0;
+        writeBatch.put(docBase + numDocs - 1, record, offset, length);
+        docBase += numDocs;
+        documentID += numDocs;
+    }
+
+    private static boolean allLive(Bits liveDocs, int fromDocID, int toDocID) {
+        if (liveDocs != null) {
+            for (int i = fromDocID; i <= toDocID; i++) {
+                if (!liveDocs.get(i)) {
+                    return false;
+                }
+            }
         }
+        return true;
+    }
 
-        currentDocument.addField(edbStoredField);
+    private static int nextLiveDoc(int doc, Bits liveDocs, int maxDoc) {
+        if (liveDocs == null) {
+            return doc;
+        }
+        while (doc < maxDoc && !liveDocs.get(doc)) {
+            ++doc;
+        }
+        return doc;
     }
 
     @Override
@@ -106,19 +359,36 @@ public class EmbeddedDBStoredFieldsWriter extends StoredFieldsWriter {
             close();
         } catch (Throwable ignored) {}
         IOUtils.deleteFilesIgnoringExceptions(directory,
-                IndexFileNames.segmentFileName(segment, "", FIELDS_EXTENSION));
+                IndexFileNames.segmentFileName(segment, "", FIELDS_EXTENSION),
+                IndexFileNames.segmentFileName(segment, "", EmbeddedDBRecordExport.EXPORT_EXTENSION));
     }
 
     @Override
     public void finish(FieldInfos fis, int numDocs) throws IOException {
+        if (numBufferedDocs > 0) {
+            flush();
+        }
+        if (docBase != numDocs) {
+            throw new RuntimeException("Wrote " + docBase + " docs, finish called with numDocs=" + numDocs);
+        }
+        writeBatch.commit();
     }
 
     @Override
     public void close() throws IOException {
         try {
+            // a batch that was not committed by finish belongs to a failed segment
+            if (writeBatch != null) {
+                writeBatch.abort();
+            }
             IOUtils.close(fieldsStream);
         } finally {
+            writeBatch = null;
             fieldsStream = null;
+            if (store != null) {
+                EDBStoreRegistry.release(store);
+                store = null;
+            }
         }
     }
 }
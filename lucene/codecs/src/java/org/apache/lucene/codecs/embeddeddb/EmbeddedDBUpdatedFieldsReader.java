@@ -0,0 +1,252 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.codecs.StoredFieldsReader;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SegmentInfo;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Reads the documents of a segment whose stored fields were updated in place. The latest generation of updates,
+ * written by {@link EmbeddedDBStoredFieldsUpdatesWriter}, is a handle of its own holding every updated document as a
+ * whole; documents it does not hold were never updated and are read through the segment's own reader. Like that
+ * reader, every instance looks documents up through a cursor of its own, see {@link EmbeddedDBReaderCursors}.
+ */
+public class EmbeddedDBUpdatedFieldsReader extends StoredFieldsReader {
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(EmbeddedDBUpdatedFieldsReader.class);
+
+    private final EmbeddedDBStoredFieldsReader base;
+    private final Directory directory;
+    private final SegmentInfo si;
+    private final FieldInfos infos;
+    /** Suffix of the files of the generation of updates */
+    private final String segmentSuffix;
+    private final IOContext context;
+    private EmbeddedDBStore store;
+    private byte[] updatesHandle;
+    private final boolean isClone;
+    /** Whether this reader holds the updates handle in the store, which keeps EDBDirectory from purging it */
+    private boolean handleRetained;
+    private boolean closed;
+    /** Cursors on the updates handle, shared with the clones and closed with the original reader */
+    private EmbeddedDBReaderCursors cursors;
+    /** Cursor of this instance, null until the first read */
+    private EDBRecordCursor cursor;
+
+    /** Used only by clone, the clone shares the store reference of the original reader. */
+    private EmbeddedDBUpdatedFieldsReader(EmbeddedDBStoredFieldsReader base, Directory directory, SegmentInfo si, FieldInfos infos, String segmentSuffix,
+                                          IOContext context, EmbeddedDBStore store, byte[] updatesHandle, EmbeddedDBReaderCursors cursors) {
+        this.isClone = true;
+        this.directory = directory;
+        this.si = si;
+        this.segmentSuffix = segmentSuffix;
+        this.context = context;
+        this.cursors = cursors;
+        this.base = base;
+        this.infos = infos;
+        this.store = store;
+        this.updatesHandle = updatesHandle;
+    }
+
+    /**
+     * Main constructor
+     *
+     * @param base - Reader of the segment's own documents, which is not closed by this reader
+     * @param segmentSuffix - Suffix of the fields file of the generation of updates
+     * @param config - Config to open the directory's store with if it is not open yet, or null to use the default
+     */
+    public EmbeddedDBUpdatedFieldsReader(EmbeddedDBStoredFieldsReader base, Directory directory, SegmentInfo si, FieldInfos fn,
+                                         String segmentSuffix, IOContext context, EDBStoreConfig config) throws IOException {
+
+        this.isClone = false;
+        this.base = base;
+        this.directory = directory;
+        this.si = si;
+        this.infos = fn;
+        this.segmentSuffix = segmentSuffix;
+        this.context = context;
+        boolean success = false;
+        try {
+            try(IndexInput fieldsStream = directory.openInput(IndexFileNames.segmentFileName(si.name, segmentSuffix, EmbeddedDBStoredFieldsReader.FIELDS_EXTENSION), context)) {
+                updatesHandle = EDBDocumentKey.handleID(fieldsStream.readString());
+            }
+            store = EDBStoreRegistry.acquire(directory, config);
+            store.retainHandle(updatesHandle);
+            handleRetained = true;
+            cursors = new EmbeddedDBReaderCursors(store, updatesHandle);
+            EmbeddedDBRecordExport.importRecords(directory, IndexFileNames.segmentFileName(si.name, segmentSuffix, EmbeddedDBRecordExport.EXPORT_EXTENSION),
+                    store, updatesHandle, context);
+            success = true;
+        } finally {
+            if(!success) {
+                try {
+                    close();
+                } catch (Throwable t) {} // ensure we throw our original exception
+            }
+        }
+    }
+
+    @Override
+    public void visitDocument(int n, StoredFieldVisitor visitor) throws IOException {
+
+        final EDBRecordCursor updates = cursor();
+        if(updates.seek(n) && updates.docID() == n) {
+            EDBDocumentBinding.visit(updates.record(), updates.recordOffset(), updates.recordLength(), infos, visitor);
+        }
+        else {
+            base.visitDocument(n, visitor);
+        }
+    }
+
+    /** Returns the cursor of this instance, opening it on first use */
+    private EDBRecordCursor cursor() throws IOException {
+
+        ensureOpen();
+        if(null == cursor) {
+            cursor = cursors.open(this);
+        }
+        return cursor;
+    }
+
+    /**
+     * Visits the updated documents from the updates handle and hands the others to the segment's reader in one batch
+     */
+    @Override
+    public void visitDocuments(int[] docIDs, StoredFieldVisitor[] visitors) throws IOException {
+
+        if(docIDs.length != visitors.length) {
+            throw new IllegalArgumentException("docIDs and visitors must have the same length: " + docIDs.length + " != " + visitors.length);
+        }
+        final EDBRecordCursor updates = cursor();
+        final int[] baseDocIDs = new int[docIDs.length];
+        final StoredFieldVisitor[] baseVisitors = new StoredFieldVisitor[docIDs.length];
+        int numBaseDocs = 0;
+        for(int i = 0; i < docIDs.length; i++) {
+            if(updates.seek(docIDs[i]) && updates.docID() == docIDs[i]) {
+                EDBDocumentBinding.visit(updates.record(), updates.recordOffset(), updates.recordLength(), infos, visitors[i]);
+            }
+            else {
+                baseDocIDs[numBaseDocs] = docIDs[i];
+                baseVisitors[numBaseDocs] = visitors[i];
+                numBaseDocs++;
+            }
+        }
+        if(numBaseDocs == docIDs.length) {
+            base.visitDocuments(docIDs, visitors);
+        }
+        else if(numBaseDocs > 0) {
+            base.visitDocuments(Arrays.copyOf(baseDocIDs, numBaseDocs), Arrays.copyOf(baseVisitors, numBaseDocs));
+        }
+    }
+
+    /**
+     * Returns the reader of the segment's own documents
+     */
+    EmbeddedDBStoredFieldsReader getBase() {
+        ensureOpen();
+        return base;
+    }
+
+    /**
+     * Returns the binary id of the handle the updated documents are stored under
+     */
+    byte[] getUpdatesHandle() {
+        ensureOpen();
+        return updatesHandle;
+    }
+
+    /**
+     * Returns the store the updated documents are kept in
+     */
+    EmbeddedDBStore getStore() {
+        ensureOpen();
+        return store;
+    }
+
+    @Override
+    public StoredFieldsReader clone() {
+        ensureOpen();
+        return new EmbeddedDBUpdatedFieldsReader((EmbeddedDBStoredFieldsReader) base.clone(), directory, si, infos, segmentSuffix, context, store, updatesHandle, cursors);
+    }
+
+    /**
+     * @throws AlreadyClosedException if this FieldsReader is closed
+     */
+    private void ensureOpen() throws AlreadyClosedException {
+        if (closed) {
+            throw new AlreadyClosedException("this FieldsReader is closed");
+        }
+    }
+
+    @Override
+    public void checkIntegrity() throws IOException {
+        ensureOpen();
+        base.checkIntegrity();
+        EmbeddedDBStoredFieldsReader.checkIntegrity(directory, si.name, segmentSuffix, context);
+    }
+
+    /**
+     * Releases the updates handle. The reader of the segment's own documents is only closed if it was cloned by this
+     * reader.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (isClone) {
+                try {
+                    if (null != cursor) {
+                        cursors.release(cursor);
+                    }
+                } finally {
+                    base.close();
+                }
+            }
+            else if (store != null) {
+                try {
+                    // cursors must be closed before the store is released
+                    if (null != cursors) {
+                        cursors.close();
+                    }
+                } finally {
+                    if (handleRetained) {
+                        store.releaseHandle(updatesHandle);
+                    }
+                    EDBStoreRegistry.release(store);
+                }
+            }
+            cursor = null;
+        }
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(updatesHandle);
+    }
+}
@@ -0,0 +1,56 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.util.LuceneTestCase;
+
+/**
+ * Writer configs and documents shared by the tests of EmbeddedDB indexes
+ */
+final class EmbeddedDBTestUtil {
+
+    private EmbeddedDBTestUtil() {}
+
+    /**
+     * Returns a random writer config using the given codec and merge policy
+     */
+    static IndexWriterConfig newConfig(Codec codec, MergePolicy mergePolicy) {
+        return LuceneTestCase.newIndexWriterConfig(new MockAnalyzer(LuceneTestCase.random()))
+                .setCodec(codec)
+                .setMergePolicy(mergePolicy);
+    }
+
+    /**
+     * Returns a document with the given value as its indexed and stored "id" field and "body of " + id as its stored
+     * "body" field
+     */
+    static Document newDoc(String id) {
+        final Document doc = new Document();
+        doc.add(new StringField("id", id, Field.Store.YES));
+        doc.add(new StoredField("body", "body of " + id));
+        return doc;
+    }
+}
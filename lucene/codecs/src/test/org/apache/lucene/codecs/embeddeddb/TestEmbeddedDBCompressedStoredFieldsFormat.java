@@ -0,0 +1,96 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.FilterCodec;
+import org.apache.lucene.codecs.StoredFieldsFormat;
+import org.apache.lucene.codecs.compressing.CompressionMode;
+import org.apache.lucene.codecs.lucene410.Lucene410Codec;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.BaseStoredFieldsFormatTestCase;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+
+import com.carrotsearch.randomizedtesting.generators.RandomInts;
+import com.carrotsearch.randomizedtesting.generators.RandomPicks;
+
+/**
+ * Runs the stored fields tests against documents written in compressed blocks, with small blocks so that segments
+ * hold many of them
+ */
+public class TestEmbeddedDBCompressedStoredFieldsFormat extends BaseStoredFieldsFormatTestCase {
+    @Override
+    protected Codec getCodec() {
+        final CompressionMode mode = RandomPicks.randomFrom(random(),
+                new CompressionMode[] {CompressionMode.FAST, CompressionMode.HIGH_COMPRESSION, CompressionMode.FAST_DECOMPRESSION});
+        final StoredFieldsFormat format = new EmbeddedDBStoredFieldsFormat(EmbeddedDBStoredFieldsFormat.DEFAULT_BATCH_SIZE, null,
+                mode, RandomInts.randomIntBetween(random(), 1, 1 << 15), RandomInts.randomIntBetween(random(), 1, 64));
+        // segments are read back through the codec's name, which works for any block size and compression
+        return new FilterCodec("EmbeddedDB", new Lucene410Codec()) {
+            @Override
+            public StoredFieldsFormat storedFieldsFormat() {
+                return format;
+            }
+        };
+    }
+
+    public void testMergeBlocks() throws Exception {
+        final StoredFieldsFormat format = new EmbeddedDBStoredFieldsFormat(EmbeddedDBStoredFieldsFormat.DEFAULT_BATCH_SIZE, null,
+                CompressionMode.FAST, 1 << 14, 4);
+        final IndexWriterConfig config = newIndexWriterConfig(new MockAnalyzer(random()));
+        config.setCodec(new FilterCodec("EmbeddedDB", new Lucene410Codec()) {
+            @Override
+            public StoredFieldsFormat storedFieldsFormat() {
+                return format;
+            }
+        });
+        config.setMergePolicy(newLogMergePolicy());
+        final Directory directory = newDirectory();
+        final IndexWriter writer = new IndexWriter(directory, config);
+        final int numDocs = 50;
+        for (int i = 0; i < numDocs; i++) {
+            final Document doc = new Document();
+            doc.add(new StringField("id", Integer.toString(i), Field.Store.YES));
+            doc.add(new StoredField("value", "value" + i));
+            writer.addDocument(doc);
+            if (i % 13 == 0) {
+                writer.commit();
+            }
+        }
+        // blocks without deletions are copied, the others are decompressed and written again
+        writer.deleteDocuments(new Term("id", "17"), new Term("id", "42"));
+        writer.forceMerge(1);
+        final DirectoryReader reader = DirectoryReader.open(writer, true);
+        assertEquals(numDocs - 2, reader.numDocs());
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            final Document doc = reader.document(i);
+            assertEquals("value" + doc.get("id"), doc.get("value"));
+        }
+        reader.close();
+        writer.close();
+        directory.close();
+    }
+}
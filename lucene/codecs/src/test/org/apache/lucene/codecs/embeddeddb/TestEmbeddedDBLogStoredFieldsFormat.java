@@ -0,0 +1,62 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.index.BaseStoredFieldsFormatTestCase;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+/**
+ * Runs the stored fields tests against a memory mapped log store, which the suite creates as its default store
+ */
+public class TestEmbeddedDBLogStoredFieldsFormat extends BaseStoredFieldsFormatTestCase {
+
+    private static String savedLocation;
+
+    @BeforeClass
+    public static void useLogStore() {
+        savedLocation = System.getProperty("berkeleyDir");
+        System.setProperty("berkeleyDir", createTempDir("edb-log").getAbsolutePath());
+        EDBStoreRegistry.setDefaultConfig(EDBStoreConfig.testing().setBackend(EDBStoreConfig.Backend.MMAP_LOG));
+    }
+
+    @AfterClass
+    public static void restoreDefaultStore() {
+        if (savedLocation == null) {
+            System.clearProperty("berkeleyDir");
+        } else {
+            System.setProperty("berkeleyDir", savedLocation);
+        }
+        EDBStoreRegistry.setDefaultConfig(EDBStoreConfig.testing());
+    }
+
+    @Override
+    protected Codec getCodec() {
+        return new EmbeddedDBCodec();
+    }
+
+    public void testLogStoreIsUsed() throws Exception {
+        final EmbeddedDBStore store = EDBStoreRegistry.acquire(EDBStoreRegistry.defaultLocation());
+        try {
+            assertTrue(store instanceof MMapLogStore);
+        } finally {
+            EDBStoreRegistry.release(store);
+        }
+    }
+}
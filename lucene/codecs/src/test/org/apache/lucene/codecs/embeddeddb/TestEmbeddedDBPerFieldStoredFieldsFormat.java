@@ -0,0 +1,219 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.BaseStoredFieldsFormatTestCase;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+
+/**
+ * Runs the stored fields tests against segments whose fields are split between the embedded database and
+ * compressed stored fields files
+ */
+public class TestEmbeddedDBPerFieldStoredFieldsFormat extends BaseStoredFieldsFormatTestCase {
+
+    /**
+     * Keeps fields whose name starts with "hot" in compressed stored fields files
+     */
+    private static class HotFieldsCodec extends EmbeddedDBCodec {
+        @Override
+        public String getStoredFieldsFormatForField(String field) {
+            return field.startsWith("hot") ? COMPRESSING_FORMAT : EMBEDDEDDB_FORMAT;
+        }
+    }
+
+    @Override
+    protected Codec getCodec() {
+        final int salt = random().nextInt();
+        // segments are read back through the codec's name, which resolves both formats
+        return new EmbeddedDBCodec() {
+            @Override
+            public String getStoredFieldsFormatForField(String field) {
+                return ((field.hashCode() ^ salt) & 1) == 0 ? COMPRESSING_FORMAT : EMBEDDEDDB_FORMAT;
+            }
+        };
+    }
+
+    private static IndexWriterConfig newConfig() {
+        return EmbeddedDBTestUtil.newConfig(new HotFieldsCodec(), newLogMergePolicy());
+    }
+
+    /**
+     * Unlike {@link EmbeddedDBTestUtil#newDoc}, interleaves fields kept in the store with fields kept in files
+     */
+    private static Document newDoc(int id) {
+        final Document doc = new Document();
+        doc.add(new StringField("id", Integer.toString(id), Field.Store.YES));
+        doc.add(new StoredField("hot_title", "title " + id));
+        doc.add(new StoredField("body", "body of " + id));
+        doc.add(new StoredField("hot_price", id));
+        doc.add(new StoredField("body", "more of " + id));
+        return doc;
+    }
+
+    private static long storeReads() throws Exception {
+        return EDBStoreStats.sum(EDBStoreRegistry.getStats().values()).getReads();
+    }
+
+    private static List<String> names(Document doc) {
+        final List<String> names = new ArrayList<>();
+        for (IndexableField field : doc) {
+            names.add(field.name());
+        }
+        return names;
+    }
+
+    public void testFieldOrder() throws Exception {
+        final Directory dir = newDirectory();
+        final IndexWriter writer = new IndexWriter(dir, newConfig());
+        // the compressed files are started after a document which had none of their fields
+        final Document first = new Document();
+        first.add(new StoredField("body", "first"));
+        writer.addDocument(first);
+        for (int i = 1; i < 5; i++) {
+            writer.addDocument(newDoc(i));
+        }
+        writer.commit();
+        writer.addDocument(new Document());
+        writer.forceMerge(1);
+        final DirectoryReader reader = DirectoryReader.open(writer, true);
+        assertEquals(Arrays.asList("body"), names(reader.document(0)));
+        for (int i = 1; i < 5; i++) {
+            // fields come in order of their numbers, body was numbered first
+            final Document doc = reader.document(i);
+            assertEquals(Arrays.asList("body", "body", "id", "hot_title", "hot_price"), names(doc));
+            assertEquals("title " + i, doc.get("hot_title"));
+            assertEquals(i, doc.getField("hot_price").numericValue().intValue());
+            assertEquals(Arrays.asList("body of " + i, "more of " + i), Arrays.asList(doc.getValues("body")));
+        }
+        assertTrue(reader.document(5).getFields().isEmpty());
+        reader.close();
+        writer.close();
+        dir.close();
+    }
+
+    /**
+     * Fields of different formats are merged in order of their numbers, the values of a field keep their order
+     */
+    @Override
+    public void testStoredFieldsOrder() throws Throwable {
+        final Directory dir = newDirectory();
+        final IndexWriter writer = new IndexWriter(dir, newConfig());
+        final Document doc = new Document();
+        doc.add(new StoredField("zzz", "a b c"));
+        doc.add(new StoredField("hot_aaa", "a b c"));
+        doc.add(new StoredField("zzz", "1 2 3"));
+        writer.addDocument(doc);
+        final DirectoryReader reader = DirectoryReader.open(writer, true);
+        final Document doc2 = reader.document(0);
+        assertEquals(Arrays.asList("zzz", "zzz", "hot_aaa"), names(doc2));
+        assertEquals(Arrays.asList("a b c", "1 2 3"), Arrays.asList(doc2.getValues("zzz")));
+        assertEquals("a b c", doc2.get("hot_aaa"));
+        reader.close();
+        writer.close();
+        dir.close();
+    }
+
+    public void testHotFieldsSkipStore() throws Exception {
+        final Directory dir = newDirectory();
+        final IndexWriter writer = new IndexWriter(dir, newConfig());
+        for (int i = 0; i < 20; i++) {
+            writer.addDocument(newDoc(i));
+        }
+        final DirectoryReader reader = DirectoryReader.open(writer, true);
+        final int[] docIDs = new int[reader.maxDoc()];
+        final DocumentStoredFieldVisitor[] visitors = new DocumentStoredFieldVisitor[docIDs.length];
+        for (int i = 0; i < docIDs.length; i++) {
+            docIDs[i] = i;
+            visitors[i] = new DocumentStoredFieldVisitor("hot_title", "hot_price");
+        }
+
+        final long reads = storeReads();
+        reader.document(docIDs, visitors);
+        assertEquals(reads, storeReads());
+        for (int i = 0; i < docIDs.length; i++) {
+            assertEquals(Arrays.asList("hot_title", "hot_price"), names(visitors[i].getDocument()));
+        }
+
+        final Document doc = reader.document(3);
+        assertEquals("body of 3", doc.get("body"));
+        assertTrue(storeReads() > reads);
+        reader.close();
+        writer.close();
+        dir.close();
+    }
+
+    public void testStoreOnlySegmentsKeepTheirFiles() throws Exception {
+        final Directory dir = newDirectory();
+        final IndexWriter writer = new IndexWriter(dir, newIndexWriterConfig(new MockAnalyzer(random()))
+                .setCodec(new EmbeddedDBCodec()).setUseCompoundFile(false));
+        writer.addDocument(newDoc(0));
+        writer.commit();
+        for (String file : dir.listAll()) {
+            assertFalse(file, file.endsWith(".fdt") && file.contains(EmbeddedDBCodec.COMPRESSING_FORMAT));
+        }
+        writer.close();
+        dir.close();
+    }
+
+    public void testUpdateFieldsOfTheStore() throws Exception {
+        final Directory dir = newDirectory();
+        final IndexWriter writer = new IndexWriter(dir, newConfig());
+        writer.addDocument(newDoc(0));
+        writer.addDocument(newDoc(1));
+        writer.commit();
+
+        writer.updateStoredFields(new Term("id", "1"), new StoredField("body", "updated"));
+        try {
+            writer.updateStoredFields(new Term("id", "1"), new StoredField("hot_title", "updated"));
+            fail("fields outside the store cannot be updated");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+        final DirectoryReader reader = DirectoryReader.open(writer, true);
+        final Document doc = reader.document(1);
+        assertEquals(Arrays.asList("id", "hot_title", "body", "hot_price"), names(doc));
+        assertEquals("updated", doc.get("body"));
+        assertEquals("title 1", doc.get("hot_title"));
+        assertEquals(Arrays.asList("body of 0", "more of 0"), Arrays.asList(reader.document(0).getValues("body")));
+        reader.close();
+
+        writer.forceMerge(1);
+        final DirectoryReader merged = DirectoryReader.open(writer, true);
+        assertEquals("updated", merged.document(1).get("body"));
+        assertEquals("title 1", merged.document(1).get("hot_title"));
+        merged.close();
+        writer.close();
+        dir.close();
+    }
+}
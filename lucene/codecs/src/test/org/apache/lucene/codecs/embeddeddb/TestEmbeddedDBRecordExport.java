@@ -0,0 +1,336 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.carrotsearch.randomizedtesting.generators.RandomPicks;
+import org.apache.lucene.codecs.compressing.CompressionMode;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.EDBDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+
+/**
+ * Tests that copies of an index made file by file, as replication makes them, bring the documents of their segments
+ * into the store of the copy through the records files of {@link EmbeddedDBRecordExport}
+ */
+public class TestEmbeddedDBRecordExport extends LuceneTestCase {
+
+    private static IndexWriterConfig newConfig(boolean exportRecords, CompressionMode compressionMode) {
+        final EDBStoreConfig config = EDBStoreConfig.testing().setExportRecords(exportRecords);
+        return EmbeddedDBTestUtil.newConfig(new EmbeddedDBCodec(config, compressionMode), newLogMergePolicy());
+    }
+
+    private static Document newDoc(int id) {
+        return EmbeddedDBTestUtil.newDoc(Integer.toString(id));
+    }
+
+    private EDBDirectory newReplica() throws IOException {
+        return new EDBDirectory(new RAMDirectory(), createTempDir("replica"), EDBStoreConfig.testing());
+    }
+
+    /**
+     * Copies the files of the latest commit which the replica does not have yet byte by byte, like replication does
+     */
+    private static void pull(Directory leader, Directory replica) throws IOException {
+        final SegmentInfos infos = new SegmentInfos();
+        infos.read(leader);
+        final Set<String> existing = new HashSet<>(Arrays.asList(replica.listAll()));
+        for (String file : infos.files(leader, true)) {
+            if (existing.contains(file)) {
+                continue;
+            }
+            try (IndexInput in = leader.openInput(file, IOContext.READONCE);
+                 IndexOutput out = replica.createOutput(file, IOContext.DEFAULT)) {
+                out.copyBytes(in, in.length());
+            }
+        }
+    }
+
+    /** Flips a bit in the middle of the given file */
+    private static void corrupt(Directory dir, String file) throws IOException {
+        final byte[] bytes = new byte[(int) dir.fileLength(file)];
+        try (IndexInput in = dir.openInput(file, IOContext.READONCE)) {
+            in.readBytes(bytes, 0, bytes.length);
+        }
+        bytes[bytes.length / 2] ^= 1;
+        dir.deleteFile(file);
+        try (IndexOutput out = dir.createOutput(file, IOContext.DEFAULT)) {
+            out.writeBytes(bytes, 0, bytes.length);
+        }
+    }
+
+    private static long writes(EDBDirectory replica) throws IOException {
+        final EmbeddedDBStore store = EDBStoreRegistry.acquire(replica.getStoreLocation());
+        try {
+            return store.getStats().getWrites();
+        } finally {
+            EDBStoreRegistry.release(store);
+        }
+    }
+
+    private static void assertDocs(DirectoryReader reader, int numDocs) throws IOException {
+        assertEquals(numDocs, reader.numDocs());
+        final Set<String> ids = new HashSet<>();
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            final Document doc = reader.document(i);
+            final String id = doc.get("id");
+            assertNotNull(id);
+            assertEquals("body of " + id, doc.get("body"));
+            ids.add(id);
+        }
+        assertEquals(numDocs, ids.size());
+    }
+
+    public void testReplicaImportsDocuments() throws Exception {
+        final Directory leader = newDirectory();
+        final CompressionMode compressionMode = random().nextBoolean() ? null : CompressionMode.FAST;
+        final IndexWriter writer = new IndexWriter(leader, newConfig(true, compressionMode));
+        final int numDocs = atLeast(50);
+        for (int i = 0; i < numDocs; i++) {
+            writer.addDocument(newDoc(i));
+            if (rarely()) {
+                writer.commit();
+            }
+        }
+        writer.commit();
+
+        final EDBDirectory replica = newReplica();
+        pull(leader, replica);
+        DirectoryReader reader = DirectoryReader.open(replica);
+        assertDocs(reader, numDocs);
+
+        for (int i = numDocs; i < 2 * numDocs; i++) {
+            writer.addDocument(newDoc(i));
+        }
+        if (random().nextBoolean()) {
+            writer.forceMerge(1);
+        }
+        writer.commit();
+        pull(leader, replica);
+        final DirectoryReader newReader = DirectoryReader.openIfChanged(reader);
+        assertNotNull(newReader);
+        reader.close();
+        reader = newReader;
+        assertDocs(reader, 2 * numDocs);
+
+        reader.close();
+        writer.close();
+        replica.close();
+        leader.close();
+    }
+
+    public void testReplicaOnlyImportsNewSegments() throws Exception {
+        final Directory leader = newDirectory();
+        final IndexWriter writer = new IndexWriter(leader, newConfig(true, null));
+        for (int i = 0; i < 10; i++) {
+            writer.addDocument(newDoc(i));
+        }
+        writer.commit();
+
+        final EDBDirectory replica = newReplica();
+        pull(leader, replica);
+        DirectoryReader reader = DirectoryReader.open(replica);
+        // one record per document
+        assertEquals(10, writes(replica));
+
+        for (int i = 10; i < 15; i++) {
+            writer.addDocument(newDoc(i));
+        }
+        writer.commit();
+        pull(leader, replica);
+        final DirectoryReader newReader = DirectoryReader.openIfChanged(reader);
+        assertNotNull(newReader);
+        reader.close();
+        assertDocs(newReader, 15);
+        assertEquals(15, writes(replica));
+        newReader.close();
+
+        // reopening imports nothing, the store already has the records
+        DirectoryReader.open(replica).close();
+        assertEquals(15, writes(replica));
+
+        writer.close();
+        replica.close();
+        leader.close();
+    }
+
+    public void testUpdatedFieldsAreExported() throws Exception {
+        final Directory leader = newDirectory();
+        final IndexWriter writer = new IndexWriter(leader, newConfig(true, null));
+        writer.addDocument(newDoc(0));
+        writer.addDocument(newDoc(1));
+        writer.commit();
+        writer.updateStoredFields(new Term("id", "1"), new StoredField("body", "updated"));
+        writer.commit();
+
+        final EDBDirectory replica = newReplica();
+        pull(leader, replica);
+        final DirectoryReader reader = DirectoryReader.open(replica);
+        assertEquals("body of 0", reader.document(0).get("body"));
+        assertEquals("updated", reader.document(1).get("body"));
+        assertEquals("1", reader.document(1).get("id"));
+
+        reader.close();
+        writer.close();
+        replica.close();
+        leader.close();
+    }
+
+    public void testCorruptRecordsFile() throws Exception {
+        final Directory leader = newDirectory();
+        final IndexWriterConfig config = newConfig(true, null).setUseCompoundFile(false);
+        final IndexWriter writer = new IndexWriter(leader, config);
+        for (int i = 0; i < 10; i++) {
+            writer.addDocument(newDoc(i));
+        }
+        writer.close();
+
+        final EDBDirectory replica = newReplica();
+        pull(leader, replica);
+        String recordsFile = null;
+        for (String file : replica.listAll()) {
+            if (file.endsWith("." + EmbeddedDBRecordExport.EXPORT_EXTENSION)) {
+                recordsFile = file;
+            }
+        }
+        assertNotNull(recordsFile);
+        corrupt(replica, recordsFile);
+
+        try {
+            DirectoryReader.open(replica).close();
+            fail("corrupt records file was imported");
+        } catch (CorruptIndexException expected) {
+            // expected
+        }
+        assertEquals(0, writes(replica));
+        replica.close();
+        leader.close();
+    }
+
+    public void testCheckIntegrity() throws Exception {
+        final Directory leader = newDirectory();
+        final IndexWriter writer = new IndexWriter(leader, newConfig(true, null).setUseCompoundFile(false));
+        for (int i = 0; i < 10; i++) {
+            writer.addDocument(newDoc(i));
+        }
+        writer.commit();
+        writer.updateStoredFields(new Term("id", "1"), new StoredField("body", "updated"));
+        writer.close();
+
+        final EDBDirectory replica = newReplica();
+        pull(leader, replica);
+        final DirectoryReader reader = DirectoryReader.open(replica);
+        assertEquals(1, reader.leaves().size());
+        final AtomicReader segmentReader = reader.leaves().get(0).reader();
+        segmentReader.checkIntegrity();
+
+        // the fields file and the records file of the segment and of its generation of updates
+        final String extension = random().nextBoolean() ? EmbeddedDBStoredFieldsWriter.FIELDS_EXTENSION : EmbeddedDBRecordExport.EXPORT_EXTENSION;
+        final Set<String> files = new HashSet<>();
+        for (String file : replica.listAll()) {
+            if (file.endsWith("." + extension)) {
+                files.add(file);
+            }
+        }
+        assertEquals(files.toString(), 2, files.size());
+        corrupt(replica, RandomPicks.randomFrom(random(), files));
+        try {
+            segmentReader.checkIntegrity();
+            fail("corrupt " + extension + " file was not detected");
+        } catch (CorruptIndexException expected) {
+            // expected
+        }
+
+        reader.close();
+        replica.close();
+        leader.close();
+    }
+
+    public void testInterruptedImport() throws Exception {
+        final Directory leader = newDirectory();
+        final IndexWriter writer = new IndexWriter(leader, newConfig(true, null).setUseCompoundFile(false));
+        for (int i = 0; i < 10; i++) {
+            writer.addDocument(newDoc(i));
+        }
+        writer.close();
+
+        final EDBDirectory replica = newReplica();
+        pull(leader, replica);
+        byte[] handle = null;
+        for (String file : replica.listAll()) {
+            if (file.endsWith("." + EmbeddedDBStoredFieldsWriter.FIELDS_EXTENSION)) {
+                try (IndexInput in = replica.openInput(file, IOContext.READONCE)) {
+                    handle = EDBDocumentKey.handleID(in.readString());
+                }
+            }
+        }
+        assertNotNull(handle);
+        // the first records of an import whose batch was committed in parts before it was interrupted
+        final EmbeddedDBStore leaderStore = EDBStoreRegistry.acquire(leader);
+        final EmbeddedDBStore replicaStore = EDBStoreRegistry.acquire(replica.getStoreLocation());
+        try {
+            final EDBWriteBatch batch = replicaStore.beginWriteBatch(handle);
+            for (int i = 0; i < 3; i++) {
+                final BytesRef record = leaderStore.getRecord(handle, i);
+                batch.put(i, record.bytes, record.offset, record.length);
+            }
+            batch.commit();
+        } finally {
+            EDBStoreRegistry.release(replicaStore);
+            EDBStoreRegistry.release(leaderStore);
+        }
+
+        final DirectoryReader reader = DirectoryReader.open(replica);
+        assertDocs(reader, 10);
+        reader.close();
+        replica.close();
+        leader.close();
+    }
+
+    public void testNoRecordsFilesByDefault() throws Exception {
+        final Directory dir = newDirectory();
+        final IndexWriter writer = new IndexWriter(dir, newConfig(false, null).setUseCompoundFile(false));
+        writer.addDocument(newDoc(0));
+        writer.commit();
+        writer.updateStoredFields(new Term("id", "0"), new StoredField("body", "updated"));
+        writer.commit();
+        for (String file : dir.listAll()) {
+            assertFalse(file, file.endsWith("." + EmbeddedDBRecordExport.EXPORT_EXTENSION));
+        }
+        writer.close();
+        dir.close();
+    }
+}
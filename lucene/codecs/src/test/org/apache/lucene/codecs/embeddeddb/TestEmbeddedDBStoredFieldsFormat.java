@@ -17,8 +17,24 @@ package org.apache.lucene.codecs.embeddeddb;
  * limitations under the License.
  */
 
+import java.io.File;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
 import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.perfield.PerFieldStoredFieldsFormat;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
 import org.apache.lucene.index.BaseStoredFieldsFormatTestCase;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.EDBDirectory;
+import org.apache.lucene.store.FSDirectory;
 
 /**
  * Created by rlmathes on 7/26/17.
@@ -29,11 +45,55 @@ public class TestEmbeddedDBStoredFieldsFormat extends BaseStoredFieldsFormatTest
         return new EmbeddedDBCodec();
     }
 
-    @Override
-    public void testRamBytesUsed() {
+    private static Directory newEDBDirectory(File indexLocation, File storeLocation) throws Exception {
+        return new EDBDirectory(FSDirectory.open(indexLocation), storeLocation, EDBStoreConfig.testing());
+    }
+
+    public void testVisitDocumentsWithLegacyRecords() throws Exception {
+        final File indexLocation = createTempDir("index");
+        final File storeLocation = createTempDir("store");
+        Directory dir = newEDBDirectory(indexLocation, storeLocation);
+        final IndexWriter writer = new IndexWriter(dir, EmbeddedDBTestUtil.newConfig(new EmbeddedDBCodec(), NoMergePolicy.INSTANCE));
+        for(int i = 0; i < 6; i++) {
+            writer.addDocument(EmbeddedDBTestUtil.newDoc(Integer.toString(i)));
+        }
+        writer.close();
 
-        System.out.println("Work in progress");
+        // move some documents to the keys an earlier version of the store used, including the last ones of the segment
+        DirectoryReader reader = DirectoryReader.open(dir);
+        final EmbeddedDBStoredFieldsReader fieldsReader = (EmbeddedDBStoredFieldsReader)
+                PerFieldStoredFieldsFormat.unwrap(((SegmentReader) reader.leaves().get(0).reader()).getFieldsReader());
+        final BerkeleyDBStore store = (BerkeleyDBStore) fieldsReader.getStore();
+        final byte[] handle = fieldsReader.getHandle();
+        final Database documentStore = store.getStore();
+        for(int docID : new int[] {1, 4, 5}) {
+            final DatabaseEntry key = new DatabaseEntry(EDBDocumentKey.documentKey(handle, docID));
+            final DatabaseEntry record = new DatabaseEntry();
+            assertEquals(OperationStatus.SUCCESS, documentStore.get(null, key, record, LockMode.DEFAULT));
+            documentStore.put(null, store.legacyKey(handle, docID), record);
+            documentStore.delete(null, key);
+        }
+        final DatabaseConfig indexConfig = new DatabaseConfig();
+        indexConfig.setAllowCreate(true);
+        indexConfig.setTransactional(true);
+        documentStore.getEnvironment().openDatabase(null, "handle_index", indexConfig).close();
+        reader.close();
+        dir.close();
 
+        dir = newEDBDirectory(indexLocation, storeLocation);
+        reader = DirectoryReader.open(dir);
+        final int[] docIDs = {5, 0, 1, 2, 4, 3};
+        final DocumentStoredFieldVisitor[] visitors = new DocumentStoredFieldVisitor[docIDs.length];
+        for(int i = 0; i < visitors.length; i++) {
+            visitors[i] = new DocumentStoredFieldVisitor();
+        }
+        reader.leaves().get(0).reader().document(docIDs, visitors);
+        for(int i = 0; i < docIDs.length; i++) {
+            assertEquals(Integer.toString(docIDs[i]), visitors[i].getDocument().get("id"));
+            assertEquals("body of " + docIDs[i], visitors[i].getDocument().get("body"));
+        }
+        reader.close();
+        dir.close();
     }
 
 }
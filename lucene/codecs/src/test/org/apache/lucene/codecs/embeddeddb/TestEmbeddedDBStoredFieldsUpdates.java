@@ -0,0 +1,232 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.codecs.lucene410.Lucene410Codec;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.LuceneTestCase;
+
+/**
+ * Tests in-place updates of stored fields through {@link IndexWriter#updateStoredFields}
+ */
+public class TestEmbeddedDBStoredFieldsUpdates extends LuceneTestCase {
+
+    private static IndexWriterConfig newConfig() {
+        return EmbeddedDBTestUtil.newConfig(new EmbeddedDBCodec(), NoMergePolicy.INSTANCE);
+    }
+
+    private static Document newDoc(String id, String title) {
+        final Document doc = EmbeddedDBTestUtil.newDoc(id);
+        doc.add(new StoredField("title", title));
+        return doc;
+    }
+
+    private static Document getDoc(DirectoryReader reader, String id) throws Exception {
+        final IndexSearcher searcher = newSearcher(reader);
+        final TopDocs hits = searcher.search(new TermQuery(new Term("id", id)), 1);
+        assertEquals(1, hits.totalHits);
+        return searcher.doc(hits.scoreDocs[0].doc);
+    }
+
+    public void testUpdateVisibleAfterReopen() throws Exception {
+        final Directory dir = newDirectory();
+        final IndexWriter writer = new IndexWriter(dir, newConfig());
+        writer.addDocument(newDoc("0", "first"));
+        writer.addDocument(newDoc("1", "second"));
+        writer.commit();
+        final DirectoryReader oldReader = DirectoryReader.open(writer, true);
+
+        writer.updateStoredFields(new Term("id", "1"), new StoredField("title", "updated"));
+        final DirectoryReader newReader = DirectoryReader.openIfChanged(oldReader, writer, true);
+        assertNotNull(newReader);
+
+        final Document updated = getDoc(newReader, "1");
+        assertEquals("updated", updated.get("title"));
+        assertEquals("body of 1", updated.get("body"));
+        assertEquals("1", updated.get("id"));
+        assertEquals("first", getDoc(newReader, "0").get("title"));
+        // readers opened before the update keep seeing the previous values
+        assertEquals("second", getDoc(oldReader, "1").get("title"));
+
+        oldReader.close();
+        newReader.close();
+        writer.close();
+        dir.close();
+    }
+
+    public void testCommitAndReopen() throws Exception {
+        final Directory dir = newDirectory();
+        IndexWriter writer = new IndexWriter(dir, newConfig());
+        for (int i = 0; i < 10; i++) {
+            writer.addDocument(newDoc(Integer.toString(i), "title" + i));
+        }
+        writer.updateStoredFields(new Term("id", "3"), new StoredField("title", "three"));
+        writer.close();
+
+        DirectoryReader reader = DirectoryReader.open(dir);
+        assertEquals("three", getDoc(reader, "3").get("title"));
+        reader.close();
+
+        // a second generation carries over the documents updated by the first one
+        writer = new IndexWriter(dir, newConfig());
+        writer.updateStoredFields(new Term("id", "7"), new StoredField("title", "seven"));
+        writer.close();
+
+        reader = DirectoryReader.open(dir);
+        assertEquals("three", getDoc(reader, "3").get("title"));
+        assertEquals("seven", getDoc(reader, "7").get("title"));
+        assertEquals("title5", getDoc(reader, "5").get("title"));
+        reader.close();
+        dir.close();
+    }
+
+    public void testMultipleValuesAndNewFields() throws Exception {
+        final Directory dir = newDirectory();
+        final IndexWriter writer = new IndexWriter(dir, newConfig());
+        writer.addDocument(newDoc("0", "first"));
+        writer.updateStoredFields(new Term("id", "0"),
+                new StoredField("title", "a"), new StoredField("title", "b"), new StoredField("price", 42L));
+
+        final DirectoryReader reader = DirectoryReader.open(writer, true);
+        final Document doc = getDoc(reader, "0");
+        assertEquals(Arrays.asList("a", "b"), Arrays.asList(doc.getValues("title")));
+        assertEquals(42L, doc.getField("price").numericValue());
+        assertEquals("body of 0", doc.get("body"));
+        reader.close();
+        writer.close();
+        dir.close();
+    }
+
+    public void testMergeKeepsUpdates() throws Exception {
+        final Directory dir = newDirectory();
+        final IndexWriter writer = new IndexWriter(dir, newConfig().setMergePolicy(newLogMergePolicy()));
+        final int numDocs = atLeast(50);
+        for (int i = 0; i < numDocs; i++) {
+            writer.addDocument(newDoc(Integer.toString(i), "title" + i));
+            if (i % 10 == 9) {
+                writer.commit();
+            }
+        }
+        for (int i = 0; i < numDocs; i += 3) {
+            writer.updateStoredFields(new Term("id", Integer.toString(i)), new StoredField("title", "updated" + i));
+        }
+        writer.deleteDocuments(new Term("id", "1"));
+        writer.forceMerge(1);
+
+        final DirectoryReader reader = DirectoryReader.open(writer, true);
+        assertEquals(1, reader.leaves().size());
+        assertEquals(numDocs - 1, reader.numDocs());
+        for (int i = 0; i < numDocs; i++) {
+            if (i != 1) {
+                assertEquals(i % 3 == 0 ? "updated" + i : "title" + i, getDoc(reader, Integer.toString(i)).get("title"));
+            }
+        }
+        reader.close();
+        writer.close();
+        dir.close();
+    }
+
+    public void testIndexedFieldsAreRejected() throws Exception {
+        final Directory dir = newDirectory();
+        final IndexWriter writer = new IndexWriter(dir, newConfig());
+        writer.addDocument(newDoc("0", "first"));
+        try {
+            writer.updateStoredFields(new Term("id", "0"), new StringField("title", "indexed", Field.Store.YES));
+            fail("indexed fields cannot be updated in place");
+        } catch (IllegalArgumentException expected) {
+        }
+        writer.close();
+        dir.close();
+    }
+
+    public void testUnsupportedCodec() throws Exception {
+        final Directory dir = newDirectory();
+        final IndexWriter writer = new IndexWriter(dir, newConfig().setCodec(new Lucene410Codec()));
+        writer.addDocument(newDoc("0", "first"));
+        try {
+            writer.updateStoredFields(new Term("id", "0"), new StoredField("title", "updated"));
+            fail("Lucene410 stored fields cannot be updated");
+        } catch (UnsupportedOperationException expected) {
+        }
+        writer.close();
+        dir.close();
+    }
+
+    public void testSegmentOfUnsupportedCodec() throws Exception {
+        final Directory dir = newDirectory();
+        IndexWriter writer = new IndexWriter(dir, newConfig().setCodec(new Lucene410Codec()));
+        writer.addDocument(newDoc("0", "first"));
+        writer.close();
+
+        // the writer's codec supports updates, but the existing segment is updated with its own codec
+        writer = new IndexWriter(dir, newConfig());
+        writer.addDocument(newDoc("1", "second"));
+        try {
+            writer.updateStoredFields(new Term("id", "1"), new StoredField("title", "updated"));
+            fail("Lucene410 stored fields cannot be updated");
+        } catch (UnsupportedOperationException expected) {
+        }
+        writer.commit();
+        assertEquals(2, writer.numDocs());
+        writer.close();
+        dir.close();
+    }
+
+    private static int segmentsFormat(Directory dir) throws Exception {
+        try (IndexInput input = dir.openInput(SegmentInfos.getLastCommitSegmentsFileName(dir), IOContext.READONCE)) {
+            return CodecUtil.checkHeader(input, "segments", SegmentInfos.VERSION_40, SegmentInfos.VERSION_410);
+        }
+    }
+
+    public void testSegmentsFormat() throws Exception {
+        final Directory dir = newDirectory();
+        final IndexWriter writer = new IndexWriter(dir, newConfig());
+        writer.addDocument(newDoc("0", "first"));
+        writer.commit();
+        // indexes without updated stored fields stay readable by earlier versions
+        assertEquals(SegmentInfos.VERSION_49, segmentsFormat(dir));
+
+        writer.updateStoredFields(new Term("id", "0"), new StoredField("title", "updated"));
+        writer.commit();
+        assertEquals(SegmentInfos.VERSION_410, segmentsFormat(dir));
+        writer.close();
+
+        final DirectoryReader reader = DirectoryReader.open(dir);
+        assertEquals("updated", getDoc(reader, "0").get("title"));
+        reader.close();
+        dir.close();
+    }
+}
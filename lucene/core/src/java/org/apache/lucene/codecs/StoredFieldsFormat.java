@@ -40,4 +40,46 @@ public abstract class StoredFieldsFormat {
   /** Returns a {@link StoredFieldsWriter} to write stored
    *  fields. */
   public abstract StoredFieldsWriter fieldsWriter(Directory directory, SegmentInfo si, IOContext context) throws IOException;
+
+  /** Returns true if this format can update the stored fields
+   *  of documents of existing segments, see {@link #fieldsUpdatesWriter}.
+   *  The default implementation returns false. */
+  public boolean supportsUpdates() {
+    return false;
+  }
+
+  /** Returns true if the stored values of <code>field</code> can
+   *  be updated. The default implementation returns
+   *  {@link #supportsUpdates()}. */
+  public boolean supportsUpdates(String field) {
+    return supportsUpdates();
+  }
+
+  /** Returns a {@link StoredFieldsUpdatesWriter} to write a new
+   *  generation of updated documents of an existing segment.
+   *  
+   *  @param reader reader of the segment's stored fields as of
+   *         the current generation, returned by {@link #fieldsReader}
+   *         or {@link #updatedFieldsReader}
+   *  @param segmentSuffix suffix of the files of the new generation
+   *  @throws UnsupportedOperationException if this format does not
+   *          {@link #supportsUpdates() support updates}, the default */
+  public StoredFieldsUpdatesWriter fieldsUpdatesWriter(Directory directory, SegmentInfo si, StoredFieldsReader reader,
+      String segmentSuffix, IOContext context) throws IOException {
+    throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support stored fields updates");
+  }
+
+  /** Returns a {@link StoredFieldsReader} which reads the
+   *  documents of a segment as of a generation of updates, and
+   *  the documents that were never updated through the given
+   *  reader of the segment's own stored fields. The returned
+   *  reader does not close that reader.
+   *  
+   *  @param segmentSuffix suffix of the files of the generation
+   *  @throws UnsupportedOperationException if this format does not
+   *          {@link #supportsUpdates() support updates}, the default */
+  public StoredFieldsReader updatedFieldsReader(StoredFieldsReader reader, Directory directory, SegmentInfo si, FieldInfos fn,
+      String segmentSuffix, IOContext context) throws IOException {
+    throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support stored fields updates");
+  }
 }
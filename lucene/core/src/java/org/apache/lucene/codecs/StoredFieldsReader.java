@@ -39,6 +39,22 @@ public abstract class StoredFieldsReader implements Cloneable, Closeable, Accoun
   /** Visit the stored fields for document <code>n</code> */
   public abstract void visitDocument(int n, StoredFieldVisitor visitor) throws IOException;
 
+  /**
+   * Visit the stored fields of several documents at once, document
+   * <code>docIDs[i]</code> is handed to <code>visitors[i]</code>.
+   * Documents may be visited in any order, so implementations can
+   * sort the requests to read their storage sequentially. The default
+   * implementation visits the documents one by one.
+   */
+  public void visitDocuments(int[] docIDs, StoredFieldVisitor[] visitors) throws IOException {
+    if (docIDs.length != visitors.length) {
+      throw new IllegalArgumentException("docIDs and visitors must have the same length: " + docIDs.length + " != " + visitors.length);
+    }
+    for (int i = 0; i < docIDs.length; i++) {
+      visitDocument(docIDs[i], visitors[i]);
+    }
+  }
+
   @Override
   public abstract StoredFieldsReader clone();
   
@@ -0,0 +1,77 @@
+package org.apache.lucene.codecs;
+
+/**
+ * Copyright 2004 The Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexableField;
+
+/**
+ * Codec API for writing a new generation of the stored fields of an
+ * existing segment, holding the documents whose stored fields were updated:
+ * <p>
+ * <ol>
+ *   <li>For every updated document, in increasing document order,
+ *       {@link #startDocument(int)} is called.
+ *   <li>{@link #writeField(FieldInfo, IndexableField)} is called for 
+ *       each stored field the document has after the update, so the
+ *       document is always written as a whole.
+ *   <li>After all documents have been written, {@link #finish(FieldInfos)}
+ *       is called.
+ *   <li>Finally the writer is closed ({@link #close()})
+ * </ol>
+ * <p>
+ * A generation replaces the previous one: documents updated by earlier
+ * generations that are not written again must still be read with their
+ * updated fields, which the format carries over from the generation the
+ * writer was created for.
+ * 
+ * @see StoredFieldsFormat#fieldsUpdatesWriter
+ * @lucene.experimental
+ */
+public abstract class StoredFieldsUpdatesWriter implements Closeable {
+  
+  /** Sole constructor. (For invocation by subclass 
+   *  constructors, typically implicit.) */
+  protected StoredFieldsUpdatesWriter() {
+  }
+
+  /** Called before writing the stored fields of an updated
+   *  document. {@link #writeField(FieldInfo, IndexableField)} will
+   *  be called for each of its stored fields. */
+  public abstract void startDocument(int docID) throws IOException;
+
+  /** Called when a document and all its fields have been added. */
+  public void finishDocument() throws IOException {}
+
+  /** Writes a single stored field. */
+  public abstract void writeField(FieldInfo info, IndexableField field) throws IOException;
+
+  /** Aborts writing entirely, implementation should remove
+   *  any partially-written files, etc. */
+  public abstract void abort();
+  
+  /** Called before {@link #close()} once all updated documents
+   *  were written, this makes the new generation complete. */
+  public abstract void finish(FieldInfos fis) throws IOException;
+
+  @Override
+  public abstract void close() throws IOException;
+}
@@ -27,6 +27,7 @@ import org.apache.lucene.codecs.CodecUtil;
 import org.apache.lucene.codecs.StoredFieldsReader;
 import org.apache.lucene.codecs.StoredFieldsWriter;
 import org.apache.lucene.codecs.compressing.CompressingStoredFieldsReader.ChunkIterator;
+import org.apache.lucene.codecs.perfield.PerFieldStoredFieldsFormat;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.CorruptIndexException;
@@ -336,7 +337,7 @@ public final class CompressingStoredFieldsWriter extends StoredFieldsWriter {
       final SegmentReader matchingSegmentReader = mergeState.matchingSegmentReaders[idx++];
       CompressingStoredFieldsReader matchingFieldsReader = null;
       if (matchingSegmentReader != null) {
-        final StoredFieldsReader fieldsReader = matchingSegmentReader.getFieldsReader();
+        final StoredFieldsReader fieldsReader = PerFieldStoredFieldsFormat.unwrap(matchingSegmentReader.getFieldsReader());
         // we can only bulk-copy if the matching reader is also a CompressingStoredFieldsReader
         if (fieldsReader != null && fieldsReader instanceof CompressingStoredFieldsReader) {
           matchingFieldsReader = (CompressingStoredFieldsReader) fieldsReader;
@@ -29,4 +29,7 @@ public class BerkeleyDBCoreConstants {
     static final String ENV_RUN_EVICTOR = "je.env.runEvictor";
     static final String LOG_MEM_ONLY = "je.log.memOnly";
     static final String MAX_MEMORY_PERCENT = "je.maxMemoryPercent";
+    static final String LOG_FILE_MAX = "je.log.fileMax";
+    static final String CLEANER_MIN_UTILIZATION = "je.cleaner.minUtilization";
+    static final String CLEANER_THREADS = "je.cleaner.threads";
 }
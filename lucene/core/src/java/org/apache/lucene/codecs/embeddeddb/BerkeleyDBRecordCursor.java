@@ -0,0 +1,125 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.IOException;
+
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+
+/**
+ * EDBRecordCursor backed by a BerkeleyDB cursor positioned on the first key of a handle. Records are returned as
+ * stored, without decoding them.
+ */
+class BerkeleyDBRecordCursor implements EDBRecordCursor {
+
+    private final byte[] handle;
+    private final EDBStoreMetrics metrics;
+    private final Cursor cursor;
+    private final DatabaseEntry entryKey;
+    /** Key buffer reused by every seek, only its document ID changes */
+    private final byte[] seekKey;
+    private final DatabaseEntry entryData = new DatabaseEntry();
+    private boolean positioned;
+    private boolean exhausted;
+
+    BerkeleyDBRecordCursor(final Database documentStore, final byte[] handle, final EDBStoreMetrics metrics) throws DatabaseException {
+        this.handle = handle;
+        this.metrics = metrics;
+        this.seekKey = EDBDocumentKey.documentKey(handle, 0);
+        this.entryKey = new DatabaseEntry(EDBDocumentKey.documentKey(handle, 0));
+        this.cursor = documentStore.openCursor(null, null);
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if(exhausted) {
+            return false;
+        }
+        final OperationStatus status;
+        final long start = System.nanoTime();
+        try {
+            if(positioned) {
+                status = cursor.getNext(entryKey, entryData, LockMode.READ_UNCOMMITTED);
+            }
+            else {
+                status = cursor.getSearchKeyRange(entryKey, entryData, LockMode.READ_UNCOMMITTED);
+                positioned = true;
+            }
+        } catch (DatabaseException e) {
+            throw new IOException("Failed to read the next record from the document store", e);
+        }
+        if(status != OperationStatus.SUCCESS
+                || !EDBDocumentKey.hasHandle(entryKey.getData(), entryKey.getOffset(), entryKey.getSize(), handle)) {
+            exhausted = true;
+        }
+        metrics.recordRead(System.nanoTime() - start, exhausted ? 0 : entryData.getSize());
+        return !exhausted;
+    }
+
+    @Override
+    public boolean seek(final int docID) throws IOException {
+        // the entry holds the last key read by now, which may belong to another handle
+        EDBDocumentKey.setDocID(seekKey, docID);
+        entryKey.setData(seekKey);
+        final OperationStatus status;
+        final long start = System.nanoTime();
+        try {
+            status = cursor.getSearchKeyRange(entryKey, entryData, LockMode.READ_UNCOMMITTED);
+        } catch (DatabaseException e) {
+            throw new IOException("Failed to seek in the document store", e);
+        }
+        positioned = true;
+        exhausted = status != OperationStatus.SUCCESS
+                || !EDBDocumentKey.hasHandle(entryKey.getData(), entryKey.getOffset(), entryKey.getSize(), handle);
+        metrics.recordRead(System.nanoTime() - start, exhausted ? 0 : entryData.getSize());
+        return !exhausted;
+    }
+
+    @Override
+    public int docID() {
+        return EDBDocumentKey.docID(entryKey.getData(), entryKey.getOffset());
+    }
+
+    @Override
+    public byte[] record() {
+        return entryData.getData();
+    }
+
+    @Override
+    public int recordOffset() {
+        return entryData.getOffset();
+    }
+
+    @Override
+    public int recordLength() {
+        return entryData.getSize();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            cursor.close();
+        } catch (DatabaseException e) {
+            throw new IOException("Failed to close cursor on the document store", e);
+        }
+    }
+}
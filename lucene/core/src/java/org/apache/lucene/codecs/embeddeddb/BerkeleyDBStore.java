@@ -1,11 +1,13 @@
 package org.apache.lucene.codecs.embeddeddb;
 
 import java.io.File;
-import java.util.Properties;
+import java.io.IOException;
+import java.util.Arrays;
 
 import com.sleepycat.bind.EntryBinding;
 import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
+import com.sleepycat.je.Cursor;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseEntry;
@@ -14,9 +16,13 @@ import com.sleepycat.je.Environment;
 import com.sleepycat.je.EnvironmentConfig;
 import com.sleepycat.je.EnvironmentStats;
 import com.sleepycat.je.LockMode;
-import com.sleepycat.je.SecondaryConfig;
-import com.sleepycat.je.SecondaryDatabase;
+import com.sleepycat.je.OperationStatus;
 import com.sleepycat.je.StatsConfig;
+import com.sleepycat.je.Transaction;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BytesRef;
 
 /*
  * Licensed to the Apache Software Foundation (ASF) under one or more
@@ -40,75 +46,105 @@ import com.sleepycat.je.StatsConfig;
  *
  * Implementation of EmbeddedDBStore that utilizes BerkeleyDB for the storage of Lucene documents
  *
+ * Each store owns its own BerkeleyDB environment in its own location, so separate indexes do not share a cache or
+ * contend on the same latches. Stores are normally shared per location and reference counted through
+ * {@link EDBStoreRegistry} rather than created directly.
  */
-public enum BerkeleyDBStore implements EmbeddedDBStore{
-
-    INSTANCE;
+public class BerkeleyDBStore implements EmbeddedDBStore {
 
     private EnvironmentConfig environmentConfig;
     private Environment environment;
     private StoredClassCatalog storedClassCatalog;
-    private final Properties properties = new Properties();
-    private final String PATH_BERKELEYDB_DIRECTORY = "tmp_lucene_embedded_store_directory";
+    private final File location;
+    private final EDBStoreConfig config;
 
     private Database catalogDatabase;
     private DatabaseConfig catalogConfig;
     private final String DBNAME_CATALOG = "catalog";
-    private EntryBinding documentKeyBinding;
+    private EntryBinding legacyKeyBinding;
     private EntryBinding documentDataBinding;
-    private EntryBinding handleIndexKeyBinding;
 
     private Database documentStore;
     private DatabaseConfig databaseConfig;
     private final String DBNAME_DOCUMENT_STORE = "document_store";
 
-    private SecondaryDatabase handleIndex;
-    private SecondaryConfig handleIndexConfig;
-    private final String DBNAME_HANDLE_INDEX = "handle_index";
+    /**
+     * Secondary database of earlier versions, purging a handle is now a range delete on the document store. It is
+     * kept as the marker of a store that may still hold documents under legacy keys, until none are left.
+     */
+    private final String DBNAME_LEGACY_HANDLE_INDEX = "handle_index";
 
-    BerkeleyDBStore() {
-        reinitialize();
-    }
+    /** Largest number of digits of a document ID in a legacy key */
+    private static final int MAX_LEGACY_DOC_ID_DIGITS = Integer.toString(Integer.MAX_VALUE).length();
+
+    /** Number of documents deleted per transaction when purging a handle */
+    static final int PURGE_BATCH_SIZE = 1000;
+
+    /** Whether documents may still be stored under legacy keys, which then have to be looked up and purged too */
+    private boolean hasLegacyRecords;
+
+    private final RetainedHandles retainedHandles = new RetainedHandles();
+
+    private final EDBStoreMetrics metrics = new EDBStoreMetrics();
 
-    public void reinitialize() {
+    /**
+     * Opens, or creates, the store kept in the given location
+     *
+     * @param location - Directory holding the environment's log files, it is created if it does not exist
+     * @param config - Tuning of the environment, it is copied so later changes to it have no effect on this store
+     */
+    public BerkeleyDBStore(final File location, final EDBStoreConfig config) {
+        this.location = location;
+        this.config = config.clone();
         initializeEnvironment();
         initializeDatabases();
     }
 
-    private void initializeEnvironment() {
-
-        String berkeleyDir = System.getProperty("berkeleyDir");
-        if(null == berkeleyDir) {
-            berkeleyDir = PATH_BERKELEYDB_DIRECTORY;
-        }
-        else if(berkeleyDir.equals("RAM")) {
-            properties.put(BerkeleyDBCoreConstants.LOG_MEM_ONLY, "true");
-            Logger.info("Initializing BerkeleyDB in memory-only mode");
+    /**
+     * Returns true if the given location holds the log files of a BerkeleyDB environment
+     */
+    static boolean exists(final File location) {
+        final String[] files = location.list();
+        if(null != files) {
+            for(final String file : files) {
+                if(file.endsWith(".jdb")) {
+                    return true;
+                }
+            }
         }
+        return false;
+    }
 
-        //TODO: These properties need to be enabled by default... but how do we disable for tests
-        properties.put(BerkeleyDBCoreConstants.ENV_RUN_CHECKPOINTER, "false");
-        properties.put(BerkeleyDBCoreConstants.ENV_RUN_CLEANER, "false");
-        properties.put(BerkeleyDBCoreConstants.ENV_RUN_EVICTOR, "false");
-        properties.put(BerkeleyDBCoreConstants.ENV_RUN_IN_COMPRESSOR, "false");
-        properties.put(BerkeleyDBCoreConstants.MAX_MEMORY_PERCENT, "30");
-        Logger.info("Starting Lucene embedded database in testing mode. " +
-                    "Background threads disabled.");
-        environmentConfig = new EnvironmentConfig(properties);
-        environmentConfig.setAllowCreate(true);
-        Logger.info("BerkeleyDB cache authorized to use " + environmentConfig.getCachePercent() + "% of the JVM RAM");
+    /**
+     * Returns the directory holding the environment of this store
+     */
+    public File getLocation() {
+        return location;
+    }
 
-        final File storeFile = new File(berkeleyDir);
-        try {
-            storeFile.mkdir();
-            Logger.info("Lucene's BerkeleyDB initialized with directory: " + berkeleyDir);
-        }
-        catch(SecurityException e) {
-            Logger.error("Security violation occurred while trying to create the embedded database directory.");
+    /**
+     * Returns a copy of the configuration this store was opened with
+     */
+    public EDBStoreConfig getConfig() {
+        return config.clone();
+    }
+
+    private void initializeEnvironment() {
+
+        environmentConfig = config.toEnvironmentConfig();
+
+        // a store which only lives in memory writes nothing to its location
+        if(!config.getMemoryOnly()) {
+            try {
+                location.mkdirs();
+            }
+            catch(SecurityException e) {
+                Logger.error("Security violation occurred while trying to create the embedded database directory.");
+            }
         }
 
         try {
-            environment = new Environment(storeFile, environmentConfig);
+            environment = new Environment(location, environmentConfig);
         } catch (DatabaseException e) {
             Logger.error("Error occurred while trying to create the embedded database environment.");
         }
@@ -124,71 +160,309 @@ public enum BerkeleyDBStore implements EmbeddedDBStore{
         } catch (DatabaseException e) {
             e.printStackTrace();
         }
-        documentKeyBinding = new SerialBinding(storedClassCatalog, String.class);
-        documentDataBinding = new SerialBinding(storedClassCatalog, EDBDocument.class);
-        handleIndexKeyBinding = new SerialBinding(storedClassCatalog, String.class);
+        legacyKeyBinding = new SerialBinding(storedClassCatalog, String.class);
+        documentDataBinding = new EDBDocumentBinding(new SerialBinding(storedClassCatalog, EDBDocument.class));
 
         databaseConfig = new DatabaseConfig();
         databaseConfig.setAllowCreate(true);
+        databaseConfig.setTransactional(true);
         try {
             documentStore = environment.openDatabase(null, DBNAME_DOCUMENT_STORE, databaseConfig);
         } catch (DatabaseException e) {
             Logger.error("Failed to access the requested database from the environment.");
         }
 
-        handleIndexConfig = new SecondaryConfig();
-        handleIndexConfig.setAllowCreate(true);
-        handleIndexConfig.setSortedDuplicates(true);
-        handleIndexConfig.setKeyCreator(new HandleIndexKeyCreator(documentKeyBinding, handleIndexKeyBinding));
         try {
-            handleIndex = environment.openSecondaryDatabase(null, DBNAME_HANDLE_INDEX, documentStore, handleIndexConfig);
+            if(environment.getDatabaseNames().contains(DBNAME_LEGACY_HANDLE_INDEX)) {
+                hasLegacyRecords = containsLegacyKeys();
+                if(!hasLegacyRecords) {
+                    environment.removeDatabase(null, DBNAME_LEGACY_HANDLE_INDEX);
+                    Logger.info("Removed the handle index of an earlier version of the document store.");
+                }
+            }
         } catch (DatabaseException e) {
-            e.printStackTrace();
+            hasLegacyRecords = true;
+            Logger.error("Failed to check the document store for legacy keys.");
         }
     }
 
-    public void put(final String documentKey, final EDBDocument document) {
-        final DatabaseEntry entryKey = new DatabaseEntry();
+    /**
+     * Returns true if any document is still stored under a legacy key. Binary keys all have the same length, which no
+     * serialized legacy key has, so this walks the keys of the store without reading their documents.
+     */
+    private boolean containsLegacyKeys() throws DatabaseException {
+        final Cursor cursor = documentStore.openCursor(null, null);
+        try {
+            final DatabaseEntry entryKey = new DatabaseEntry();
+            final DatabaseEntry entryData = new DatabaseEntry();
+            entryData.setPartial(0, 0, true);
+            while(cursor.getNext(entryKey, entryData, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                if(entryKey.getSize() != EDBDocumentKey.KEY_LENGTH) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns true if documents may still be stored under legacy keys. This is only the case for stores created by
+     * an earlier version whose records were not all migrated or purged when the store was opened.
+     */
+    boolean hasLegacyRecords() {
+        return hasLegacyRecords;
+    }
+
+    public void put(final byte[] handle, final int docID, final EDBDocument document) {
+        final DatabaseEntry entryKey = new DatabaseEntry(EDBDocumentKey.documentKey(handle, docID));
         final DatabaseEntry entryData = new DatabaseEntry();
-        documentKeyBinding.objectToEntry(documentKey, entryKey);
         documentDataBinding.objectToEntry(document, entryData);
 
         try {
+            final long start = System.nanoTime();
             documentStore.put(null, entryKey, entryData);
+            metrics.recordWrite(System.nanoTime() - start, entryData.getSize());
         } catch (DatabaseException e) {
             Logger.error("Failed to insert entry into the document store.");
         }
     }
 
-    public EDBDocument get(final String documentKey) {
+    public EDBWriteBatch beginWriteBatch(final byte[] handle) throws IOException {
+        try {
+            return new BerkeleyDBWriteBatch(this, environment, documentStore, handle, metrics);
+        } catch (DatabaseException e) {
+            throw new IOException("Failed to begin a write batch on the document store", e);
+        }
+    }
+
+    public EDBDocument get(final byte[] handle, final int docID) {
         EDBDocument document = new EDBDocument();
-        final DatabaseEntry entryKey = new DatabaseEntry();
+        final DatabaseEntry entryKey = new DatabaseEntry(EDBDocumentKey.documentKey(handle, docID));
         final DatabaseEntry entryData = new DatabaseEntry();
-        documentKeyBinding.objectToEntry(documentKey, entryKey);
-        documentDataBinding.objectToEntry(document, entryData);
 
         try {
-            documentStore.get(null, entryKey, entryData, LockMode.DEFAULT);
-            document = (EDBDocument) documentDataBinding.entryToObject(entryData);
+            if(read(entryKey, entryData) || (hasLegacyRecords && read(legacyKey(handle, docID), entryData))) {
+                document = (EDBDocument) documentDataBinding.entryToObject(entryData);
+            }
         } catch (DatabaseException e) {
             Logger.error("Failed to retrieve requested document from document store.");
         }
         return document;
     }
 
-    public void purgeStaleHandle(final String staleHandle) {
-        final DatabaseEntry entryKey = new DatabaseEntry();
-        handleIndexKeyBinding.objectToEntry(staleHandle, entryKey);
+    public EDBRecordCursor openRecordCursor(final byte[] handle) throws IOException {
+        try {
+            return new BerkeleyDBRecordCursor(documentStore, handle, metrics);
+        } catch (DatabaseException e) {
+            throw new IOException("Failed to open a cursor on the document store", e);
+        }
+    }
+
+    public BytesRef getRecord(final byte[] handle, final int docID) {
+        final DatabaseEntry entryKey = new DatabaseEntry(EDBDocumentKey.documentKey(handle, docID));
+        final DatabaseEntry entryData = new DatabaseEntry();
+
+        try {
+            if(read(entryKey, entryData) || (hasLegacyRecords && read(legacyKey(handle, docID), entryData))) {
+                return new BytesRef(entryData.getData(), entryData.getOffset(), entryData.getSize());
+            }
+        } catch (DatabaseException e) {
+            Logger.error("Failed to retrieve requested document from document store.");
+        }
+        return null;
+    }
+
+    /** Reads without locking, records are only visible once their batch committed and never change afterwards */
+    private boolean read(final DatabaseEntry entryKey, final DatabaseEntry entryData) throws DatabaseException {
+        final long start = System.nanoTime();
+        final boolean found = documentStore.get(null, entryKey, entryData, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS;
+        metrics.recordRead(System.nanoTime() - start, found ? entryData.getSize() : 0);
+        return found;
+    }
+
+    /**
+     * Deletes every document of the given handle. Keys of one handle are contiguous, so this is a cursor walk over
+     * the handle's key range, which commits every {@link #PURGE_BATCH_SIZE} documents so a large segment is not
+     * deleted in one transaction. Legacy keys of a handle are contiguous as well for each number of digits of the
+     * document ID, so they are purged by walking these ranges when the store may still hold any.
+     *
+     * @param handle - Binary id of the handle whose documents are stale
+     * @return - False if the documents could not all be deleted, the ones deleted so far stay deleted
+     */
+    public boolean purgeStaleHandle(final byte[] handle) {
         try {
-            handleIndex.delete(null, entryKey);
+            deleteKeyRange(handle, EDBDocumentKey.KEY_LENGTH);
+            if(hasLegacyRecords) {
+                for(int digits = 1; digits <= MAX_LEGACY_DOC_ID_DIGITS; digits++) {
+                    final byte[] prefix = legacyKeyPrefix(handle, digits);
+                    deleteKeyRange(prefix, prefix.length + digits);
+                }
+            }
+            return true;
         } catch (DatabaseException e) {
-            Logger.error("Failed to delete entry from the handle index.");
+            Logger.error("Failed to delete the documents of a stale handle from the document store.");
+            return false;
         }
     }
 
-    public void delete(final String documentKey) {
+    /**
+     * Deletes every key of the given length which starts with the given prefix, in transactions of at most
+     * {@link #PURGE_BATCH_SIZE} keys
+     */
+    private void deleteKeyRange(final byte[] prefix, final int keyLength) throws DatabaseException {
         final DatabaseEntry entryKey = new DatabaseEntry();
-        documentKeyBinding.objectToEntry(documentKey, entryKey);
+        final DatabaseEntry entryData = new DatabaseEntry();
+        entryData.setPartial(0, 0, true);
+        boolean more = true;
+        while(more) {
+            Transaction transaction = null;
+            Cursor cursor = null;
+            try {
+                transaction = environment.beginTransaction(null, null);
+                cursor = documentStore.openCursor(transaction, null);
+                entryKey.setData(prefix);
+                OperationStatus status = cursor.getSearchKeyRange(entryKey, entryData, LockMode.DEFAULT);
+                int deleted = 0;
+                while(deleted < PURGE_BATCH_SIZE && status == OperationStatus.SUCCESS && hasPrefix(entryKey, prefix, keyLength)) {
+                    cursor.delete();
+                    deleted++;
+                    status = cursor.getNext(entryKey, entryData, LockMode.DEFAULT);
+                }
+                more = status == OperationStatus.SUCCESS && hasPrefix(entryKey, prefix, keyLength);
+                cursor.close();
+                cursor = null;
+                transaction.commit();
+                transaction = null;
+            } finally {
+                closeCursor(cursor);
+                abortTransaction(transaction);
+            }
+        }
+    }
+
+    private static boolean hasPrefix(final DatabaseEntry entryKey, final byte[] prefix, final int keyLength) {
+        if(entryKey.getSize() != keyLength) {
+            return false;
+        }
+        final byte[] key = entryKey.getData();
+        final int offset = entryKey.getOffset();
+        for(int i = 0; i < prefix.length; i++) {
+            if(key[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void retainHandle(final byte[] handle) {
+        retainedHandles.retain(handle);
+    }
+
+    public void releaseHandle(final byte[] handle) {
+        retainedHandles.release(handle);
+    }
+
+    public boolean isHandleRetained(final byte[] handle) {
+        return retainedHandles.isRetained(handle);
+    }
+
+    /**
+     * Rewrites every document of the given handle that is still stored under a Java serialized key or value into the
+     * binary key and record format. Legacy records identify their fields by name, so the field infos of the segment
+     * the handle belongs to are needed to translate them into field numbers.
+     *
+     * @param handle - Binary id of the segment's handle
+     * @param maxDoc - Number of documents in the segment
+     * @param fieldInfos - Field infos of that segment
+     * @return - The number of records which were rewritten
+     */
+    public int migrateLegacyRecords(final byte[] handle, final int maxDoc, final FieldInfos fieldInfos) {
+        int migrated = 0;
+        for(int docID = 0; docID < maxDoc; docID++) {
+            final DatabaseEntry documentKey = new DatabaseEntry(EDBDocumentKey.documentKey(handle, docID));
+            final DatabaseEntry legacyKey = legacyKey(handle, docID);
+            final DatabaseEntry data = new DatabaseEntry();
+            try {
+                final DatabaseEntry currentKey;
+                if(documentStore.get(null, documentKey, data, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+                    currentKey = documentKey;
+                }
+                else if(hasLegacyRecords && documentStore.get(null, legacyKey, data, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+                    currentKey = legacyKey;
+                }
+                else {
+                    continue;
+                }
+                if(currentKey == documentKey && !EDBDocumentBinding.isLegacyRecord(data)) {
+                    continue;
+                }
+                final EDBDocument legacyDocument = (EDBDocument) documentDataBinding.entryToObject(data);
+                final EDBDocument document = new EDBDocument();
+                for(final EDBStoredField field : legacyDocument.getFields()) {
+                    if(null != field.getName()) {
+                        final FieldInfo info = fieldInfos.fieldInfo(field.getName());
+                        if(null == info) {
+                            continue;
+                        }
+                        field.setNumber(info.number);
+                        field.setName(null);
+                    }
+                    document.addField(field);
+                }
+                documentDataBinding.objectToEntry(document, data);
+                documentStore.put(null, documentKey, data);
+                if(currentKey == legacyKey) {
+                    documentStore.delete(null, legacyKey);
+                }
+                migrated++;
+            } catch (DatabaseException e) {
+                Logger.error("Failed to migrate a legacy record in the document store.");
+            }
+        }
+        return migrated;
+    }
+
+    /** Key under which earlier versions of the store kept a document: the serialized string handle_docID */
+    DatabaseEntry legacyKey(final byte[] handle, final int docID) {
+        final DatabaseEntry entryKey = new DatabaseEntry();
+        legacyKeyBinding.objectToEntry(EDBDocumentKey.handle(handle) + "_" + docID, entryKey);
+        return entryKey;
+    }
+
+    /**
+     * Returns the bytes shared by the legacy keys of every document of the given handle whose ID has the given number
+     * of digits. The digits are the last characters of the serialized string, only preceded by its length.
+     */
+    private byte[] legacyKeyPrefix(final byte[] handle, final int digits) {
+        final int firstDocID = digits == 1 ? 0 : (int) Math.pow(10, digits - 1);
+        final DatabaseEntry entryKey = legacyKey(handle, firstDocID);
+        return Arrays.copyOfRange(entryKey.getData(), entryKey.getOffset(), entryKey.getOffset() + entryKey.getSize() - digits);
+    }
+
+    private void closeCursor(final Cursor cursor) {
+        if(null != cursor) {
+            try {
+                cursor.close();
+            } catch (DatabaseException e) {
+                Logger.error("Failed to close cursor on the document store.");
+            }
+        }
+    }
+
+    private void abortTransaction(final Transaction transaction) {
+        if(null != transaction) {
+            try {
+                transaction.abort();
+            } catch (DatabaseException e) {
+                Logger.error("Failed to abort transaction on the document store.");
+            }
+        }
+    }
+
+    public void delete(final byte[] handle, final int docID) {
+        final DatabaseEntry entryKey = new DatabaseEntry(EDBDocumentKey.documentKey(handle, docID));
         try {
             documentStore.delete(null, entryKey);
         } catch (DatabaseException e) {
@@ -196,11 +470,14 @@ public enum BerkeleyDBStore implements EmbeddedDBStore{
         }
     }
 
+    /**
+     * Closes the environment of this store, which must no longer be used by any reader or writer
+     */
     public void close() {
         try {
             documentStore.close();
+            storedClassCatalog.close();
             environment.close();
-            Logger.info("Releasing resources for embedded database environment.");
         } catch (DatabaseException e) {
             Logger.error("Failed to release resources for embedded database environment.");
         }
@@ -209,9 +486,8 @@ public enum BerkeleyDBStore implements EmbeddedDBStore{
     void purgeAllDocuments() {
         try {
             documentStore.close();
-            handleIndex.close();
             environment.truncateDatabase(null, DBNAME_DOCUMENT_STORE, true);
-            reinitialize();
+            documentStore = environment.openDatabase(null, DBNAME_DOCUMENT_STORE, databaseConfig);
         } catch (DatabaseException e) {
             Logger.error("Failed to truncate the document store");
         }
@@ -231,15 +507,43 @@ public enum BerkeleyDBStore implements EmbeddedDBStore{
         return rowCount;
     }
 
-    public void printBerkeleyInformation() {
-        EnvironmentStats environmentStats = null;
+    /**
+     * Returns the current statistics of this store
+     *
+     * @throws IOException - If the statistics of the environment cannot be read
+     */
+    public EDBStoreStats getStats() throws IOException {
+        final EnvironmentStats environmentStats;
         try {
             environmentStats = environment.getStats(StatsConfig.DEFAULT);
         } catch (DatabaseException e) {
+            throw new IOException("Failed to acquire environment statistics", e);
+        }
+        return metrics.snapshot(environmentStats);
+    }
+
+    /**
+     * Returns the bytes held by the cache of this store's environment, which is shared by every reader of the store
+     * and therefore not included in their own {@link Accountable#ramBytesUsed()}
+     */
+    @Override
+    public long ramBytesUsed() {
+        final StatsConfig statsConfig = new StatsConfig();
+        statsConfig.setFast(true);
+        try {
+            return environment.getStats(statsConfig).getCacheTotalBytes();
+        } catch (DatabaseException e) {
+            Logger.error("Failed to acquire environment statistics.");
+            return 0;
+        }
+    }
+
+    public void printBerkeleyInformation() {
+        try {
+            Logger.info("Store statistics: " + getStats());
+        } catch (IOException e) {
             Logger.error("Failed to acquire environment statistics.");
         }
-        Logger.info("Total cache size in bytes: " + environmentStats.getCacheTotalBytes());
-        Logger.info("Total estimated log size: " + environmentStats.getTotalLogSize());
         Logger.info("Total rows in document store: " + totalDocumentStoreRowCount());
     }
 
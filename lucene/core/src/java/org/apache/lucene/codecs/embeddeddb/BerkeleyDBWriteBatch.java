@@ -0,0 +1,172 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.IOException;
+
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.Transaction;
+
+/**
+ * EDBWriteBatch backed by BerkeleyDB transactions. Records are inserted through a cursor in key order, reusing the
+ * key and data entries for every document.
+ *
+ * A transaction holds a lock on every record it wrote until it commits, so rather than writing a whole segment in one
+ * transaction the batch commits every {@link #MAX_TRANSACTION_RECORDS} records or {@link #MAX_TRANSACTION_BYTES}
+ * bytes and goes on in a new one. The records of the committed transactions are visible before the batch commits,
+ * aborting the batch deletes every record of its handle again.
+ */
+class BerkeleyDBWriteBatch implements EDBWriteBatch {
+
+    /** Number of records written per transaction */
+    static final int MAX_TRANSACTION_RECORDS = 1000;
+    /** Number of bytes after which a transaction is committed early */
+    static final long MAX_TRANSACTION_BYTES = 4 << 20;
+
+    private final BerkeleyDBStore store;
+    private final Environment environment;
+    private final Database documentStore;
+    private final byte[] handle;
+    private final byte[] key;
+    private final EDBStoreMetrics metrics;
+    private final DatabaseEntry entryKey;
+    private final DatabaseEntry entryData = new DatabaseEntry();
+    /** Transaction and cursor the next record is written with */
+    private Transaction transaction;
+    private Cursor cursor;
+    private int transactionRecords;
+    private long transactionBytes;
+    /** Whether records of this batch were already committed */
+    private boolean committedRecords;
+    private boolean closed;
+
+    BerkeleyDBWriteBatch(final BerkeleyDBStore store, final Environment environment, final Database documentStore,
+                         final byte[] handle, final EDBStoreMetrics metrics) throws DatabaseException {
+        this.store = store;
+        this.environment = environment;
+        this.documentStore = documentStore;
+        this.handle = handle;
+        this.key = EDBDocumentKey.documentKey(handle, 0);
+        this.metrics = metrics;
+        this.entryKey = new DatabaseEntry(key);
+        beginTransaction();
+    }
+
+    private void beginTransaction() throws DatabaseException {
+        final Transaction transaction = environment.beginTransaction(null, null);
+        Cursor cursor = null;
+        try {
+            cursor = documentStore.openCursor(transaction, null);
+        } finally {
+            if(null == cursor) {
+                transaction.abort();
+            }
+        }
+        this.transaction = transaction;
+        this.cursor = cursor;
+        transactionRecords = 0;
+        transactionBytes = 0;
+    }
+
+    /** Commits the current transaction, which is left to abort if its commit failed */
+    private void commitTransaction() throws DatabaseException {
+        final long start = System.nanoTime();
+        final Cursor cursor = this.cursor;
+        this.cursor = null;
+        cursor.close();
+        transaction.commit();
+        transaction = null;
+        metrics.recordCommit(System.nanoTime() - start);
+    }
+
+    @Override
+    public void put(final int docID, final byte[] record, final int offset, final int length) throws IOException {
+        ensureOpen();
+        EDBDocumentKey.setDocID(key, docID);
+        entryData.setData(record, offset, length);
+        try {
+            if(null == transaction) {
+                beginTransaction();
+            }
+            final long start = System.nanoTime();
+            cursor.put(entryKey, entryData);
+            metrics.recordWrite(System.nanoTime() - start, length);
+            transactionBytes += length;
+            if(++transactionRecords >= MAX_TRANSACTION_RECORDS || transactionBytes >= MAX_TRANSACTION_BYTES) {
+                commitTransaction();
+                committedRecords = true;
+            }
+        } catch (DatabaseException e) {
+            throw new IOException("Failed to insert entry into the document store", e);
+        }
+    }
+
+    @Override
+    public void commit() throws IOException {
+        ensureOpen();
+        if(null != transaction) {
+            try {
+                commitTransaction();
+            } catch (DatabaseException e) {
+                abort();
+                throw new IOException("Failed to commit documents to the document store", e);
+            }
+        }
+        closed = true;
+    }
+
+    @Override
+    public void abort() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        abortTransaction();
+        if(committedRecords && !store.purgeStaleHandle(handle)) {
+            Logger.error("Failed to delete the committed documents of an aborted write batch.");
+        }
+    }
+
+    private void abortTransaction() {
+        if(null != cursor) {
+            try {
+                cursor.close();
+            } catch (DatabaseException e) {
+                Logger.error("Failed to close the cursor of an aborted write batch.");
+            }
+            cursor = null;
+        }
+        if(null != transaction) {
+            try {
+                transaction.abort();
+            } catch (DatabaseException e) {
+                Logger.error("Failed to abort a write batch on the document store.");
+            }
+            transaction = null;
+        }
+    }
+
+    private void ensureOpen() {
+        if(closed) {
+            throw new IllegalStateException("this write batch was already committed or aborted");
+        }
+    }
+}
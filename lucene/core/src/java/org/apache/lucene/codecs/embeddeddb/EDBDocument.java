@@ -29,6 +29,9 @@ import java.util.List;
  */
 public class EDBDocument implements Serializable {
 
+    /** Pinned to the value computed for the original class so records written through SerialBinding still load */
+    private static final long serialVersionUID = 8237664311727558862L;
+
     private final List<EDBStoredField> fields = new ArrayList<>();
 
     public void addField(final EDBStoredField field) {
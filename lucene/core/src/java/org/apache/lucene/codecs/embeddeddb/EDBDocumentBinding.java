@@ -0,0 +1,324 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.sleepycat.bind.EntryBinding;
+import com.sleepycat.je.DatabaseEntry;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.GrowableByteArrayDataOutput;
+
+/**
+ * EntryBinding which writes an EDBDocument as a compact, versioned binary record rather than through Java
+ * serialization. A record has the following layout:
+ *
+ * <pre>
+ *   Record      --&gt; Version, FieldCount, Field<sup>FieldCount</sup>
+ *   Version     --&gt; byte
+ *   FieldCount  --&gt; VInt
+ *   Field       --&gt; FieldNumber, Type, Value
+ *   FieldNumber --&gt; VInt
+ *   Type        --&gt; byte
+ *   Value       --&gt; String (VInt length + UTF-8 bytes) | Binary (VInt length + bytes) |
+ *                   ZInt | ZLong | Int (float bits) | Long (double bits)
+ * </pre>
+ *
+ * Records written by older versions of the store through SerialBinding begin with the serialization
+ * TC_OBJECT marker, which never collides with a version byte, so they are still decoded through the legacy
+ * binding until they are rewritten by {@link BerkeleyDBStore#migrateLegacyRecords}.
+ */
+public class EDBDocumentBinding implements EntryBinding {
+
+    static final byte VERSION_START = 1;
+    static final byte VERSION_CURRENT = VERSION_START;
+
+    static final byte STRING = 0x00;
+    static final byte BYTE_ARR = 0x01;
+    static final byte NUMERIC_INT = 0x02;
+    static final byte NUMERIC_FLOAT = 0x03;
+    static final byte NUMERIC_LONG = 0x04;
+    static final byte NUMERIC_DOUBLE = 0x05;
+
+    private final EntryBinding legacyBinding;
+
+    /**
+     * @param legacyBinding - Binding used to decode records written with Java serialization, may be null if the
+     *                      store never contained any
+     */
+    public EDBDocumentBinding(final EntryBinding legacyBinding) {
+        this.legacyBinding = legacyBinding;
+    }
+
+    /**
+     * Returns true if the given entry holds a record written through Java serialization
+     */
+    public static boolean isLegacyRecord(final DatabaseEntry entry) {
+        return isLegacyRecord(entry.getData(), entry.getOffset(), entry.getSize());
+    }
+
+    /**
+     * Returns true if the given record was written through Java serialization
+     */
+    public static boolean isLegacyRecord(final byte[] record, final int offset, final int length) {
+        return length > 0 && record[offset] == ObjectStreamConstants.TC_OBJECT;
+    }
+
+    @Override
+    public Object entryToObject(final DatabaseEntry entry) {
+        if (isLegacyRecord(entry)) {
+            if (null == legacyBinding) {
+                throw new IllegalStateException("Found a serialized record but no legacy binding is available");
+            }
+            return legacyBinding.entryToObject(entry);
+        }
+        try {
+            return decode(new ByteArrayDataInput(entry.getData(), entry.getOffset(), entry.getSize()));
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt document record", e);
+        }
+    }
+
+    @Override
+    public void objectToEntry(final Object object, final DatabaseEntry entry) {
+        final GrowableByteArrayDataOutput out = new GrowableByteArrayDataOutput(256);
+        try {
+            encode((EDBDocument) object, out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode document record", e);
+        }
+        entry.setData(out.bytes, 0, out.length);
+    }
+
+    static void encode(final EDBDocument document, final GrowableByteArrayDataOutput out) throws IOException {
+        final List<EDBStoredField> fields = document.getFields();
+        writeHeader(out, fields.size());
+        for (final EDBStoredField field : fields) {
+            out.writeVInt(field.getNumber());
+            if (null != field.getStringValue()) {
+                writeString(out, field.getStringValue());
+            }
+            else if (null != field.getNumericValue()) {
+                writeNumeric(out, field.getNumericValue());
+            }
+            else if (null != field.getBinaryValue()) {
+                writeBinary(out, field.getBinaryValue(), field.getOffset(), field.getLength());
+            }
+            else {
+                throw new IllegalArgumentException("field " + field.getNumber() + " has no value to store");
+            }
+        }
+    }
+
+    /**
+     * Writes the start of a record holding the given number of fields, which must be followed by exactly that many
+     * calls to {@link #writeField}
+     */
+    public static void writeHeader(final DataOutput out, final int fieldCount) throws IOException {
+        out.writeByte(VERSION_CURRENT);
+        out.writeVInt(fieldCount);
+    }
+
+    /**
+     * Writes a single stored field of a record
+     */
+    public static void writeField(final DataOutput out, final int number, final IndexableField field) throws IOException {
+        out.writeVInt(number);
+        if (null != field.numericValue()) {
+            writeNumeric(out, field.numericValue());
+        }
+        else if (null != field.binaryValue()) {
+            final BytesRef bytes = field.binaryValue();
+            writeBinary(out, bytes.bytes, bytes.offset, bytes.length);
+        }
+        else if (null != field.stringValue()) {
+            writeString(out, field.stringValue());
+        }
+        else {
+            throw new IllegalArgumentException("field " + field.name() + " is stored but does not have binaryValue, stringValue nor numericValue");
+        }
+    }
+
+    private static void writeString(final DataOutput out, final String value) throws IOException {
+        out.writeByte(STRING);
+        out.writeString(value);
+    }
+
+    private static void writeBinary(final DataOutput out, final byte[] bytes, final int offset, final int length) throws IOException {
+        out.writeByte(BYTE_ARR);
+        out.writeVInt(length);
+        out.writeBytes(bytes, offset, length);
+    }
+
+    private static void writeNumeric(final DataOutput out, final Number number) throws IOException {
+        if (number instanceof Integer) {
+            out.writeByte(NUMERIC_INT);
+            out.writeZInt(number.intValue());
+        } else if (number instanceof Long) {
+            out.writeByte(NUMERIC_LONG);
+            out.writeZLong(number.longValue());
+        } else if (number instanceof Float) {
+            out.writeByte(NUMERIC_FLOAT);
+            out.writeInt(Float.floatToIntBits(number.floatValue()));
+        } else if (number instanceof Double) {
+            out.writeByte(NUMERIC_DOUBLE);
+            out.writeLong(Double.doubleToLongBits(number.doubleValue()));
+        } else {
+            throw new IllegalArgumentException("cannot store numeric type " + number.getClass());
+        }
+    }
+
+    /**
+     * Hands the fields of a binary record to the visitor without decoding the whole document. Only the values of
+     * fields the visitor needs are materialized, the others are skipped over, and visiting ends as soon as the
+     * visitor returns {@link StoredFieldVisitor.Status#STOP}.
+     *
+     * @param record - Buffer holding the record
+     * @param offset - Start of the record in the buffer
+     * @param length - Length of the record
+     * @param fieldInfos - Field infos of the segment the record belongs to
+     * @param visitor - Visitor to hand the fields to
+     */
+    public static void visit(final byte[] record, final int offset, final int length, final FieldInfos fieldInfos,
+                             final StoredFieldVisitor visitor) throws IOException {
+        final ByteArrayDataInput in = new ByteArrayDataInput(record, offset, length);
+        checkVersion(in.readByte());
+        final int fieldCount = in.readVInt();
+        for (int i = 0; i < fieldCount; i++) {
+            final FieldInfo info = fieldInfos.fieldInfo(in.readVInt());
+            final byte type = in.readByte();
+            final StoredFieldVisitor.Status status = null == info ? StoredFieldVisitor.Status.NO : visitor.needsField(info);
+            switch (status) {
+                case YES:
+                    readField(in, record, info, type, visitor);
+                    break;
+                case NO:
+                    skipField(in, type);
+                    break;
+                case STOP:
+                    return;
+            }
+        }
+    }
+
+    private static void readField(final ByteArrayDataInput in, final byte[] record, final FieldInfo info, final byte type, final StoredFieldVisitor visitor) throws IOException {
+        switch (type) {
+            case STRING:
+                final int length = in.readVInt();
+                final int position = in.getPosition();
+                in.skipBytes(length);
+                visitor.stringField(info, new String(record, position, length, StandardCharsets.UTF_8));
+                break;
+            case BYTE_ARR:
+                final byte[] bytes = new byte[in.readVInt()];
+                in.readBytes(bytes, 0, bytes.length);
+                visitor.binaryField(info, bytes);
+                break;
+            case NUMERIC_INT:
+                visitor.intField(info, in.readZInt());
+                break;
+            case NUMERIC_LONG:
+                visitor.longField(info, in.readZLong());
+                break;
+            case NUMERIC_FLOAT:
+                visitor.floatField(info, Float.intBitsToFloat(in.readInt()));
+                break;
+            case NUMERIC_DOUBLE:
+                visitor.doubleField(info, Double.longBitsToDouble(in.readLong()));
+                break;
+            default:
+                throw new IllegalStateException("Unknown field type in document record: " + type);
+        }
+    }
+
+    private static void skipField(final ByteArrayDataInput in, final byte type) throws IOException {
+        switch (type) {
+            case STRING:
+            case BYTE_ARR:
+                in.skipBytes(in.readVInt());
+                break;
+            case NUMERIC_INT:
+                in.readZInt();
+                break;
+            case NUMERIC_LONG:
+                in.readZLong();
+                break;
+            case NUMERIC_FLOAT:
+                in.skipBytes(4);
+                break;
+            case NUMERIC_DOUBLE:
+                in.skipBytes(8);
+                break;
+            default:
+                throw new IllegalStateException("Unknown field type in document record: " + type);
+        }
+    }
+
+    private static void checkVersion(final int version) {
+        if (version < VERSION_START || version > VERSION_CURRENT) {
+            throw new IllegalStateException("Unsupported document record version: " + version);
+        }
+    }
+
+    static EDBDocument decode(final ByteArrayDataInput in) throws IOException {
+        checkVersion(in.readByte());
+        final EDBDocument document = new EDBDocument();
+        final int fieldCount = in.readVInt();
+        for (int i = 0; i < fieldCount; i++) {
+            final EDBStoredField field = new EDBStoredField();
+            field.setNumber(in.readVInt());
+            final byte type = in.readByte();
+            switch (type) {
+                case STRING:
+                    field.setStringValue(in.readString());
+                    break;
+                case BYTE_ARR:
+                    final byte[] bytes = new byte[in.readVInt()];
+                    in.readBytes(bytes, 0, bytes.length);
+                    field.setBinaryValue(bytes);
+                    field.setLength(bytes.length);
+                    break;
+                case NUMERIC_INT:
+                    field.setNumericValue(in.readZInt());
+                    break;
+                case NUMERIC_LONG:
+                    field.setNumericValue(in.readZLong());
+                    break;
+                case NUMERIC_FLOAT:
+                    field.setNumericValue(Float.intBitsToFloat(in.readInt()));
+                    break;
+                case NUMERIC_DOUBLE:
+                    field.setNumericValue(Double.longBitsToDouble(in.readLong()));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown field type in document record: " + type);
+            }
+            document.addField(field);
+        }
+        return document;
+    }
+}
@@ -0,0 +1,111 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.UUID;
+
+/**
+ * Fixed width binary keys of the document store. A key is the 16 byte id of the writer handle (the UUID written to
+ * the segment's fields file) followed by the big-endian document ID, so the documents of a segment sort next to each
+ * other and in document order in the B-tree.
+ */
+public final class EDBDocumentKey {
+
+    /** Length of the binary handle id */
+    public static final int HANDLE_LENGTH = 16;
+
+    /** Length of a complete document key */
+    public static final int KEY_LENGTH = HANDLE_LENGTH + 4;
+
+    private EDBDocumentKey() {}
+
+    /**
+     * Converts the handle string stored in a fields file into its binary id
+     */
+    public static byte[] handleID(final String handle) {
+        final UUID uuid = UUID.fromString(handle);
+        final byte[] handleID = new byte[HANDLE_LENGTH];
+        writeLong(uuid.getMostSignificantBits(), handleID, 0);
+        writeLong(uuid.getLeastSignificantBits(), handleID, 8);
+        return handleID;
+    }
+
+    /**
+     * Converts a binary handle id back into the handle string stored in fields files
+     */
+    public static String handle(final byte[] handleID) {
+        return new UUID(readLong(handleID, 0), readLong(handleID, 8)).toString();
+    }
+
+    /**
+     * Returns a new key for the given document of the given handle
+     */
+    public static byte[] documentKey(final byte[] handleID, final int docID) {
+        final byte[] key = new byte[KEY_LENGTH];
+        System.arraycopy(handleID, 0, key, 0, HANDLE_LENGTH);
+        setDocID(key, docID);
+        return key;
+    }
+
+    /**
+     * Overwrites the document ID of an existing key, which allows one key buffer to be reused for a whole segment
+     */
+    public static void setDocID(final byte[] key, final int docID) {
+        key[HANDLE_LENGTH] = (byte) (docID >>> 24);
+        key[HANDLE_LENGTH + 1] = (byte) (docID >>> 16);
+        key[HANDLE_LENGTH + 2] = (byte) (docID >>> 8);
+        key[HANDLE_LENGTH + 3] = (byte) docID;
+    }
+
+    /**
+     * Returns the document ID of a key
+     */
+    public static int docID(final byte[] key, final int offset) {
+        final int pos = offset + HANDLE_LENGTH;
+        return ((key[pos] & 0xFF) << 24) | ((key[pos + 1] & 0xFF) << 16) | ((key[pos + 2] & 0xFF) << 8) | (key[pos + 3] & 0xFF);
+    }
+
+    /**
+     * Returns true if the key of the given length belongs to the given handle
+     */
+    public static boolean hasHandle(final byte[] key, final int offset, final int length, final byte[] handleID) {
+        if (length != KEY_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HANDLE_LENGTH; i++) {
+            if (key[offset + i] != handleID[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeLong(final long value, final byte[] bytes, final int offset) {
+        for (int i = 0; i < 8; i++) {
+            bytes[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    private static long readLong(final byte[] bytes, final int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,62 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Forward-only scan over the encoded records of one handle in document order. The record buffer is owned by the
+ * cursor and only valid until the next call to {@link #next()} or {@link #seek(int)}.
+ */
+public interface EDBRecordCursor extends Closeable {
+
+    /**
+     * Moves to the next record of the handle
+     *
+     * @return - False once all records of the handle were visited
+     */
+    boolean next() throws IOException;
+
+    /**
+     * Moves to the first record of the handle stored under a document ID greater than or equal to the given one,
+     * which is the block holding that document if the records are blocks keyed by their last document
+     *
+     * @return - False if the handle has no such record
+     */
+    boolean seek(int docID) throws IOException;
+
+    /**
+     * Returns the document ID the current record is stored under
+     */
+    int docID();
+
+    /**
+     * Returns the buffer holding the current record, see {@link EDBDocumentBinding} for its layout
+     */
+    byte[] record();
+
+    /**
+     * Returns the start of the current record in {@link #record()}
+     */
+    int recordOffset();
+
+    /**
+     * Returns the length of the current record
+     */
+    int recordLength();
+}
@@ -0,0 +1,306 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.sleepycat.je.EnvironmentConfig;
+
+/**
+ * Tuning of the BerkeleyDB environment behind an EmbeddedDB store. A new config holds the production profile: the
+ * checkpointer, cleaner, evictor and IN-compressor threads run so the log is reclaimed and the cache can evict under
+ * sustained indexing, and commits are synced to disk. {@link #testing()} returns the profile earlier versions always
+ * used, with every background thread disabled.
+ *
+ * The {@link Backend} decides which store is created in a new location. {@link Backend#MMAP_LOG} stores use the log
+ * file size, cleaner and durability settings, the cache and background thread settings only apply to BerkeleyDB.
+ *
+ * A config only takes effect when the store it is passed for is opened, stores which are already open keep the
+ * settings they were opened with. {@link #setExportRecords} is the exception, writers read it for every segment.
+ */
+public final class EDBStoreConfig implements Cloneable {
+
+    /** How far a committed batch of documents is written before the commit returns */
+    public enum Durability {
+        /** Written and synced to disk */
+        SYNC,
+        /** Written to the file system, but not synced */
+        WRITE_NO_SYNC,
+        /** Left in the log buffer, lost if the JVM dies before it is written */
+        NO_SYNC
+    }
+
+    /** Implementation of the store created in a location which does not hold a store yet */
+    public enum Backend {
+        /** {@link BerkeleyDBStore}, documents are kept in a BerkeleyDB B-tree */
+        BERKELEYDB,
+        /** {@link MMapLogStore}, documents are appended to log files and read through memory mapped buffers */
+        MMAP_LOG
+    }
+
+    /** Default share of the JVM heap used by the cache of one store, if no cache size is set */
+    public static final int DEFAULT_CACHE_PERCENT = 20;
+
+    /** Default maximum size of one log file */
+    public static final long DEFAULT_LOG_FILE_SIZE = 64L * 1024 * 1024;
+
+    /** Default utilization below which the cleaner compacts log files */
+    public static final int DEFAULT_CLEANER_MIN_UTILIZATION = 50;
+
+    /** Default number of cleaner threads */
+    public static final int DEFAULT_CLEANER_THREADS = 1;
+
+    private long cacheSize = 0;
+    private int cachePercent = DEFAULT_CACHE_PERCENT;
+    private long logFileSize = DEFAULT_LOG_FILE_SIZE;
+    private int cleanerMinUtilization = DEFAULT_CLEANER_MIN_UTILIZATION;
+    private Durability durability = Durability.SYNC;
+    private int cleanerThreads = DEFAULT_CLEANER_THREADS;
+    private boolean runCheckpointer = true;
+    private boolean runEvictor = true;
+    private boolean runINCompressor = true;
+    private boolean memoryOnly = false;
+    private Backend backend = Backend.BERKELEYDB;
+    private boolean exportRecords = false;
+
+    /** Creates a config holding the production profile */
+    public EDBStoreConfig() {
+    }
+
+    /**
+     * Returns a config with all background threads disabled, which starts and closes stores quickly but never
+     * reclaims log space. Only suitable for tests and short lived indexes.
+     */
+    public static EDBStoreConfig testing() {
+        return new EDBStoreConfig()
+                .setCachePercent(30)
+                .setCleanerThreads(0)
+                .setRunCheckpointer(false)
+                .setRunEvictor(false)
+                .setRunINCompressor(false);
+    }
+
+    /**
+     * Sets the size of the cache in bytes, 0 sizes it by {@link #setCachePercent(int)} instead
+     */
+    public EDBStoreConfig setCacheSize(long cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize must be >= 0, got " + cacheSize);
+        }
+        this.cacheSize = cacheSize;
+        return this;
+    }
+
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Sets the share of the JVM heap used by the cache, if no cache size in bytes is set
+     */
+    public EDBStoreConfig setCachePercent(int cachePercent) {
+        if (cachePercent < 1 || cachePercent > 90) {
+            throw new IllegalArgumentException("cachePercent must be between 1 and 90, got " + cachePercent);
+        }
+        this.cachePercent = cachePercent;
+        return this;
+    }
+
+    public int getCachePercent() {
+        return cachePercent;
+    }
+
+    /**
+     * Sets the maximum size of one log file. The cleaner reclaims space one file at a time, so smaller files are
+     * reclaimed sooner at the cost of more open files.
+     */
+    public EDBStoreConfig setLogFileSize(long logFileSize) {
+        if (logFileSize < 1024 * 1024) {
+            throw new IllegalArgumentException("logFileSize must be at least 1MB, got " + logFileSize);
+        }
+        this.logFileSize = logFileSize;
+        return this;
+    }
+
+    public long getLogFileSize() {
+        return logFileSize;
+    }
+
+    /**
+     * Sets the percentage of live data below which the cleaner rewrites log files
+     */
+    public EDBStoreConfig setCleanerMinUtilization(int cleanerMinUtilization) {
+        if (cleanerMinUtilization < 0 || cleanerMinUtilization > 90) {
+            throw new IllegalArgumentException("cleanerMinUtilization must be between 0 and 90, got " + cleanerMinUtilization);
+        }
+        this.cleanerMinUtilization = cleanerMinUtilization;
+        return this;
+    }
+
+    public int getCleanerMinUtilization() {
+        return cleanerMinUtilization;
+    }
+
+    /**
+     * Sets how far committed documents are written before the commit returns
+     */
+    public EDBStoreConfig setDurability(Durability durability) {
+        if (null == durability) {
+            throw new IllegalArgumentException("durability must not be null");
+        }
+        this.durability = durability;
+        return this;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Sets the number of cleaner threads, 0 disables the cleaner
+     */
+    public EDBStoreConfig setCleanerThreads(int cleanerThreads) {
+        if (cleanerThreads < 0) {
+            throw new IllegalArgumentException("cleanerThreads must be >= 0, got " + cleanerThreads);
+        }
+        this.cleanerThreads = cleanerThreads;
+        return this;
+    }
+
+    public int getCleanerThreads() {
+        return cleanerThreads;
+    }
+
+    /**
+     * Sets whether the checkpointer thread runs, which bounds recovery time after a crash
+     */
+    public EDBStoreConfig setRunCheckpointer(boolean runCheckpointer) {
+        this.runCheckpointer = runCheckpointer;
+        return this;
+    }
+
+    public boolean getRunCheckpointer() {
+        return runCheckpointer;
+    }
+
+    /**
+     * Sets whether the evictor thread runs, otherwise the cache is only evicted by the threads using the store
+     */
+    public EDBStoreConfig setRunEvictor(boolean runEvictor) {
+        this.runEvictor = runEvictor;
+        return this;
+    }
+
+    public boolean getRunEvictor() {
+        return runEvictor;
+    }
+
+    /**
+     * Sets whether the IN-compressor thread runs, which removes deleted entries from the B-tree
+     */
+    public EDBStoreConfig setRunINCompressor(boolean runINCompressor) {
+        this.runINCompressor = runINCompressor;
+        return this;
+    }
+
+    public boolean getRunINCompressor() {
+        return runINCompressor;
+    }
+
+    /**
+     * Sets whether the store only lives in memory and never writes to its location
+     */
+    public EDBStoreConfig setMemoryOnly(boolean memoryOnly) {
+        this.memoryOnly = memoryOnly;
+        return this;
+    }
+
+    public boolean getMemoryOnly() {
+        return memoryOnly;
+    }
+
+    /**
+     * Sets the implementation of stores created by this config. Locations which already hold a store keep the
+     * implementation they were created with, and memory only stores always use BerkeleyDB.
+     */
+    public EDBStoreConfig setBackend(Backend backend) {
+        if (null == backend) {
+            throw new IllegalArgumentException("backend must not be null");
+        }
+        this.backend = backend;
+        return this;
+    }
+
+    public Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Sets whether new segments also write their documents to a records file among the index files. Copies of the
+     * index, e.g. made by replication, then carry the documents of their segments, and a reader whose store lacks
+     * them imports them from the file. Off by default, as the file doubles the disk space taken by documents.
+     */
+    public EDBStoreConfig setExportRecords(boolean exportRecords) {
+        this.exportRecords = exportRecords;
+        return this;
+    }
+
+    public boolean getExportRecords() {
+        return exportRecords;
+    }
+
+    /** Builds the BerkeleyDB configuration of an environment opened with this config */
+    EnvironmentConfig toEnvironmentConfig() {
+        final EnvironmentConfig environmentConfig = new EnvironmentConfig();
+        environmentConfig.setAllowCreate(true);
+        environmentConfig.setTransactional(true);
+        if (cacheSize > 0) {
+            environmentConfig.setCacheSize(cacheSize);
+        }
+        else {
+            environmentConfig.setCachePercent(cachePercent);
+        }
+        environmentConfig.setConfigParam(BerkeleyDBCoreConstants.LOG_FILE_MAX, Long.toString(logFileSize));
+        environmentConfig.setConfigParam(BerkeleyDBCoreConstants.CLEANER_MIN_UTILIZATION, Integer.toString(cleanerMinUtilization));
+        environmentConfig.setConfigParam(BerkeleyDBCoreConstants.ENV_RUN_CLEANER, Boolean.toString(cleanerThreads > 0));
+        environmentConfig.setConfigParam(BerkeleyDBCoreConstants.CLEANER_THREADS, Integer.toString(Math.max(1, cleanerThreads)));
+        environmentConfig.setConfigParam(BerkeleyDBCoreConstants.ENV_RUN_CHECKPOINTER, Boolean.toString(runCheckpointer));
+        environmentConfig.setConfigParam(BerkeleyDBCoreConstants.ENV_RUN_EVICTOR, Boolean.toString(runEvictor));
+        environmentConfig.setConfigParam(BerkeleyDBCoreConstants.ENV_RUN_IN_COMPRESSOR, Boolean.toString(runINCompressor));
+        environmentConfig.setConfigParam(BerkeleyDBCoreConstants.LOG_MEM_ONLY, Boolean.toString(memoryOnly));
+        environmentConfig.setTxnNoSync(durability == Durability.NO_SYNC);
+        environmentConfig.setTxnWriteNoSync(durability == Durability.WRITE_NO_SYNC);
+        return environmentConfig;
+    }
+
+    @Override
+    public EDBStoreConfig clone() {
+        try {
+            return (EDBStoreConfig) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EDBStoreConfig(backend=" + backend + ", cacheSize=" + cacheSize + ", cachePercent=" + cachePercent + ", logFileSize=" + logFileSize
+                + ", cleanerMinUtilization=" + cleanerMinUtilization + ", durability=" + durability
+                + ", cleanerThreads=" + cleanerThreads + ", runCheckpointer=" + runCheckpointer
+                + ", runEvictor=" + runEvictor + ", runINCompressor=" + runINCompressor + ", memoryOnly=" + memoryOnly
+                + ", exportRecords=" + exportRecords + ")";
+    }
+}
@@ -0,0 +1,117 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.sleepycat.je.EnvironmentStats;
+
+/**
+ * Live counters of one store: latencies of record reads, record writes and commits, and the bytes moved by them.
+ * Every read or written record is counted, including the records walked by cursors, so the counters show how much
+ * work stored field retrieval puts on the store. {@link #snapshot} combines them with the statistics of the
+ * BerkeleyDB environment, or of the log files of an {@link MMapLogStore}, into an {@link EDBStoreStats}.
+ */
+final class EDBStoreMetrics {
+
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    /**
+     * Counts a record read from the store
+     *
+     * @param nanos - Time the read took
+     * @param bytes - Length of the record, 0 if the record was not found
+     */
+    void recordRead(final long nanos, final int bytes) {
+        readLatency.record(nanos);
+        bytesRead.addAndGet(bytes);
+    }
+
+    /**
+     * Counts a record written to the store
+     */
+    void recordWrite(final long nanos, final int bytes) {
+        writeLatency.record(nanos);
+        bytesWritten.addAndGet(bytes);
+    }
+
+    /**
+     * Counts a committed write batch
+     */
+    void recordCommit(final long nanos) {
+        commitLatency.record(nanos);
+    }
+
+    /**
+     * Returns the current counters together with the given environment statistics
+     */
+    EDBStoreStats snapshot(final EnvironmentStats environment) {
+        return new EDBStoreStats(1, readLatency.snapshot(), bytesRead.get(), writeLatency.snapshot(), bytesWritten.get(),
+                commitLatency.snapshot(), environment.getCacheTotalBytes(), environment.getNCacheMiss(),
+                environment.getNNotResident(), environment.getNEvictPasses(), environment.getNNodesExplicitlyEvicted(),
+                environment.getTotalLogSize(), environment.getCleanerBacklog());
+    }
+
+    /**
+     * Returns the current counters of a store without a cache of its own, whose reads are served by the page cache
+     *
+     * @param indexBytes - Heap used to locate records, reported as the cache size
+     * @param logSize - Total size of the store's files
+     * @param cleanerBacklog - Number of files waiting to be compacted
+     */
+    EDBStoreStats snapshot(final long indexBytes, final long logSize, final int cleanerBacklog) {
+        return new EDBStoreStats(1, readLatency.snapshot(), bytesRead.get(), writeLatency.snapshot(), bytesWritten.get(),
+                commitLatency.snapshot(), indexBytes, 0, 0, 0, 0, logSize, cleanerBacklog);
+    }
+
+    /**
+     * Histogram with one bucket per power of two nanoseconds, which is precise enough to tell cache hits from disk
+     * reads and cheap enough to update on every read
+     */
+    static final class LatencyHistogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(EDBStoreStats.Latency.BUCKETS);
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            if(nanos < 1) {
+                nanos = 1;
+            }
+            buckets.incrementAndGet(EDBStoreStats.Latency.bucket(nanos));
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while(nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        EDBStoreStats.Latency snapshot() {
+            final long[] counts = new long[buckets.length()];
+            for(int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return new EDBStoreStats.Latency(counts, totalNanos.get(), maxNanos.get());
+        }
+    }
+}
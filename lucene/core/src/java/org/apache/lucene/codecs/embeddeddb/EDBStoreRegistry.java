@@ -0,0 +1,208 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.store.CompoundFileDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.EDBDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.util.RefCount;
+
+/**
+ * Keeps one reference counted {@link EmbeddedDBStore} per store location. Readers and writers of the EmbeddedDB
+ * codec acquire the store of the directory they work on and release it when they are closed, so a store's
+ * environment is opened by the first IndexWriter or DirectoryReader of an index and closed with the last one.
+ *
+ * The location is taken from the {@link EDBDirectory} the directory wraps, directories which are not backed by an
+ * EDBDirectory all share the default store. A store which only lives in memory is held open by the registry itself,
+ * as its documents would otherwise be lost whenever no reader or writer happens to hold it.
+ *
+ * A store is opened with the {@link EDBStoreConfig} of the first reader or writer acquiring it, or with the
+ * registry's default config if none is given. Later acquirers share the store as it was opened. A location which
+ * already holds the files of a store is reopened with the same implementation, whatever the config's
+ * {@link EDBStoreConfig.Backend} is.
+ */
+public final class EDBStoreRegistry {
+
+    /** Location of the shared store used by directories which do not configure their own */
+    public static final String DEFAULT_LOCATION = "tmp_lucene_embedded_store_directory";
+
+    /** Name of the default location which keeps the shared store in memory only */
+    static final String MEMORY_ONLY_LOCATION = "RAM";
+
+    private static final Map<File,RefCount<EmbeddedDBStore>> stores = new HashMap<>();
+
+    private static volatile EDBStoreConfig defaultConfig = new EDBStoreConfig();
+
+    private EDBStoreRegistry() {}
+
+    /**
+     * Returns the store of the given directory, opening it if no other reader or writer holds it. Every call must be
+     * matched by a call to {@link #release}.
+     */
+    public static EmbeddedDBStore acquire(final Directory directory) throws IOException {
+        return acquire(storeLocation(directory), null);
+    }
+
+    /**
+     * Returns the store of the given directory, opening it with the given config if no other reader or writer holds
+     * it. Every call must be matched by a call to {@link #release}.
+     *
+     * @param config - Config to open the store with, or null to use the default config
+     */
+    public static EmbeddedDBStore acquire(final Directory directory, final EDBStoreConfig config) throws IOException {
+        return acquire(storeLocation(directory), config);
+    }
+
+    /**
+     * Returns the store kept in the given location, opening it if it is not held yet. Every call must be matched by
+     * a call to {@link #release}.
+     */
+    public static EmbeddedDBStore acquire(final File location) throws IOException {
+        return acquire(location, null);
+    }
+
+    /**
+     * Returns the store kept in the given location, opening it with the given config if it is not held yet. Every
+     * call must be matched by a call to {@link #release}.
+     *
+     * @param config - Config to open the store with, or null to use the default config
+     */
+    public static EmbeddedDBStore acquire(final File location, EDBStoreConfig config) throws IOException {
+        final File key = location.getCanonicalFile();
+        synchronized (stores) {
+            RefCount<EmbeddedDBStore> store = stores.get(key);
+            if (null == store) {
+                if (null == config) {
+                    config = defaultConfig;
+                }
+                if (MEMORY_ONLY_LOCATION.equals(location.getPath())) {
+                    config = config.clone().setMemoryOnly(true);
+                }
+                store = newStore(key, openStore(location, config));
+                stores.put(key, store);
+                if (config.getMemoryOnly()) {
+                    store.incRef();
+                }
+            }
+            else {
+                store.incRef();
+            }
+            return store.get();
+        }
+    }
+
+    /**
+     * Releases a store obtained from {@link #acquire}, its environment is closed once it is no longer held
+     */
+    public static void release(final EmbeddedDBStore store) throws IOException {
+        synchronized (stores) {
+            final RefCount<EmbeddedDBStore> refCount = stores.get(store.getLocation().getCanonicalFile());
+            if (null == refCount || refCount.get() != store) {
+                throw new IllegalStateException("store " + store.getLocation() + " was already released");
+            }
+            refCount.decRef();
+        }
+    }
+
+    /**
+     * Returns the statistics of every open store, by location
+     */
+    public static Map<File,EDBStoreStats> getStats() throws IOException {
+        synchronized (stores) {
+            final Map<File,EDBStoreStats> stats = new HashMap<>();
+            for (Map.Entry<File,RefCount<EmbeddedDBStore>> store : stores.entrySet()) {
+                stats.put(store.getKey(), store.getValue().get().getStats());
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Sets the config used to open stores for which no config is given, such as the stores opened by readers which
+     * obtained the codec by name. Stores which are already open are not affected.
+     */
+    public static void setDefaultConfig(final EDBStoreConfig config) {
+        if (null == config) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+        defaultConfig = config.clone();
+    }
+
+    /**
+     * Returns a copy of the config used to open stores for which no config is given
+     */
+    public static EDBStoreConfig getDefaultConfig() {
+        return defaultConfig.clone();
+    }
+
+    /**
+     * Opens the store kept in the given location, with the implementation of the files found there or, in a new
+     * location, with the one the config asks for
+     */
+    private static EmbeddedDBStore openStore(final File location, final EDBStoreConfig config) throws IOException {
+        if (!config.getMemoryOnly() && (MMapLogStore.exists(location)
+                || (config.getBackend() == EDBStoreConfig.Backend.MMAP_LOG && !BerkeleyDBStore.exists(location)))) {
+            return new MMapLogStore(location, config);
+        }
+        return new BerkeleyDBStore(location, config);
+    }
+
+    private static RefCount<EmbeddedDBStore> newStore(final File key, final EmbeddedDBStore store) {
+        return new RefCount<EmbeddedDBStore>(store) {
+            @Override
+            protected void release() throws IOException {
+                object.close();
+                stores.remove(key);
+            }
+        };
+    }
+
+    /**
+     * Returns the location of the store holding the documents of the given directory
+     */
+    static File storeLocation(Directory directory) {
+        while (true) {
+            if (directory instanceof EDBDirectory) {
+                return ((EDBDirectory) directory).getStoreLocation();
+            }
+            else if (directory instanceof FilterDirectory) {
+                directory = ((FilterDirectory) directory).getDelegate();
+            }
+            else if (directory instanceof CompoundFileDirectory) {
+                directory = ((CompoundFileDirectory) directory).getDirectory();
+            }
+            else {
+                return defaultLocation();
+            }
+        }
+    }
+
+    /**
+     * Location of the shared store. Earlier versions kept every index in this store and read its location from the
+     * berkeleyDir system property, which is still honoured so existing stores are found.
+     */
+    public static File defaultLocation() {
+        final String berkeleyDir = System.getProperty("berkeleyDir");
+        return new File(null == berkeleyDir ? DEFAULT_LOCATION : berkeleyDir);
+    }
+}
@@ -0,0 +1,266 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Locale;
+
+/**
+ * Point in time statistics of one or more stores, see {@link EmbeddedDBStore#getStats()} and
+ * {@link EDBStoreRegistry#getStats()}. Reads and writes are counted per record, the cache, eviction, log and cleaner
+ * figures are those of the BerkeleyDB environment. An {@link MMapLogStore} reports the heap of its record index as
+ * cache, its log files and the files waiting for compaction, and no cache misses or evictions, as its reads are
+ * served by the operating system's page cache.
+ *
+ * BerkeleyDB only counts cache misses, as the number of tree nodes which had to be fetched from the log. Stored field
+ * retrieval is disk-bound when {@link #getCacheMissesPerRead()} stays high and the upper read latency percentiles
+ * are in the range of disk reads rather than memory accesses.
+ */
+public final class EDBStoreStats {
+
+    private final int stores;
+    private final Latency readLatency;
+    private final long bytesRead;
+    private final Latency writeLatency;
+    private final long bytesWritten;
+    private final Latency commitLatency;
+    private final long cacheBytes;
+    private final long cacheMisses;
+    private final long notResident;
+    private final long evictPasses;
+    private final long nodesEvicted;
+    private final long logSize;
+    private final int cleanerBacklog;
+
+    EDBStoreStats(final int stores, final Latency readLatency, final long bytesRead, final Latency writeLatency,
+                  final long bytesWritten, final Latency commitLatency, final long cacheBytes, final long cacheMisses,
+                  final long notResident, final long evictPasses, final long nodesEvicted, final long logSize,
+                  final int cleanerBacklog) {
+        this.stores = stores;
+        this.readLatency = readLatency;
+        this.bytesRead = bytesRead;
+        this.writeLatency = writeLatency;
+        this.bytesWritten = bytesWritten;
+        this.commitLatency = commitLatency;
+        this.cacheBytes = cacheBytes;
+        this.cacheMisses = cacheMisses;
+        this.notResident = notResident;
+        this.evictPasses = evictPasses;
+        this.nodesEvicted = nodesEvicted;
+        this.logSize = logSize;
+        this.cleanerBacklog = cleanerBacklog;
+    }
+
+    /**
+     * Returns the statistics of all given stores added up, or empty statistics if none are given
+     */
+    public static EDBStoreStats sum(final Iterable<EDBStoreStats> stats) {
+        EDBStoreStats total = new EDBStoreStats(0, Latency.EMPTY, 0, Latency.EMPTY, 0, Latency.EMPTY, 0, 0, 0, 0, 0, 0, 0);
+        for(EDBStoreStats other : stats) {
+            total = new EDBStoreStats(total.stores + other.stores, total.readLatency.add(other.readLatency),
+                    total.bytesRead + other.bytesRead, total.writeLatency.add(other.writeLatency),
+                    total.bytesWritten + other.bytesWritten, total.commitLatency.add(other.commitLatency),
+                    total.cacheBytes + other.cacheBytes, total.cacheMisses + other.cacheMisses,
+                    total.notResident + other.notResident, total.evictPasses + other.evictPasses,
+                    total.nodesEvicted + other.nodesEvicted, total.logSize + other.logSize,
+                    total.cleanerBacklog + other.cleanerBacklog);
+        }
+        return total;
+    }
+
+    /** Number of stores these statistics cover */
+    public int getStores() {
+        return stores;
+    }
+
+    /** Number of records read, by lookups and cursors */
+    public long getReads() {
+        return readLatency.getCount();
+    }
+
+    /** Latencies of record reads */
+    public Latency getReadLatency() {
+        return readLatency;
+    }
+
+    /** Total length of the records read */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /** Number of records written */
+    public long getWrites() {
+        return writeLatency.getCount();
+    }
+
+    /** Latencies of record writes, excluding their commit */
+    public Latency getWriteLatency() {
+        return writeLatency;
+    }
+
+    /** Total length of the records written */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /** Latencies of write batch commits, which include syncing the log if the store is configured to */
+    public Latency getCommitLatency() {
+        return commitLatency;
+    }
+
+    /** Bytes held by the BerkeleyDB cache */
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    /** Number of tree nodes which were not in the cache and had to be read from the log */
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /** Number of accesses to tree nodes which were not resident in the cache */
+    public long getNotResident() {
+        return notResident;
+    }
+
+    /** Cache misses per record read, 0 if nothing was read yet */
+    public double getCacheMissesPerRead() {
+        return getReads() == 0 ? 0 : (double) cacheMisses / getReads();
+    }
+
+    /** Number of passes the evictor made to keep the cache within its size */
+    public long getEvictPasses() {
+        return evictPasses;
+    }
+
+    /** Number of tree nodes evicted from the cache */
+    public long getNodesEvicted() {
+        return nodesEvicted;
+    }
+
+    /** Estimated size of the log files */
+    public long getLogSize() {
+        return logSize;
+    }
+
+    /** Number of log files waiting to be cleaned */
+    public int getCleanerBacklog() {
+        return cleanerBacklog;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "stores=%d reads=%d bytesRead=%d readLatency=[%s] writes=%d bytesWritten=%d writeLatency=[%s] commitLatency=[%s] "
+                        + "cacheBytes=%d cacheMisses=%d notResident=%d evictPasses=%d nodesEvicted=%d logSize=%d cleanerBacklog=%d",
+                stores, getReads(), bytesRead, readLatency, getWrites(), bytesWritten, writeLatency, commitLatency,
+                cacheBytes, cacheMisses, notResident, evictPasses, nodesEvicted, logSize, cleanerBacklog);
+    }
+
+    /**
+     * Latency distribution of one kind of operation. Latencies are kept in buckets of powers of two nanoseconds, so
+     * percentiles are the upper bound of the bucket they fall in, capped at the largest latency seen.
+     */
+    public static final class Latency {
+
+        static final int BUCKETS = 64;
+
+        static final Latency EMPTY = new Latency(new long[BUCKETS], 0, 0);
+
+        private final long[] buckets;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        Latency(final long[] buckets, final long totalNanos, final long maxNanos) {
+            this.buckets = buckets;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            long count = 0;
+            for(long bucket : buckets) {
+                count += bucket;
+            }
+            this.count = count;
+        }
+
+        /**
+         * Returns the bucket of the given latency, which must be positive
+         */
+        static int bucket(final long nanos) {
+            return 63 - Long.numberOfLeadingZeros(nanos);
+        }
+
+        Latency add(final Latency other) {
+            final long[] sum = new long[BUCKETS];
+            for(int i = 0; i < BUCKETS; i++) {
+                sum[i] = buckets[i] + other.buckets[i];
+            }
+            return new Latency(sum, totalNanos + other.totalNanos, Math.max(maxNanos, other.maxNanos));
+        }
+
+        /** Number of operations */
+        public long getCount() {
+            return count;
+        }
+
+        /** Time taken by all operations together */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /** Mean latency, 0 if there were no operations */
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /** Largest latency seen */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * Returns the latency the given share of operations stayed within
+         *
+         * @param percentile - Share of operations, between 0 and 100
+         * @return - Upper bound of the latency, 0 if there were no operations
+         */
+        public long getPercentileNanos(final double percentile) {
+            if(percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100, got " + percentile);
+            }
+            if(count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if(seen >= rank) {
+                    final long upperBound = i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                    return Math.min(upperBound, maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "mean=%.0fns p50=%dns p99=%dns max=%dns",
+                    getMeanNanos(), getPercentileNanos(50), getPercentileNanos(99), maxNanos);
+        }
+    }
+}
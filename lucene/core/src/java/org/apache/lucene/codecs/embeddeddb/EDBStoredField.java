@@ -28,8 +28,14 @@ import java.io.Serializable;
  */
 public class EDBStoredField implements Serializable {
 
+    /** Pinned to the value computed for the original class so records written through SerialBinding still load */
+    private static final long serialVersionUID = 263431399723928040L;
+
+    /** Only set on records that were written through Java serialization, which did not record field numbers */
     private String name;
 
+    private int number;
+
     private byte[] binaryValue;
 
     private int offset;
@@ -48,6 +54,14 @@ public class EDBStoredField implements Serializable {
         this.name = name;
     }
 
+    public int getNumber() {
+        return number;
+    }
+
+    public void setNumber(int number) {
+        this.number = number;
+    }
+
     public byte[] getBinaryValue() {
         return binaryValue;
     }
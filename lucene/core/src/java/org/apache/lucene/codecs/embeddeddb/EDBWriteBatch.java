@@ -0,0 +1,49 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.IOException;
+
+/**
+ * An all-or-nothing set of documents written under one handle. Documents are added in increasing document order and
+ * only become durable once {@link #commit()} returns; {@link #abort()} discards everything added so far. A store may
+ * make some of the documents visible before the batch commits, e.g. to bound the size of its transactions, so a
+ * handle must not be read before its batch committed.
+ */
+public interface EDBWriteBatch {
+
+    /**
+     * Adds an encoded record (see {@link EDBDocumentBinding}) for the given document
+     *
+     * @param docID - The document's ID within the handle, must be greater than the previously added one
+     * @param record - Buffer holding the record
+     * @param offset - Start of the record in the buffer
+     * @param length - Length of the record
+     */
+    void put(final int docID, final byte[] record, final int offset, final int length) throws IOException;
+
+    /**
+     * Makes all added documents visible and as durable as the store's {@link EDBStoreConfig.Durability} asks for,
+     * the batch may not be used afterwards
+     */
+    void commit() throws IOException;
+
+    /**
+     * Discards all added documents, does nothing if the batch was already committed or aborted
+     */
+    void abort();
+}
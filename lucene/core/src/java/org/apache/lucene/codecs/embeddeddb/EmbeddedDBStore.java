@@ -17,25 +17,108 @@ package org.apache.lucene.codecs.embeddeddb;
  * limitations under the License.
  */
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BytesRef;
+
 /**
  * Created by rlmathes on 7/29/17.
  *
+ * Key/value store holding the documents of EmbeddedDB segments. {@link BerkeleyDBStore} keeps them in a BerkeleyDB
+ * environment, {@link MMapLogStore} in append-only log files read through memory mapped buffers. Stores are opened
+ * per location by {@link EDBStoreRegistry}, see {@link EDBStoreConfig.Backend}.
  */
-public interface EmbeddedDBStore {
+public interface EmbeddedDBStore extends Closeable, Accountable {
+
+    /**
+     * Returns the directory holding the files of this store
+     */
+    File getLocation();
 
     /**
-     * Method will store a document object in the key/value database, using the given segment name and document ID
+     * Returns the current statistics of this store
      *
-     * @param documentKey - A string Key used to retrieve a single document from the database
+     * @throws IOException - If the statistics cannot be read
+     */
+    EDBStoreStats getStats() throws IOException;
+
+    /**
+     * Method will store a document object in the key/value database, using the given handle and document ID
+     *
+     * @param handle - Binary id of the writer handle the document belongs to, see {@link EDBDocumentKey#handleID}
+     * @param docID - The document's ID within the handle
      * @param document - The object representative of the lucene document being stored
      */
-    void put(final String documentKey, final EDBDocument document);
+    void put(final byte[] handle, final int docID, final EDBDocument document);
 
     /**
-     * Method will return the desired document object based on the given segment name and document ID
+     * Method will start a batch of documents for the given handle, which are written in document order and become
+     * visible all at once when the batch commits
      *
-     * @param documentKey - Document key the desired document is associated with
+     * @param handle - Binary id of the writer handle the documents belong to
+     * @return - A new write batch
+     */
+    EDBWriteBatch beginWriteBatch(final byte[] handle) throws IOException;
+
+    /**
+     * Method will return the desired document object based on the given handle and document ID
+     *
+     * @param handle - Binary id of the writer handle the document belongs to
+     * @param docID - The document's ID within the handle
      * @return - Returns a document object
      */
-    EDBDocument get(final String documentKey);
+    EDBDocument get(final byte[] handle, final int docID);
+
+    /**
+     * Method will return the stored record of the given document without decoding it, so callers can read only
+     * the fields they need
+     *
+     * @param handle - Binary id of the writer handle the document belongs to
+     * @param docID - The document's ID within the handle
+     * @return - The encoded record, see {@link EDBDocumentBinding}, or null if the document is not in the store
+     */
+    BytesRef getRecord(final byte[] handle, final int docID);
+
+    /**
+     * Method will open a cursor over the encoded records of the given handle, in document order. Records of
+     * documents that were never written or are still stored under a legacy key are not returned.
+     *
+     * @param handle - Binary id of the writer handle to scan
+     * @return - A new record cursor, which must be closed by the caller
+     */
+    EDBRecordCursor openRecordCursor(final byte[] handle) throws IOException;
+
+    /**
+     * Method will delete all documents that were stored under the given handle
+     *
+     * @param handle - Binary id of the writer handle whose documents are no longer referenced
+     * @return - False if the documents could not all be deleted, in which case the purge should be retried later
+     */
+    boolean purgeStaleHandle(final byte[] handle);
+
+    /**
+     * Method will mark the given handle as being read, so it is not purged while a reader still uses it. Every call
+     * must be matched by a call to {@link #releaseHandle}.
+     *
+     * @param handle - Binary id of the writer handle being read
+     */
+    void retainHandle(final byte[] handle);
+
+    /**
+     * Method will release a handle previously marked by {@link #retainHandle}
+     *
+     * @param handle - Binary id of the writer handle no longer being read
+     */
+    void releaseHandle(final byte[] handle);
+
+    /**
+     * Method will return whether any reader still retains the given handle
+     *
+     * @param handle - Binary id of a writer handle
+     * @return - True if the handle's documents may still be read
+     */
+    boolean isHandleRetained(final byte[] handle);
 }
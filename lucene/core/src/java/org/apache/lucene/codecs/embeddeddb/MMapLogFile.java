@@ -0,0 +1,159 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * One append-only log file of an {@link MMapLogStore}. Committed frames are read through memory mapped chunks of
+ * {@link #CHUNK_SIZE} bytes. A complete chunk is mapped once, only the last chunk is replaced by a longer one as
+ * commits append to the file, so a growing file never maps more than one chunk again and a reader only ever copies
+ * a record out of the chunks it obtained and never takes a lock. Buffers which are no longer used, including those
+ * of deleted files, are unmapped by the garbage collector.
+ */
+final class MMapLogFile {
+
+    static final int CHUNK_SHIFT = 24;
+
+    /** Size of the mapped chunks of a file */
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    final int generation;
+    final File file;
+
+    /** Number of bytes written to the file, only changed under the store's write lock */
+    volatile long length;
+
+    /** Mapped chunks of the file, holding at least every committed frame, only the last one may be shorter */
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+    /** Total length of the records of this file which are the current version of a live document */
+    final AtomicLong liveBytes = new AtomicLong();
+
+    /** Handles with put frames in this file, guarded by the store's write lock */
+    final Set<BytesRef> handles = new HashSet<>();
+
+    /** Handles with purge frames in this file, guarded by the store's write lock */
+    final Set<BytesRef> purges = new HashSet<>();
+
+    /**
+     * Files holding put frames of batches which were committed in this file. This file's commit frames are needed
+     * until they are gone, guarded by the store's write lock.
+     */
+    final Set<MMapLogFile> committedFrom = new HashSet<>();
+
+    /** Set once the file was compacted and removed from the store */
+    volatile boolean deleted;
+
+    MMapLogFile(final File location, final int generation) {
+        this.generation = generation;
+        this.file = new File(location, name(generation));
+    }
+
+    /**
+     * Returns the name of the log file of the given generation
+     */
+    static String name(final int generation) {
+        return String.format(Locale.ROOT, "%010d%s", generation, MMapLogStore.EXTENSION);
+    }
+
+    /**
+     * Returns the generation of the given log file name, or -1 if it is not the name of a log file
+     */
+    static int generation(final String name) {
+        if(!name.endsWith(MMapLogStore.EXTENSION)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - MMapLogStore.EXTENSION.length()));
+        }
+        catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Maps the file up to the given length, unless it is mapped that far already. Complete chunks stay mapped, only
+     * the last chunk is mapped again.
+     */
+    void map(final long size) throws IOException {
+        final ByteBuffer[] current = chunks;
+        int first = current.length;
+        if(first > 0) {
+            final ByteBuffer last = current[first - 1];
+            if(((long) (first - 1) << CHUNK_SHIFT) + last.capacity() >= size) {
+                return;
+            }
+            if(last.capacity() < CHUNK_SIZE) {
+                first--;
+            }
+        }
+        final ByteBuffer[] grown = Arrays.copyOf(current, (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT));
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for(int i = first; i < grown.length; i++) {
+                final long start = (long) i << CHUNK_SHIFT;
+                grown[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+            }
+        }
+        chunks = grown;
+    }
+
+    /**
+     * Copies a committed record out of the mapped chunks
+     */
+    void read(final long offset, final byte[] dest, int destOffset, int length) {
+        final ByteBuffer[] chunks = this.chunks;
+        int chunk = (int) (offset >>> CHUNK_SHIFT);
+        int position = (int) (offset & (CHUNK_SIZE - 1));
+        while(length > 0) {
+            // a private view, so that readers may position it freely
+            final ByteBuffer view = chunks[chunk].duplicate();
+            view.position(position);
+            final int count = Math.min(length, view.remaining());
+            view.get(dest, destOffset, count);
+            destOffset += count;
+            length -= count;
+            chunk++;
+            position = 0;
+        }
+    }
+
+    /**
+     * Returns the share of the file, in percent, which holds records of live documents
+     */
+    int utilization() {
+        final long recordSpace = length - MMapLogStore.HEADER_LENGTH;
+        return recordSpace <= 0 ? 100 : (int) (100 * liveBytes.get() / recordSpace);
+    }
+
+    @Override
+    public String toString() {
+        return file.getName();
+    }
+}
@@ -0,0 +1,313 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.packed.PackedInts;
+import org.apache.lucene.util.packed.PackedLongValues;
+
+/**
+ * Immutable index of the records of one handle in an {@link MMapLogStore}. Every committed write batch adds a run,
+ * which maps the batch's document IDs to the file, offset and length of their records in packed arrays. A document
+ * written by several batches is read from the newest run holding it. Runs are merged into one once a handle
+ * collects too many of them, which keeps lookups at one binary search for handles written by a single batch, as
+ * the handles of flushed and merged segments are.
+ */
+final class MMapLogIndex implements Accountable {
+
+    /** Number of runs a handle may collect before they are merged into one */
+    static final int MAX_RUNS = 8;
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(MMapLogIndex.class);
+
+    /** Runs of the handle, oldest first */
+    final Run[] runs;
+
+    MMapLogIndex(final Run run) {
+        this(new Run[] {run});
+    }
+
+    private MMapLogIndex(final Run[] runs) {
+        this.runs = runs;
+    }
+
+    /**
+     * Returns a new index holding the runs of this one and the given newer run, merged into one run if there are
+     * more than {@link #MAX_RUNS}
+     */
+    MMapLogIndex add(final Run run) {
+        final Run[] added = Arrays.copyOf(runs, runs.length + 1);
+        added[runs.length] = run;
+        final MMapLogIndex index = new MMapLogIndex(added);
+        return added.length > MAX_RUNS ? index.merge() : index;
+    }
+
+    /**
+     * Returns an index holding a single run with the current record of every document of this index
+     */
+    MMapLogIndex merge() {
+        final Builder builder = new Builder();
+        final Iterator iterator = iterator();
+        while(iterator.next()) {
+            final Run run = iterator.run();
+            final int index = iterator.index();
+            builder.add(iterator.docID(), run.file(index), run.offset(index), run.length(index));
+        }
+        return new MMapLogIndex(builder.build());
+    }
+
+    /**
+     * Returns the newest run holding the given document, or null if the handle has no record for it
+     */
+    Run find(final int docID) {
+        for(int i = runs.length - 1; i >= 0; i--) {
+            final int index = runs[i].ceil(docID);
+            if(index < runs[i].size && runs[i].docID(index) == docID) {
+                return runs[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if a record of this index is kept in the given file
+     */
+    boolean references(final MMapLogFile file) {
+        for(final Run run : runs) {
+            if(run.references(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns an iterator over the current records of this index, in document order
+     */
+    Iterator iterator() {
+        return new Iterator(runs);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long ramBytesUsed = BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(runs);
+        for(final Run run : runs) {
+            ramBytesUsed += run.ramBytesUsed();
+        }
+        return ramBytesUsed;
+    }
+
+    /**
+     * The records written by one batch, sorted by document ID. Addresses hold the ordinal of the record's file in
+     * {@link #files} in their upper and the record's offset in their lower 32 bits.
+     */
+    static final class Run implements Accountable {
+
+        private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(Run.class);
+
+        private final PackedLongValues docIDs;
+        private final PackedLongValues addresses;
+        private final PackedLongValues lengths;
+        private final MMapLogFile[] files;
+        final int size;
+
+        private Run(final PackedLongValues docIDs, final PackedLongValues addresses, final PackedLongValues lengths,
+                    final MMapLogFile[] files) {
+            this.docIDs = docIDs;
+            this.addresses = addresses;
+            this.lengths = lengths;
+            this.files = files;
+            this.size = (int) docIDs.size();
+        }
+
+        /**
+         * Returns the position of the first record with a document ID greater than or equal to the given one, or
+         * {@link #size} if there is none
+         */
+        int ceil(final int docID) {
+            int low = 0;
+            int high = size - 1;
+            while(low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int midDocID = docID(mid);
+                if(midDocID < docID) {
+                    low = mid + 1;
+                }
+                else if(midDocID > docID) {
+                    high = mid - 1;
+                }
+                else {
+                    return mid;
+                }
+            }
+            return low;
+        }
+
+        int docID(final int index) {
+            return (int) docIDs.get(index);
+        }
+
+        MMapLogFile file(final int index) {
+            return files[(int) (addresses.get(index) >>> 32)];
+        }
+
+        long offset(final int index) {
+            return addresses.get(index) & 0xFFFFFFFFL;
+        }
+
+        int length(final int index) {
+            return (int) lengths.get(index);
+        }
+
+        boolean references(final MMapLogFile file) {
+            for(final MMapLogFile other : files) {
+                if(other == file) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            return BASE_RAM_BYTES_USED + docIDs.ramBytesUsed() + addresses.ramBytesUsed() + lengths.ramBytesUsed()
+                    + RamUsageEstimator.shallowSizeOf(files);
+        }
+    }
+
+    /**
+     * Collects the records of a run, which must be added in increasing document order
+     */
+    static final class Builder implements Accountable {
+
+        private final PackedLongValues.Builder docIDs = PackedLongValues.monotonicBuilder(PackedInts.COMPACT);
+        private final PackedLongValues.Builder addresses = PackedLongValues.deltaPackedBuilder(PackedInts.COMPACT);
+        private final PackedLongValues.Builder lengths = PackedLongValues.packedBuilder(PackedInts.COMPACT);
+        private final List<MMapLogFile> files = new ArrayList<>();
+        private int lastDocID = -1;
+
+        void add(final int docID, final MMapLogFile file, final long offset, final int length) {
+            if(docID <= lastDocID) {
+                throw new IllegalArgumentException("documents must be added in increasing order, got " + docID + " after " + lastDocID);
+            }
+            int ordinal = files.size() - 1;
+            while(ordinal >= 0 && files.get(ordinal) != file) {
+                ordinal--;
+            }
+            if(ordinal < 0) {
+                ordinal = files.size();
+                files.add(file);
+            }
+            docIDs.add(docID);
+            addresses.add(((long) ordinal << 32) | offset);
+            lengths.add(length);
+            lastDocID = docID;
+        }
+
+        long size() {
+            return docIDs.size();
+        }
+
+        Run build() {
+            return new Run(docIDs.build(), addresses.build(), lengths.build(), files.toArray(new MMapLogFile[files.size()]));
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            return docIDs.ramBytesUsed() + addresses.ramBytesUsed() + lengths.ramBytesUsed();
+        }
+    }
+
+    /**
+     * Walks the current records of an index in document order, taking each document from the newest run holding it
+     */
+    static final class Iterator {
+
+        private final Run[] runs;
+        /** Position of the next record of every run which was not returned yet */
+        private final int[] positions;
+        private Run run;
+        private int index;
+        private int docID = -1;
+
+        private Iterator(final Run[] runs) {
+            this.runs = runs;
+            this.positions = new int[runs.length];
+        }
+
+        /**
+         * Moves to the next record, returns false once every record was visited
+         */
+        boolean next() {
+            run = null;
+            int minDocID = Integer.MAX_VALUE;
+            for(int i = runs.length - 1; i >= 0; i--) {
+                if(positions[i] < runs[i].size) {
+                    final int candidate = runs[i].docID(positions[i]);
+                    if(null == run || candidate < minDocID) {
+                        run = runs[i];
+                        index = positions[i];
+                        minDocID = candidate;
+                    }
+                }
+            }
+            if(null == run) {
+                docID = Integer.MAX_VALUE;
+                return false;
+            }
+            docID = minDocID;
+            // older versions of the document are skipped along with it
+            for(int i = 0; i < runs.length; i++) {
+                if(positions[i] < runs[i].size && runs[i].docID(positions[i]) == docID) {
+                    positions[i]++;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Moves to the first record of a document ID greater than or equal to the given one, returns false if
+         * there is none
+         */
+        boolean seek(final int target) {
+            for(int i = 0; i < runs.length; i++) {
+                positions[i] = runs[i].ceil(target);
+            }
+            return next();
+        }
+
+        int docID() {
+            return docID;
+        }
+
+        /** Run holding the current record */
+        Run run() {
+            return run;
+        }
+
+        /** Position of the current record in {@link #run()} */
+        int index() {
+            return index;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * EDBRecordCursor over the index of a handle. Records are copied out of the mapped log files into a buffer reused
+ * for the whole walk, without taking any lock.
+ *
+ * A walk with {@link #next()} stays on the index the handle had when it started. Every {@link #seek} looks the index
+ * up again, so a cursor kept open by a reader follows compactions instead of keeping the files of an index it
+ * obtained long ago mapped.
+ */
+class MMapLogRecordCursor implements EDBRecordCursor {
+
+    private final Map<BytesRef,MMapLogIndex> handles;
+    private final BytesRef handle;
+    private MMapLogIndex index;
+    private MMapLogIndex.Iterator iterator;
+    private final EDBStoreMetrics metrics;
+    private byte[] record = new byte[0];
+    private int recordLength;
+
+    /**
+     * @param handles - Current index of every handle of the store
+     * @param handle - Binary id of the handle to walk
+     */
+    MMapLogRecordCursor(final Map<BytesRef,MMapLogIndex> handles, final BytesRef handle, final EDBStoreMetrics metrics) {
+        this.handles = handles;
+        this.handle = handle;
+        this.metrics = metrics;
+        refresh();
+    }
+
+    private void refresh() {
+        final MMapLogIndex current = handles.get(handle);
+        if(current != index) {
+            index = current;
+            iterator = null == current ? null : current.iterator();
+        }
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        final long start = System.nanoTime();
+        final boolean found = null != iterator && iterator.next();
+        return read(found, start);
+    }
+
+    @Override
+    public boolean seek(final int docID) throws IOException {
+        final long start = System.nanoTime();
+        refresh();
+        final boolean found = null != iterator && iterator.seek(docID);
+        return read(found, start);
+    }
+
+    private boolean read(final boolean found, final long start) {
+        recordLength = 0;
+        if(found) {
+            final MMapLogIndex.Run run = iterator.run();
+            final int index = iterator.index();
+            recordLength = run.length(index);
+            if(record.length < recordLength) {
+                record = new byte[ArrayUtil.oversize(recordLength, 1)];
+            }
+            run.file(index).read(run.offset(index), record, 0, recordLength);
+        }
+        metrics.recordRead(System.nanoTime() - start, recordLength);
+        return found;
+    }
+
+    @Override
+    public int docID() {
+        return null == iterator ? Integer.MAX_VALUE : iterator.docID();
+    }
+
+    @Override
+    public byte[] record() {
+        return record;
+    }
+
+    @Override
+    public int recordOffset() {
+        return 0;
+    }
+
+    @Override
+    public int recordLength() {
+        return recordLength;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,896 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.GrowableByteArrayDataOutput;
+import org.apache.lucene.util.NamedThreadFactory;
+
+/**
+ * Implementation of EmbeddedDBStore which needs nothing but the JDK: documents are appended to log files and read
+ * back through memory mapped buffers, located by an in-memory index of packed offsets per writer handle. A random
+ * read is one binary search and one copy out of the page cache, without the latches of a B-tree.
+ *
+ * The store's location holds log files named after their generation. Every file starts with a header, followed by
+ * checksummed frames:
+ *
+ * <pre>
+ *   LogFile --&gt; Magic (int), Version (byte), Frame<sup>*</sup>
+ *   Frame   --&gt; Type (byte), BodyLength (int), Put | Commit | Abort | Purge, CRC32 (int)
+ *   Put     --&gt; BatchID (VLong), Handle (16 bytes), Count (VInt), &lt;DocID (VInt), Length (VInt), Record&gt;<sup>Count</sup>
+ *   Commit  --&gt; BatchID (VLong)
+ *   Abort   --&gt; BatchID (VLong)
+ *   Purge   --&gt; Handle (16 bytes)
+ * </pre>
+ *
+ * Records are encoded as described in {@link EDBDocumentBinding}. A write batch appends put frames as it goes and
+ * a commit frame at the end, so a batch is only visible, also after a restart, once it has committed. Opening a
+ * store replays its files to rebuild the index, and cuts off a frame torn by a crash at the end of the last file.
+ *
+ * Purging a handle appends a purge frame and leaves its records in place. Files are rolled at the configured log
+ * file size, at most 1GB, and a file whose live records take less than the cleaner's minimum utilization is
+ * compacted: its live records are appended again and the file is deleted. Compaction runs in a background thread
+ * unless the config disables the cleaner, and can always be started through {@link #compact()}. Reads never wait
+ * for compaction or writers, readers keep using the buffers and index they obtained while it runs.
+ */
+public class MMapLogStore implements EmbeddedDBStore {
+
+    /** Extension of log files */
+    static final String EXTENSION = ".edl";
+
+    static final int MAGIC = 0x45444C47;
+    static final byte VERSION_START = 1;
+    static final byte VERSION_CURRENT = VERSION_START;
+    static final int HEADER_LENGTH = 5;
+
+    static final byte FRAME_PUT = 1;
+    static final byte FRAME_COMMIT = 2;
+    static final byte FRAME_ABORT = 3;
+    static final byte FRAME_PURGE = 4;
+    static final int FRAME_HEADER_LENGTH = 5;
+    static final int FRAME_CHECKSUM_LENGTH = 4;
+
+    /** Size above which a write batch appends the records it collected as a frame */
+    static final int MAX_FRAME_SIZE = 1 << 20;
+
+    /** Largest size of a log file, so that the index can keep its offsets in 32 bits */
+    static final long MAX_FILE_SIZE = 1L << 30;
+
+    private final File location;
+    private final EDBStoreConfig config;
+    private final long maxFileSize;
+    private final EDBStoreMetrics metrics = new EDBStoreMetrics();
+    private final RetainedHandles retainedHandles = new RetainedHandles();
+
+    /** Index of every handle with committed records, replaced as a whole whenever a handle changes */
+    private final ConcurrentMap<BytesRef,MMapLogIndex> handles = new ConcurrentHashMap<>();
+
+    /** Log files by generation */
+    private final ConcurrentSkipListMap<Integer,MMapLogFile> files = new ConcurrentSkipListMap<>();
+
+    /** Guards appending to the log and every change of the index and files */
+    private final Object writeLock = new Object();
+    private MMapLogFile activeFile;
+    private FileChannel activeChannel;
+    private long nextBatchID;
+    private final Set<MMapLogWriteBatch> openBatches = new HashSet<>();
+    private boolean compactionScheduled;
+    private volatile boolean closed;
+
+    private final ExecutorService compactor;
+
+    /**
+     * Opens, or creates, the store kept in the given location
+     *
+     * @param location - Directory holding the log files, it is created if it does not exist
+     * @param config - Tuning of the store, it is copied so later changes to it have no effect on this store
+     */
+    public MMapLogStore(final File location, final EDBStoreConfig config) throws IOException {
+        this.location = location;
+        this.config = config.clone();
+        this.maxFileSize = Math.min(config.getLogFileSize(), MAX_FILE_SIZE);
+        location.mkdirs();
+        if(!location.isDirectory()) {
+            throw new IOException("Cannot create the document store directory " + location);
+        }
+        recover();
+        this.compactor = config.getCleanerThreads() > 0
+                ? Executors.newSingleThreadExecutor(new NamedThreadFactory("edb-log-compactor")) : null;
+        scheduleCompaction();
+    }
+
+    /**
+     * Returns true if the given location holds the log files of a store
+     */
+    static boolean exists(final File location) {
+        final String[] names = location.list();
+        if(null != names) {
+            for(final String name : names) {
+                if(MMapLogFile.generation(name) >= 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public File getLocation() {
+        return location;
+    }
+
+    /**
+     * Returns a copy of the configuration this store was opened with
+     */
+    public EDBStoreConfig getConfig() {
+        return config.clone();
+    }
+
+    public void put(final byte[] handle, final int docID, final EDBDocument document) {
+        final GrowableByteArrayDataOutput record = new GrowableByteArrayDataOutput(256);
+        try {
+            EDBDocumentBinding.encode(document, record);
+            final EDBWriteBatch batch = beginWriteBatch(handle);
+            boolean success = false;
+            try {
+                batch.put(docID, record.bytes, 0, record.length);
+                batch.commit();
+                success = true;
+            }
+            finally {
+                if(!success) {
+                    batch.abort();
+                }
+            }
+        } catch (IOException e) {
+            Logger.error("Failed to insert entry into the document store.");
+        }
+    }
+
+    public EDBWriteBatch beginWriteBatch(final byte[] handle) throws IOException {
+        synchronized (writeLock) {
+            ensureOpen();
+            final MMapLogWriteBatch batch = new MMapLogWriteBatch(this, new BytesRef(handle.clone()), nextBatchID++, metrics);
+            openBatches.add(batch);
+            return batch;
+        }
+    }
+
+    public EDBDocument get(final byte[] handle, final int docID) {
+        final BytesRef record = getRecord(handle, docID);
+        if(null == record) {
+            return new EDBDocument();
+        }
+        try {
+            return EDBDocumentBinding.decode(new ByteArrayDataInput(record.bytes, record.offset, record.length));
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt document record", e);
+        }
+    }
+
+    public BytesRef getRecord(final byte[] handle, final int docID) {
+        final long start = System.nanoTime();
+        final MMapLogIndex index = handles.get(new BytesRef(handle));
+        final MMapLogIndex.Run run = null == index ? null : index.find(docID);
+        if(null == run) {
+            metrics.recordRead(System.nanoTime() - start, 0);
+            return null;
+        }
+        final int position = run.ceil(docID);
+        final byte[] record = new byte[run.length(position)];
+        run.file(position).read(run.offset(position), record, 0, record.length);
+        metrics.recordRead(System.nanoTime() - start, record.length);
+        return new BytesRef(record);
+    }
+
+    public EDBRecordCursor openRecordCursor(final byte[] handle) throws IOException {
+        ensureOpen();
+        return new MMapLogRecordCursor(handles, new BytesRef(handle.clone()), metrics);
+    }
+
+    /**
+     * Removes the given handle from the index and appends a purge frame, so it stays removed after a restart. Its
+     * records are reclaimed by compaction.
+     *
+     * @param handle - Binary id of the handle whose documents are stale
+     * @return - False if the store is closed or the purge frame could not be written
+     */
+    public boolean purgeStaleHandle(final byte[] handle) {
+        final BytesRef key = new BytesRef(handle.clone());
+        synchronized (writeLock) {
+            if(closed) {
+                return false;
+            }
+            removeHandle(key);
+            if(!isWritten(key, null)) {
+                return true;
+            }
+            try {
+                appendFrame(FRAME_PURGE, handle, handle.length, null, 0);
+                activeFile.purges.add(key);
+                if(config.getDurability() == EDBStoreConfig.Durability.SYNC) {
+                    activeChannel.force(false);
+                }
+            } catch (IOException e) {
+                Logger.error("Failed to delete the documents of a stale handle from the document store.");
+                return false;
+            }
+        }
+        scheduleCompaction();
+        return true;
+    }
+
+    public void retainHandle(final byte[] handle) {
+        retainedHandles.retain(handle);
+    }
+
+    public void releaseHandle(final byte[] handle) {
+        retainedHandles.release(handle);
+    }
+
+    public boolean isHandleRetained(final byte[] handle) {
+        return retainedHandles.isRetained(handle);
+    }
+
+    /** Location of a frame's records, as returned by {@link #appendPut} */
+    static final class FrameLocation {
+        final MMapLogFile file;
+        final long offset;
+
+        FrameLocation(final MMapLogFile file, final long offset) {
+            this.file = file;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Appends a put frame of the given batch
+     *
+     * @param entries - Doc IDs, lengths and records of the frame
+     * @param count - Number of records in the frame
+     * @return - Where the entries were written
+     */
+    FrameLocation appendPut(final MMapLogWriteBatch batch, final byte[] entries, final int length, final int count) throws IOException {
+        final GrowableByteArrayDataOutput head = new GrowableByteArrayDataOutput(32);
+        head.writeVLong(batch.batchID);
+        head.writeBytes(batch.handle.bytes, batch.handle.offset, batch.handle.length);
+        head.writeVInt(count);
+        synchronized (writeLock) {
+            ensureOpen();
+            final long offset = appendFrame(FRAME_PUT, head.bytes, head.length, entries, length);
+            activeFile.handles.add(batch.handle);
+            return new FrameLocation(activeFile, offset + head.length);
+        }
+    }
+
+    /**
+     * Writes the remaining records and the commit frame of the given batch, then makes its records visible
+     */
+    void commit(final MMapLogWriteBatch batch) throws IOException {
+        synchronized (writeLock) {
+            try {
+                ensureOpen();
+                batch.flush();
+                if(batch.files.isEmpty()) {
+                    return;
+                }
+                final byte[] batchID = batchID(batch.batchID);
+                appendFrame(FRAME_COMMIT, batchID, batchID.length, null, 0);
+                if(config.getDurability() == EDBStoreConfig.Durability.SYNC) {
+                    activeChannel.force(false);
+                }
+                for(final MMapLogFile file : batch.files) {
+                    file.map(file.length);
+                    if(file != activeFile) {
+                        activeFile.committedFrom.add(file);
+                    }
+                }
+                install(batch.handle, batch.records.build());
+            }
+            finally {
+                openBatches.remove(batch);
+            }
+        }
+    }
+
+    /**
+     * Discards the given batch, its frames are skipped when the store is opened again
+     */
+    void abort(final MMapLogWriteBatch batch) {
+        synchronized (writeLock) {
+            openBatches.remove(batch);
+            if(closed || batch.files.isEmpty()) {
+                return;
+            }
+            try {
+                final byte[] batchID = batchID(batch.batchID);
+                appendFrame(FRAME_ABORT, batchID, batchID.length, null, 0);
+            } catch (IOException e) {
+                Logger.error("Failed to abort a write batch on the document store.");
+            }
+        }
+    }
+
+    private static byte[] batchID(final long batchID) {
+        final GrowableByteArrayDataOutput out = new GrowableByteArrayDataOutput(9);
+        try {
+            out.writeVLong(batchID);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return Arrays.copyOf(out.bytes, out.length);
+    }
+
+    /**
+     * Appends a frame to the active file, rolling it first if the frame would make it exceed the maximum file size.
+     * Must be called under the write lock.
+     *
+     * @return - Offset of the frame's body in the active file
+     */
+    private long appendFrame(final byte type, final byte[] head, final int headLength, final byte[] body, final int bodyLength) throws IOException {
+        final int length = headLength + bodyLength;
+        final long frameLength = FRAME_HEADER_LENGTH + length + FRAME_CHECKSUM_LENGTH;
+        if(activeFile.length > HEADER_LENGTH && activeFile.length + frameLength > maxFileSize) {
+            roll();
+        }
+        final byte[] frameHeader = new byte[FRAME_HEADER_LENGTH];
+        frameHeader[0] = type;
+        writeInt(length, frameHeader, 1);
+        final CRC32 checksum = new CRC32();
+        checksum.update(frameHeader, 0, frameHeader.length);
+        checksum.update(head, 0, headLength);
+        if(bodyLength > 0) {
+            checksum.update(body, 0, bodyLength);
+        }
+        final byte[] frameChecksum = new byte[FRAME_CHECKSUM_LENGTH];
+        writeInt((int) checksum.getValue(), frameChecksum, 0);
+
+        final ByteBuffer[] buffers = new ByteBuffer[] {ByteBuffer.wrap(frameHeader), ByteBuffer.wrap(head, 0, headLength),
+                ByteBuffer.wrap(null == body ? frameChecksum : body, 0, bodyLength), ByteBuffer.wrap(frameChecksum)};
+        final long start = activeFile.length;
+        try {
+            long remaining = frameLength;
+            while(remaining > 0) {
+                remaining -= activeChannel.write(buffers);
+            }
+        } catch (IOException e) {
+            // cut off the partial frame, later frames would otherwise be lost behind it
+            try {
+                activeChannel.truncate(start);
+                activeChannel.position(start);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        activeFile.length = start + frameLength;
+        return start + FRAME_HEADER_LENGTH;
+    }
+
+    /**
+     * Seals the active file and starts a new one. Must be called under the write lock.
+     */
+    private void roll() throws IOException {
+        if(config.getDurability() == EDBStoreConfig.Durability.SYNC) {
+            // open batches with frames in the sealed file only sync the new one when they commit
+            activeChannel.force(false);
+        }
+        activeChannel.close();
+        activeChannel = null;
+        final MMapLogFile sealed = activeFile;
+        openActiveFile(new MMapLogFile(location, sealed.generation + 1), true);
+        scheduleCompaction();
+    }
+
+    private void openActiveFile(final MMapLogFile file, final boolean create) throws IOException {
+        if(create) {
+            activeChannel = FileChannel.open(file.file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            final byte[] header = new byte[HEADER_LENGTH];
+            writeInt(MAGIC, header, 0);
+            header[4] = VERSION_CURRENT;
+            final ByteBuffer buffer = ByteBuffer.wrap(header);
+            while(buffer.hasRemaining()) {
+                activeChannel.write(buffer);
+            }
+            file.length = HEADER_LENGTH;
+            file.map(HEADER_LENGTH);
+        }
+        else {
+            activeChannel = FileChannel.open(file.file.toPath(), StandardOpenOption.WRITE);
+            activeChannel.position(file.length);
+        }
+        files.put(file.generation, file);
+        activeFile = file;
+    }
+
+    /**
+     * Makes the given run the newest of its handle and moves the live bytes of the documents it replaces to its
+     * files. Must be called under the write lock, or while the store is being opened.
+     */
+    private void install(final BytesRef handle, final MMapLogIndex.Run run) {
+        if(0 == run.size) {
+            return;
+        }
+        final MMapLogIndex current = handles.get(handle);
+        for(int i = 0; i < run.size; i++) {
+            run.file(i).liveBytes.addAndGet(run.length(i));
+            final MMapLogIndex.Run replaced = null == current ? null : current.find(run.docID(i));
+            if(null != replaced) {
+                final int position = replaced.ceil(run.docID(i));
+                replaced.file(position).liveBytes.addAndGet(-replaced.length(position));
+            }
+        }
+        handles.put(handle, null == current ? new MMapLogIndex(run) : current.add(run));
+    }
+
+    /**
+     * Removes a handle from the index. Must be called under the write lock, or while the store is being opened.
+     */
+    private void removeHandle(final BytesRef handle) {
+        final MMapLogIndex index = handles.remove(handle);
+        if(null != index) {
+            final MMapLogIndex.Iterator records = index.iterator();
+            while(records.next()) {
+                records.run().file(records.index()).liveBytes.addAndGet(-records.run().length(records.index()));
+            }
+        }
+    }
+
+    /**
+     * Returns true if any file other than the given one holds put frames of the handle. Must be called under the
+     * write lock.
+     */
+    private boolean isWritten(final BytesRef handle, final MMapLogFile except) {
+        for(final MMapLogFile file : files.values()) {
+            if(file != except && file.handles.contains(handle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compacts every sealed log file whose live records take less than the cleaner's minimum utilization, or none
+     * at all. Files holding frames of open write batches are skipped.
+     *
+     * @return - The number of files which were compacted and deleted
+     */
+    public int compact() throws IOException {
+        int compacted = 0;
+        for(final MMapLogFile file : files.values()) {
+            if(compact(file)) {
+                compacted++;
+            }
+        }
+        return compacted;
+    }
+
+    private boolean compact(final MMapLogFile file) throws IOException {
+        final List<BytesRef> candidates;
+        synchronized (writeLock) {
+            if(closed || !needsCompaction(file)) {
+                return false;
+            }
+            candidates = new ArrayList<>(file.handles);
+        }
+        byte[] record = new byte[0];
+        // handle by handle, so writers only wait for the records of one handle to be copied
+        for(final BytesRef handle : candidates) {
+            synchronized (writeLock) {
+                if(closed || !canCompact(file)) {
+                    return false;
+                }
+                final MMapLogIndex index = handles.get(handle);
+                if(null == index || !index.references(file)) {
+                    continue;
+                }
+                final EDBWriteBatch batch = beginWriteBatch(handle.bytes);
+                boolean success = false;
+                try {
+                    final MMapLogIndex.Iterator records = index.iterator();
+                    while(records.next()) {
+                        final MMapLogIndex.Run run = records.run();
+                        final int position = records.index();
+                        if(run.file(position) == file) {
+                            final int length = run.length(position);
+                            record = ArrayUtil.grow(record, length);
+                            file.read(run.offset(position), record, 0, length);
+                            batch.put(records.docID(), record, 0, length);
+                        }
+                    }
+                    batch.commit();
+                    success = true;
+                }
+                finally {
+                    if(!success) {
+                        batch.abort();
+                    }
+                }
+                // no run may keep the compacted file mapped
+                handles.put(handle, handles.get(handle).merge());
+            }
+        }
+        synchronized (writeLock) {
+            if(closed || !canCompact(file)) {
+                return false;
+            }
+            final Set<BytesRef> written = new HashSet<>(file.handles);
+            written.addAll(file.purges);
+            boolean purged = false;
+            for(final BytesRef handle : written) {
+                // purges must outlive every put frame of their handle
+                if(!handles.containsKey(handle) && !activeFile.purges.contains(handle) && isWritten(handle, file)) {
+                    appendFrame(FRAME_PURGE, handle.bytes, handle.length, null, 0);
+                    activeFile.purges.add(handle);
+                    purged = true;
+                }
+            }
+            if(purged && config.getDurability() == EDBStoreConfig.Durability.SYNC) {
+                activeChannel.force(false);
+            }
+            files.remove(file.generation);
+            file.deleted = true;
+            if(!file.file.delete()) {
+                Logger.error("Failed to delete the compacted log file " + file + " of the document store.");
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns true if the given file is sealed and mostly dead. Must be called under the write lock.
+     */
+    private boolean needsCompaction(final MMapLogFile file) {
+        return isSealed(file) && (0 == file.liveBytes.get() || file.utilization() < config.getCleanerMinUtilization())
+                && canCompact(file);
+    }
+
+    private boolean isSealed(final MMapLogFile file) {
+        return file != activeFile && !file.deleted;
+    }
+
+    /**
+     * Returns true if no open batch writes to the file or its handles, and every batch committed in the file has
+     * no frames left in other files. Must be called under the write lock.
+     */
+    private boolean canCompact(final MMapLogFile file) {
+        for(final MMapLogWriteBatch batch : openBatches) {
+            if(batch.files.contains(file) || file.handles.contains(batch.handle)) {
+                return false;
+            }
+        }
+        for(final MMapLogFile other : file.committedFrom) {
+            if(!other.deleted) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void scheduleCompaction() {
+        if(null == compactor) {
+            return;
+        }
+        synchronized (writeLock) {
+            if(closed || compactionScheduled) {
+                return;
+            }
+            compactionScheduled = true;
+        }
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (writeLock) {
+                    compactionScheduled = false;
+                }
+                try {
+                    compact();
+                } catch (IOException | AlreadyClosedException e) {
+                    Logger.error("Failed to compact the log files of the document store.");
+                }
+            }
+        });
+    }
+
+    /** Put frames of a batch replayed before its commit frame was found */
+    private static final class PendingBatch {
+        final BytesRef handle;
+        final MMapLogIndex.Builder records = new MMapLogIndex.Builder();
+        final Set<MMapLogFile> files = new HashSet<>();
+
+        PendingBatch(final BytesRef handle) {
+            this.handle = handle;
+        }
+    }
+
+    /**
+     * Replays every log file of the location to rebuild the index, then opens the last file for appending
+     */
+    private void recover() throws IOException {
+        final String[] names = location.list();
+        if(null == names) {
+            throw new IOException("Cannot list the document store directory " + location);
+        }
+        final List<Integer> generations = new ArrayList<>();
+        for(final String name : names) {
+            final int generation = MMapLogFile.generation(name);
+            if(generation >= 0) {
+                generations.add(generation);
+            }
+        }
+        Collections.sort(generations);
+
+        final Map<Long,PendingBatch> pending = new HashMap<>();
+        MMapLogFile last = null;
+        for(int i = 0; i < generations.size(); i++) {
+            final MMapLogFile file = new MMapLogFile(location, generations.get(i));
+            final boolean isLast = i == generations.size() - 1;
+            final long size = file.file.length();
+            final long valid = replay(file, size, pending);
+            if(valid < size) {
+                if(isLast) {
+                    // a frame torn by a crash, nothing after it was ever committed
+                    try(FileChannel channel = FileChannel.open(file.file.toPath(), StandardOpenOption.WRITE)) {
+                        channel.truncate(valid);
+                    }
+                    Logger.info("Cut off an incomplete frame at the end of " + file + " in the document store.");
+                }
+                else {
+                    Logger.error("Ignoring the corrupt end of " + file + " in the document store after offset " + valid + ".");
+                }
+            }
+            file.length = isLast ? valid : size;
+            files.put(file.generation, file);
+            last = file;
+        }
+        // batches which never committed are dead, as are the files which only hold their frames
+        for(final MMapLogFile file : files.values()) {
+            file.map(file.length);
+        }
+        if(null != last && last.length >= HEADER_LENGTH && last.length < maxFileSize) {
+            openActiveFile(last, false);
+        }
+        else {
+            if(null != last && last.length < HEADER_LENGTH) {
+                files.remove(last.generation);
+                if(!last.file.delete()) {
+                    throw new IOException("Cannot delete the empty log file " + last + " of the document store");
+                }
+            }
+            openActiveFile(new MMapLogFile(location, null == last ? 0 : last.generation + 1), true);
+        }
+    }
+
+    /**
+     * Applies the frames of one log file to the index
+     *
+     * @return - The end of the last intact frame, which is the file's size unless its end is damaged
+     */
+    private long replay(final MMapLogFile file, final long size, final Map<Long,PendingBatch> pending) throws IOException {
+        if(size < HEADER_LENGTH) {
+            return 0;
+        }
+        try(FileChannel channel = FileChannel.open(file.file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_LENGTH);
+            readFully(channel, header, 0);
+            if(header.getInt(0) != MAGIC) {
+                throw new IOException(file.file + " is not a log file of the document store");
+            }
+            if(header.get(4) < VERSION_START || header.get(4) > VERSION_CURRENT) {
+                throw new IOException("Unsupported version " + header.get(4) + " of log file " + file.file);
+            }
+            byte[] frame = new byte[0];
+            long position = HEADER_LENGTH;
+            while(position + FRAME_HEADER_LENGTH + FRAME_CHECKSUM_LENGTH <= size) {
+                header.clear();
+                readFully(channel, header, position);
+                final int bodyLength = header.getInt(1);
+                final long frameLength = FRAME_HEADER_LENGTH + (long) bodyLength + FRAME_CHECKSUM_LENGTH;
+                if(bodyLength < 0 || position + frameLength > size) {
+                    break;
+                }
+                frame = ArrayUtil.grow(frame, (int) frameLength);
+                final ByteBuffer buffer = ByteBuffer.wrap(frame, 0, (int) frameLength);
+                readFully(channel, buffer, position);
+                final CRC32 checksum = new CRC32();
+                checksum.update(frame, 0, FRAME_HEADER_LENGTH + bodyLength);
+                if((int) checksum.getValue() != readInt(frame, FRAME_HEADER_LENGTH + bodyLength)) {
+                    break;
+                }
+                apply(file, frame[0], new ByteArrayDataInput(frame, FRAME_HEADER_LENGTH, bodyLength),
+                        position, pending);
+                position += frameLength;
+            }
+            return position;
+        }
+    }
+
+    private void apply(final MMapLogFile file, final byte type, final ByteArrayDataInput in, final long frameOffset,
+                       final Map<Long,PendingBatch> pending) throws IOException {
+        switch (type) {
+            case FRAME_PUT: {
+                final long batchID = in.readVLong();
+                nextBatchID = Math.max(nextBatchID, batchID + 1);
+                final byte[] handle = new byte[EDBDocumentKey.HANDLE_LENGTH];
+                in.readBytes(handle, 0, handle.length);
+                PendingBatch batch = pending.get(batchID);
+                if(null == batch) {
+                    batch = new PendingBatch(new BytesRef(handle));
+                    pending.put(batchID, batch);
+                }
+                file.handles.add(batch.handle);
+                batch.files.add(file);
+                final int count = in.readVInt();
+                for(int i = 0; i < count; i++) {
+                    final int docID = in.readVInt();
+                    final int length = in.readVInt();
+                    // the input starts at the frame's header
+                    batch.records.add(docID, file, frameOffset + in.getPosition(), length);
+                    in.skipBytes(length);
+                }
+                break;
+            }
+            case FRAME_COMMIT: {
+                final PendingBatch batch = pending.remove(in.readVLong());
+                if(null != batch) {
+                    batch.files.remove(file);
+                    file.committedFrom.addAll(batch.files);
+                    install(batch.handle, batch.records.build());
+                }
+                break;
+            }
+            case FRAME_ABORT:
+                pending.remove(in.readVLong());
+                break;
+            case FRAME_PURGE: {
+                final byte[] handle = new byte[EDBDocumentKey.HANDLE_LENGTH];
+                in.readBytes(handle, 0, handle.length);
+                final BytesRef key = new BytesRef(handle);
+                file.purges.add(key);
+                removeHandle(key);
+                for(final Iterator<PendingBatch> it = pending.values().iterator(); it.hasNext();) {
+                    if(it.next().handle.equals(key)) {
+                        it.remove();
+                    }
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown frame type " + type + " in log file " + file.file);
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if(read < 0) {
+                throw new IOException("Unexpected end of log file");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeInt(final int value, final byte[] bytes, final int offset) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(final byte[] bytes, final int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    private void ensureOpen() {
+        if(closed) {
+            throw new AlreadyClosedException("this store is closed");
+        }
+    }
+
+    /**
+     * Returns the current statistics of this store
+     */
+    public EDBStoreStats getStats() {
+        long logSize = 0;
+        int backlog = 0;
+        synchronized (writeLock) {
+            for(final MMapLogFile file : files.values()) {
+                logSize += file.length;
+                if(isSealed(file) && (0 == file.liveBytes.get() || file.utilization() < config.getCleanerMinUtilization())) {
+                    backlog++;
+                }
+            }
+        }
+        return metrics.snapshot(ramBytesUsed(), logSize, backlog);
+    }
+
+    /**
+     * Returns the heap used by the index of every handle. The mapped files are not included, they are held by the
+     * operating system's page cache.
+     */
+    @Override
+    public long ramBytesUsed() {
+        long ramBytesUsed = 0;
+        for(final MMapLogIndex index : handles.values()) {
+            ramBytesUsed += index.ramBytesUsed();
+        }
+        return ramBytesUsed;
+    }
+
+    /**
+     * Stops compaction and closes the active file. The store must no longer be used by any reader or writer.
+     */
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if(closed) {
+                return;
+            }
+            closed = true;
+        }
+        if(null != compactor) {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (writeLock) {
+            if(null == activeChannel) {
+                return;
+            }
+            try {
+                if(config.getDurability() != EDBStoreConfig.Durability.NO_SYNC) {
+                    activeChannel.force(false);
+                }
+            }
+            finally {
+                activeChannel.close();
+            }
+        }
+    }
+
+    /** Returns the log files of this store, by generation */
+    Map<Integer,MMapLogFile> getFiles() {
+        return files;
+    }
+}
@@ -0,0 +1,127 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.GrowableByteArrayDataOutput;
+
+/**
+ * EDBWriteBatch of an {@link MMapLogStore}. Records are collected into a put frame which is appended to the log
+ * once it exceeds {@link MMapLogStore#MAX_FRAME_SIZE}, so a batch never holds more than one frame in memory. The
+ * records only become visible when the batch's commit frame has been written and the handle's index was updated.
+ */
+class MMapLogWriteBatch implements EDBWriteBatch {
+
+    private final MMapLogStore store;
+    private final EDBStoreMetrics metrics;
+    final BytesRef handle;
+    final long batchID;
+
+    /** Doc ID, length and bytes of every record of the frame being filled */
+    private final GrowableByteArrayDataOutput entries = new GrowableByteArrayDataOutput(1024);
+    private int[] docIDs = new int[16];
+    private int[] recordStarts = new int[16];
+    private int[] recordLengths = new int[16];
+    private int numEntries;
+    private int lastDocID = -1;
+
+    /** Records of the frames written so far */
+    final MMapLogIndex.Builder records = new MMapLogIndex.Builder();
+    /** Files holding frames of this batch */
+    final Set<MMapLogFile> files = new HashSet<>();
+    private boolean closed;
+
+    MMapLogWriteBatch(final MMapLogStore store, final BytesRef handle, final long batchID, final EDBStoreMetrics metrics) {
+        this.store = store;
+        this.handle = handle;
+        this.batchID = batchID;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void put(final int docID, final byte[] record, final int offset, final int length) throws IOException {
+        ensureOpen();
+        if(docID <= lastDocID) {
+            throw new IllegalArgumentException("documents must be added in increasing order, got " + docID + " after " + lastDocID);
+        }
+        final long start = System.nanoTime();
+        if(numEntries == docIDs.length) {
+            final int size = ArrayUtil.oversize(numEntries + 1, 4);
+            docIDs = ArrayUtil.grow(docIDs, size);
+            recordStarts = ArrayUtil.grow(recordStarts, size);
+            recordLengths = ArrayUtil.grow(recordLengths, size);
+        }
+        entries.writeVInt(docID);
+        entries.writeVInt(length);
+        docIDs[numEntries] = docID;
+        recordStarts[numEntries] = entries.length;
+        recordLengths[numEntries] = length;
+        entries.writeBytes(record, offset, length);
+        numEntries++;
+        lastDocID = docID;
+        if(entries.length >= MMapLogStore.MAX_FRAME_SIZE) {
+            flush();
+        }
+        metrics.recordWrite(System.nanoTime() - start, length);
+    }
+
+    /**
+     * Appends the collected records to the log as one put frame
+     */
+    void flush() throws IOException {
+        if(0 == numEntries) {
+            return;
+        }
+        final MMapLogStore.FrameLocation frame = store.appendPut(this, entries.bytes, entries.length, numEntries);
+        files.add(frame.file);
+        for(int i = 0; i < numEntries; i++) {
+            records.add(docIDs[i], frame.file, frame.offset + recordStarts[i], recordLengths[i]);
+        }
+        numEntries = 0;
+        entries.length = 0;
+    }
+
+    @Override
+    public void commit() throws IOException {
+        ensureOpen();
+        closed = true;
+        final long start = System.nanoTime();
+        store.commit(this);
+        metrics.recordCommit(System.nanoTime() - start);
+    }
+
+    @Override
+    public void abort() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        store.abort(this);
+    }
+
+    private void ensureOpen() {
+        if(closed) {
+            throw new IllegalStateException("this write batch was already committed or aborted");
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Number of open readers per handle, shared by the store implementations. Handles in here must not be purged.
+ */
+final class RetainedHandles {
+
+    private final Map<BytesRef,Integer> counts = new HashMap<>();
+
+    synchronized void retain(final byte[] handle) {
+        final BytesRef key = new BytesRef(handle);
+        final Integer count = counts.get(key);
+        counts.put(key, null == count ? 1 : count + 1);
+    }
+
+    synchronized void release(final byte[] handle) {
+        final BytesRef key = new BytesRef(handle);
+        final Integer count = counts.get(key);
+        if(null == count) {
+            throw new IllegalStateException("handle " + EDBDocumentKey.handle(handle) + " is not retained");
+        }
+        if(count == 1) {
+            counts.remove(key);
+        }
+        else {
+            counts.put(key, count - 1);
+        }
+    }
+
+    synchronized boolean isRetained(final byte[] handle) {
+        return counts.containsKey(new BytesRef(handle));
+    }
+}
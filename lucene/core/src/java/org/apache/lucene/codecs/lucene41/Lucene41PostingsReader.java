@@ -335,10 +335,21 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
     private boolean needsFreq; // true if the caller actually needs frequencies
     private int singletonDocID; // docid when there is a single pulsed posting, otherwise -1
 
+    // true if the skip data has the maximum frequency of each block
+    final boolean hasBlockMaxFreqs;
+
+    // advanceShallow() uses its own skipper, so that advance()
+    // is not affected by the blocks it looked ahead
+    private Lucene41SkipReader shallowSkipper;
+    private boolean shallowSkipped;
+    private int shallowUpTo;                          // last doc shallowMaxFreq applies to
+    private int shallowMaxFreq;
+
     public BlockDocsEnum(FieldInfo fieldInfo) throws IOException {
       this.startDocIn = Lucene41PostingsReader.this.docIn;
       this.docIn = null;
       indexHasFreq = fieldInfo.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS) >= 0;
+      hasBlockMaxFreqs = indexHasFreq && version >= Lucene41PostingsWriter.VERSION_BLOCK_MAX_FREQ;
       indexHasPos = fieldInfo.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0;
       indexHasOffsets = fieldInfo.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) >= 0;
       indexHasPayloads = fieldInfo.hasPayloads();
@@ -380,6 +391,8 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
       nextSkipDoc = BLOCK_SIZE - 1; // we won't skip if target is found in first block
       docBufferUpto = BLOCK_SIZE;
       skipped = false;
+      shallowSkipped = false;
+      shallowUpTo = -1;
       return this;
     }
     
@@ -392,6 +405,48 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
     public int docID() {
       return doc;
     }
+
+    @Override
+    public int advanceShallow(int target) throws IOException {
+      if (target <= shallowUpTo) {
+        return shallowUpTo;
+      }
+      if (docFreq <= BLOCK_SIZE || hasBlockMaxFreqs == false) {
+        shallowMaxFreq = (int) (totalTermFreq - docFreq + 1);
+        return shallowUpTo = NO_MORE_DOCS;
+      }
+      if (shallowSkipper == null) {
+        shallowSkipper = new Lucene41SkipReader(docIn.clone(),
+                                                Lucene41PostingsWriter.maxSkipLevels,
+                                                BLOCK_SIZE,
+                                                true,
+                                                indexHasPos,
+                                                indexHasOffsets,
+                                                indexHasPayloads);
+      }
+      if (!shallowSkipped) {
+        assert skipOffset != -1;
+        shallowSkipper.init(docTermStartFP+skipOffset, docTermStartFP, 0, 0, docFreq);
+        shallowSkipped = true;
+      }
+      // the first skip point is the last doc of the first block,
+      // so skipping to doc 1 still reads it
+      shallowSkipper.skipTo(Math.max(target, 1));
+      shallowUpTo = shallowSkipper.getNextSkipDoc();
+      if (shallowUpTo == Integer.MAX_VALUE) {
+        // no skip point after the target: it is in the last block
+        shallowMaxFreq = (int) (totalTermFreq - docFreq + 1);
+        shallowUpTo = NO_MORE_DOCS;
+      } else {
+        shallowMaxFreq = shallowSkipper.getNextSkipMaxFreq();
+      }
+      return shallowUpTo;
+    }
+
+    @Override
+    public int getMaxFreq() {
+      return shallowMaxFreq;
+    }
     
     private void refillDocs() throws IOException {
       final int left = docFreq - docUpto;
@@ -488,6 +543,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
           skipper = new Lucene41SkipReader(docIn.clone(),
                                         Lucene41PostingsWriter.maxSkipLevels,
                                         BLOCK_SIZE,
+                                        hasBlockMaxFreqs,
                                         indexHasPos,
                                         indexHasOffsets,
                                         indexHasPayloads);
@@ -821,6 +877,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
           skipper = new Lucene41SkipReader(docIn.clone(),
                                         Lucene41PostingsWriter.maxSkipLevels,
                                         BLOCK_SIZE,
+                                        version >= Lucene41PostingsWriter.VERSION_BLOCK_MAX_FREQ,
                                         true,
                                         indexHasOffsets,
                                         indexHasPayloads);
@@ -1347,6 +1404,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
           skipper = new Lucene41SkipReader(docIn.clone(),
                                         Lucene41PostingsWriter.maxSkipLevels,
                                         BLOCK_SIZE,
+                                        version >= Lucene41PostingsWriter.VERSION_BLOCK_MAX_FREQ,
                                         true,
                                         indexHasOffsets,
                                         indexHasPayloads);
@@ -69,7 +69,8 @@ public final class Lucene41PostingsWriter extends PostingsWriterBase {
   final static int VERSION_START = 0;
   final static int VERSION_META_ARRAY = 1;
   final static int VERSION_CHECKSUM = 2;
-  final static int VERSION_CURRENT = VERSION_CHECKSUM;
+  final static int VERSION_BLOCK_MAX_FREQ = 3;
+  final static int VERSION_CURRENT = VERSION_BLOCK_MAX_FREQ;
 
   IndexOutput docOut;
   IndexOutput posOut;
@@ -107,6 +108,7 @@ public final class Lucene41PostingsWriter extends PostingsWriterBase {
   private long lastBlockPayFP;
   private int lastBlockPosBufferUpto;
   private int lastBlockPayloadByteUpto;
+  private int lastBlockMaxFreq;
 
   private int lastDocID;
   private int lastPosition;
@@ -247,7 +249,7 @@ public final class Lucene41PostingsWriter extends PostingsWriterBase {
     fieldHasPositions = indexOptions.compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0;
     fieldHasOffsets = indexOptions.compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) >= 0;
     fieldHasPayloads = fieldInfo.hasPayloads();
-    skipWriter.setField(fieldHasPositions, fieldHasOffsets, fieldHasPayloads);
+    skipWriter.setField(fieldHasFreqs, fieldHasPositions, fieldHasOffsets, fieldHasPayloads);
     lastState = emptyState;
     if (fieldHasPositions) {
       if (fieldHasPayloads || fieldHasOffsets) {
@@ -289,7 +291,7 @@ public final class Lucene41PostingsWriter extends PostingsWriterBase {
       // if (DEBUG) {
       //   System.out.println("  bufferSkip at writeBlock: lastDocID=" + lastBlockDocID + " docCount=" + (docCount-1));
       // }
-      skipWriter.bufferSkip(lastBlockDocID, docCount, lastBlockPosFP, lastBlockPayFP, lastBlockPosBufferUpto, lastBlockPayloadByteUpto);
+      skipWriter.bufferSkip(lastBlockDocID, docCount, lastBlockPosFP, lastBlockPayFP, lastBlockPosBufferUpto, lastBlockPayloadByteUpto, lastBlockMaxFreq);
     }
 
     final int docDelta = docID - lastDocID;
@@ -317,6 +319,11 @@ public final class Lucene41PostingsWriter extends PostingsWriterBase {
         // if (DEBUG) {
         //   System.out.println("  write freq block @ fp=" + docOut.getFilePointer());
         // }
+        int maxFreq = 1;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+          maxFreq = Math.max(maxFreq, freqBuffer[i]);
+        }
+        lastBlockMaxFreq = maxFreq;
         forUtil.writeBlock(freqBuffer, encoded, docOut);
       }
       // NOTE: don't set docBufferUpto back to 0 here;
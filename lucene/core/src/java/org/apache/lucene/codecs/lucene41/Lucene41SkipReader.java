@@ -59,6 +59,7 @@ final class Lucene41SkipReader extends MultiLevelSkipListReader {
   private long payPointer[];
   private int posBufferUpto[];
   private int payloadByteUpto[];
+  private int maxFreq[];
 
   private long lastPosPointer;
   private long lastPayPointer;
@@ -66,10 +67,11 @@ final class Lucene41SkipReader extends MultiLevelSkipListReader {
   private long lastDocPointer;
   private int lastPosBufferUpto;
 
-  public Lucene41SkipReader(IndexInput skipStream, int maxSkipLevels, int blockSize, boolean hasPos, boolean hasOffsets, boolean hasPayloads) {
+  public Lucene41SkipReader(IndexInput skipStream, int maxSkipLevels, int blockSize, boolean hasMaxFreqs, boolean hasPos, boolean hasOffsets, boolean hasPayloads) {
     super(skipStream, maxSkipLevels, blockSize, 8);
     this.blockSize = blockSize;
     docPointer = new long[maxSkipLevels];
+    maxFreq = hasMaxFreqs ? new int[maxSkipLevels] : null;
     if (hasPos) {
       posPointer = new long[maxSkipLevels];
       posBufferUpto = new int[maxSkipLevels];
@@ -144,6 +146,14 @@ final class Lucene41SkipReader extends MultiLevelSkipListReader {
     return skipDoc[0];
   }
 
+  /** Returns the maximum term frequency of the block which ends with
+   * {@link #getNextSkipDoc()}, or -1 if the skip data has no frequencies.
+   * Only valid if a skip point was read, ie. the next skip doc is neither 0
+   * nor {@link Integer#MAX_VALUE}. */
+  public int getNextSkipMaxFreq() {
+    return maxFreq == null ? -1 : maxFreq[0];
+  }
+
   @Override
   protected void seekChild(int level) throws IOException {
     super.seekChild(level);
@@ -200,6 +210,10 @@ final class Lucene41SkipReader extends MultiLevelSkipListReader {
     //   System.out.println("  docFP=" + docPointer[level]);
     // }
 
+    if (maxFreq != null) {
+      maxFreq[level] = skipStream.readVInt();
+    }
+
     if (posPointer != null) {
       posPointer[level] += skipStream.readVInt();
       // if (DEBUG) {
@@ -41,6 +41,8 @@ import org.apache.lucene.codecs.MultiLevelSkipListWriter;
  * 2. its related file points(position, payload), 
  * 3. related numbers or uptos(position, payload).
  * 4. start offset.
+ * 5. the maximum term frequency of the blocks since the previous skip point 
+ *    of the same level, if the field indexes frequencies.
  *
  */
 final class Lucene41SkipWriter extends MultiLevelSkipListWriter {
@@ -51,6 +53,7 @@ final class Lucene41SkipWriter extends MultiLevelSkipListWriter {
   private long[] lastSkipPosPointer;
   private long[] lastSkipPayPointer;
   private int[] lastPayloadByteUpto;
+  private int[] levelMaxFreq;
 
   private final IndexOutput docOut;
   private final IndexOutput posOut;
@@ -62,6 +65,7 @@ final class Lucene41SkipWriter extends MultiLevelSkipListWriter {
   private long curPayPointer;
   private int curPosBufferUpto;
   private int curPayloadByteUpto;
+  private boolean fieldHasFreqs;
   private boolean fieldHasPositions;
   private boolean fieldHasOffsets;
   private boolean fieldHasPayloads;
@@ -74,6 +78,7 @@ final class Lucene41SkipWriter extends MultiLevelSkipListWriter {
     
     lastSkipDoc = new int[maxSkipLevels];
     lastSkipDocPointer = new long[maxSkipLevels];
+    levelMaxFreq = new int[maxSkipLevels];
     if (posOut != null) {
       lastSkipPosPointer = new long[maxSkipLevels];
       if (payOut != null) {
@@ -83,7 +88,8 @@ final class Lucene41SkipWriter extends MultiLevelSkipListWriter {
     }
   }
 
-  public void setField(boolean fieldHasPositions, boolean fieldHasOffsets, boolean fieldHasPayloads) {
+  public void setField(boolean fieldHasFreqs, boolean fieldHasPositions, boolean fieldHasOffsets, boolean fieldHasPayloads) {
+    this.fieldHasFreqs = fieldHasFreqs;
     this.fieldHasPositions = fieldHasPositions;
     this.fieldHasOffsets = fieldHasOffsets;
     this.fieldHasPayloads = fieldHasPayloads;
@@ -115,6 +121,7 @@ final class Lucene41SkipWriter extends MultiLevelSkipListWriter {
       super.resetSkip();
       Arrays.fill(lastSkipDoc, 0);
       Arrays.fill(lastSkipDocPointer, lastDocFP);
+      Arrays.fill(levelMaxFreq, 0);
       if (fieldHasPositions) {
         Arrays.fill(lastSkipPosPointer, lastPosFP);
         if (fieldHasPayloads) {
@@ -129,10 +136,14 @@ final class Lucene41SkipWriter extends MultiLevelSkipListWriter {
   }
 
   /**
-   * Sets the values for the current skip data. 
+   * Sets the values for the current skip data. <code>maxFreq</code> is the
+   * maximum term frequency of the block which ends with <code>doc</code>.
    */
-  public void bufferSkip(int doc, int numDocs, long posFP, long payFP, int posBufferUpto, int payloadByteUpto) throws IOException {
+  public void bufferSkip(int doc, int numDocs, long posFP, long payFP, int posBufferUpto, int payloadByteUpto, int maxFreq) throws IOException {
     initSkip();
+    for (int level = 0; level < levelMaxFreq.length; level++) {
+      levelMaxFreq[level] = Math.max(levelMaxFreq[level], maxFreq);
+    }
     this.curDoc = doc;
     this.curDocPointer = docOut.getFilePointer();
     this.curPosPointer = posFP;
@@ -154,6 +165,11 @@ final class Lucene41SkipWriter extends MultiLevelSkipListWriter {
     skipBuffer.writeVInt((int) (curDocPointer - lastSkipDocPointer[level]));
     lastSkipDocPointer[level] = curDocPointer;
 
+    if (fieldHasFreqs) {
+      skipBuffer.writeVInt(levelMaxFreq[level]);
+      levelMaxFreq[level] = 0;
+    }
+
     if (fieldHasPositions) {
       // if (DEBUG) {
       //   System.out.println("  curPosPointer=" + curPosPointer + " curPosBufferUpto=" + curPosBufferUpto);
@@ -0,0 +1,624 @@
+package org.apache.lucene.codecs.perfield;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.codecs.StoredFieldsFormat;
+import org.apache.lucene.codecs.StoredFieldsReader;
+import org.apache.lucene.codecs.StoredFieldsUpdatesWriter;
+import org.apache.lucene.codecs.StoredFieldsWriter;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.MergeState;
+import org.apache.lucene.index.SegmentInfo;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.NamedSPILoader;
+
+/**
+ * Enables per field stored fields support.
+ * <p>
+ * Stored fields formats have no names of their own, so every format this
+ * class delegates to is registered under a name when it is constructed, and
+ * {@link #getStoredFieldsFormatForField} returns the name of the format a
+ * field is written with. The names of formats other than the default one
+ * are recorded in the fields' {@link FieldInfo} attributes, so instances
+ * reading a segment must be able to resolve every name that was ever
+ * written.
+ * <p>
+ * Every document is written to each format of the segment, so that their
+ * document numbers line up; a document without fields of a format is an
+ * empty document of that format. The default format writes the files it
+ * would write on its own, e.g. <tt>_1.fdt</tt>, and also reads the fields
+ * of segments written without this class. The files of the other formats
+ * have an additional suffix containing the format name, e.g.
+ * <tt>_1_Lucene41_0.fdt</tt>.
+ * <p>
+ * When the fields of a document are spread over several formats, they are
+ * handed to the {@link StoredFieldVisitor} in order of their field numbers,
+ * and formats none of whose fields the visitor needs are not read at all.
+ * Only fields of the default format can be updated, through the default
+ * format.
+ * @lucene.experimental
+ */
+public abstract class PerFieldStoredFieldsFormat extends StoredFieldsFormat {
+  /** {@link FieldInfo} attribute name used to store the
+   *  format name for each field. */
+  public static final String PER_FIELD_FORMAT_KEY = PerFieldStoredFieldsFormat.class.getSimpleName() + ".format";
+
+  private final String defaultName;
+  private final StoredFieldsFormat defaultFormat;
+  private final Map<String,StoredFieldsFormat> formats;
+
+  /**
+   * Sole constructor.
+   * @param defaultName name of the default format, which must be one of
+   *        <code>formats</code>
+   * @param formats the formats fields can be written with, by their names,
+   *        which must be simple ascii alphanumeric
+   */
+  public PerFieldStoredFieldsFormat(String defaultName, Map<String,StoredFieldsFormat> formats) {
+    for (String name : formats.keySet()) {
+      NamedSPILoader.checkServiceName(name);
+    }
+    if (!formats.containsKey(defaultName)) {
+      throw new IllegalArgumentException("default format " + defaultName + " is not one of " + formats.keySet());
+    }
+    this.defaultName = defaultName;
+    this.defaultFormat = formats.get(defaultName);
+    this.formats = Collections.unmodifiableMap(new LinkedHashMap<>(formats));
+  }
+
+  /** Returns the name of the default format. */
+  public String getDefaultName() {
+    return defaultName;
+  }
+
+  /** Returns the format registered under the given name, or null if there is none. */
+  public StoredFieldsFormat getStoredFieldsFormat(String name) {
+    return formats.get(name);
+  }
+
+  /**
+   * Returns the name of the stored fields format that should be used for
+   * writing new segments of <code>field</code>.
+   * <p>
+   * The field to format mapping is written to the index, so
+   * this method is only invoked when writing, not when reading. */
+  public abstract String getStoredFieldsFormatForField(String field);
+
+  /**
+   * Returns the reader of the default format wrapped by a reader this class
+   * returned for a segment all of whose fields are stored with the default
+   * format, so that writers can recognize their own readers when merging.
+   * Any other reader is returned as is.
+   */
+  public static StoredFieldsReader unwrap(StoredFieldsReader reader) {
+    if (reader instanceof FieldsReader && ((FieldsReader) reader).readers.length == 1) {
+      return ((FieldsReader) reader).readers[0];
+    }
+    return reader;
+  }
+
+  static String getSegmentName(String segment, String formatName) {
+    return segment + "_" + formatName + "_0";
+  }
+
+  private StoredFieldsFormat getFormat(String formatName, String field) {
+    final StoredFieldsFormat format = formats.get(formatName);
+    if (format == null) {
+      throw new IllegalStateException("unknown stored fields format " + formatName + " for field=\"" + field + "\", expected one of " + formats.keySet());
+    }
+    return format;
+  }
+
+  @Override
+  public StoredFieldsWriter fieldsWriter(Directory directory, SegmentInfo si, IOContext context) throws IOException {
+    return new FieldsWriter(directory, si, context);
+  }
+
+  @Override
+  public StoredFieldsReader fieldsReader(Directory directory, SegmentInfo si, FieldInfos fn, IOContext context) throws IOException {
+    return new FieldsReader(directory, si, fn, context);
+  }
+
+  /** Returns true if the default format supports updates. */
+  @Override
+  public boolean supportsUpdates() {
+    return defaultFormat.supportsUpdates();
+  }
+
+  /** Returns true if <code>field</code> is written with the
+   *  default format and the default format supports its updates. */
+  @Override
+  public boolean supportsUpdates(String field) {
+    return defaultName.equals(getStoredFieldsFormatForField(field)) && defaultFormat.supportsUpdates(field);
+  }
+
+  @Override
+  public StoredFieldsUpdatesWriter fieldsUpdatesWriter(Directory directory, SegmentInfo si, StoredFieldsReader reader,
+      String segmentSuffix, IOContext context) throws IOException {
+    final StoredFieldsUpdatesWriter writer = defaultFormat.fieldsUpdatesWriter(directory, si, getDefaultReader(reader), segmentSuffix, context);
+    return new FieldsUpdatesWriter(writer, si);
+  }
+
+  @Override
+  public StoredFieldsReader updatedFieldsReader(StoredFieldsReader reader, Directory directory, SegmentInfo si, FieldInfos fn,
+      String segmentSuffix, IOContext context) throws IOException {
+    final StoredFieldsReader updated = defaultFormat.updatedFieldsReader(getDefaultReader(reader), directory, si, fn, segmentSuffix, context);
+    if (reader instanceof FieldsReader) {
+      return new FieldsReader((FieldsReader) reader, updated);
+    }
+    return updated;
+  }
+
+  private static StoredFieldsReader getDefaultReader(StoredFieldsReader reader) {
+    if (reader instanceof FieldsReader) {
+      return ((FieldsReader) reader).readers[0];
+    }
+    return reader;
+  }
+
+  /** Only the fields of the default format are written to the updated
+   *  documents, the others keep being read from their formats. */
+  private class FieldsUpdatesWriter extends StoredFieldsUpdatesWriter {
+    private final StoredFieldsUpdatesWriter in;
+    private final SegmentInfo segmentInfo;
+
+    FieldsUpdatesWriter(StoredFieldsUpdatesWriter in, SegmentInfo si) {
+      this.in = in;
+      this.segmentInfo = si;
+    }
+
+    @Override
+    public void startDocument(int docID) throws IOException {
+      in.startDocument(docID);
+    }
+
+    @Override
+    public void finishDocument() throws IOException {
+      in.finishDocument();
+    }
+
+    @Override
+    public void writeField(FieldInfo info, IndexableField field) throws IOException {
+      final String formatName = info.getAttribute(PER_FIELD_FORMAT_KEY);
+      if (formatName == null || defaultName.equals(formatName)) {
+        in.writeField(info, field);
+      } else if (defaultName.equals(getStoredFieldsFormatForField(info.name))) {
+        // the value could be the field's update, which the other format cannot hold
+        throw new UnsupportedOperationException("cannot update the documents of segment " + segmentInfo.name +
+            ", field=\"" + info.name + "\" is stored with format " + formatName);
+      }
+    }
+
+    @Override
+    public void abort() {
+      in.abort();
+    }
+
+    @Override
+    public void finish(FieldInfos fis) throws IOException {
+      in.finish(fis);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  private class FieldsWriter extends StoredFieldsWriter {
+    private final Directory directory;
+    private final SegmentInfo segmentInfo;
+    private final IOContext context;
+    private final Map<String,StoredFieldsWriter> writers = new LinkedHashMap<>();
+    private final StoredFieldsWriter defaultWriter;
+    private int numDocs;
+
+    FieldsWriter(Directory directory, SegmentInfo si, IOContext context) throws IOException {
+      this.directory = directory;
+      this.segmentInfo = si;
+      this.context = context;
+      defaultWriter = defaultFormat.fieldsWriter(directory, si, context);
+      writers.put(defaultName, defaultWriter);
+    }
+
+    @Override
+    public void startDocument() throws IOException {
+      numDocs++;
+      for (StoredFieldsWriter writer : writers.values()) {
+        writer.startDocument();
+      }
+    }
+
+    @Override
+    public void finishDocument() throws IOException {
+      for (StoredFieldsWriter writer : writers.values()) {
+        writer.finishDocument();
+      }
+    }
+
+    @Override
+    public void writeField(FieldInfo info, IndexableField field) throws IOException {
+      final String formatName = getStoredFieldsFormatForField(info.name);
+      if (formatName == null) {
+        throw new IllegalStateException("invalid null StoredFieldsFormat for field=\"" + info.name + "\"");
+      }
+      StoredFieldsWriter writer = writers.get(formatName);
+      if (writer == null) {
+        writer = newWriter(formatName, info.name);
+      }
+      if (writer != defaultWriter && !formatName.equals(info.getAttribute(PER_FIELD_FORMAT_KEY))) {
+        // fields without the attribute are read with the default format
+        info.putAttribute(PER_FIELD_FORMAT_KEY, formatName);
+      }
+      writer.writeField(info, field);
+    }
+
+    private StoredFieldsWriter newWriter(String formatName, String field) throws IOException {
+      final StoredFieldsFormat format = getFormat(formatName, field);
+      // the doc count of the segment isn't known until it is written
+      final SegmentInfo si = new SegmentInfo(segmentInfo.dir, segmentInfo.getVersion(), getSegmentName(segmentInfo.name, formatName),
+          -1, segmentInfo.getUseCompoundFile(), segmentInfo.getCodec(), segmentInfo.getDiagnostics());
+      final StoredFieldsWriter writer = format.fieldsWriter(directory, si, context);
+      writers.put(formatName, writer);
+      // catch up with the documents written before the first field of this format
+      for (int i = 1; i < numDocs; i++) {
+        writer.startDocument();
+        writer.finishDocument();
+      }
+      writer.startDocument();
+      return writer;
+    }
+
+    @Override
+    public int merge(MergeState mergeState) throws IOException {
+      if (canMergeDefault(mergeState)) {
+        // fields of the default format have no attribute, so the default
+        // format can merge on its own, e.g. copying bytes in bulk
+        numDocs = defaultWriter.merge(mergeState);
+        return numDocs;
+      }
+      return super.merge(mergeState);
+    }
+
+    private boolean canMergeDefault(MergeState mergeState) {
+      for (FieldInfo fi : mergeState.fieldInfos) {
+        if (!defaultName.equals(getStoredFieldsFormatForField(fi.name))) {
+          return false;
+        }
+      }
+      for (AtomicReader reader : mergeState.readers) {
+        if (!(reader instanceof SegmentReader)) {
+          return false;
+        }
+        final StoredFieldsReader fieldsReader = ((SegmentReader) reader).getFieldsReader();
+        if (fieldsReader instanceof FieldsReader && ((FieldsReader) fieldsReader).readers.length > 1) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void abort() {
+      for (StoredFieldsWriter writer : writers.values()) {
+        writer.abort();
+      }
+    }
+
+    @Override
+    public void finish(FieldInfos fis, int numDocs) throws IOException {
+      for (StoredFieldsWriter writer : writers.values()) {
+        writer.finish(fis, numDocs);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      IOUtils.close(writers.values());
+    }
+  }
+
+  private static final Comparator<BufferedField> FIELD_ORDER = new Comparator<BufferedField>() {
+    @Override
+    public int compare(BufferedField a, BufferedField b) {
+      return Integer.compare(a.info.number, b.info.number);
+    }
+  };
+
+  private class FieldsReader extends StoredFieldsReader {
+    // the default format always comes first
+    private final List<String> names;
+    private final StoredFieldsReader[] readers;
+    private final FieldInfo[][] fields;
+    // readers of updated documents only own the reader of the default format
+    private final boolean ownsAll;
+
+    FieldsReader(Directory directory, SegmentInfo si, FieldInfos fn, IOContext context) throws IOException {
+      // Read field name -> format name
+      final Map<String,List<FieldInfo>> fieldsByFormat = new LinkedHashMap<>();
+      fieldsByFormat.put(defaultName, new ArrayList<FieldInfo>());
+      for (FieldInfo fi : fn) {
+        String formatName = fi.getAttribute(PER_FIELD_FORMAT_KEY);
+        if (formatName == null) {
+          // not stored, or written without per-field formats
+          formatName = defaultName;
+        }
+        List<FieldInfo> formatFields = fieldsByFormat.get(formatName);
+        if (formatFields == null) {
+          getFormat(formatName, fi.name);
+          formatFields = new ArrayList<>();
+          fieldsByFormat.put(formatName, formatFields);
+        }
+        formatFields.add(fi);
+      }
+
+      ownsAll = true;
+      names = new ArrayList<>(fieldsByFormat.keySet());
+      readers = new StoredFieldsReader[names.size()];
+      fields = new FieldInfo[names.size()][];
+      boolean success = false;
+      try {
+        for (int i = 0; i < readers.length; i++) {
+          final String formatName = names.get(i);
+          final List<FieldInfo> formatFields = fieldsByFormat.get(formatName);
+          fields[i] = formatFields.toArray(new FieldInfo[formatFields.size()]);
+          if (i == 0) {
+            readers[i] = defaultFormat.fieldsReader(directory, si, fn, context);
+          } else {
+            final SegmentInfo formatInfo = new SegmentInfo(si.dir, si.getVersion(), getSegmentName(si.name, formatName),
+                si.getDocCount(), si.getUseCompoundFile(), si.getCodec(), si.getDiagnostics());
+            readers[i] = formats.get(formatName).fieldsReader(directory, formatInfo, fn, context);
+          }
+        }
+        success = true;
+      } finally {
+        if (!success) {
+          IOUtils.closeWhileHandlingException(readers);
+        }
+      }
+    }
+
+    private FieldsReader(FieldsReader other, StoredFieldsReader updated) {
+      names = other.names;
+      fields = other.fields;
+      ownsAll = false;
+      readers = other.readers.clone();
+      readers[0] = updated;
+    }
+
+    private FieldsReader(FieldsReader other) {
+      names = other.names;
+      fields = other.fields;
+      ownsAll = other.ownsAll;
+      readers = new StoredFieldsReader[other.readers.length];
+      for (int i = 0; i < readers.length; i++) {
+        readers[i] = other.readers[i].clone();
+      }
+    }
+
+    /** Returns the only format holding fields the visitor needs, -1 if there
+     *  are several and {@link #readers}.length if there are none. */
+    private int neededFormat(StoredFieldVisitor visitor) throws IOException {
+      if (readers.length == 1) {
+        return 0;
+      }
+      int needed = readers.length;
+      for (int i = 0; i < readers.length; i++) {
+        for (FieldInfo fi : fields[i]) {
+          if (visitor.needsField(fi) == StoredFieldVisitor.Status.YES) {
+            if (needed != readers.length) {
+              return -1;
+            }
+            needed = i;
+            break;
+          }
+        }
+      }
+      return needed;
+    }
+
+    @Override
+    public void visitDocument(int n, StoredFieldVisitor visitor) throws IOException {
+      final int needed = neededFormat(visitor);
+      if (needed == -1) {
+        visitMerged(n, visitor);
+      } else if (needed < readers.length) {
+        readers[needed].visitDocument(n, visitor);
+      }
+    }
+
+    private void visitMerged(int n, StoredFieldVisitor visitor) throws IOException {
+      final BufferingVisitor buffer = new BufferingVisitor(visitor);
+      for (StoredFieldsReader reader : readers) {
+        reader.visitDocument(n, buffer);
+      }
+      Collections.sort(buffer.fields, FIELD_ORDER);
+      for (BufferedField field : buffer.fields) {
+        if (field.info.number >= buffer.stopAt) {
+          break;
+        }
+        field.visit(visitor);
+      }
+    }
+
+    @Override
+    public void visitDocuments(int[] docIDs, StoredFieldVisitor[] visitors) throws IOException {
+      if (readers.length == 1) {
+        readers[0].visitDocuments(docIDs, visitors);
+        return;
+      }
+      if (docIDs.length != visitors.length) {
+        throw new IllegalArgumentException("docIDs and visitors must have the same length: " + docIDs.length + " != " + visitors.length);
+      }
+      // documents which only need fields of one format are still visited
+      // in batches by their format
+      final int[] needed = new int[docIDs.length];
+      final int[] counts = new int[readers.length];
+      for (int i = 0; i < docIDs.length; i++) {
+        needed[i] = neededFormat(visitors[i]);
+        if (needed[i] == -1) {
+          visitMerged(docIDs[i], visitors[i]);
+        } else if (needed[i] < readers.length) {
+          counts[needed[i]]++;
+        }
+      }
+      for (int r = 0; r < readers.length; r++) {
+        if (counts[r] == 0) {
+          continue;
+        }
+        final int[] formatDocIDs = new int[counts[r]];
+        final StoredFieldVisitor[] formatVisitors = new StoredFieldVisitor[counts[r]];
+        int upto = 0;
+        for (int i = 0; i < docIDs.length; i++) {
+          if (needed[i] == r) {
+            formatDocIDs[upto] = docIDs[i];
+            formatVisitors[upto++] = visitors[i];
+          }
+        }
+        readers[r].visitDocuments(formatDocIDs, formatVisitors);
+      }
+    }
+
+    @Override
+    public StoredFieldsReader clone() {
+      return new FieldsReader(this);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (ownsAll) {
+        IOUtils.close(readers);
+      } else {
+        readers[0].close();
+      }
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      long size = 0;
+      for (StoredFieldsReader reader : readers) {
+        size += reader.ramBytesUsed();
+      }
+      return size;
+    }
+
+    @Override
+    public void checkIntegrity() throws IOException {
+      for (StoredFieldsReader reader : readers) {
+        reader.checkIntegrity();
+      }
+    }
+  }
+
+  /** A field value read from one of the formats of a document. */
+  private static final class BufferedField {
+    final FieldInfo info;
+    final Object value;
+
+    BufferedField(FieldInfo info, Object value) {
+      this.info = info;
+      this.value = value;
+    }
+
+    void visit(StoredFieldVisitor visitor) throws IOException {
+      if (value instanceof String) {
+        visitor.stringField(info, (String) value);
+      } else if (value instanceof byte[]) {
+        visitor.binaryField(info, (byte[]) value);
+      } else if (value instanceof Integer) {
+        visitor.intField(info, (Integer) value);
+      } else if (value instanceof Long) {
+        visitor.longField(info, (Long) value);
+      } else if (value instanceof Float) {
+        visitor.floatField(info, (Float) value);
+      } else {
+        visitor.doubleField(info, (Double) value);
+      }
+    }
+  }
+
+  /** Collects the fields the wrapped visitor needs, so that the fields
+   *  of all formats can be handed to it in order. */
+  private static final class BufferingVisitor extends StoredFieldVisitor {
+    private final StoredFieldVisitor in;
+    final List<BufferedField> fields = new ArrayList<>();
+    int stopAt = Integer.MAX_VALUE;
+
+    BufferingVisitor(StoredFieldVisitor in) {
+      this.in = in;
+    }
+
+    @Override
+    public Status needsField(FieldInfo fieldInfo) throws IOException {
+      if (fieldInfo.number >= stopAt) {
+        return Status.STOP;
+      }
+      final Status status = in.needsField(fieldInfo);
+      if (status == Status.STOP) {
+        // the fields of other formats that come later are not needed either
+        stopAt = fieldInfo.number;
+      }
+      return status;
+    }
+
+    @Override
+    public void binaryField(FieldInfo fieldInfo, byte[] value) throws IOException {
+      fields.add(new BufferedField(fieldInfo, value));
+    }
+
+    @Override
+    public void stringField(FieldInfo fieldInfo, String value) throws IOException {
+      fields.add(new BufferedField(fieldInfo, value));
+    }
+
+    @Override
+    public void intField(FieldInfo fieldInfo, int value) throws IOException {
+      fields.add(new BufferedField(fieldInfo, value));
+    }
+
+    @Override
+    public void longField(FieldInfo fieldInfo, long value) throws IOException {
+      fields.add(new BufferedField(fieldInfo, value));
+    }
+
+    @Override
+    public void floatField(FieldInfo fieldInfo, float value) throws IOException {
+      fields.add(new BufferedField(fieldInfo, value));
+    }
+
+    @Override
+    public void doubleField(FieldInfo fieldInfo, double value) throws IOException {
+      fields.add(new BufferedField(fieldInfo, value));
+    }
+  }
+}
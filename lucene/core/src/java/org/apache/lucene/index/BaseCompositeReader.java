@@ -110,6 +110,35 @@ public abstract class BaseCompositeReader<R extends IndexReader> extends Composi
     subReaders[i].document(docID - starts[i], visitor);    // dispatch to subreader
   }
 
+  @Override
+  public final void document(int[] docIDs, StoredFieldVisitor[] visitors) throws IOException {
+    ensureOpen();
+    if (docIDs.length != visitors.length) {
+      throw new IllegalArgumentException("docIDs and visitors must have the same length: " + docIDs.length + " != " + visitors.length);
+    }
+    // partition the requests by subreader, keeping their order within each one
+    final int[] readerIndexes = new int[docIDs.length];
+    final int[] counts = new int[subReaders.length];
+    for (int i = 0; i < docIDs.length; i++) {
+      readerIndexes[i] = readerIndex(docIDs[i]);
+      counts[readerIndexes[i]]++;
+    }
+    for (int r = 0; r < subReaders.length; r++) {
+      if (counts[r] == 0) {
+        continue;
+      }
+      final int[] subDocIDs = new int[counts[r]];
+      final StoredFieldVisitor[] subVisitors = new StoredFieldVisitor[counts[r]];
+      for (int i = 0, upto = 0; upto < subDocIDs.length; i++) {
+        if (readerIndexes[i] == r) {
+          subDocIDs[upto] = docIDs[i] - starts[r];
+          subVisitors[upto++] = visitors[i];
+        }
+      }
+      subReaders[r].document(subDocIDs, subVisitors);     // dispatch to subreader
+    }
+  }
+
   @Override
   public final int docFreq(Term term) throws IOException {
     ensureOpen();
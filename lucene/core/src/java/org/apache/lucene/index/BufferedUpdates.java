@@ -27,6 +27,7 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.index.DocValuesUpdate.BinaryDocValuesUpdate;
 import org.apache.lucene.index.DocValuesUpdate.NumericDocValuesUpdate;
+import org.apache.lucene.index.DocValuesUpdate.StoredFieldsUpdate;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.util.RamUsageEstimator;
 
@@ -123,10 +124,17 @@ class BufferedUpdates {
    * BinaryUpdate (val) counts its own size and isn't accounted for here.
    */
   final static int BYTES_PER_BINARY_UPDATE_ENTRY = 7*RamUsageEstimator.NUM_BYTES_OBJECT_REF + RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + RamUsageEstimator.NUM_BYTES_INT;
+
+  /* Rough logic: stored fields updates are kept in the same maps as binary
+   * updates, see BYTES_PER_BINARY_FIELD_ENTRY and BYTES_PER_BINARY_UPDATE_ENTRY.
+   * StoredFieldsUpdate (val) counts its own size, including its fields. */
+  final static int BYTES_PER_STORED_FIELD_ENTRY = BYTES_PER_BINARY_FIELD_ENTRY;
+  final static int BYTES_PER_STORED_UPDATE_ENTRY = BYTES_PER_BINARY_UPDATE_ENTRY;
   
   final AtomicInteger numTermDeletes = new AtomicInteger();
   final AtomicInteger numNumericUpdates = new AtomicInteger();
   final AtomicInteger numBinaryUpdates = new AtomicInteger();
+  final AtomicInteger numStoredUpdates = new AtomicInteger();
 
   // TODO: rename thes three: put "deleted" prefix in front:
   final Map<Term,Integer> terms = new HashMap<>();
@@ -151,6 +159,12 @@ class BufferedUpdates {
   // only once).
   final Map<String,LinkedHashMap<Term,BinaryDocValuesUpdate>> binaryUpdates = new HashMap<>();
 
+  // Map<storedField,Map<updateTerm,StoredFieldsUpdate>>
+  // Same as the DV updates: for each stored field the updates in insertion
+  // order, so that if two terms affect the same document, the last one that
+  // came in replaces the values of the field.
+  final Map<String,LinkedHashMap<Term,StoredFieldsUpdate>> storedUpdates = new HashMap<>();
+
   public static final Integer MAX_INT = Integer.valueOf(Integer.MAX_VALUE);
 
   final AtomicLong bytesUsed;
@@ -168,7 +182,7 @@ class BufferedUpdates {
     if (VERBOSE_DELETES) {
       return "gen=" + gen + " numTerms=" + numTermDeletes + ", terms=" + terms
         + ", queries=" + queries + ", docIDs=" + docIDs + ", numericUpdates=" + numericUpdates
-        + ", binaryUpdates=" + binaryUpdates + ", bytesUsed=" + bytesUsed;
+        + ", binaryUpdates=" + binaryUpdates + ", storedUpdates=" + storedUpdates + ", bytesUsed=" + bytesUsed;
     } else {
       String s = "gen=" + gen;
       if (numTermDeletes.get() != 0) {
@@ -186,6 +200,9 @@ class BufferedUpdates {
       if (numBinaryUpdates.get() != 0) {
         s += " " + numBinaryUpdates.get() + " binary updates (unique count=" + binaryUpdates.size() + ")";
       }
+      if (numStoredUpdates.get() != 0) {
+        s += " " + numStoredUpdates.get() + " stored fields updates (unique count=" + storedUpdates.size() + ")";
+      }
       if (bytesUsed.get() != 0) {
         s += " bytesUsed=" + bytesUsed.get();
       }
@@ -288,19 +305,52 @@ class BufferedUpdates {
     }
   }
   
+  public void addStoredUpdate(StoredFieldsUpdate update, int docIDUpto) {
+    LinkedHashMap<Term,StoredFieldsUpdate> fieldUpdates = storedUpdates.get(update.field);
+    if (fieldUpdates == null) {
+      fieldUpdates = new LinkedHashMap<>();
+      storedUpdates.put(update.field, fieldUpdates);
+      bytesUsed.addAndGet(BYTES_PER_STORED_FIELD_ENTRY);
+    }
+    final StoredFieldsUpdate current = fieldUpdates.get(update.term);
+    if (current != null && docIDUpto < current.docIDUpto) {
+      // Only record the new number if it's greater than or equal to the current
+      // one, see addNumericUpdate.
+      return;
+    }
+    
+    update.docIDUpto = docIDUpto;
+    // since it's a LinkedHashMap, we must first remove the Term entry so that
+    // it's added last (we're interested in insertion-order).
+    if (current != null) {
+      fieldUpdates.remove(update.term);
+      // unlike DV values, the size of stored values varies
+      bytesUsed.addAndGet(-current.sizeInBytes());
+    }
+    fieldUpdates.put(update.term, update);
+    numStoredUpdates.incrementAndGet();
+    if (current == null) {
+      bytesUsed.addAndGet(BYTES_PER_STORED_UPDATE_ENTRY);
+    }
+    bytesUsed.addAndGet(update.sizeInBytes());
+  }
+  
   void clear() {
     terms.clear();
     queries.clear();
     docIDs.clear();
     numericUpdates.clear();
     binaryUpdates.clear();
+    storedUpdates.clear();
     numTermDeletes.set(0);
     numNumericUpdates.set(0);
     numBinaryUpdates.set(0);
+    numStoredUpdates.set(0);
     bytesUsed.set(0);
   }
   
   boolean any() {
-    return terms.size() > 0 || docIDs.size() > 0 || queries.size() > 0 || numericUpdates.size() > 0 || binaryUpdates.size() > 0;
+    return terms.size() > 0 || docIDs.size() > 0 || queries.size() > 0 || numericUpdates.size() > 0 || binaryUpdates.size() > 0
+        || storedUpdates.size() > 0;
   }
 }
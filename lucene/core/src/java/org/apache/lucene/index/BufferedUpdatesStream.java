@@ -17,12 +17,17 @@ package org.apache.lucene.index;
  * limitations under the License.
  */
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -33,8 +38,12 @@ import org.apache.lucene.search.QueryWrapperFilter;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.InfoStream;
+import org.apache.lucene.util.ThreadInterruptedException;
 
 /* Tracks the stream of {@link BufferedDeletes}.
  * When DocumentsWriterPerThread flushes, its buffered
@@ -61,9 +70,6 @@ class BufferedUpdatesStream implements Accountable {
   // will be correct:
   private long nextGen = 1;
 
-  // used only by assert
-  private Term lastDeleteTerm;
-
   private final InfoStream infoStream;
   private final AtomicLong bytesUsed = new AtomicLong();
   private final AtomicInteger numTerms = new AtomicInteger();
@@ -152,8 +158,18 @@ class BufferedUpdatesStream implements Accountable {
   
   /** Resolves the buffered deleted Term/Query/docIDs, into
    *  actual deleted docIDs in the liveDocs MutableBits for
-   *  each SegmentReader. */
-  public synchronized ApplyDeletesResult applyDeletesAndUpdates(IndexWriter.ReaderPool readerPool, List<SegmentCommitInfo> infos) throws IOException {
+   *  each SegmentReader.
+   *
+   *  <p>If an executor is given, the deletes and updates of
+   *  the segments are resolved concurrently on it: finding
+   *  the affected documents only reads the segments, and the
+   *  results are then applied to their {@link
+   *  ReadersAndUpdates} on this thread, segment by segment.
+   *
+   *  @param executor resolves the segments concurrently, or
+   *  null to resolve them one after the other on this thread */
+  public synchronized ApplyDeletesResult applyDeletesAndUpdates(IndexWriter.ReaderPool readerPool, List<SegmentCommitInfo> infos,
+                                                                ExecutorService executor) throws IOException {
     final long t0 = System.currentTimeMillis();
 
     if (infos.size() == 0) {
@@ -187,143 +203,520 @@ class BufferedUpdatesStream implements Accountable {
 
     List<SegmentCommitInfo> allDeleted = null;
 
-    while (infosIDX >= 0) {
-      //System.out.println("BD: cycle delIDX=" + delIDX + " infoIDX=" + infosIDX);
+    // segments resolved on the executor, applied once all are resolved
+    final List<SegmentUpdates> pending = new ArrayList<>();
+    boolean success = false;
+    try {
+      while (infosIDX >= 0) {
+        //System.out.println("BD: cycle delIDX=" + delIDX + " infoIDX=" + infosIDX);
+
+        final FrozenBufferedUpdates packet = delIDX >= 0 ? updates.get(delIDX) : null;
+        final SegmentCommitInfo info = infos2.get(infosIDX);
+        final long segGen = info.getBufferedDeletesGen();
+
+        if (packet != null && segGen < packet.delGen()) {
+//          System.out.println("  coalesce");
+          if (coalescedUpdates == null) {
+            coalescedUpdates = new CoalescedUpdates();
+          }
+          if (!packet.isSegmentPrivate) {
+            /*
+             * Only coalesce if we are NOT on a segment private del packet: the segment private del packet
+             * must only applied to segments with the same delGen.  Yet, if a segment is already deleted
+             * from the SI since it had no more documents remaining after some del packets younger than
+             * its segPrivate packet (higher delGen) have been applied, the segPrivate packet has not been
+             * removed.
+             */
+            coalescedUpdates.update(packet);
+          }
 
-      final FrozenBufferedUpdates packet = delIDX >= 0 ? updates.get(delIDX) : null;
-      final SegmentCommitInfo info = infos2.get(infosIDX);
-      final long segGen = info.getBufferedDeletesGen();
+          delIDX--;
+        } else if (packet != null && segGen == packet.delGen()) {
+          assert packet.isSegmentPrivate : "Packet and Segments deletegen can only match on a segment private del packet gen=" + segGen;
+          //System.out.println("  eq");
 
-      if (packet != null && segGen < packet.delGen()) {
-//        System.out.println("  coalesce");
-        if (coalescedUpdates == null) {
-          coalescedUpdates = new CoalescedUpdates();
-        }
-        if (!packet.isSegmentPrivate) {
+          // Lock order: IW -> BD -> RP
+          assert readerPool.infoIsLive(info);
+          // Don't delete by Term here; DocumentsWriterPerThread
+          // already did that on flush:
+          final SegmentUpdates segUpdates = new SegmentUpdates(readerPool, info, segGen,
+              coalescedUpdates == null || executor == null ? coalescedUpdates : coalescedUpdates.copy(), packet, executor == null);
+          if (executor == null) {
+            anyNewDeletes |= resolveAndApply(segUpdates);
+            if (segUpdates.allDeleted) {
+              if (allDeleted == null) {
+                allDeleted = new ArrayList<>();
+              }
+              allDeleted.add(info);
+            }
+            info.setBufferedDeletesGen(gen);
+          } else {
+            pending.add(segUpdates);
+          }
+
+          if (coalescedUpdates == null) {
+            coalescedUpdates = new CoalescedUpdates();
+          }
+          
           /*
-           * Only coalesce if we are NOT on a segment private del packet: the segment private del packet
-           * must only applied to segments with the same delGen.  Yet, if a segment is already deleted
-           * from the SI since it had no more documents remaining after some del packets younger than
-           * its segPrivate packet (higher delGen) have been applied, the segPrivate packet has not been
-           * removed.
+           * Since we are on a segment private del packet we must not
+           * update the coalescedDeletes here! We can simply advance to the 
+           * next packet and seginfo.
            */
-          coalescedUpdates.update(packet);
-        }
+          delIDX--;
+          infosIDX--;
+
+        } else {
+          //System.out.println("  gt");
 
-        delIDX--;
-      } else if (packet != null && segGen == packet.delGen()) {
-        assert packet.isSegmentPrivate : "Packet and Segments deletegen can only match on a segment private del packet gen=" + segGen;
-        //System.out.println("  eq");
-
-        // Lock order: IW -> BD -> RP
-        assert readerPool.infoIsLive(info);
-        final ReadersAndUpdates rld = readerPool.get(info, true);
-        final SegmentReader reader = rld.getReader(IOContext.READ);
-        int delCount = 0;
-        final boolean segAllDeletes;
-        try {
-          final DocValuesFieldUpdates.Container dvUpdates = new DocValuesFieldUpdates.Container();
           if (coalescedUpdates != null) {
-            //System.out.println("    del coalesced");
-            delCount += applyTermDeletes(coalescedUpdates.termsIterable(), rld, reader);
-            delCount += applyQueryDeletes(coalescedUpdates.queriesIterable(), rld, reader);
-            applyDocValuesUpdates(coalescedUpdates.numericDVUpdates, rld, reader, dvUpdates);
-            applyDocValuesUpdates(coalescedUpdates.binaryDVUpdates, rld, reader, dvUpdates);
+            // Lock order: IW -> BD -> RP
+            assert readerPool.infoIsLive(info);
+            final SegmentUpdates segUpdates = new SegmentUpdates(readerPool, info, segGen,
+                executor == null ? coalescedUpdates : coalescedUpdates.copy(), null, executor == null);
+            if (executor == null) {
+              anyNewDeletes |= resolveAndApply(segUpdates);
+              if (segUpdates.allDeleted) {
+                if (allDeleted == null) {
+                  allDeleted = new ArrayList<>();
+                }
+                allDeleted.add(info);
+              }
+              info.setBufferedDeletesGen(gen);
+            } else {
+              pending.add(segUpdates);
+            }
+          } else {
+            info.setBufferedDeletesGen(gen);
           }
-          //System.out.println("    del exact");
-          // Don't delete by Term here; DocumentsWriterPerThread
-          // already did that on flush:
-          delCount += applyQueryDeletes(packet.queriesIterable(), rld, reader);
-          applyDocValuesUpdates(Arrays.asList(packet.numericDVUpdates), rld, reader, dvUpdates);
-          applyDocValuesUpdates(Arrays.asList(packet.binaryDVUpdates), rld, reader, dvUpdates);
-          if (dvUpdates.any()) {
-            rld.writeFieldUpdates(info.info.dir, dvUpdates);
+
+          infosIDX--;
+        }
+      }
+
+      if (!pending.isEmpty()) {
+        resolve(pending, executor);
+        while (!pending.isEmpty()) {
+          final SegmentUpdates segUpdates = pending.remove(0);
+          anyNewDeletes |= apply(segUpdates);
+          // only now, so that a segment whose updates were not
+          // applied gets them again from the next call
+          segUpdates.info.setBufferedDeletesGen(gen);
+          if (segUpdates.allDeleted) {
+            if (allDeleted == null) {
+              allDeleted = new ArrayList<>();
+            }
+            allDeleted.add(segUpdates.info);
+          }
+        }
+      }
+      success = true;
+    } finally {
+      if (!success) {
+        for (SegmentUpdates segUpdates : pending) {
+          IOUtils.closeWhileHandlingException(segUpdates);
+        }
+      }
+    }
+
+    assert checkDeleteStats();
+    if (infoStream.isEnabled("BD")) {
+      infoStream.message("BD", "applyDeletes took " + (System.currentTimeMillis()-t0) + " msec");
+    }
+    // assert infos != segmentInfos || !any() : "infos=" + infos + " segmentInfos=" + segmentInfos + " any=" + any;
+
+    return new ApplyDeletesResult(anyNewDeletes, gen, allDeleted);
+  }
+
+  /** Resolves the given segments on the executor; this
+   *  thread resolves the first one and waits for the others,
+   *  even if one of them fails. */
+  private static void resolve(List<SegmentUpdates> segments, ExecutorService executor) throws IOException {
+    final List<Future<Void>> futures = new ArrayList<>();
+    Throwable th = null;
+    try {
+      for (final SegmentUpdates segUpdates : segments.subList(1, segments.size())) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            segUpdates.resolve();
+            return null;
+          }
+        }));
+      }
+      segments.get(0).resolve();
+    } catch (Throwable t) {
+      th = t;
+    }
+
+    boolean interrupted = false;
+    for (Future<Void> future : futures) {
+      while (true) {
+        try {
+          future.get();
+        } catch (InterruptedException ie) {
+          interrupted = true;
+          continue;
+        } catch (ExecutionException ee) {
+          if (th == null) {
+            th = ee.getCause();
           }
-          final int fullDelCount = rld.info.getDelCount() + rld.getPendingDeleteCount();
-          assert fullDelCount <= rld.info.info.getDocCount();
-          segAllDeletes = fullDelCount == rld.info.info.getDocCount();
-        } finally {
-          rld.release(reader);
-          readerPool.release(rld);
         }
-        anyNewDeletes |= delCount > 0;
+        break;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+      if (th == null) {
+        th = new ThreadInterruptedException(new InterruptedException());
+      }
+    }
+    IOUtils.reThrow(th);
+  }
+
+  /** Resolves the updates of a segment on this thread and
+   *  applies them. The segment's reader is released even if
+   *  resolving fails. */
+  private boolean resolveAndApply(SegmentUpdates segUpdates) throws IOException {
+    boolean success = false;
+    try {
+      segUpdates.resolve();
+      success = true;
+    } finally {
+      if (!success) {
+        IOUtils.closeWhileHandlingException(segUpdates);
+      }
+    }
+    return apply(segUpdates);
+  }
 
-        if (segAllDeletes) {
-          if (allDeleted == null) {
-            allDeleted = new ArrayList<>();
+  /** Deletes the resolved documents of a segment and writes
+   *  its resolved field updates, then releases its reader.
+   *  Returns true if any documents were newly deleted. */
+  private boolean apply(SegmentUpdates segUpdates) throws IOException {
+    final ReadersAndUpdates rld = segUpdates.rld;
+    int delCount = segUpdates.delCount;
+    try {
+      if (segUpdates.deletes != null) {
+        rld.initWritableLiveDocs();
+        final DocIdSetIterator it = segUpdates.deletes.iterator();
+        for (int doc = it.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = it.nextDoc()) {
+          if (rld.delete(doc)) {
+            delCount++;
           }
-          allDeleted.add(info);
         }
+      }
+      if (segUpdates.dvUpdates.any()) {
+        rld.writeFieldUpdates(segUpdates.info.info.dir, segUpdates.dvUpdates);
+      }
+      final int fullDelCount = rld.info.getDelCount() + rld.getPendingDeleteCount();
+      assert fullDelCount <= rld.info.info.getDocCount();
+      segUpdates.allDeleted = fullDelCount == rld.info.info.getDocCount();
+    } finally {
+      segUpdates.close();
+    }
+
+    if (infoStream.isEnabled("BD")) {
+      infoStream.message("BD", "seg=" + segUpdates.info + " segGen=" + segUpdates.segGen
+          + (segUpdates.packet == null ? "" : " segDeletes=[" + segUpdates.packet + "];")
+          + " coalesced deletes=[" + (segUpdates.coalescedUpdates == null ? "null" : segUpdates.coalescedUpdates) + "] newDelCount=" + delCount
+          + (segUpdates.allDeleted ? " 100% deleted" : ""));
+    }
+    return delCount > 0;
+  }
+
+  /** The deletes and updates to apply to one segment, and
+   *  the documents they resolve to. Unless deletes are
+   *  applied directly, resolving only reads the segment, and
+   *  its live docs don't change until the results are
+   *  applied, so it needs neither the {@link IndexWriter} nor
+   *  this stream's lock. */
+  private static final class SegmentUpdates implements Closeable {
+    final SegmentCommitInfo info;
+    final long segGen;
+    final CoalescedUpdates coalescedUpdates;
+    final FrozenBufferedUpdates packet; // segment private packet, or null
+    final Sorter.DocMap sortMap; // set if the segment was sorted on flush and packet's limits are from before
+    final ReadersAndUpdates rld;
+    final IndexWriter.ReaderPool readerPool;
+    final SegmentReader reader;
+    final Bits liveDocs;
+    // deletes go straight to the segment's live docs, only when resolving on the thread that applies them
+    final boolean applyDeletes;
+
+    // results of resolve():
+    FixedBitSet deletes;
+    int delCount; // documents deleted directly
+    final DocValuesFieldUpdates.Container dvUpdates = new DocValuesFieldUpdates.Container();
+    boolean allDeleted;
+
+    // used only by assert
+    private Term lastDeleteTerm;
+
+    SegmentUpdates(IndexWriter.ReaderPool readerPool, SegmentCommitInfo info, long segGen,
+                   CoalescedUpdates coalescedUpdates, FrozenBufferedUpdates packet, boolean applyDeletes) throws IOException {
+      this.readerPool = readerPool;
+      this.applyDeletes = applyDeletes;
+      this.info = info;
+      this.segGen = segGen;
+      this.coalescedUpdates = coalescedUpdates;
+      this.packet = packet;
+      this.sortMap = packet == null ? null : packet.sortMap;
+      rld = readerPool.get(info, true);
+      boolean success = false;
+      try {
+        reader = rld.getReader(IOContext.READ);
+        success = true;
+      } finally {
+        if (!success) {
+          readerPool.release(rld);
+        }
+      }
+      // nothing else changes them until the resolved deletes are applied
+      liveDocs = rld.getLiveDocs();
+    }
 
-        if (infoStream.isEnabled("BD")) {
-          infoStream.message("BD", "seg=" + info + " segGen=" + segGen + " segDeletes=[" + packet + "]; coalesced deletes=[" + (coalescedUpdates == null ? "null" : coalescedUpdates) + "] newDelCount=" + delCount + (segAllDeletes ? " 100% deleted" : ""));
+    /** Returns the documents which are not deleted yet. */
+    private Bits currentLiveDocs() {
+      return applyDeletes ? rld.getLiveDocs() : liveDocs;
+    }
+
+    void resolve() throws IOException {
+      if (coalescedUpdates != null) {
+        //System.out.println("    del coalesced");
+        resolveTermDeletes(coalescedUpdates.termsIterable());
+        resolveQueryDeletes(coalescedUpdates.queriesIterable());
+      }
+      if (packet != null) {
+        //System.out.println("    del exact");
+        resolveQueryDeletes(packet.queriesIterable());
+      }
+      // documents deleted above get no updates
+      final Bits acceptDocs = deletes == null ? currentLiveDocs() : new Bits() {
+        @Override
+        public boolean get(int index) {
+          return (liveDocs == null || liveDocs.get(index)) && !deletes.get(index);
         }
 
-        if (coalescedUpdates == null) {
-          coalescedUpdates = new CoalescedUpdates();
+        @Override
+        public int length() {
+          return reader.maxDoc();
         }
-        
-        /*
-         * Since we are on a segment private del packet we must not
-         * update the coalescedDeletes here! We can simply advance to the 
-         * next packet and seginfo.
-         */
-        delIDX--;
-        infosIDX--;
-        info.setBufferedDeletesGen(gen);
+      };
+      // the segment private packet is older than the coalesced ones, whose
+      // updates of the same documents must win
+      if (packet != null) {
+        resolveDocValuesUpdates(Arrays.asList(packet.numericDVUpdates), acceptDocs);
+        resolveDocValuesUpdates(Arrays.asList(packet.binaryDVUpdates), acceptDocs);
+        resolveDocValuesUpdates(Arrays.asList(packet.storedFieldsUpdates), acceptDocs);
+      }
+      if (coalescedUpdates != null) {
+        resolveDocValuesUpdates(coalescedUpdates.numericDVUpdates, acceptDocs);
+        resolveDocValuesUpdates(coalescedUpdates.binaryDVUpdates, acceptDocs);
+        resolveDocValuesUpdates(coalescedUpdates.storedFieldsUpdates, acceptDocs);
+      }
+    }
 
+    private void delete(int doc) throws IOException {
+      if (applyDeletes) {
+        if (delCount == 0) {
+          rld.initWritableLiveDocs();
+        }
+        if (rld.delete(doc)) {
+          delCount++;
+        }
       } else {
-        //System.out.println("  gt");
+        if (deletes == null) {
+          deletes = new FixedBitSet(reader.maxDoc());
+        }
+        deletes.set(doc);
+      }
+    }
 
-        if (coalescedUpdates != null) {
-          // Lock order: IW -> BD -> RP
-          assert readerPool.infoIsLive(info);
-          final ReadersAndUpdates rld = readerPool.get(info, true);
-          final SegmentReader reader = rld.getReader(IOContext.READ);
-          int delCount = 0;
-          final boolean segAllDeletes;
-          try {
-            delCount += applyTermDeletes(coalescedUpdates.termsIterable(), rld, reader);
-            delCount += applyQueryDeletes(coalescedUpdates.queriesIterable(), rld, reader);
-            DocValuesFieldUpdates.Container dvUpdates = new DocValuesFieldUpdates.Container();
-            applyDocValuesUpdates(coalescedUpdates.numericDVUpdates, rld, reader, dvUpdates);
-            applyDocValuesUpdates(coalescedUpdates.binaryDVUpdates, rld, reader, dvUpdates);
-            if (dvUpdates.any()) {
-              rld.writeFieldUpdates(info.info.dir, dvUpdates);
-            }
-            final int fullDelCount = rld.info.getDelCount() + rld.getPendingDeleteCount();
-            assert fullDelCount <= rld.info.info.getDocCount();
-            segAllDeletes = fullDelCount == rld.info.info.getDocCount();
-          } finally {
-            rld.release(reader);
-            readerPool.release(rld);
+    // Delete by Term
+    private void resolveTermDeletes(Iterable<Term> termsIter) throws IOException {
+      Fields fields = reader.fields();
+      if (fields == null) {
+        // This reader has no postings
+        return;
+      }
+
+      TermsEnum termsEnum = null;
+
+      String currentField = null;
+      DocsEnum docs = null;
+
+      //System.out.println(Thread.currentThread().getName() + " del terms reader=" + reader);
+      for (Term term : termsIter) {
+        // Since we visit terms sorted, we gain performance
+        // by re-using the same TermsEnum and seeking only
+        // forwards
+        if (!term.field().equals(currentField)) {
+          assert currentField == null || currentField.compareTo(term.field()) < 0;
+          currentField = term.field();
+          Terms terms = fields.terms(currentField);
+          if (terms != null) {
+            termsEnum = terms.iterator(termsEnum);
+          } else {
+            termsEnum = null;
           }
-          anyNewDeletes |= delCount > 0;
+        }
 
-          if (segAllDeletes) {
-            if (allDeleted == null) {
-              allDeleted = new ArrayList<>();
+        if (termsEnum == null) {
+          continue;
+        }
+        assert checkDeleteTerm(term);
+
+        // System.out.println("  term=" + term);
+
+        if (termsEnum.seekExact(term.bytes())) {
+          // we don't need term frequencies for this
+          docs = termsEnum.docs(currentLiveDocs(), docs, DocsEnum.FLAG_NONE);
+          //System.out.println("BDS: got docsEnum=" + docsEnum);
+
+          if (docs != null) {
+            while (true) {
+              final int docID = docs.nextDoc();
+              //System.out.println(Thread.currentThread().getName() + " del term=" + term + " doc=" + docID);
+              if (docID == DocIdSetIterator.NO_MORE_DOCS) {
+                break;
+              }   
+              // NOTE: there is no limit check on the docID
+              // when deleting by Term (unlike by Query)
+              // because on flush we apply all Term deletes to
+              // each segment.  So all Term deleting here is
+              // against prior segments:
+              delete(docID);
             }
-            allDeleted.add(info);
           }
+        }
+      }
+    }
+
+    // DocValues updates
+    private void resolveDocValuesUpdates(Iterable<? extends DocValuesUpdate> updates, Bits acceptDocs) throws IOException {
+      Fields fields = reader.fields();
+      if (fields == null) {
+        // This reader has no postings
+        return;
+      }
 
-          if (infoStream.isEnabled("BD")) {
-            infoStream.message("BD", "seg=" + info + " segGen=" + segGen + " coalesced deletes=[" + coalescedUpdates + "] newDelCount=" + delCount + (segAllDeletes ? " 100% deleted" : ""));
+      // TODO: we can process the updates per DV field, from last to first so that
+      // if multiple terms affect same document for the same field, we add an update
+      // only once (that of the last term). To do that, we can keep a bitset which
+      // marks which documents have already been updated. So e.g. if term T1
+      // updates doc 7, and then we process term T2 and it updates doc 7 as well,
+      // we don't apply the update since we know T1 came last and therefore wins
+      // the update.
+      // We can also use that bitset as 'liveDocs' to pass to TermEnum.docs(), so
+      // that these documents aren't even returned.
+      
+      String currentField = null;
+      TermsEnum termsEnum = null;
+      DocsEnum docs = null;
+      
+      //System.out.println(Thread.currentThread().getName() + " numericDVUpdate reader=" + reader);
+      for (DocValuesUpdate update : updates) {
+        Term term = update.term;
+        int limit = update.docIDUpto;
+        
+        // TODO: we traverse the terms in update order (not term order) so that we
+        // apply the updates in the correct order, i.e. if two terms udpate the
+        // same document, the last one that came in wins, irrespective of the
+        // terms lexical order.
+        // we can apply the updates in terms order if we keep an updatesGen (and
+        // increment it with every update) and attach it to each NumericUpdate. Note
+        // that we cannot rely only on docIDUpto because an app may send two updates
+        // which will get same docIDUpto, yet will still need to respect the order
+        // those updates arrived.
+        
+        if (!term.field().equals(currentField)) {
+          // if we change the code to process updates in terms order, enable this assert
+//          assert currentField == null || currentField.compareTo(term.field()) < 0;
+          currentField = term.field();
+          Terms terms = fields.terms(currentField);
+          if (terms != null) {
+            termsEnum = terms.iterator(termsEnum);
+          } else {
+            termsEnum = null;
+            continue; // no terms in that field
           }
         }
-        info.setBufferedDeletesGen(gen);
 
-        infosIDX--;
+        if (termsEnum == null) {
+          continue;
+        }
+        // System.out.println("  term=" + term);
+
+        if (termsEnum.seekExact(term.bytes())) {
+          // we don't need term frequencies for this
+          DocsEnum docsEnum = termsEnum.docs(acceptDocs, docs, DocsEnum.FLAG_NONE);
+        
+          //System.out.println("BDS: got docsEnum=" + docsEnum);
+
+          DocValuesFieldUpdates fieldUpdates = dvUpdates.getUpdates(update.field, update.type);
+          if (fieldUpdates == null) {
+            fieldUpdates = dvUpdates.newUpdates(update.field, update.type, reader.maxDoc());
+          }
+          int doc;
+          while ((doc = docsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+            //System.out.println(Thread.currentThread().getName() + " numericDVUpdate term=" + term + " doc=" + docID);
+            if (sortMap != null) {
+              if (sortMap.newToOld(doc) >= limit) {
+                continue; // limit is in the order docs were added
+              }
+            } else if (doc >= limit) {
+              break; // no more docs that can be updated for this term
+            }
+            fieldUpdates.add(doc, update.value);
+          }
+        }
       }
     }
 
-    assert checkDeleteStats();
-    if (infoStream.isEnabled("BD")) {
-      infoStream.message("BD", "applyDeletes took " + (System.currentTimeMillis()-t0) + " msec");
+    // Delete by query
+    private void resolveQueryDeletes(Iterable<QueryAndLimit> queriesIter) throws IOException {
+      final AtomicReaderContext readerContext = reader.getContext();
+      for (QueryAndLimit ent : queriesIter) {
+        Query query = ent.query;
+        int limit = ent.limit;
+        final DocIdSet docs = new QueryWrapperFilter(query).getDocIdSet(readerContext, currentLiveDocs());
+        if (docs != null) {
+          final DocIdSetIterator it = docs.iterator();
+          if (it != null) {
+            while(true)  {
+              int doc = it.nextDoc();
+              if (sortMap != null && doc != DocIdSetIterator.NO_MORE_DOCS) {
+                if (sortMap.newToOld(doc) >= limit) {
+                  continue; // limit is in the order docs were added
+                }
+              } else if (doc >= limit) {
+                break;
+              }
+              delete(doc);
+            }
+          }
+        }
+      }
     }
-    // assert infos != segmentInfos || !any() : "infos=" + infos + " segmentInfos=" + segmentInfos + " any=" + any;
 
-    return new ApplyDeletesResult(anyNewDeletes, gen, allDeleted);
+    // used only by assert
+    private boolean checkDeleteTerm(Term term) {
+      assert lastDeleteTerm == null || term.compareTo(lastDeleteTerm) > 0: "lastTerm=" + lastDeleteTerm + " vs term=" + term;
+      // TODO: we re-use term now in our merged iterable, but we shouldn't clone, instead copy for this assert
+      lastDeleteTerm = new Term(term.field(), BytesRef.deepCopyOf(term.bytes));
+      return true;
+    }
+
+    /** Releases the segment's reader. */
+    @Override
+    public void close() throws IOException {
+      try {
+        rld.release(reader);
+      } finally {
+        readerPool.release(rld);
+      }
+    }
   }
 
   synchronized long getNextGen() {
@@ -381,157 +774,6 @@ class BufferedUpdatesStream implements Accountable {
     }
   }
 
-  // Delete by Term
-  private synchronized long applyTermDeletes(Iterable<Term> termsIter, ReadersAndUpdates rld, SegmentReader reader) throws IOException {
-    long delCount = 0;
-    Fields fields = reader.fields();
-    if (fields == null) {
-      // This reader has no postings
-      return 0;
-    }
-
-    TermsEnum termsEnum = null;
-
-    String currentField = null;
-    DocsEnum docs = null;
-
-    assert checkDeleteTerm(null);
-
-    boolean any = false;
-
-    //System.out.println(Thread.currentThread().getName() + " del terms reader=" + reader);
-    for (Term term : termsIter) {
-      // Since we visit terms sorted, we gain performance
-      // by re-using the same TermsEnum and seeking only
-      // forwards
-      if (!term.field().equals(currentField)) {
-        assert currentField == null || currentField.compareTo(term.field()) < 0;
-        currentField = term.field();
-        Terms terms = fields.terms(currentField);
-        if (terms != null) {
-          termsEnum = terms.iterator(termsEnum);
-        } else {
-          termsEnum = null;
-        }
-      }
-
-      if (termsEnum == null) {
-        continue;
-      }
-      assert checkDeleteTerm(term);
-
-      // System.out.println("  term=" + term);
-
-      if (termsEnum.seekExact(term.bytes())) {
-        // we don't need term frequencies for this
-        DocsEnum docsEnum = termsEnum.docs(rld.getLiveDocs(), docs, DocsEnum.FLAG_NONE);
-        //System.out.println("BDS: got docsEnum=" + docsEnum);
-
-        if (docsEnum != null) {
-          while (true) {
-            final int docID = docsEnum.nextDoc();
-            //System.out.println(Thread.currentThread().getName() + " del term=" + term + " doc=" + docID);
-            if (docID == DocIdSetIterator.NO_MORE_DOCS) {
-              break;
-            }   
-            if (!any) {
-              rld.initWritableLiveDocs();
-              any = true;
-            }
-            // NOTE: there is no limit check on the docID
-            // when deleting by Term (unlike by Query)
-            // because on flush we apply all Term deletes to
-            // each segment.  So all Term deleting here is
-            // against prior segments:
-            if (rld.delete(docID)) {
-              delCount++;
-            }
-          }
-        }
-      }
-    }
-
-    return delCount;
-  }
-
-  // DocValues updates
-  private synchronized void applyDocValuesUpdates(Iterable<? extends DocValuesUpdate> updates, 
-      ReadersAndUpdates rld, SegmentReader reader, DocValuesFieldUpdates.Container dvUpdatesContainer) throws IOException {
-    Fields fields = reader.fields();
-    if (fields == null) {
-      // This reader has no postings
-      return;
-    }
-
-    // TODO: we can process the updates per DV field, from last to first so that
-    // if multiple terms affect same document for the same field, we add an update
-    // only once (that of the last term). To do that, we can keep a bitset which
-    // marks which documents have already been updated. So e.g. if term T1
-    // updates doc 7, and then we process term T2 and it updates doc 7 as well,
-    // we don't apply the update since we know T1 came last and therefore wins
-    // the update.
-    // We can also use that bitset as 'liveDocs' to pass to TermEnum.docs(), so
-    // that these documents aren't even returned.
-    
-    String currentField = null;
-    TermsEnum termsEnum = null;
-    DocsEnum docs = null;
-    
-    //System.out.println(Thread.currentThread().getName() + " numericDVUpdate reader=" + reader);
-    for (DocValuesUpdate update : updates) {
-      Term term = update.term;
-      int limit = update.docIDUpto;
-      
-      // TODO: we traverse the terms in update order (not term order) so that we
-      // apply the updates in the correct order, i.e. if two terms udpate the
-      // same document, the last one that came in wins, irrespective of the
-      // terms lexical order.
-      // we can apply the updates in terms order if we keep an updatesGen (and
-      // increment it with every update) and attach it to each NumericUpdate. Note
-      // that we cannot rely only on docIDUpto because an app may send two updates
-      // which will get same docIDUpto, yet will still need to respect the order
-      // those updates arrived.
-      
-      if (!term.field().equals(currentField)) {
-        // if we change the code to process updates in terms order, enable this assert
-//        assert currentField == null || currentField.compareTo(term.field()) < 0;
-        currentField = term.field();
-        Terms terms = fields.terms(currentField);
-        if (terms != null) {
-          termsEnum = terms.iterator(termsEnum);
-        } else {
-          termsEnum = null;
-          continue; // no terms in that field
-        }
-      }
-
-      if (termsEnum == null) {
-        continue;
-      }
-      // System.out.println("  term=" + term);
-
-      if (termsEnum.seekExact(term.bytes())) {
-        // we don't need term frequencies for this
-        DocsEnum docsEnum = termsEnum.docs(rld.getLiveDocs(), docs, DocsEnum.FLAG_NONE);
-      
-        //System.out.println("BDS: got docsEnum=" + docsEnum);
-
-        DocValuesFieldUpdates dvUpdates = dvUpdatesContainer.getUpdates(update.field, update.type);
-        if (dvUpdates == null) {
-          dvUpdates = dvUpdatesContainer.newUpdates(update.field, update.type, reader.maxDoc());
-        }
-        int doc;
-        while ((doc = docsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
-          //System.out.println(Thread.currentThread().getName() + " numericDVUpdate term=" + term + " doc=" + docID);
-          if (doc >= limit) {
-            break; // no more docs that can be updated for this term
-          }
-          dvUpdates.add(doc, update.value);
-        }
-      }
-    }
-  }
-  
   public static class QueryAndLimit {
     public final Query query;
     public final int limit;
@@ -541,50 +783,6 @@ class BufferedUpdatesStream implements Accountable {
     }
   }
 
-  // Delete by query
-  private static long applyQueryDeletes(Iterable<QueryAndLimit> queriesIter, ReadersAndUpdates rld, final SegmentReader reader) throws IOException {
-    long delCount = 0;
-    final AtomicReaderContext readerContext = reader.getContext();
-    boolean any = false;
-    for (QueryAndLimit ent : queriesIter) {
-      Query query = ent.query;
-      int limit = ent.limit;
-      final DocIdSet docs = new QueryWrapperFilter(query).getDocIdSet(readerContext, reader.getLiveDocs());
-      if (docs != null) {
-        final DocIdSetIterator it = docs.iterator();
-        if (it != null) {
-          while(true)  {
-            int doc = it.nextDoc();
-            if (doc >= limit) {
-              break;
-            }
-
-            if (!any) {
-              rld.initWritableLiveDocs();
-              any = true;
-            }
-
-            if (rld.delete(doc)) {
-              delCount++;
-            }
-          }
-        }
-      }
-    }
-
-    return delCount;
-  }
-
-  // used only by assert
-  private boolean checkDeleteTerm(Term term) {
-    if (term != null) {
-      assert lastDeleteTerm == null || term.compareTo(lastDeleteTerm) > 0: "lastTerm=" + lastDeleteTerm + " vs term=" + term;
-    }
-    // TODO: we re-use term now in our merged iterable, but we shouldn't clone, instead copy for this assert
-    lastDeleteTerm = term == null ? null : new Term(term.field(), BytesRef.deepCopyOf(term.bytes));
-    return true;
-  }
-
   // only for assert
   private boolean checkDeleteStats() {
     int numTerms2 = 0;
@@ -23,10 +23,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.index.BufferedUpdatesStream.QueryAndLimit;
 import org.apache.lucene.index.DocValuesUpdate.BinaryDocValuesUpdate;
 import org.apache.lucene.index.DocValuesUpdate.NumericDocValuesUpdate;
+import org.apache.lucene.index.DocValuesUpdate.StoredFieldsUpdate;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.MergedIterator;
 
@@ -35,13 +37,27 @@ class CoalescedUpdates {
   final List<Iterable<Term>> iterables = new ArrayList<>();
   final List<NumericDocValuesUpdate> numericDVUpdates = new ArrayList<>();
   final List<BinaryDocValuesUpdate> binaryDVUpdates = new ArrayList<>();
+  final List<StoredFieldsUpdate> storedFieldsUpdates = new ArrayList<>();
   
   @Override
   public String toString() {
     // note: we could add/collect more debugging information
     return "CoalescedUpdates(termSets=" + iterables.size() + ",queries="
         + queries.size() + ",numericDVUpdates=" + numericDVUpdates.size()
-        + ",binaryDVUpdates=" + binaryDVUpdates.size() + ")";
+        + ",binaryDVUpdates=" + binaryDVUpdates.size()
+        + ",storedFieldsUpdates=" + storedFieldsUpdates.size() + ")";
+  }
+
+  /** Returns a copy of the updates coalesced so far, which
+   *  later calls to {@link #update} don't change. */
+  CoalescedUpdates copy() {
+    final CoalescedUpdates copy = new CoalescedUpdates();
+    copy.queries.putAll(queries);
+    copy.iterables.addAll(iterables);
+    copy.numericDVUpdates.addAll(numericDVUpdates);
+    copy.binaryDVUpdates.addAll(binaryDVUpdates);
+    copy.storedFieldsUpdates.addAll(storedFieldsUpdates);
+    return copy;
   }
 
   void update(FrozenBufferedUpdates in) {
@@ -52,17 +68,31 @@ class CoalescedUpdates {
       queries.put(query, BufferedUpdates.MAX_INT);
     }
     
+    // packets are coalesced from the newest to the oldest, so the updates
+    // of each packet go before those of the newer ones, which must win
+    final List<NumericDocValuesUpdate> numericUpdates = new ArrayList<>(in.numericDVUpdates.length);
     for (NumericDocValuesUpdate nu : in.numericDVUpdates) {
       NumericDocValuesUpdate clone = new NumericDocValuesUpdate(nu.term, nu.field, (Long) nu.value);
       clone.docIDUpto = Integer.MAX_VALUE;
-      numericDVUpdates.add(clone);
+      numericUpdates.add(clone);
     }
+    numericDVUpdates.addAll(0, numericUpdates);
     
+    final List<BinaryDocValuesUpdate> binaryUpdates = new ArrayList<>(in.binaryDVUpdates.length);
     for (BinaryDocValuesUpdate bu : in.binaryDVUpdates) {
       BinaryDocValuesUpdate clone = new BinaryDocValuesUpdate(bu.term, bu.field, (BytesRef) bu.value);
       clone.docIDUpto = Integer.MAX_VALUE;
-      binaryDVUpdates.add(clone);
+      binaryUpdates.add(clone);
+    }
+    binaryDVUpdates.addAll(0, binaryUpdates);
+    
+    final List<StoredFieldsUpdate> storedUpdates = new ArrayList<>(in.storedFieldsUpdates.length);
+    for (StoredFieldsUpdate su : in.storedFieldsUpdates) {
+      StoredFieldsUpdate clone = new StoredFieldsUpdate(su.term, su.field, (StoredField[]) su.value);
+      clone.docIDUpto = Integer.MAX_VALUE;
+      storedUpdates.add(clone);
     }
+    storedFieldsUpdates.addAll(0, storedUpdates);
   }
 
  public Iterable<Term> termsIterable() {
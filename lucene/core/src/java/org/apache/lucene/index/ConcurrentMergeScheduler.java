@@ -25,6 +25,8 @@ import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 /** A {@link MergeScheduler} that runs each merge using a
  *  separate thread.
@@ -41,6 +43,17 @@ import java.util.Comparator;
  *  requested then this class will forcefully throttle the
  *  incoming threads by pausing until one more more merges
  *  complete.</p>
+ *
+ *  <p>With {@link #enableAutoIOThrottle} the write rate of
+ *  merges of at least {@link #MIN_BIG_MERGE_MB} is limited,
+ *  and the limit adapts to the merge backlog: it rises while
+ *  merges fall behind or indexing threads are stalled, and
+ *  falls while merges keep up, between {@link
+ *  #MIN_MERGE_MB_PER_SEC} and {@link #MAX_MERGE_MB_PER_SEC}.
+ *  Merges then neither fall behind nor take more IO than
+ *  they need, without choosing a fixed rate up front.
+ *  Forced merges are limited to {@link
+ *  #setForceMergeMBPerSec} instead.</p>
  */ 
 public class ConcurrentMergeScheduler extends MergeScheduler {
 
@@ -60,6 +73,20 @@ public class ConcurrentMergeScheduler extends MergeScheduler {
   /** Default {@code maxMergeCount}. */
   public static final int DEFAULT_MAX_MERGE_COUNT = 2;
 
+  /** Floor for the write rate limit of big merges, in MB/sec. */
+  public static final double MIN_MERGE_MB_PER_SEC = 5.0;
+
+  /** Ceiling for the write rate limit of big merges, in MB/sec. */
+  public static final double MAX_MERGE_MB_PER_SEC = 10240.0;
+
+  /** Write rate limit of big merges once auto IO throttling
+   *  is enabled, in MB/sec, until the backlog changes it. */
+  public static final double START_MB_PER_SEC = 20.0;
+
+  /** Merges estimated below this size, in MB, are never
+   *  throttled and don't change the rate limit. */
+  public static final double MIN_BIG_MERGE_MB = 50.0;
+
   // Max number of merge threads allowed to be running at
   // once.  When there are more merges then this, we
   // forcefully pause the larger ones, letting the smaller
@@ -72,6 +99,22 @@ public class ConcurrentMergeScheduler extends MergeScheduler {
   // throttling the incoming threads
   private int maxMergeCount = DEFAULT_MAX_MERGE_COUNT;
 
+  // True if the write rate limit of big merges adapts to
+  // the merge backlog
+  private boolean doAutoIOThrottle = false;
+
+  // Current write rate limit of big merges, in MB/sec
+  private double targetMBPerSec = START_MB_PER_SEC;
+
+  // Write rate limit of forced merges, in MB/sec
+  private double forceMergeMBPerSec = Double.POSITIVE_INFINITY;
+
+  // Time merges that already finished were throttled
+  private long totalIOThrottledNS;
+
+  // Time incoming threads were stalled waiting for merges
+  private long totalStalledNS;
+
   /** {@link Directory} that holds the index. */
   protected Directory dir;
 
@@ -125,6 +168,81 @@ public class ConcurrentMergeScheduler extends MergeScheduler {
     return maxMergeCount;
   }
 
+  /** Turns on the write rate limit of big merges, starting
+   *  at {@link #START_MB_PER_SEC}; it then adapts to the merge
+   *  backlog. Only applies to merges started afterwards. */
+  public synchronized void enableAutoIOThrottle() {
+    if (!doAutoIOThrottle) {
+      doAutoIOThrottle = true;
+      targetMBPerSec = START_MB_PER_SEC;
+      updateMergeThreads();
+    }
+  }
+
+  /** Turns off the write rate limit of big merges, which
+   *  then run as fast as they can, including those already
+   *  running. */
+  public synchronized void disableAutoIOThrottle() {
+    doAutoIOThrottle = false;
+    updateMergeThreads();
+  }
+
+  /** Returns true if the write rate of big merges is
+   *  limited.
+   *
+   *  @see #enableAutoIOThrottle */
+  public synchronized boolean getAutoIOThrottle() {
+    return doAutoIOThrottle;
+  }
+
+  /** Returns the current write rate limit of big merges, in
+   *  MB/sec, or {@link Double#POSITIVE_INFINITY} if {@link
+   *  #getAutoIOThrottle auto IO throttling} is off. */
+  public synchronized double getIORateLimitMBPerSec() {
+    return doAutoIOThrottle ? targetMBPerSec : Double.POSITIVE_INFINITY;
+  }
+
+  /** Sets the write rate limit of forced merges, in MB/sec.
+   *  The default is {@link Double#POSITIVE_INFINITY}, which
+   *  doesn't throttle them. Unlike the limit of big merges it
+   *  applies regardless of {@link #getAutoIOThrottle}. */
+  public synchronized void setForceMergeMBPerSec(double mbPerSec) {
+    if (!(mbPerSec > 0)) {
+      throw new IllegalArgumentException("mbPerSec must be positive; got " + mbPerSec);
+    }
+    forceMergeMBPerSec = mbPerSec;
+    updateMergeThreads();
+  }
+
+  /** Returns the write rate limit of forced merges, in
+   *  MB/sec.
+   *
+   *  @see #setForceMergeMBPerSec */
+  public synchronized double getForceMergeMBPerSec() {
+    return forceMergeMBPerSec;
+  }
+
+  /** Returns the total time, in nano seconds, merges of this
+   *  scheduler were paused to stay below their write rate
+   *  limit, including merges still running. */
+  public synchronized long getTotalIOThrottledNanos() {
+    long total = totalIOThrottledNS;
+    for (MergeThread mergeThread : mergeThreads) {
+      final MergePolicy.OneMerge merge = mergeThread.getCurrentMerge();
+      if (merge != null && merge.rateLimiter != null) {
+        total += merge.rateLimiter.getTotalPausedNS();
+      }
+    }
+    return total;
+  }
+
+  /** Returns the total time, in nano seconds, threads
+   *  producing segments were stalled because more than
+   *  {@link #getMaxMergeCount} merges were pending. */
+  public synchronized long getTotalStalledNanos() {
+    return totalStalledNS;
+  }
+
   /** Return the priority that merge threads run at.  By
    *  default the priority is 1 plus the priority of (ie,
    *  slightly higher priority than) the first thread that
@@ -222,6 +340,79 @@ public class ConcurrentMergeScheduler extends MergeScheduler {
         mergeThread.setThreadPriority(pri);
         pri = Math.min(Thread.MAX_PRIORITY, 1+pri);
       }
+
+      if (merge.rateLimiter != null) {
+        final double mbPerSec = targetMBPerSec(merge);
+        if (mbPerSec != merge.rateLimiter.getMbPerSec()) {
+          merge.rateLimiter.setMbPerSec(mbPerSec);
+        }
+      }
+    }
+  }
+
+  /** Returns the write rate limit for the given merge. */
+  private double targetMBPerSec(MergePolicy.OneMerge merge) {
+    if (merge.maxNumSegments != -1) {
+      return forceMergeMBPerSec;
+    } else if (doAutoIOThrottle && isBigMerge(merge)) {
+      return targetMBPerSec;
+    } else {
+      return Double.POSITIVE_INFINITY;
+    }
+  }
+
+  private static boolean isBigMerge(MergePolicy.OneMerge merge) {
+    return merge.estimatedMergeBytes/1024./1024. >= MIN_BIG_MERGE_MB;
+  }
+
+  /**
+   * Called before a merge starts, to adapt the write rate
+   * limit of big merges to the backlog and to give the merge
+   * a rate limiter which already has its rate. The limit
+   * rises by 20% if more big merges are running than {@link
+   * #getMaxThreadCount} or indexing threads are stalled, and
+   * falls by 10% if the new merge is the only big merge.
+   */
+  private synchronized void updateIOThrottle(MergePolicy.OneMerge newMerge) {
+    if (doAutoIOThrottle && newMerge.maxNumSegments == -1 && isBigMerge(newMerge)) {
+      updateTargetMBPerSec(newMerge);
+    }
+    if (doAutoIOThrottle || forceMergeMBPerSec != Double.POSITIVE_INFINITY) {
+      final double mbPerSec = targetMBPerSec(newMerge);
+      if (newMerge.rateLimiter == null) {
+        newMerge.rateLimiter = new MergeRateLimiter(mbPerSec);
+      } else if (mbPerSec != newMerge.rateLimiter.getMbPerSec()) {
+        newMerge.rateLimiter.setMbPerSec(mbPerSec);
+      }
+    }
+  }
+
+  /** Adapts the write rate limit of big merges to the number
+   *  of big merges running along with the given one. */
+  private void updateTargetMBPerSec(MergePolicy.OneMerge newMerge) {
+    int bigMergeCount = 1;
+    for (MergeThread mergeThread : mergeThreads) {
+      final MergePolicy.OneMerge merge = mergeThread.getCurrentMerge();
+      if (merge != null && merge != newMerge && mergeThread.isAlive()
+          && merge.maxNumSegments == -1 && isBigMerge(merge)) {
+        bigMergeCount++;
+      }
+    }
+
+    final double curMBPerSec = targetMBPerSec;
+    final String reason;
+    if (bigMergeCount > maxThreadCount || writer.isIndexingStalled()) {
+      targetMBPerSec = Math.min(MAX_MERGE_MB_PER_SEC, targetMBPerSec*1.20);
+      reason = "merges are falling behind";
+    } else if (bigMergeCount == 1) {
+      targetMBPerSec = Math.max(MIN_MERGE_MB_PER_SEC, targetMBPerSec/1.10);
+      reason = "merges are keeping up";
+    } else {
+      reason = "merge backlog is unchanged";
+    }
+    if (verbose()) {
+      message(String.format(Locale.ROOT, "io throttle: %s with %d big merges; rate %.1f -> %.1f MB/sec",
+          reason, bigMergeCount, curMBPerSec, targetMBPerSec));
     }
   }
 
@@ -334,8 +525,20 @@ public class ConcurrentMergeScheduler extends MergeScheduler {
     // pending merges, until it's empty:
     while (true) {
 
-      long startStallTime = 0;
+      boolean stalled = false;
+      long startStallNS = 0;
       while (writer.hasPendingMerges() && mergeThreadCount() >= maxMergeCount) {
+        if (!stalled && doAutoIOThrottle) {
+          // stalling indexing is the clearest sign that merges are
+          // throttled too much
+          final double curMBPerSec = targetMBPerSec;
+          targetMBPerSec = Math.min(MAX_MERGE_MB_PER_SEC, targetMBPerSec*1.20);
+          if (verbose()) {
+            message(String.format(Locale.ROOT, "io throttle: stalling indexing; rate %.1f -> %.1f MB/sec",
+                curMBPerSec, targetMBPerSec));
+          }
+          updateMergeThreads();
+        }
         // This means merging has fallen too far behind: we
         // have already created maxMergeCount threads, and
         // now there's at least one more merge pending.
@@ -345,7 +548,10 @@ public class ConcurrentMergeScheduler extends MergeScheduler {
         // updateMergeThreads).  We stall this producer
         // thread to prevent creation of new segments,
         // until merging has caught up:
-        startStallTime = System.currentTimeMillis();
+        if (!stalled) {
+          stalled = true;
+          startStallNS = System.nanoTime();
+        }
         if (verbose()) {
           message("    too many merges; stalling...");
         }
@@ -356,9 +562,11 @@ public class ConcurrentMergeScheduler extends MergeScheduler {
         }
       }
 
-      if (verbose()) {
-        if (startStallTime != 0) {
-          message("  stalled for " + (System.currentTimeMillis()-startStallTime) + " msec");
+      if (stalled) {
+        final long stalledNS = System.nanoTime()-startStallNS;
+        totalStalledNS += stalledNS;
+        if (verbose()) {
+          message("  stalled for " + TimeUnit.NANOSECONDS.toMillis(stalledNS) + " msec");
         }
       }
 
@@ -376,6 +584,8 @@ public class ConcurrentMergeScheduler extends MergeScheduler {
           message("  consider merge " + writer.segString(merge.segments));
         }
 
+        updateIOThrottle(merge);
+
         // OK to spawn a new merge thread to handle this
         // merge:
         final MergeThread merger = getMergeThread(writer, merge);
@@ -479,7 +689,11 @@ public class ConcurrentMergeScheduler extends MergeScheduler {
 
         while(true) {
           setRunningMerge(merge);
-          doMerge(merge);
+          try {
+            doMerge(merge);
+          } finally {
+            mergeDone(merge);
+          }
 
           // Subsequent times through the loop we do any new
           // merge that writer says is necessary:
@@ -493,6 +707,7 @@ public class ConcurrentMergeScheduler extends MergeScheduler {
           }
 
           if (merge != null) {
+            updateIOThrottle(merge);
             updateMergeThreads();
             if (verbose()) {
               message("  merge thread: do another merge " + tWriter.segString(merge.segments));
@@ -528,6 +743,21 @@ public class ConcurrentMergeScheduler extends MergeScheduler {
     }
   }
 
+  /** Adds up the time a finished merge was throttled. */
+  private synchronized void mergeDone(MergePolicy.OneMerge merge) {
+    final MergeRateLimiter rateLimiter = merge.rateLimiter;
+    if (rateLimiter != null) {
+      totalIOThrottledNS += rateLimiter.getTotalPausedNS();
+      // not counted again while this thread is still alive
+      merge.rateLimiter = null;
+      if (verbose()) {
+        message(String.format(Locale.ROOT, "merge %s: throttled %.1f sec at %.1f MB/sec",
+            merge.info == null ? "" : merge.info.info.name, rateLimiter.getTotalPausedNS()/1000000000.,
+            rateLimiter.getMbPerSec()));
+      }
+    }
+  }
+
   /** Called when an exception is hit in a background merge
    *  thread */
   protected void handleMergeException(Throwable exc) {
@@ -562,7 +792,8 @@ public class ConcurrentMergeScheduler extends MergeScheduler {
     StringBuilder sb = new StringBuilder(getClass().getSimpleName() + ": ");
     sb.append("maxThreadCount=").append(maxThreadCount).append(", ");    
     sb.append("maxMergeCount=").append(maxMergeCount).append(", ");    
-    sb.append("mergeThreadPriority=").append(mergeThreadPriority);
+    sb.append("mergeThreadPriority=").append(mergeThreadPriority).append(", ");
+    sb.append("ioThrottle=").append(doAutoIOThrottle);
     return sb.toString();
   }
 }
@@ -205,6 +205,7 @@ final class DefaultIndexingChain extends DocConsumer {
             if (perField.norms != null) {
               perField.norms.finish(state.segmentInfo.getDocCount());
               perField.norms.flush(state, normsConsumer);
+              fi.setNormsRange(perField.minNorm, perField.maxNorm);
               assert fi.getNormType() == DocValuesType.NUMERIC;
             } else if (fi.isIndexed()) {
               assert fi.getNormType() == null: "got " + fi.getNormType() + "; field=" + fi.name;
@@ -549,6 +550,7 @@ final class DefaultIndexingChain extends DocConsumer {
 
     // Lazy init'd:
     NumericDocValuesWriter norms;
+    long minNorm = Long.MAX_VALUE, maxNorm = Long.MIN_VALUE;
     
     // reused
     TokenStream tokenStream;
@@ -577,7 +579,10 @@ final class DefaultIndexingChain extends DocConsumer {
           fieldInfo.setNormValueType(FieldInfo.DocValuesType.NUMERIC);
           norms = new NumericDocValuesWriter(fieldInfo, docState.docWriter.bytesUsed, false);
         }
-        norms.addValue(docState.docID, similarity.computeNorm(invertState));
+        final long norm = similarity.computeNorm(invertState);
+        norms.addValue(docState.docID, norm);
+        minNorm = Math.min(minNorm, norm);
+        maxNorm = Math.max(maxNorm, norm);
       }
 
       termsHashPerField.finish();
@@ -112,6 +112,28 @@ public abstract class DirectoryReader extends BaseCompositeReader<AtomicReader>
     return writer.getReader(applyAllDeletes);
   }
 
+  /**
+   * Expert: open a near real time IndexReader from the {@link IndexWriter},
+   * optionally writing all deleted documents to the directory first.
+   *
+   * @param writer The IndexWriter to open from
+   * @param applyAllDeletes If true, all buffered deletes will
+   * be applied (made visible) in the returned reader.
+   * @param writeAllDeletes If true, the deletes of all segments are written
+   * to the directory, so that the files of the returned reader's segments
+   * hold all their changes, which near-real-time replication relies on.
+   * This requires <code>applyAllDeletes</code> to be true.
+   * @return The new IndexReader
+   * @throws IOException if there is a low-level IO error
+   *
+   * @see #open(IndexWriter,boolean)
+   *
+   * @lucene.experimental
+   */
+  public static DirectoryReader open(final IndexWriter writer, boolean applyAllDeletes, boolean writeAllDeletes) throws IOException {
+    return writer.getReader(applyAllDeletes, writeAllDeletes);
+  }
+
   /** Expert: returns an IndexReader reading the index in the given
    *  {@link IndexCommit}.
    * @param commit the commit point to open
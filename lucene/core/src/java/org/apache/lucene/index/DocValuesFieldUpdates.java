@@ -25,7 +25,8 @@ import org.apache.lucene.util.packed.PagedGrowableWriter;
  */
 
 /**
- * Holds updates of a single DocValues field, for a set of documents.
+ * Holds updates of a single DocValues field, or of the stored values of a
+ * field, for a set of documents.
  * 
  * @lucene.experimental
  */
@@ -68,6 +69,7 @@ abstract class DocValuesFieldUpdates {
   
     final Map<String,NumericDocValuesFieldUpdates> numericDVUpdates = new HashMap<>();
     final Map<String,BinaryDocValuesFieldUpdates> binaryDVUpdates = new HashMap<>();
+    final Map<String,StoredFieldsFieldUpdates> storedFieldsUpdates = new HashMap<>();
     
     boolean any() {
       for (NumericDocValuesFieldUpdates updates : numericDVUpdates.values()) {
@@ -80,11 +82,16 @@ abstract class DocValuesFieldUpdates {
           return true;
         }
       }
+      for (StoredFieldsFieldUpdates updates : storedFieldsUpdates.values()) {
+        if (updates.any()) {
+          return true;
+        }
+      }
       return false;
     }
     
     int size() {
-      return numericDVUpdates.size() + binaryDVUpdates.size();
+      return numericDVUpdates.size() + binaryDVUpdates.size() + storedFieldsUpdates.size();
     }
     
     long ramBytesPerDoc() {
@@ -95,10 +102,17 @@ abstract class DocValuesFieldUpdates {
       for (BinaryDocValuesFieldUpdates updates : binaryDVUpdates.values()) {
         ramBytesPerDoc += updates.ramBytesPerDoc();
       }
+      for (StoredFieldsFieldUpdates updates : storedFieldsUpdates.values()) {
+        ramBytesPerDoc += updates.ramBytesPerDoc();
+      }
       return ramBytesPerDoc;
     }
     
+    /** Returns the updates of the given field and type, a null type stands for stored fields updates */
     DocValuesFieldUpdates getUpdates(String field, FieldInfo.DocValuesType type) {
+      if (type == null) {
+        return storedFieldsUpdates.get(field);
+      }
       switch (type) {
         case NUMERIC:
           return numericDVUpdates.get(field);
@@ -110,6 +124,12 @@ abstract class DocValuesFieldUpdates {
     }
     
     DocValuesFieldUpdates newUpdates(String field, FieldInfo.DocValuesType type, int maxDoc) {
+      if (type == null) {
+        assert storedFieldsUpdates.get(field) == null;
+        StoredFieldsFieldUpdates storedUpdates = new StoredFieldsFieldUpdates(field);
+        storedFieldsUpdates.put(field, storedUpdates);
+        return storedUpdates;
+      }
       switch (type) {
         case NUMERIC:
           assert numericDVUpdates.get(field) == null;
@@ -128,12 +148,12 @@ abstract class DocValuesFieldUpdates {
     
     @Override
     public String toString() {
-      return "numericDVUpdates=" + numericDVUpdates + " binaryDVUpdates=" + binaryDVUpdates;
+      return "numericDVUpdates=" + numericDVUpdates + " binaryDVUpdates=" + binaryDVUpdates + " storedFieldsUpdates=" + storedFieldsUpdates;
     }
   }
   
   final String field;
-  final FieldInfo.DocValuesType type;
+  final FieldInfo.DocValuesType type; // null for StoredFieldsFieldUpdates
   
   protected DocValuesFieldUpdates(String field, FieldInfo.DocValuesType type) {
     this.field = field;
@@ -6,7 +6,10 @@ import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_INT;
 import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_OBJECT_HEADER;
 import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_OBJECT_REF;
 
+import java.util.Arrays;
+
 import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.RamUsageEstimator;
 
@@ -27,7 +30,11 @@ import org.apache.lucene.util.RamUsageEstimator;
  * limitations under the License.
  */
 
-/** An in-place update to a DocValues field. */
+/**
+ * An in-place update to a DocValues field. Updates of the stored values of a
+ * field, {@link StoredFieldsUpdate}, travel the same way but have no
+ * DocValues type.
+ */
 abstract class DocValuesUpdate {
   
   /* Rough logic: OBJ_HEADER + 3*PTR + INT
@@ -39,7 +46,7 @@ abstract class DocValuesUpdate {
    */
   private static final int RAW_SIZE_IN_BYTES = 8*NUM_BYTES_OBJECT_HEADER + 8*NUM_BYTES_OBJECT_REF + 8*NUM_BYTES_INT;
   
-  final FieldInfo.DocValuesType type;
+  final FieldInfo.DocValuesType type; // null for a StoredFieldsUpdate
   final Term term;
   final String field;
   final Object value;
@@ -92,6 +99,43 @@ abstract class DocValuesUpdate {
     
   }
 
+  /**
+   * An in-place update of the stored values of a field. The value is an array
+   * of {@link StoredField}s which replace all stored values the field had in
+   * the affected documents.
+   */
+  static final class StoredFieldsUpdate extends DocValuesUpdate {
+
+    /* Size of a StoredField: OBJ_HEADER + 4*PTR, plus its value */
+    private static final long RAW_FIELD_SIZE_IN_BYTES = NUM_BYTES_OBJECT_HEADER + 4*NUM_BYTES_OBJECT_REF;
+
+    StoredFieldsUpdate(Term term, String field, StoredField[] values) {
+      super(null, term, field, values);
+    }
+
+    @Override
+    long valueSizeInBytes() {
+      long sizeInBytes = NUM_BYTES_ARRAY_HEADER;
+      for (StoredField value : (StoredField[]) this.value) {
+        sizeInBytes += NUM_BYTES_OBJECT_REF + RAW_FIELD_SIZE_IN_BYTES;
+        if (value.stringValue() != null) {
+          sizeInBytes += 2*NUM_BYTES_OBJECT_HEADER + 4*NUM_BYTES_INT + value.stringValue().length() * NUM_BYTES_CHAR;
+        } else if (value.binaryValue() != null) {
+          sizeInBytes += NUM_BYTES_ARRAY_HEADER + 2*NUM_BYTES_INT + value.binaryValue().bytes.length;
+        } else {
+          sizeInBytes += NUM_BYTES_OBJECT_HEADER + RamUsageEstimator.NUM_BYTES_LONG;
+        }
+      }
+      return sizeInBytes;
+    }
+
+    @Override
+    public String toString() {
+      return "term=" + term + ",field=" + field + ",value=" + Arrays.toString((StoredField[]) value);
+    }
+
+  }
+
   /** An in-place update to a numeric DocValues field */
   static final class NumericDocValuesUpdate extends DocValuesUpdate {
 
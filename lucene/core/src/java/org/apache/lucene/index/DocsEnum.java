@@ -60,6 +60,33 @@ public abstract class DocsEnum extends DocIdSetIterator {
    */
   public abstract int freq() throws IOException;
   
+  /**
+   * Expert: looks ahead, without moving this enum, for the block of
+   * postings which contains <code>target</code>, and returns the last
+   * document ID, inclusive, up to which {@link #getMaxFreq()} bounds the
+   * frequencies of the documents from <code>target</code> on. Targets must
+   * not decrease across calls until this enum is reused.
+   * <p>
+   * The default implementation returns {@link DocIdSetIterator#NO_MORE_DOCS},
+   * and codecs which record the maximum frequencies of their blocks
+   * override it.
+   * @lucene.experimental
+   */
+  public int advanceShallow(int target) throws IOException {
+    return NO_MORE_DOCS;
+  }
+
+  /**
+   * Expert: returns an upper bound of the frequencies of the documents from
+   * the last {@link #advanceShallow(int) shallow target} up to the document
+   * it returned. The default implementation returns
+   * {@link Integer#MAX_VALUE}.
+   * @lucene.experimental
+   */
+  public int getMaxFreq() {
+    return Integer.MAX_VALUE;
+  }
+  
   /** Returns the related attributes. */
   public AttributeSource attributes() {
     if (atts == null) atts = new AttributeSource();
@@ -387,7 +387,7 @@ final class DocumentsWriter implements Closeable, Accountable {
     if (state.isActive() && state.dwpt == null) {
       final FieldInfos.Builder infos = new FieldInfos.Builder(
           writer.globalFieldNumberMap);
-      state.dwpt = new DocumentsWriterPerThread(writer.newSegmentName(),
+      state.dwpt = new DocumentsWriterPerThread(writer, writer.newSegmentName(),
                                                 directory, config, infoStream, deleteQueue, infos,
                                                 writer.pendingNumDocs);
     }
@@ -21,8 +21,10 @@ import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.index.DocValuesUpdate.BinaryDocValuesUpdate;
 import org.apache.lucene.index.DocValuesUpdate.NumericDocValuesUpdate;
+import org.apache.lucene.index.DocValuesUpdate.StoredFieldsUpdate;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.BytesRef;
@@ -398,6 +400,10 @@ final class DocumentsWriterDeleteQueue implements Accountable {
     @Override
     void apply(BufferedUpdates bufferedUpdates, int docIDUpto) {
       for (DocValuesUpdate update : item) {
+        if (update.type == null) {
+          bufferedUpdates.addStoredUpdate(new StoredFieldsUpdate(update.term, update.field, (StoredField[]) update.value), docIDUpto);
+          continue;
+        }
         switch (update.type) {
           case NUMERIC:
             bufferedUpdates.addNumericUpdate(new NumericDocValuesUpdate(update.term, update.field, (Long) update.value), docIDUpto);
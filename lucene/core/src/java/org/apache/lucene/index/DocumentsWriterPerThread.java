@@ -19,6 +19,7 @@ package org.apache.lucene.index;
 
 import java.io.IOException;
 import java.text.NumberFormat;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.Set;
@@ -97,10 +98,10 @@ class DocumentsWriterPerThread {
     final int delCount;
 
     private FlushedSegment(SegmentCommitInfo segmentInfo, FieldInfos fieldInfos,
-                           BufferedUpdates segmentUpdates, MutableBits liveDocs, int delCount) {
+                           BufferedUpdates segmentUpdates, MutableBits liveDocs, int delCount, Sorter.DocMap sortMap) {
       this.segmentInfo = segmentInfo;
       this.fieldInfos = fieldInfos;
-      this.segmentUpdates = segmentUpdates != null && segmentUpdates.any() ? new FrozenBufferedUpdates(segmentUpdates, true) : null;
+      this.segmentUpdates = segmentUpdates != null && segmentUpdates.any() ? new FrozenBufferedUpdates(segmentUpdates, true, sortMap) : null;
       this.liveDocs = liveDocs;
       this.delCount = delCount;
     }
@@ -156,15 +157,19 @@ class DocumentsWriterPerThread {
   final IntBlockPool.Allocator intBlockAllocator;
   private final AtomicLong pendingNumDocs;
   private final LiveIndexWriterConfig indexWriterConfig;
+  private final IndexWriter writer; // names sorted segments
+  private final Sorter indexSorter;
   
-  public DocumentsWriterPerThread(String segmentName, Directory directory, LiveIndexWriterConfig indexWriterConfig, InfoStream infoStream, DocumentsWriterDeleteQueue deleteQueue,
+  public DocumentsWriterPerThread(IndexWriter writer, String segmentName, Directory directory, LiveIndexWriterConfig indexWriterConfig, InfoStream infoStream, DocumentsWriterDeleteQueue deleteQueue,
                                   FieldInfos.Builder fieldInfos, AtomicLong pendingNumDocs) throws IOException {
+    this.writer = writer;
     this.directoryOrig = directory;
     this.directory = new TrackingDirectoryWrapper(directory);
     this.fieldInfos = fieldInfos;
     this.indexWriterConfig = indexWriterConfig;
     this.infoStream = infoStream;
     this.codec = indexWriterConfig.getCodec();
+    this.indexSorter = indexWriterConfig.getIndexSort() == null ? null : new Sorter(indexWriterConfig.getIndexSort());
     this.docState = new DocState(this, infoStream);
     this.docState.similarity = indexWriterConfig.getSimilarity();
     this.pendingNumDocs = pendingNumDocs;
@@ -440,21 +445,50 @@ class DocumentsWriterPerThread {
       pendingUpdates.terms.clear();
       segmentInfo.setFiles(new HashSet<>(directory.getCreatedFiles()));
 
-      final SegmentCommitInfo segmentInfoPerCommit = new SegmentCommitInfo(segmentInfo, 0, -1L, -1L, -1L);
+      SegmentCommitInfo segmentInfoPerCommit = new SegmentCommitInfo(segmentInfo, 0, -1L, -1L, -1L);
+      FieldInfos flushedFieldInfos = flushState.fieldInfos;
+      Sorter.DocMap sortMap = null;
+      if (indexSorter != null) {
+        final SegmentReader reader = new SegmentReader(segmentInfoPerCommit, -1, IOContext.READ);
+        try {
+          sortMap = indexSorter.sort(reader);
+          if (sortMap != null) {
+            final MergeState mergeState = sortSegment(reader, sortMap, flushState.context);
+            segmentInfoPerCommit = new SegmentCommitInfo(mergeState.segmentInfo, 0, -1L, -1L, -1L);
+            flushedFieldInfos = mergeState.fieldInfos;
+          }
+        } finally {
+          reader.close();
+        }
+        if (sortMap != null) {
+          // the unsorted segment is no longer needed
+          filesToDelete.addAll(segmentInfo.files());
+          if (flushState.liveDocs != null) {
+            final MutableBits sortedLiveDocs = codec.liveDocsFormat().newLiveDocs(numDocsInRAM);
+            for (int doc = 0; doc < numDocsInRAM; doc++) {
+              if (!flushState.liveDocs.get(doc)) {
+                sortedLiveDocs.clear(sortMap.oldToNew(doc));
+              }
+            }
+            flushState.liveDocs = sortedLiveDocs;
+          }
+        }
+      }
       if (infoStream.isEnabled("DWPT")) {
         infoStream.message("DWPT", "new segment has " + (flushState.liveDocs == null ? 0 : flushState.delCountOnFlush) + " deleted docs");
         infoStream.message("DWPT", "new segment has " +
-                           (flushState.fieldInfos.hasVectors() ? "vectors" : "no vectors") + "; " +
-                           (flushState.fieldInfos.hasNorms() ? "norms" : "no norms") + "; " + 
-                           (flushState.fieldInfos.hasDocValues() ? "docValues" : "no docValues") + "; " + 
-                           (flushState.fieldInfos.hasProx() ? "prox" : "no prox") + "; " + 
-                           (flushState.fieldInfos.hasFreq() ? "freqs" : "no freqs"));
+                           (flushedFieldInfos.hasVectors() ? "vectors" : "no vectors") + "; " +
+                           (flushedFieldInfos.hasNorms() ? "norms" : "no norms") + "; " + 
+                           (flushedFieldInfos.hasDocValues() ? "docValues" : "no docValues") + "; " + 
+                           (flushedFieldInfos.hasProx() ? "prox" : "no prox") + "; " + 
+                           (flushedFieldInfos.hasFreq() ? "freqs" : "no freqs"));
         infoStream.message("DWPT", "flushedFiles=" + segmentInfoPerCommit.files());
         infoStream.message("DWPT", "flushed codec=" + codec);
       }
 
       final BufferedUpdates segmentDeletes;
-      if (pendingUpdates.queries.isEmpty() && pendingUpdates.numericUpdates.isEmpty() && pendingUpdates.binaryUpdates.isEmpty()) {
+      if (pendingUpdates.queries.isEmpty() && pendingUpdates.numericUpdates.isEmpty() && pendingUpdates.binaryUpdates.isEmpty()
+          && pendingUpdates.storedUpdates.isEmpty()) {
         pendingUpdates.clear();
         segmentDeletes = null;
       } else {
@@ -463,7 +497,7 @@ class DocumentsWriterPerThread {
 
       if (infoStream.isEnabled("DWPT")) {
         final double newSegmentSize = segmentInfoPerCommit.sizeInBytes()/1024./1024.;
-        infoStream.message("DWPT", "flushed: segment=" + segmentInfo.name + 
+        infoStream.message("DWPT", "flushed: segment=" + segmentInfoPerCommit.info.name + 
                 " ramUsed=" + nf.format(startMBUsed) + " MB" +
                 " newFlushedSize(includes docstores)=" + nf.format(newSegmentSize) + " MB" +
                 " docs/MB=" + nf.format(flushState.segmentInfo.getDocCount() / newSegmentSize));
@@ -471,8 +505,8 @@ class DocumentsWriterPerThread {
 
       assert segmentInfo != null;
 
-      FlushedSegment fs = new FlushedSegment(segmentInfoPerCommit, flushState.fieldInfos,
-                                             segmentDeletes, flushState.liveDocs, flushState.delCountOnFlush);
+      FlushedSegment fs = new FlushedSegment(segmentInfoPerCommit, flushedFieldInfos,
+                                             segmentDeletes, flushState.liveDocs, flushState.delCountOnFlush, sortMap);
       sealFlushedSegment(fs);
       success = true;
 
@@ -484,6 +518,25 @@ class DocumentsWriterPerThread {
     }
   }
   
+  /** Rewrites the flushed segment in the order of the index
+   *  sort, as a new segment. Its files are created through
+   *  {@link #directory} as well, so that they are removed if
+   *  the flush fails. */
+  private MergeState sortSegment(SegmentReader reader, Sorter.DocMap sortMap, IOContext context) throws IOException {
+    final SegmentInfo sortedInfo = new SegmentInfo(directoryOrig, Version.LATEST, writer.newSegmentName(), -1, false, codec, null);
+    if (infoStream.isEnabled("DWPT")) {
+      infoStream.message("DWPT", "sort segment " + segmentInfo.name + " into " + sortedInfo.name + " sort=" + indexSorter);
+    }
+    final SegmentMerger merger = new SegmentMerger(Collections.<AtomicReader>singletonList(SortingAtomicReader.wrap(reader, sortMap)),
+        sortedInfo, infoStream, directory, indexWriterConfig.getTermIndexInterval(), MergeState.CheckAbort.NONE,
+        fieldInfos.globalFieldNumbers, context, false, indexWriterConfig.getMergeExecutor());
+    final MergeState mergeState = merger.merge();
+    final Set<String> sortedFiles = new HashSet<>(directory.getCreatedFiles());
+    sortedFiles.removeAll(segmentInfo.files());
+    sortedInfo.setFiles(sortedFiles);
+    return mergeState;
+  }
+
   private final Set<String> filesToDelete = new HashSet<>();
   
   public Set<String> pendingFilesToDelete() {
@@ -498,7 +551,8 @@ class DocumentsWriterPerThread {
 
     SegmentCommitInfo newSegment = flushedSegment.segmentInfo;
 
-    IndexWriter.setDiagnostics(newSegment.info, IndexWriter.SOURCE_FLUSH);
+    IndexWriter.setDiagnostics(newSegment.info, IndexWriter.SOURCE_FLUSH,
+        indexSorter == null ? null : Collections.singletonMap(Sorter.SORTER_ID_PROP, indexSorter.getID()));
     
     IOContext context = new IOContext(new FlushInfo(newSegment.info.getDocCount(), newSegment.sizeInBytes()));
 
@@ -48,6 +48,10 @@ public final class FieldInfo {
   private Map<String,String> attributes;
 
   private long dvGen;
+
+  // attributes which record the range of the norm values of the segment
+  private static final String MIN_NORM_KEY = FieldInfo.class.getSimpleName() + ".minNorm";
+  private static final String MAX_NORM_KEY = FieldInfo.class.getSimpleName() + ".maxNorm";
   
   /**
    * Controls how much information is stored in the postings lists.
@@ -309,7 +313,7 @@ public final class FieldInfo {
   /**
    * Get a codec attribute value, or null if it does not exist
    */
-  public String getAttribute(String key) {
+  public synchronized String getAttribute(String key) {
     if (attributes == null) {
       return null;
     } else {
@@ -326,18 +330,54 @@ public final class FieldInfo {
    * <p>
    * If a value already exists for the field, it will be replaced with 
    * the new value.
+   * <p>
+   * Segment parts merged concurrently may put attributes on the same
+   * field, so access to them is synchronized.
    */
-  public String putAttribute(String key, String value) {
+  public synchronized String putAttribute(String key, String value) {
     if (attributes == null) {
       attributes = new HashMap<>();
     }
     return attributes.put(key, value);
   }
   
+  /**
+   * Records the smallest and largest norm values of this field in the
+   * segment, see {@link #getMinNorm()}.
+   */
+  void setNormsRange(long min, long max) {
+    assert min <= max;
+    putAttribute(MIN_NORM_KEY, Long.toString(min));
+    putAttribute(MAX_NORM_KEY, Long.toString(max));
+  }
+
+  /**
+   * Returns the smallest norm value of this field in the segment, or
+   * {@link Long#MIN_VALUE} if the segment was written without recording it.
+   * Similarities may use it, along with {@link #getMaxNorm()}, to bound the
+   * scores of the segment's documents.
+   * @lucene.experimental
+   */
+  public long getMinNorm() {
+    final String min = getAttribute(MIN_NORM_KEY);
+    return min == null || getAttribute(MAX_NORM_KEY) == null ? Long.MIN_VALUE : Long.parseLong(min);
+  }
+
+  /**
+   * Returns the largest norm value of this field in the segment, or
+   * {@link Long#MAX_VALUE} if the segment was written without recording it.
+   * @see #getMinNorm()
+   * @lucene.experimental
+   */
+  public long getMaxNorm() {
+    final String max = getAttribute(MAX_NORM_KEY);
+    return max == null || getAttribute(MIN_NORM_KEY) == null ? Long.MAX_VALUE : Long.parseLong(max);
+  }
+
   /**
    * Returns internal codec attributes map. May be null if no mappings exist.
    */
-  public Map<String,String> attributes() {
+  public synchronized Map<String,String> attributes() {
     return attributes;
   }
 }
@@ -26,6 +26,7 @@ import java.util.Map;
 import org.apache.lucene.index.BufferedUpdatesStream.QueryAndLimit;
 import org.apache.lucene.index.DocValuesUpdate.BinaryDocValuesUpdate;
 import org.apache.lucene.index.DocValuesUpdate.NumericDocValuesUpdate;
+import org.apache.lucene.index.DocValuesUpdate.StoredFieldsUpdate;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.RamUsageEstimator;
@@ -55,16 +56,28 @@ class FrozenBufferedUpdates {
   // binary DV update term and their updates
   final BinaryDocValuesUpdate[] binaryDVUpdates;
   
+  // stored fields update term and their updates
+  final StoredFieldsUpdate[] storedFieldsUpdates;
+  
   final int bytesUsed;
   final int numTermDeletes;
   private long gen = -1; // assigned by BufferedDeletesStream once pushed
   final boolean isSegmentPrivate;  // set to true iff this frozen packet represents 
                                    // a segment private deletes. in that case is should
                                    // only have Queries 
+  final Sorter.DocMap sortMap; // set iff the segment of a segment private packet
+                               // was sorted on flush; its limits are docIDs from
+                               // before sorting
 
 
   public FrozenBufferedUpdates(BufferedUpdates deletes, boolean isSegmentPrivate) {
+    this(deletes, isSegmentPrivate, null);
+  }
+
+  public FrozenBufferedUpdates(BufferedUpdates deletes, boolean isSegmentPrivate, Sorter.DocMap sortMap) {
     this.isSegmentPrivate = isSegmentPrivate;
+    assert isSegmentPrivate || sortMap == null;
+    this.sortMap = sortMap;
     assert !isSegmentPrivate || deletes.terms.size() == 0 : "segment private package should only have del queries"; 
     Term termsArray[] = deletes.terms.keySet().toArray(new Term[deletes.terms.size()]);
     termCount = termsArray.length;
@@ -112,9 +125,20 @@ class FrozenBufferedUpdates {
     }
     binaryDVUpdates = allBinaryUpdates.toArray(new BinaryDocValuesUpdate[allBinaryUpdates.size()]);
     
+    List<StoredFieldsUpdate> allStoredUpdates = new ArrayList<>();
+    int storedUpdatesSize = 0;
+    for (LinkedHashMap<Term,StoredFieldsUpdate> storedUpdates : deletes.storedUpdates.values()) {
+      for (StoredFieldsUpdate update : storedUpdates.values()) {
+        allStoredUpdates.add(update);
+        storedUpdatesSize += update.sizeInBytes();
+      }
+    }
+    storedFieldsUpdates = allStoredUpdates.toArray(new StoredFieldsUpdate[allStoredUpdates.size()]);
+    
     bytesUsed = (int) (terms.ramBytesUsed() + queries.length * BYTES_PER_DEL_QUERY 
         + numericUpdatesSize + RamUsageEstimator.shallowSizeOf(numericDVUpdates)
-        + binaryUpdatesSize + RamUsageEstimator.shallowSizeOf(binaryDVUpdates));
+        + binaryUpdatesSize + RamUsageEstimator.shallowSizeOf(binaryDVUpdates)
+        + storedUpdatesSize + RamUsageEstimator.shallowSizeOf(storedFieldsUpdates));
     
     numTermDeletes = deletes.numTermDeletes.get();
   }
@@ -183,6 +207,7 @@ class FrozenBufferedUpdates {
   }
   
   boolean any() {
-    return termCount > 0 || queries.length > 0 || numericDVUpdates.length > 0 || binaryDVUpdates.length > 0;
+    return termCount > 0 || queries.length > 0 || numericDVUpdates.length > 0 || binaryDVUpdates.length > 0
+        || storedFieldsUpdates.length > 0;
   }
 }
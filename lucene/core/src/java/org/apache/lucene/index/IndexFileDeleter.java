@@ -344,6 +344,12 @@ final class IndexFileDeleter implements Closeable {
         }
         info.setNextWriteDocValuesGen(genLong+1);
       }
+      if (info.getNextWriteStoredFieldsGen() < genLong+1) {
+        if (infoStream.isEnabled("IFD")) {
+          infoStream.message("IFD", "init: seg=" + info.info.name + " set nextWriteStoredFieldsGen=" + (genLong+1) + " vs current=" + info.getNextWriteStoredFieldsGen());
+        }
+        info.setNextWriteStoredFieldsGen(genLong+1);
+      }
     }
   }
 
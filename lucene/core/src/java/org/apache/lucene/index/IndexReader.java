@@ -433,6 +433,22 @@ public abstract class IndexReader implements Closeable {
    *  #document(int)}.  If you want to load a subset, use
    *  {@link DocumentStoredFieldVisitor}.  */
   public abstract void document(int docID, StoredFieldVisitor visitor) throws IOException;
+
+  /** Expert: visits the fields of several stored documents,
+   *  document <code>docIDs[i]</code> is handed to
+   *  <code>visitors[i]</code>. Documents may be visited in
+   *  any order, which lets the codec read a whole page of
+   *  hits in one pass over its storage, see {@link
+   *  org.apache.lucene.codecs.StoredFieldsReader#visitDocuments}.
+   *  The default implementation visits them one by one. */
+  public void document(int[] docIDs, StoredFieldVisitor[] visitors) throws IOException {
+    if (docIDs.length != visitors.length) {
+      throw new IllegalArgumentException("docIDs and visitors must have the same length: " + docIDs.length + " != " + visitors.length);
+    }
+    for (int i = 0; i < docIDs.length; i++) {
+      document(docIDs[i], visitors[i]);
+    }
+  }
   
   /**
    * Returns the stored fields of the <code>n</code><sup>th</sup>
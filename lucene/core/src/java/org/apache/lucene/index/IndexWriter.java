@@ -29,6 +29,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -41,11 +42,14 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.StoredFieldsFormat;
 import org.apache.lucene.codecs.lucene3x.Lucene3xCodec;
 import org.apache.lucene.codecs.lucene3x.Lucene3xSegmentInfoFormat;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.index.DocValuesUpdate.BinaryDocValuesUpdate;
 import org.apache.lucene.index.DocValuesUpdate.NumericDocValuesUpdate;
+import org.apache.lucene.index.DocValuesUpdate.StoredFieldsUpdate;
 import org.apache.lucene.index.FieldInfo.DocValuesType;
 import org.apache.lucene.index.FieldInfos.FieldNumbers;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
@@ -58,6 +62,7 @@ import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.Lock;
 import org.apache.lucene.store.LockObtainFailedException;
 import org.apache.lucene.store.MergeInfo;
+import org.apache.lucene.store.RateLimitedDirectoryWrapper;
 import org.apache.lucene.store.TrackingDirectoryWrapper;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.Bits;
@@ -381,8 +386,24 @@ public class IndexWriter implements Closeable, TwoPhaseCommit, Accountable {
    * @throws IOException If there is a low-level I/O error
    */
   DirectoryReader getReader(boolean applyAllDeletes) throws IOException {
+    return getReader(applyAllDeletes, false);
+  }
+
+  /**
+   * Like {@link #getReader(boolean)}, but if <code>writeAllDeletes</code>
+   * is true, the deleted documents of all segments are written to the
+   * directory before the reader is opened, so that the returned reader's
+   * segments only reference files which hold all its changes, like it
+   * would after a commit. This is what near-real-time replication needs,
+   * since it copies the files of the reader to other directories.
+   */
+  DirectoryReader getReader(boolean applyAllDeletes, boolean writeAllDeletes) throws IOException {
     ensureOpen();
 
+    if (writeAllDeletes && applyAllDeletes == false) {
+      throw new IllegalArgumentException("applyAllDeletes must be true when writeAllDeletes=true");
+    }
+
     final long tStart = System.currentTimeMillis();
 
     if (infoStream.isEnabled("IW")) {
@@ -419,6 +440,11 @@ public class IndexWriter implements Closeable, TwoPhaseCommit, Accountable {
           // just like we do when loading segments_N
           synchronized(this) {
             maybeApplyDeletes(applyAllDeletes);
+            if (writeAllDeletes) {
+              // Persist our pending deletes, and field updates, so
+              // that the reader's files hold all its changes:
+              readerPool.commit(segmentInfos);
+            }
             r = StandardDirectoryReader.open(this, segmentInfos, applyAllDeletes);
             if (infoStream.isEnabled("IW")) {
               infoStream.message("IW", "return reader version=" + r.getVersion() + " reader=" + r);
@@ -1636,6 +1662,120 @@ public class IndexWriter implements Closeable, TwoPhaseCommit, Accountable {
     }
   }
   
+  /**
+   * Updates the stored fields of documents in place, without reindexing them.
+   * The values of each given field replace all values the field had in the
+   * documents associated with the {@link Term}, fields the documents did not
+   * have are added to them. The other stored fields of the documents keep
+   * their values. Like DocValues updates, the updates become visible to
+   * near-real-time readers opened after they were applied, while readers
+   * opened earlier keep seeing the previous values.
+   * 
+   * <p>
+   * <b>NOTE:</b> only the stored values change, the inverted index, term
+   * vectors and DocValues of the documents stay as they were indexed, so the
+   * given fields must be stored only. The codec's {@link StoredFieldsFormat}
+   * must {@link StoredFieldsFormat#supportsUpdates(String) support updates}
+   * of the given fields, and so must the codecs of segments written with
+   * another codec.
+   * 
+   * @param term
+   *          the term to identify the document(s) to be updated
+   * @param fields
+   *          the new stored values, several fields may have the same name
+   * @throws UnsupportedOperationException
+   *           if the codec's stored fields format, or the one of a segment
+   *           written with another codec, does not support updates of the
+   *           given fields
+   * @throws CorruptIndexException
+   *           if the index is corrupt
+   * @throws IOException
+   *           if there is a low-level IO error
+   */
+  public void updateStoredFields(Term term, Field... fields) throws IOException {
+    ensureOpen();
+    final StoredFieldsFormat fieldsFormat = config.getCodec().storedFieldsFormat();
+    if (!fieldsFormat.supportsUpdates()) {
+      throw new UnsupportedOperationException("codec " + config.getCodec().getName() + " does not support stored fields updates");
+    }
+    // group the values per field, keeping their order, and copy them so that
+    // the caller may reuse the fields
+    final Map<String,List<StoredField>> values = new LinkedHashMap<>();
+    for (Field f : fields) {
+      final IndexableFieldType fieldType = f.fieldType();
+      if (!fieldType.stored() || fieldType.indexed() || fieldType.docValueType() != null) {
+        throw new IllegalArgumentException("can only update stored fields which are not indexed and have no docvalues! field=" + f.name());
+      }
+      if (!fieldsFormat.supportsUpdates(f.name())) {
+        throw new UnsupportedOperationException("codec " + config.getCodec().getName() + " does not support updates of field=" + f.name());
+      }
+      List<StoredField> fieldValues = values.get(f.name());
+      if (fieldValues == null) {
+        fieldValues = new ArrayList<>();
+        values.put(f.name(), fieldValues);
+      }
+      fieldValues.add(copyStoredField(f));
+    }
+    // the updates are written with the codec of each segment, which is not
+    // the writer's one for segments of earlier sessions or added indexes
+    synchronized (this) {
+      for (SegmentCommitInfo info : segmentInfos) {
+        final Codec codec = info.info.getCodec();
+        if (codec != config.getCodec() && !supportsStoredFieldsUpdates(codec.storedFieldsFormat(), values.keySet())) {
+          throw new UnsupportedOperationException("segment " + info.info.name + " was written with codec " + codec.getName()
+              + ", which does not support updates of fields=" + values.keySet());
+        }
+      }
+    }
+    final DocValuesUpdate[] updates = new DocValuesUpdate[values.size()];
+    int i = 0;
+    for (Entry<String,List<StoredField>> e : values.entrySet()) {
+      updates[i++] = new StoredFieldsUpdate(term, e.getKey(), e.getValue().toArray(new StoredField[e.getValue().size()]));
+    }
+    try {
+      if (docWriter.updateDocValues(updates)) {
+        processEvents(true, false);
+      }
+    } catch (OutOfMemoryError oom) {
+      tragicEvent(oom, "updateStoredFields");
+    }
+  }
+  
+  private static boolean supportsStoredFieldsUpdates(StoredFieldsFormat fieldsFormat, Set<String> fields) {
+    if (!fieldsFormat.supportsUpdates()) {
+      return false;
+    }
+    for (String field : fields) {
+      if (!fieldsFormat.supportsUpdates(field)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static StoredField copyStoredField(Field f) {
+    final Number number = f.numericValue();
+    if (number != null) {
+      if (number instanceof Integer) {
+        return new StoredField(f.name(), number.intValue());
+      } else if (number instanceof Long) {
+        return new StoredField(f.name(), number.longValue());
+      } else if (number instanceof Float) {
+        return new StoredField(f.name(), number.floatValue());
+      } else if (number instanceof Double) {
+        return new StoredField(f.name(), number.doubleValue());
+      } else {
+        throw new IllegalArgumentException("cannot store numeric type " + number.getClass() + ": field=" + f.name());
+      }
+    } else if (f.binaryValue() != null) {
+      return new StoredField(f.name(), BytesRef.deepCopyOf(f.binaryValue()));
+    } else if (f.stringValue() != null) {
+      return new StoredField(f.name(), f.stringValue());
+    } else {
+      throw new IllegalArgumentException("cannot update a field to a null value: " + f.name());
+    }
+  }
+  
   // for test purpose
   final synchronized int getSegmentCount(){
     return segmentInfos.size();
@@ -2052,6 +2192,12 @@ public class IndexWriter implements Closeable, TwoPhaseCommit, Accountable {
     return pendingMerges.size() != 0;
   }
 
+  /** Returns true if indexing threads are currently
+   *  stalled because flushing fell behind indexing. */
+  boolean isIndexingStalled() {
+    return docWriter.flushControl.anyStalledThreads();
+  }
+
   /**
    * Close the <code>IndexWriter</code> without committing
    * any changes that have occurred since the last commit
@@ -2664,7 +2810,7 @@ public class IndexWriter implements Closeable, TwoPhaseCommit, Accountable {
 
       SegmentMerger merger = new SegmentMerger(mergeReaders, info, infoStream, trackingDir, config.getTermIndexInterval(),
                                                MergeState.CheckAbort.NONE, globalFieldNumberMap, 
-                                               context, config.getCheckIntegrityAtMerge());
+                                               context, config.getCheckIntegrityAtMerge(), config.getMergeExecutor());
       
       if (!merger.shouldMerge()) {
         return;
@@ -2797,7 +2943,7 @@ public class IndexWriter implements Closeable, TwoPhaseCommit, Accountable {
                                           info.info.getDiagnostics(), attributes);
     SegmentCommitInfo newInfoPerCommit = new SegmentCommitInfo(newInfo,
         info.getDelCount(), info.getDelGen(), info.getFieldInfosGen(),
-        info.getDocValuesGen());
+        info.getDocValuesGen(), info.getStoredFieldsGen());
 
     Set<String> segFiles = new HashSet<>();
 
@@ -3268,7 +3414,7 @@ public class IndexWriter implements Closeable, TwoPhaseCommit, Accountable {
   final synchronized void applyAllDeletesAndUpdates() throws IOException {
     flushDeletesCount.incrementAndGet();
     final BufferedUpdatesStream.ApplyDeletesResult result;
-    result = bufferedUpdatesStream.applyDeletesAndUpdates(readerPool, segmentInfos.asList());
+    result = bufferedUpdatesStream.applyDeletesAndUpdates(readerPool, segmentInfos.asList(), config.getApplyDeletesExecutor());
     if (result.anyDeletes) {
       checkpoint();
     }
@@ -3414,7 +3560,8 @@ public class IndexWriter implements Closeable, TwoPhaseCommit, Accountable {
       // We hold a ref so it should still be in the pool:
       assert rld != null: "seg=" + info.info.name;
       final Bits currentLiveDocs = rld.getLiveDocs();
-      final Map<String,DocValuesFieldUpdates> mergingFieldUpdates = rld.getMergingFieldUpdates();
+      final List<DocValuesFieldUpdates> mergingFieldUpdates = new ArrayList<>(rld.getMergingFieldUpdates().values());
+      mergingFieldUpdates.addAll(rld.getMergingStoredFieldsUpdates().values());
       final String[] mergingFields;
       final DocValuesFieldUpdates[] dvFieldUpdates;
       final DocValuesFieldUpdates.Iterator[] updatesIters;
@@ -3427,9 +3574,8 @@ public class IndexWriter implements Closeable, TwoPhaseCommit, Accountable {
         dvFieldUpdates = new DocValuesFieldUpdates[mergingFieldUpdates.size()];
         updatesIters = new DocValuesFieldUpdates.Iterator[mergingFieldUpdates.size()];
         int idx = 0;
-        for (Entry<String,DocValuesFieldUpdates> e : mergingFieldUpdates.entrySet()) {
-          String field = e.getKey();
-          DocValuesFieldUpdates updates = e.getValue();
+        for (DocValuesFieldUpdates updates : mergingFieldUpdates) {
+          String field = updates.field;
           mergingFields[idx] = field;
           dvFieldUpdates[idx] = mergedDVUpdates.getUpdates(field, updates.type);
           if (dvFieldUpdates[idx] == null) {
@@ -3941,7 +4087,7 @@ public class IndexWriter implements Closeable, TwoPhaseCommit, Accountable {
     // could pre-pool them somehow in that case...
 
     // Lock order: IW -> BD
-    final BufferedUpdatesStream.ApplyDeletesResult result = bufferedUpdatesStream.applyDeletesAndUpdates(readerPool, merge.segments);
+    final BufferedUpdatesStream.ApplyDeletesResult result = bufferedUpdatesStream.applyDeletesAndUpdates(readerPool, merge.segments, config.getApplyDeletesExecutor());
     
     if (result.anyDeletes) {
       checkpoint();
@@ -3988,7 +4134,7 @@ public class IndexWriter implements Closeable, TwoPhaseCommit, Accountable {
     setDiagnostics(info, source, null);
   }
 
-  private static void setDiagnostics(SegmentInfo info, String source, Map<String,String> details) {
+  static void setDiagnostics(SegmentInfo info, String source, Map<String,String> details) {
     Map<String,String> diagnostics = new HashMap<>();
     diagnostics.put("source", source);
     diagnostics.put("lucene.version", Version.LATEST.toString());
@@ -4077,7 +4223,16 @@ public class IndexWriter implements Closeable, TwoPhaseCommit, Accountable {
     IOContext context = new IOContext(merge.getMergeInfo());
 
     final MergeState.CheckAbort checkAbort = new MergeState.CheckAbort(merge, directory);
-    final TrackingDirectoryWrapper dirWrapper = new TrackingDirectoryWrapper(directory);
+    final Directory mergeDirectory;
+    if (merge.rateLimiter != null) {
+      // throttles the writes of this merge only, at the rate its scheduler sets
+      final RateLimitedDirectoryWrapper rateLimitedDir = new RateLimitedDirectoryWrapper(directory);
+      rateLimitedDir.setRateLimiter(merge.rateLimiter, IOContext.Context.MERGE);
+      mergeDirectory = rateLimitedDir;
+    } else {
+      mergeDirectory = directory;
+    }
+    final TrackingDirectoryWrapper dirWrapper = new TrackingDirectoryWrapper(mergeDirectory);
 
     if (infoStream.isEnabled("IW")) {
       infoStream.message("IW", "merging " + segString(merge.segments));
@@ -4158,7 +4313,7 @@ public class IndexWriter implements Closeable, TwoPhaseCommit, Accountable {
       final SegmentMerger merger = new SegmentMerger(merge.getMergeReaders(),
                                                      merge.info.info, infoStream, dirWrapper, config.getTermIndexInterval(),
                                                      checkAbort, globalFieldNumberMap, 
-                                                     context, config.getCheckIntegrityAtMerge());
+                                                     context, config.getCheckIntegrityAtMerge(), config.getMergeExecutor());
 
       merge.checkAborted(directory);
 
@@ -4213,7 +4368,7 @@ public class IndexWriter implements Closeable, TwoPhaseCommit, Accountable {
         Collection<String> filesToRemove = merge.info.files();
 
         try {
-          filesToRemove = createCompoundFile(infoStream, directory, checkAbort, merge.info.info, context);
+          filesToRemove = createCompoundFile(infoStream, mergeDirectory, checkAbort, merge.info.info, context);
           success = true;
         } catch (IOException ioe) {
           synchronized(this) {
@@ -18,11 +18,13 @@ package org.apache.lucene.index;
  */
 
 import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.codecs.Codec;
 import org.apache.lucene.index.DocumentsWriterPerThread.IndexingChain;
 import org.apache.lucene.index.IndexWriter.IndexReaderWarmer;
+import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.util.InfoStream;
 import org.apache.lucene.util.PrintStreamInfoStream;
@@ -270,6 +272,86 @@ public final class IndexWriterConfig extends LiveIndexWriterConfig {
     return mergeScheduler;
   }
 
+  /**
+   * Expert: sets the executor that merges the parts of a segment
+   * concurrently. Stored fields, term vectors, postings, doc values and
+   * norms are written to separate files, so a merge may write each of them
+   * on a thread of its own: the thread the {@link MergeScheduler} runs the
+   * merge on, and threads of this executor. Large merges then take less
+   * wall time without running more merges at once. The default is null,
+   * which merges the parts one after the other.
+   * <p>
+   * The executor may be shared by several writers and is not shut down
+   * by {@link IndexWriter}.
+   *
+   * <p>Only takes effect when IndexWriter is first created. */
+  public IndexWriterConfig setMergeExecutor(ExecutorService mergeExecutor) {
+    this.mergeExecutor = mergeExecutor;
+    return this;
+  }
+
+  @Override
+  public ExecutorService getMergeExecutor() {
+    return mergeExecutor;
+  }
+
+  /**
+   * Expert: sets the executor that resolves buffered deletes
+   * and doc values updates of segments concurrently. When
+   * they are applied, on flush, NRT reopen, commit or before
+   * a merge, each segment's terms are looked up and delete
+   * queries run on a thread of this executor, and the
+   * resulting deletes and updates are then recorded one
+   * segment after the other. This mostly helps update heavy
+   * applications with many segments. The default is null,
+   * which resolves the segments one after the other.
+   * <p>
+   * The executor may be shared by several writers and is not
+   * shut down by {@link IndexWriter}.
+   *
+   * <p>Only takes effect when IndexWriter is first created. */
+  public IndexWriterConfig setApplyDeletesExecutor(ExecutorService applyDeletesExecutor) {
+    this.applyDeletesExecutor = applyDeletesExecutor;
+    return this;
+  }
+
+  @Override
+  public ExecutorService getApplyDeletesExecutor() {
+    return applyDeletesExecutor;
+  }
+
+  /**
+   * Expert: sets the {@link Sort} of the documents of every
+   * segment this writer flushes. Flushed segments are written
+   * in the order documents were added and then rewritten in
+   * sort order, which makes flushing slower, and are marked as
+   * sorted in their {@link SegmentInfo#getDiagnostics()
+   * diagnostics} so that searches sorted the same way can stop
+   * collecting a segment early. Merged segments are only sorted
+   * by a merge policy that sorts them, such as the misc module's
+   * <code>SortingMergePolicy</code>, which merges segments that
+   * are sorted already instead of sorting their documents again.
+   * The sort may not depend on scores. The default is null,
+   * which keeps documents in the order they were added.
+   *
+   * <p><b>NOTE</b>: like <code>SortingMergePolicy</code>, this
+   * scatters the doc IDs of documents added together with
+   * {@link IndexWriter#addDocuments(Iterable)}.
+   *
+   * <p>Only takes effect when IndexWriter is first created. */
+  public IndexWriterConfig setIndexSort(Sort indexSort) {
+    if (indexSort != null && indexSort.needsScores()) {
+      throw new IllegalArgumentException("Cannot sort an index with a Sort that refers to the relevance score");
+    }
+    this.indexSort = indexSort;
+    return this;
+  }
+
+  @Override
+  public Sort getIndexSort() {
+    return indexSort;
+  }
+
   /**
    * Sets the maximum time to wait for a write lock (in milliseconds) for this
    * instance. You can change the default value for all instances by calling
@@ -17,6 +17,8 @@ package org.apache.lucene.index;
  * limitations under the License.
  */
 
+import java.util.concurrent.ExecutorService;
+
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.codecs.Codec;
 import org.apache.lucene.codecs.lucene41.Lucene41PostingsFormat; // javadocs
@@ -24,6 +26,7 @@ import org.apache.lucene.index.DocumentsWriterPerThread.IndexingChain;
 import org.apache.lucene.index.IndexWriter.IndexReaderWarmer;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.util.InfoStream;
 import org.apache.lucene.util.Version;
@@ -64,6 +67,19 @@ public class LiveIndexWriterConfig {
   /** {@link MergeScheduler} to use for running merges. */
   protected volatile MergeScheduler mergeScheduler;
 
+  /** {@link ExecutorService} merging the parts of a segment
+   *  concurrently, or null to merge them one after the other. */
+  protected volatile ExecutorService mergeExecutor;
+
+  /** {@link ExecutorService} resolving buffered deletes and
+   *  updates of segments concurrently, or null to resolve them
+   *  one segment after the other. */
+  protected volatile ExecutorService applyDeletesExecutor;
+
+  /** {@link Sort} of the documents of flushed segments, or null
+   *  to keep them in the order they were added. */
+  protected volatile Sort indexSort;
+
   /** Timeout when trying to obtain the write lock on init. */
   protected volatile long writeLockTimeout;
 
@@ -120,6 +136,9 @@ public class LiveIndexWriterConfig {
     openMode = OpenMode.CREATE_OR_APPEND;
     similarity = IndexSearcher.getDefaultSimilarity();
     mergeScheduler = new ConcurrentMergeScheduler();
+    mergeExecutor = null;
+    applyDeletesExecutor = null;
+    indexSort = null;
     writeLockTimeout = IndexWriterConfig.WRITE_LOCK_TIMEOUT;
     indexingChain = DocumentsWriterPerThread.defaultIndexingChain;
     codec = Codec.getDefault();
@@ -455,6 +474,34 @@ public class LiveIndexWriterConfig {
     return mergeScheduler;
   }
 
+  /**
+   * Returns the {@link ExecutorService} that was set by
+   * {@link IndexWriterConfig#setMergeExecutor(ExecutorService)}, or null
+   * if segments are merged on the merging thread only.
+   */
+  public ExecutorService getMergeExecutor() {
+    return mergeExecutor;
+  }
+
+  /**
+   * Returns the {@link ExecutorService} that was set by
+   * {@link IndexWriterConfig#setApplyDeletesExecutor(ExecutorService)},
+   * or null if buffered deletes are resolved on the applying
+   * thread only.
+   */
+  public ExecutorService getApplyDeletesExecutor() {
+    return applyDeletesExecutor;
+  }
+
+  /**
+   * Returns the {@link Sort} that was set by
+   * {@link IndexWriterConfig#setIndexSort(Sort)}, or null if
+   * flushed segments keep documents in the order they were added.
+   */
+  public Sort getIndexSort() {
+    return indexSort;
+  }
+
   /**
    * Returns allowed timeout when acquiring the write lock.
    *
@@ -601,6 +648,9 @@ public class LiveIndexWriterConfig {
     sb.append("openMode=").append(getOpenMode()).append("\n");
     sb.append("similarity=").append(getSimilarity().getClass().getName()).append("\n");
     sb.append("mergeScheduler=").append(getMergeScheduler()).append("\n");
+    sb.append("mergeExecutor=").append(getMergeExecutor()).append("\n");
+    sb.append("applyDeletesExecutor=").append(getApplyDeletesExecutor()).append("\n");
+    sb.append("indexSort=").append(getIndexSort()).append("\n");
     sb.append("default WRITE_LOCK_TIMEOUT=").append(IndexWriterConfig.WRITE_LOCK_TIMEOUT).append("\n");
     sb.append("writeLockTimeout=").append(getWriteLockTimeout()).append("\n");
     sb.append("codec=").append(getCodec()).append("\n");
@@ -95,6 +95,7 @@ public abstract class MergePolicy {
     long mergeGen;                  // used by IndexWriter
     boolean isExternal;             // used by IndexWriter
     int maxNumSegments = -1;        // used by IndexWriter
+    volatile MergeRateLimiter rateLimiter; // set by ConcurrentMergeScheduler, null if not throttled
 
     /** Estimated size in bytes of the merged segment. */
     public volatile long estimatedMergeBytes;       // used by IndexWriter
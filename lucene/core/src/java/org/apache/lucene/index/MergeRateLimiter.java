@@ -0,0 +1,62 @@
+package org.apache.lucene.index;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.store.RateLimiter;
+
+/** Rate limits the writes of one merge, at a rate that
+ *  {@link ConcurrentMergeScheduler} may change while the
+ *  merge runs, and sums up the time the merge was paused.
+ *
+ *  <p>Outputs only ask again for {@link #getMinPauseCheckBytes}
+ *  after they paused, so it is capped: a merge that started
+ *  unthrottled notices a new rate after at most that many
+ *  bytes. */
+final class MergeRateLimiter extends RateLimiter.SimpleRateLimiter {
+
+  private static final long MAX_PAUSE_CHECK_BYTES = 1024*1024;
+
+  private final AtomicLong totalPausedNS = new AtomicLong();
+
+  /** mbPerSec is the MB/sec max IO rate, {@link
+   *  Double#POSITIVE_INFINITY} to not throttle the merge. */
+  MergeRateLimiter(double mbPerSec) {
+    super(mbPerSec);
+  }
+
+  @Override
+  public long getMinPauseCheckBytes() {
+    return Math.min(MAX_PAUSE_CHECK_BYTES, super.getMinPauseCheckBytes());
+  }
+
+  @Override
+  public long pause(long bytes) {
+    final long pausedNS = super.pause(bytes);
+    if (pausedNS > 0) {
+      totalPausedNS.addAndGet(pausedNS);
+    }
+    return pausedNS;
+  }
+
+  /** Returns the total time the merge was paused, in nano seconds. */
+  long getTotalPausedNS() {
+    return totalPausedNS.get();
+  }
+}
@@ -191,9 +191,10 @@ public class MergeState {
      * When adding time-consuming code into SegmentMerger,
      * you should test different values for units to ensure
      * that the time in between calls to merge.checkAborted
-     * is up to ~ 1 second.
+     * is up to ~ 1 second. The parts of a segment may be
+     * merged concurrently, so this method is synchronized.
      */
-    public void work(double units) throws MergePolicy.MergeAbortedException {
+    public synchronized void work(double units) throws MergePolicy.MergeAbortedException {
       workCount += units;
       if (workCount >= 10000.0) {
         merge.checkAborted(dir);
@@ -164,6 +164,11 @@ class NumericDocValuesFieldUpdates extends DocValuesFieldUpdates {
     return size > 0;
   }
 
+  /** Returns the number of updates, which may update a document more than once. */
+  int size() {
+    return size;
+  }
+
   @Override
   public long ramBytesPerDoc() {
     long bytesPerDoc = (long) Math.ceil((double) (bitsPerValue) / 8);
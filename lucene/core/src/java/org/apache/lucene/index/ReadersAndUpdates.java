@@ -19,6 +19,7 @@ package org.apache.lucene.index;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -31,14 +32,19 @@ import org.apache.lucene.codecs.DocValuesConsumer;
 import org.apache.lucene.codecs.DocValuesFormat;
 import org.apache.lucene.codecs.FieldInfosFormat;
 import org.apache.lucene.codecs.LiveDocsFormat;
+import org.apache.lucene.codecs.StoredFieldsFormat;
+import org.apache.lucene.codecs.StoredFieldsUpdatesWriter;
 import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FlushInfo;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.TrackingDirectoryWrapper;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.MutableBits;
 
@@ -93,6 +99,10 @@ class ReadersAndUpdates {
   
   private final Map<String,DocValuesFieldUpdates> mergingDVUpdates = new HashMap<>();
   
+  // stored fields updates that came in while merging, kept apart from the
+  // DocValues updates since a field may have both
+  private final Map<String,DocValuesFieldUpdates> mergingStoredUpdates = new HashMap<>();
+  
   public ReadersAndUpdates(IndexWriter writer, SegmentCommitInfo info) {
     this.info = info;
     this.writer = writer;
@@ -348,7 +358,7 @@ class ReadersAndUpdates {
   }
   
   @SuppressWarnings("synthetic-access")
-  private void handleNumericDVUpdates(FieldInfos infos, Map<String,NumericDocValuesFieldUpdates> updates,
+  private void handleNumericDVUpdates(FieldInfos infos, Map<String,NumericDocValuesFieldUpdates> updates, Set<String> sparseFields,
       Directory dir, DocValuesFormat dvFormat, final SegmentReader reader, Map<Integer,Set<String>> fieldFiles) throws IOException {
     int termsIndexDivisor = writer.getConfig().getReaderTermsIndexDivisor();
     for (Entry<String,NumericDocValuesFieldUpdates> e : updates.entrySet()) {
@@ -356,11 +366,31 @@ class ReadersAndUpdates {
       final NumericDocValuesFieldUpdates fieldUpdates = e.getValue();
 
       final long nextDocValuesGen = info.getNextDocValuesGen();
+      final FieldInfo fieldInfo = infos.fieldInfo(field);
+      assert fieldInfo != null;
+      if (sparseFields.contains(field)) {
+        // write only the updated documents, readers overlay them on the
+        // current values of the field
+        final IOContext updatesContext = new IOContext(new FlushInfo(fieldUpdates.size(), fieldUpdates.ramBytesPerDoc() * fieldUpdates.size()));
+        final TrackingDirectoryWrapper trackingDir = new TrackingDirectoryWrapper(dir);
+        SparseNumericDocValuesUpdates.write(trackingDir, info.info, nextDocValuesGen, fieldUpdates.iterator(), updatesContext);
+        SparseNumericDocValuesUpdates.addGen(fieldInfo, nextDocValuesGen);
+        info.advanceDocValuesGen();
+        // the field still needs the files of its current values and previous
+        // sparse generations
+        final Set<String> files = new HashSet<>(trackingDir.getCreatedFiles());
+        final Set<String> previousFiles = info.getDocValuesUpdatesFiles().get(fieldInfo.number);
+        if (previousFiles != null) {
+          files.addAll(previousFiles);
+        }
+        assert !fieldFiles.containsKey(fieldInfo.number);
+        fieldFiles.put(fieldInfo.number, files);
+        continue;
+      }
+
       final String segmentSuffix = Long.toString(nextDocValuesGen, Character.MAX_RADIX);
       final long estUpdatesSize = fieldUpdates.ramBytesPerDoc() * info.info.getDocCount();
       final IOContext updatesContext = new IOContext(new FlushInfo(info.info.getDocCount(), estUpdatesSize));
-      final FieldInfo fieldInfo = infos.fieldInfo(field);
-      assert fieldInfo != null;
       fieldInfo.setDocValuesGen(nextDocValuesGen);
       final FieldInfos fieldInfos = new FieldInfos(new FieldInfo[] { fieldInfo });
       // separately also track which files were created for this gen
@@ -421,6 +451,30 @@ class ReadersAndUpdates {
     }
   }
 
+  // Returns the fields whose numeric updates are written as a new sparse
+  // generation on top of their current values. Fields which are new to the
+  // segment, or whose sparse generations would become too many or update too
+  // many documents, have all their values rewritten instead, which compacts
+  // their sparse generations.
+  private Set<String> sparseNumericFields(Map<String,NumericDocValuesFieldUpdates> updates, SegmentReader reader) {
+    final Set<String> sparseFields = new HashSet<>();
+    for (Entry<String,NumericDocValuesFieldUpdates> e : updates.entrySet()) {
+      final FieldInfo fi = reader.getFieldInfos().fieldInfo(e.getKey());
+      if (fi == null || fi.getDocValuesType() != FieldInfo.DocValuesType.NUMERIC) {
+        continue;
+      }
+      if (SparseNumericDocValuesUpdates.getGens(fi).length >= SparseNumericDocValuesUpdates.MAX_GENS) {
+        continue;
+      }
+      final SparseNumericDocValuesUpdates current = reader.sparseNumericUpdates.get(e.getKey());
+      final long updatedDocs = (current == null ? 0 : current.size()) + e.getValue().size();
+      if (updatedDocs * SparseNumericDocValuesUpdates.MIN_DOCS_PER_UPDATE <= reader.maxDoc()) {
+        sparseFields.add(e.getKey());
+      }
+    }
+    return sparseFields;
+  }
+
   @SuppressWarnings("synthetic-access")
   private void handleBinaryDVUpdates(FieldInfos infos, Map<String,BinaryDocValuesFieldUpdates> updates, 
       TrackingDirectoryWrapper dir, DocValuesFormat dvFormat, final SegmentReader reader, Map<Integer,Set<String>> fieldFiles) throws IOException {
@@ -495,6 +549,86 @@ class ReadersAndUpdates {
     }
   }
   
+  // Writes a new generation of the stored fields of the documents which were
+  // updated; returns the files of the generation, or null if there were no
+  // stored fields updates.
+  private Set<String> handleStoredFieldsUpdates(FieldInfos infos, Map<String,StoredFieldsFieldUpdates> updates,
+      TrackingDirectoryWrapper dir, StoredFieldsFormat fieldsFormat, SegmentReader reader) throws IOException {
+    if (updates.isEmpty()) {
+      return null;
+    }
+    final StoredFieldsFieldUpdates[] fieldUpdates = updates.values().toArray(new StoredFieldsFieldUpdates[updates.size()]);
+    final StoredFieldsFieldUpdates.Iterator[] updatesIters = new StoredFieldsFieldUpdates.Iterator[fieldUpdates.length];
+    final FixedBitSet updatedDocs = new FixedBitSet(reader.maxDoc());
+    long ramBytesPerDoc = 0;
+    for (int i = 0; i < fieldUpdates.length; i++) {
+      updatesIters[i] = fieldUpdates[i].iterator();
+      for (int doc = updatesIters[i].nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = updatesIters[i].nextDoc()) {
+        updatedDocs.set(doc);
+      }
+      updatesIters[i].reset();
+      updatesIters[i].nextDoc();
+      ramBytesPerDoc += fieldUpdates[i].ramBytesPerDoc();
+    }
+
+    final long nextStoredFieldsGen = info.getNextStoredFieldsGen();
+    final String segmentSuffix = Long.toString(nextStoredFieldsGen, Character.MAX_RADIX);
+    final IOContext updatesContext = new IOContext(new FlushInfo(updatedDocs.cardinality(), ramBytesPerDoc * updatedDocs.cardinality()));
+    // separately also track which files were created for this gen
+    final TrackingDirectoryWrapper trackingDir = new TrackingDirectoryWrapper(dir);
+    boolean success = false;
+    final StoredFieldsUpdatesWriter fieldsWriter = fieldsFormat.fieldsUpdatesWriter(trackingDir, info.info, reader.getFieldsReader(), segmentSuffix, updatesContext);
+    try {
+      final Set<String> updatedFields = new HashSet<>();
+      for (int doc = updatedDocs.nextSetBit(0); doc != -1; doc = doc + 1 < updatedDocs.length() ? updatedDocs.nextSetBit(doc + 1) : -1) {
+        // collect the new values of this document, by field
+        final Map<String,StoredField[]> values = new HashMap<>();
+        for (StoredFieldsFieldUpdates.Iterator updatesIter : updatesIters) {
+          if (updatesIter.doc() == doc) {
+            final StoredField[] value = updatesIter.value();
+            values.put(value[0].name(), value);
+            updatesIter.nextDoc();
+          }
+        }
+        // updated fields replace the values of the field where it first
+        // appeared, fields the document did not have are appended
+        fieldsWriter.startDocument(doc);
+        updatedFields.clear();
+        for (IndexableField field : reader.document(doc)) {
+          final StoredField[] value = values.get(field.name());
+          if (value == null) {
+            fieldsWriter.writeField(infos.fieldInfo(field.name()), field);
+          } else if (updatedFields.add(field.name())) {
+            writeFields(infos, fieldsWriter, value);
+          }
+        }
+        for (StoredField[] value : values.values()) {
+          if (!updatedFields.contains(value[0].name())) {
+            writeFields(infos, fieldsWriter, value);
+          }
+        }
+        fieldsWriter.finishDocument();
+      }
+      fieldsWriter.finish(infos);
+      success = true;
+    } finally {
+      if (success) {
+        fieldsWriter.close();
+      } else {
+        fieldsWriter.abort();
+        IOUtils.closeWhileHandlingException(fieldsWriter);
+      }
+    }
+    info.advanceStoredFieldsGen();
+    return trackingDir.getCreatedFiles();
+  }
+  
+  private static void writeFields(FieldInfos infos, StoredFieldsUpdatesWriter fieldsWriter, StoredField[] fields) throws IOException {
+    for (StoredField field : fields) {
+      fieldsWriter.writeField(infos.fieldInfo(field.name()), field);
+    }
+  }
+
   private Set<String> writeFieldInfosGen(FieldInfos fieldInfos, Directory dir, DocValuesFormat dvFormat, 
       FieldInfosFormat infosFormat) throws IOException {
     final long nextFieldInfosGen = info.getNextFieldInfosGen();
@@ -525,6 +659,7 @@ class ReadersAndUpdates {
     
     final Map<Integer,Set<String>> newDVFiles = new HashMap<>();
     Set<String> fieldInfosFiles = null;
+    Set<String> storedFieldsFiles = null;
     FieldInfos fieldInfos = null;
     boolean success = false;
     try {
@@ -539,11 +674,16 @@ class ReadersAndUpdates {
         FieldInfos.Builder builder = new FieldInfos.Builder(writer.globalFieldNumberMap);
         // cannot use builder.add(reader.getFieldInfos()) because it does not
         // clone FI.attributes as well FI.dvGen
+        final Set<String> sparseFields = sparseNumericFields(dvUpdates.numericDVUpdates, reader);
         for (FieldInfo fi : reader.getFieldInfos()) {
           FieldInfo clone = builder.add(fi);
           // copy the stuff FieldInfos.Builder doesn't copy
           if (fi.attributes() != null) {
             for (Entry<String,String> e : fi.attributes().entrySet()) {
+              if (e.getKey().equals(SparseNumericDocValuesUpdates.GENS_ATTRIBUTE)
+                  && dvUpdates.numericDVUpdates.containsKey(fi.name) && !sparseFields.contains(fi.name)) {
+                continue; // the field's values are rewritten with its sparse generations
+              }
               clone.putAttribute(e.getKey(), e.getValue());
             }
           }
@@ -557,15 +697,21 @@ class ReadersAndUpdates {
         for (String f : dvUpdates.binaryDVUpdates.keySet()) {
           builder.addOrUpdate(f, BinaryDocValuesField.TYPE);
         }
+        // create new fields or update existing ones to be stored
+        for (String f : dvUpdates.storedFieldsUpdates.keySet()) {
+          builder.addOrUpdate(f, StoredField.TYPE);
+        }
         
         fieldInfos = builder.finish();
         final DocValuesFormat docValuesFormat = codec.docValuesFormat();
         
 //          System.out.println("[" + Thread.currentThread().getName() + "] RLD.writeFieldUpdates: applying numeric updates; seg=" + info + " updates=" + numericFieldUpdates);
-        handleNumericDVUpdates(fieldInfos, dvUpdates.numericDVUpdates, trackingDir, docValuesFormat, reader, newDVFiles);
+        handleNumericDVUpdates(fieldInfos, dvUpdates.numericDVUpdates, sparseFields, trackingDir, docValuesFormat, reader, newDVFiles);
         
 //        System.out.println("[" + Thread.currentThread().getName() + "] RAU.writeFieldUpdates: applying binary updates; seg=" + info + " updates=" + dvUpdates.binaryDVUpdates);
         handleBinaryDVUpdates(fieldInfos, dvUpdates.binaryDVUpdates, trackingDir, docValuesFormat, reader, newDVFiles);
+        
+        storedFieldsFiles = handleStoredFieldsUpdates(fieldInfos, dvUpdates.storedFieldsUpdates, trackingDir, codec.storedFieldsFormat(), reader);
 
 //        System.out.println("[" + Thread.currentThread().getName() + "] RAU.writeFieldUpdates: write fieldInfos; seg=" + info);
         fieldInfosFiles = writeFieldInfosGen(fieldInfos, trackingDir, docValuesFormat, codec.fieldInfosFormat());
@@ -583,6 +729,7 @@ class ReadersAndUpdates {
         // that a 2nd attempt to write will write to a new file
         info.advanceNextWriteFieldInfosGen();
         info.advanceNextWriteDocValuesGen();
+        info.advanceNextWriteStoredFieldsGen();
         
         // Delete any partially created file(s):
         for (String fileName : trackingDir.getCreatedFiles()) {
@@ -609,6 +756,14 @@ class ReadersAndUpdates {
           updates.merge(e.getValue());
         }
       }
+      for (Entry<String,StoredFieldsFieldUpdates> e : dvUpdates.storedFieldsUpdates.entrySet()) {
+        DocValuesFieldUpdates updates = mergingStoredUpdates.get(e.getKey());
+        if (updates == null) {
+          mergingStoredUpdates.put(e.getKey(), e.getValue());
+        } else {
+          updates.merge(e.getValue());
+        }
+      }
     }
     
     // writing field updates succeeded
@@ -619,7 +774,7 @@ class ReadersAndUpdates {
     // of files, hence we copy from the existing map all fields w/ updates that
     // were not updated in this session, and add new mappings for fields that
     // were updated now.
-    assert !newDVFiles.isEmpty();
+    assert !newDVFiles.isEmpty() || storedFieldsFiles != null;
     for (Entry<Integer,Set<String>> e : info.getDocValuesUpdatesFiles().entrySet()) {
       if (!newDVFiles.containsKey(e.getKey())) {
         newDVFiles.put(e.getKey(), e.getValue());
@@ -627,6 +782,12 @@ class ReadersAndUpdates {
     }
     info.setDocValuesUpdatesFiles(newDVFiles);
     
+    // a stored fields generation holds all updated documents, so it replaces
+    // the files of the previous one
+    if (storedFieldsFiles != null) {
+      info.setStoredFieldsUpdatesFiles(storedFieldsFiles);
+    }
+    
     // wrote new files, should checkpoint()
     writer.checkpoint();
 
@@ -667,6 +828,7 @@ class ReadersAndUpdates {
    */
   public synchronized void dropMergingUpdates() {
     mergingDVUpdates.clear();
+    mergingStoredUpdates.clear();
     isMerging = false;
   }
   
@@ -675,6 +837,11 @@ class ReadersAndUpdates {
     return mergingDVUpdates;
   }
   
+  /** Returns stored fields updates that came in while this segment was merging. */
+  public synchronized Map<String,DocValuesFieldUpdates> getMergingStoredFieldsUpdates() {
+    return mergingStoredUpdates;
+  }
+  
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
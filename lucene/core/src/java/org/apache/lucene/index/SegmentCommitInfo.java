@@ -62,6 +62,13 @@ public class SegmentCommitInfo {
   // write
   private long nextWriteDocValuesGen;
 
+  // Generation number of the stored fields updates (-1 if there are no updates)
+  private long storedFieldsGen;
+  
+  // Normally 1+storedFieldsGen, unless an exception was hit on last attempt to
+  // write
+  private long nextWriteStoredFieldsGen;
+
   // Track the per-field DocValues update files
   private final Map<Integer,Set<String>> dvUpdatesFiles = new HashMap<>();
   
@@ -70,6 +77,9 @@ public class SegmentCommitInfo {
   // track the fieldInfos update files
   private final Set<String> fieldInfosFiles = new HashSet<>();
   
+  // track the stored fields updates files
+  private final Set<String> storedFieldsUpdatesFiles = new HashSet<>();
+  
   // Track the per-generation updates files
   @Deprecated
   private final Map<Long,Set<String>> genUpdatesFiles = new HashMap<>();
@@ -77,7 +87,7 @@ public class SegmentCommitInfo {
   private volatile long sizeInBytes = -1;
 
   /**
-   * Sole constructor.
+   * Constructor for segments without stored fields updates.
    * 
    * @param info
    *          {@link SegmentInfo} that we wrap
@@ -91,6 +101,26 @@ public class SegmentCommitInfo {
    *          DocValues generation number (used to name doc-values updates files)
    */
   public SegmentCommitInfo(SegmentInfo info, int delCount, long delGen, long fieldInfosGen, long docValuesGen) {
+    this(info, delCount, delGen, fieldInfosGen, docValuesGen, -1);
+  }
+
+  /**
+   * Full constructor.
+   * 
+   * @param info
+   *          {@link SegmentInfo} that we wrap
+   * @param delCount
+   *          number of deleted documents in this segment
+   * @param delGen
+   *          deletion generation number (used to name deletion files)
+   * @param fieldInfosGen
+   *          FieldInfos generation number (used to name field-infos files)
+   * @param docValuesGen
+   *          DocValues generation number (used to name doc-values updates files)
+   * @param storedFieldsGen
+   *          stored fields generation number (used to name stored fields updates files)
+   */
+  public SegmentCommitInfo(SegmentInfo info, int delCount, long delGen, long fieldInfosGen, long docValuesGen, long storedFieldsGen) {
     this.info = info;
     this.delCount = delCount;
     this.delGen = delGen;
@@ -99,6 +129,8 @@ public class SegmentCommitInfo {
     this.nextWriteFieldInfosGen = fieldInfosGen == -1 ? 1 : fieldInfosGen + 1;
     this.docValuesGen = docValuesGen;
     this.nextWriteDocValuesGen = docValuesGen == -1 ? 1 : docValuesGen + 1;
+    this.storedFieldsGen = storedFieldsGen;
+    this.nextWriteStoredFieldsGen = storedFieldsGen == -1 ? 1 : storedFieldsGen + 1;
   }
 
   /**
@@ -134,6 +166,17 @@ public class SegmentCommitInfo {
     this.fieldInfosFiles.addAll(fieldInfosFiles);
   }
 
+  /** Returns the stored fields updates file names. */
+  public Set<String> getStoredFieldsUpdatesFiles() {
+    return Collections.unmodifiableSet(storedFieldsUpdatesFiles);
+  }
+  
+  /** Sets the stored fields updates file names. */
+  public void setStoredFieldsUpdatesFiles(Set<String> storedFieldsUpdatesFiles) {
+    this.storedFieldsUpdatesFiles.clear();
+    this.storedFieldsUpdatesFiles.addAll(storedFieldsUpdatesFiles);
+  }
+
   /** Called when we succeed in writing deletes */
   void advanceDelGen() {
     delGen = nextWriteDelGen;
@@ -208,6 +251,37 @@ public class SegmentCommitInfo {
     nextWriteDocValuesGen = v;
   }
   
+  /** Sets the stored fields generation, as read from the segments file. */
+  void setStoredFieldsGen(long storedFieldsGen) {
+    this.storedFieldsGen = storedFieldsGen;
+    this.nextWriteStoredFieldsGen = storedFieldsGen == -1 ? 1 : storedFieldsGen + 1;
+  }
+  
+  /** Called when we succeed in writing a new stored fields generation. */
+  void advanceStoredFieldsGen() {
+    storedFieldsGen = nextWriteStoredFieldsGen;
+    nextWriteStoredFieldsGen = storedFieldsGen + 1;
+    sizeInBytes = -1;
+  }
+  
+  /**
+   * Called if there was an exception while writing a new generation of
+   * stored fields, so that we don't try to write to the same file more than once.
+   */
+  void advanceNextWriteStoredFieldsGen() {
+    nextWriteStoredFieldsGen++;
+  }
+
+  /** Gets the nextWriteStoredFieldsGen. */
+  long getNextWriteStoredFieldsGen() {
+    return nextWriteStoredFieldsGen;
+  }
+  
+  /** Sets the nextWriteStoredFieldsGen. */
+  void setNextWriteStoredFieldsGen(long v) {
+    nextWriteStoredFieldsGen = v;
+  }
+  
   /** Returns total size in bytes of all files for this
    *  segment. 
    * <p><b>NOTE:</b> This value is not correct for 3.0 segments
@@ -249,6 +323,9 @@ public class SegmentCommitInfo {
     // must separately add fieldInfos files
     files.addAll(fieldInfosFiles);
     
+    // must separately add stored fields updates files
+    files.addAll(storedFieldsUpdatesFiles);
+    
     return files;
   }
 
@@ -302,6 +379,24 @@ public class SegmentCommitInfo {
     return docValuesGen;
   }
   
+  /** Returns true if the stored fields of the segment were updated in this commit. */
+  public boolean hasStoredFieldsUpdates() {
+    return storedFieldsGen != -1;
+  }
+  
+  /** Returns the next available generation number of the stored fields updates files. */
+  public long getNextStoredFieldsGen() {
+    return nextWriteStoredFieldsGen;
+  }
+  
+  /**
+   * Returns the generation number of the stored fields updates file or -1 if
+   * there are no stored fields updates yet.
+   */
+  public long getStoredFieldsGen() {
+    return storedFieldsGen;
+  }
+  
   /**
    * Returns the next available generation number
    * of the live docs file.
@@ -344,6 +439,9 @@ public class SegmentCommitInfo {
     if (docValuesGen != -1) {
       s += ":dvGen=" + docValuesGen;
     }
+    if (storedFieldsGen != -1) {
+      s += ":storedFieldsGen=" + storedFieldsGen;
+    }
     return s;
   }
 
@@ -365,7 +463,7 @@ public class SegmentCommitInfo {
     } else {
       otherInfo = info;
     }
-    SegmentCommitInfo other = new SegmentCommitInfo(otherInfo, delCount, delGen, fieldInfosGen, docValuesGen);
+    SegmentCommitInfo other = new SegmentCommitInfo(otherInfo, delCount, delGen, fieldInfosGen, docValuesGen, storedFieldsGen);
     // Not clear that we need to carry over nextWriteDelGen
     // (i.e. do we ever clone after a failed write and
     // before the next successful write?), but just do it to
@@ -373,6 +471,7 @@ public class SegmentCommitInfo {
     other.nextWriteDelGen = nextWriteDelGen;
     other.nextWriteFieldInfosGen = nextWriteFieldInfosGen;
     other.nextWriteDocValuesGen = nextWriteDocValuesGen;
+    other.nextWriteStoredFieldsGen = nextWriteStoredFieldsGen;
     
     // deep clone
     for (Entry<Long,Set<String>> e : genUpdatesFiles.entrySet()) {
@@ -385,6 +484,7 @@ public class SegmentCommitInfo {
     }
     
     other.fieldInfosFiles.addAll(fieldInfosFiles);
+    other.storedFieldsUpdatesFiles.addAll(storedFieldsUpdatesFiles);
     
     return other;
   }
@@ -36,6 +36,7 @@ import org.apache.lucene.codecs.CodecUtil;
 import org.apache.lucene.codecs.DocValuesFormat;
 import org.apache.lucene.codecs.FieldInfosFormat;
 import org.apache.lucene.codecs.LiveDocsFormat;
+import org.apache.lucene.codecs.StoredFieldsFormat;
 import org.apache.lucene.codecs.lucene3x.Lucene3xCodec;
 import org.apache.lucene.codecs.lucene3x.Lucene3xSegmentInfoFormat;
 import org.apache.lucene.codecs.lucene3x.Lucene3xSegmentInfoReader;
@@ -79,7 +80,8 @@ import org.apache.lucene.util.Version;
  * <li><tt>segments.gen</tt>: GenHeader, Generation, Generation, Footer
  * <li><tt>segments_N</tt>: Header, Version, NameCounter, SegCount, &lt;SegName,
  * SegCodec, DelGen, DeletionCount, FieldInfosGen, DocValuesGen,
- * UpdatesFiles&gt;<sup>SegCount</sup>, CommitUserData, Footer
+ * UpdatesFiles, StoredFieldsGen, StoredFieldsUpdatesFiles&gt;<sup>SegCount</sup>,
+ * CommitUserData, Footer
  * </ul>
  * </p>
  * Data types:
@@ -88,13 +90,16 @@ import org.apache.lucene.util.Version;
  * <li>Header --&gt; {@link CodecUtil#writeHeader CodecHeader}</li>
  * <li>GenHeader, NameCounter, SegCount, DeletionCount --&gt;
  * {@link DataOutput#writeInt Int32}</li>
- * <li>Generation, Version, DelGen, Checksum, FieldInfosGen, DocValuesGen --&gt;
+ * <li>Generation, Version, DelGen, Checksum, FieldInfosGen, DocValuesGen,
+ * StoredFieldsGen --&gt;
  * {@link DataOutput#writeLong Int64}</li>
  * <li>SegName, SegCodec --&gt; {@link DataOutput#writeString String}</li>
  * <li>CommitUserData --&gt; {@link DataOutput#writeStringStringMap
  * Map&lt;String,String&gt;}</li>
  * <li>UpdatesFiles --&gt; Map&lt;{@link DataOutput#writeInt Int32},
  * {@link DataOutput#writeStringSet(Set) Set&lt;String&gt;}&gt;</li>
+ * <li>StoredFieldsUpdatesFiles --&gt; {@link DataOutput#writeStringSet(Set)
+ * Set&lt;String&gt;}</li>
  * <li>Footer --&gt; {@link CodecUtil#writeFooter CodecFooter}</li>
  * </ul>
  * </p>
@@ -124,6 +129,10 @@ import org.apache.lucene.util.Version;
  * means there are updates to DocValues stored by {@link DocValuesFormat}.</li>
  * <li>UpdatesFiles stores the set of files that were updated in that segment
  * per field.</li>
+ * <li>StoredFieldsGen is the generation count of the updated stored fields. If
+ * this is -1, there are no updates to stored fields in that segment. Anything
+ * above zero means there are updates stored by {@link StoredFieldsFormat}, in
+ * StoredFieldsUpdatesFiles.</li>
  * </ul>
  * </p>
  * 
@@ -142,6 +151,10 @@ public final class SegmentInfos implements Cloneable, Iterable<SegmentCommitInfo
   
   /** The file format version for the segments_N codec header, since 4.9+ */
   public static final int VERSION_49 = 3;
+  
+  /** The file format version for the segments_N codec header, since 4.10+,
+   *  only written when a segment has updated stored fields */
+  public static final int VERSION_410 = 4;
 
   // Used for the segments.gen file only!
   // Whenever you add a new format, make it 1 smaller (negative version logic)!
@@ -344,7 +357,7 @@ public final class SegmentInfos implements Cloneable, Iterable<SegmentCommitInfo
       final int actualFormat;
       if (format == CodecUtil.CODEC_MAGIC) {
         // 4.0+
-        actualFormat = CodecUtil.checkHeaderNoMagic(input, "segments", VERSION_40, VERSION_49);
+        actualFormat = CodecUtil.checkHeaderNoMagic(input, "segments", VERSION_40, VERSION_410);
         version = input.readLong();
         counter = input.readInt();
         int numSegments = input.readInt();
@@ -406,6 +419,10 @@ public final class SegmentInfos implements Cloneable, Iterable<SegmentCommitInfo
               siPerCommit.setDocValuesUpdatesFiles(dvUpdateFiles);
             }
           }
+          if (actualFormat >= VERSION_410) {
+            siPerCommit.setStoredFieldsGen(input.readLong());
+            siPerCommit.setStoredFieldsUpdatesFiles(input.readStringSet());
+          }
           add(siPerCommit);
         }
         userData = input.readStringStringMap();
@@ -482,68 +499,7 @@ public final class SegmentInfos implements Cloneable, Iterable<SegmentCommitInfo
 
     try {
       segnOutput = directory.createOutput(segmentsFileName, IOContext.DEFAULT);
-      CodecUtil.writeHeader(segnOutput, "segments", VERSION_49);
-      segnOutput.writeLong(version); 
-      segnOutput.writeInt(counter); // write counter
-      segnOutput.writeInt(size()); // write infos
-      for (SegmentCommitInfo siPerCommit : this) {
-        SegmentInfo si = siPerCommit.info;
-        segnOutput.writeString(si.name);
-        segnOutput.writeString(si.getCodec().getName());
-        segnOutput.writeLong(siPerCommit.getDelGen());
-        int delCount = siPerCommit.getDelCount();
-        if (delCount < 0 || delCount > si.getDocCount()) {
-          throw new IllegalStateException("cannot write segment: invalid docCount segment=" + si.name + " docCount=" + si.getDocCount() + " delCount=" + delCount);
-        }
-        segnOutput.writeInt(delCount);
-        segnOutput.writeLong(siPerCommit.getFieldInfosGen());
-        segnOutput.writeLong(siPerCommit.getDocValuesGen());
-        segnOutput.writeStringSet(siPerCommit.getFieldInfosFiles());
-        final Map<Integer,Set<String>> dvUpdatesFiles = siPerCommit.getDocValuesUpdatesFiles();
-        segnOutput.writeInt(dvUpdatesFiles.size());
-        for (Entry<Integer,Set<String>> e : dvUpdatesFiles.entrySet()) {
-          segnOutput.writeInt(e.getKey());
-          segnOutput.writeStringSet(e.getValue());
-        }
-        assert si.dir == directory;
-
-        // If this segment is pre-4.x, perform a one-time
-        // "ugprade" to write the .si file for it:
-        Version version = si.getVersion();
-        if (version == null || version.onOrAfter(Version.LUCENE_4_0_0_ALPHA) == false) {
-
-          // Defensive check: we are about to write this SI in 3.x format, dropping all codec information, etc.
-          // so it had better be a 3.x segment or you will get very confusing errors later.
-          if ((si.getCodec() instanceof Lucene3xCodec) == false) {
-            throw new IllegalStateException("cannot write 3x SegmentInfo unless codec is Lucene3x (got: " + si.getCodec() + ")");
-          }
-
-          if (!segmentWasUpgraded(directory, si)) {
-
-            String markerFileName = IndexFileNames.segmentFileName(si.name, "upgraded", Lucene3xSegmentInfoFormat.UPGRADED_SI_EXTENSION);
-            si.addFile(markerFileName);
-
-            final String segmentFileName = write3xInfo(directory, si, IOContext.DEFAULT);
-            upgradedSIFiles.add(segmentFileName);
-            directory.sync(Collections.singletonList(segmentFileName));
-
-            // Write separate marker file indicating upgrade
-            // is completed.  This way, if there is a JVM
-            // kill/crash, OS crash, power loss, etc. while
-            // writing the upgraded file, the marker file
-            // will be missing:
-            IndexOutput out = directory.createOutput(markerFileName, IOContext.DEFAULT);
-            try {
-              CodecUtil.writeHeader(out, SEGMENT_INFO_UPGRADE_CODEC, SEGMENT_INFO_UPGRADE_VERSION);
-            } finally {
-              out.close();
-            }
-            upgradedSIFiles.add(markerFileName);
-            directory.sync(Collections.singletonList(markerFileName));
-          }
-        }
-      }
-      segnOutput.writeStringStringMap(userData);
+      writeInfos(directory, segnOutput, upgradedSIFiles);
       pendingSegnOutput = segnOutput;
       success = true;
     } finally {
@@ -563,6 +519,104 @@ public final class SegmentInfos implements Cloneable, Iterable<SegmentCommitInfo
     }
   }
 
+  /**
+   * Writes the header and the segments of these infos to the given output.
+   * 3.x segments which were not upgraded yet are upgraded, adding the files
+   * which were written to <code>upgradedSIFiles</code>, unless it is null.
+   */
+  private void writeInfos(Directory directory, IndexOutput out, Set<String> upgradedSIFiles) throws IOException {
+    // only indexes with updated stored fields need the 4.10 format, so that
+    // all others stay readable by earlier 4.x versions
+    boolean hasStoredFieldsUpdates = false;
+    for (SegmentCommitInfo siPerCommit : this) {
+      hasStoredFieldsUpdates |= siPerCommit.hasStoredFieldsUpdates();
+    }
+    final int format = hasStoredFieldsUpdates ? VERSION_410 : VERSION_49;
+    CodecUtil.writeHeader(out, "segments", format);
+    out.writeLong(version); 
+    out.writeInt(counter); // write counter
+    out.writeInt(size()); // write infos
+    for (SegmentCommitInfo siPerCommit : this) {
+      SegmentInfo si = siPerCommit.info;
+      out.writeString(si.name);
+      out.writeString(si.getCodec().getName());
+      out.writeLong(siPerCommit.getDelGen());
+      int delCount = siPerCommit.getDelCount();
+      if (delCount < 0 || delCount > si.getDocCount()) {
+        throw new IllegalStateException("cannot write segment: invalid docCount segment=" + si.name + " docCount=" + si.getDocCount() + " delCount=" + delCount);
+      }
+      out.writeInt(delCount);
+      out.writeLong(siPerCommit.getFieldInfosGen());
+      out.writeLong(siPerCommit.getDocValuesGen());
+      out.writeStringSet(siPerCommit.getFieldInfosFiles());
+      final Map<Integer,Set<String>> dvUpdatesFiles = siPerCommit.getDocValuesUpdatesFiles();
+      out.writeInt(dvUpdatesFiles.size());
+      for (Entry<Integer,Set<String>> e : dvUpdatesFiles.entrySet()) {
+        out.writeInt(e.getKey());
+        out.writeStringSet(e.getValue());
+      }
+      if (format >= VERSION_410) {
+        out.writeLong(siPerCommit.getStoredFieldsGen());
+        out.writeStringSet(siPerCommit.getStoredFieldsUpdatesFiles());
+      }
+      assert si.dir == directory;
+
+      // If this segment is pre-4.x, perform a one-time
+      // "ugprade" to write the .si file for it:
+      Version version = si.getVersion();
+      if (version == null || version.onOrAfter(Version.LUCENE_4_0_0_ALPHA) == false) {
+
+        // Defensive check: we are about to write this SI in 3.x format, dropping all codec information, etc.
+        // so it had better be a 3.x segment or you will get very confusing errors later.
+        if ((si.getCodec() instanceof Lucene3xCodec) == false) {
+          throw new IllegalStateException("cannot write 3x SegmentInfo unless codec is Lucene3x (got: " + si.getCodec() + ")");
+        }
+
+        if (!segmentWasUpgraded(directory, si)) {
+          if (upgradedSIFiles == null) {
+            throw new IllegalStateException("cannot write 3x segment " + si.name + " which was not upgraded by a commit yet");
+          }
+
+          String markerFileName = IndexFileNames.segmentFileName(si.name, "upgraded", Lucene3xSegmentInfoFormat.UPGRADED_SI_EXTENSION);
+          si.addFile(markerFileName);
+
+          final String segmentFileName = write3xInfo(directory, si, IOContext.DEFAULT);
+          upgradedSIFiles.add(segmentFileName);
+          directory.sync(Collections.singletonList(segmentFileName));
+
+          // Write separate marker file indicating upgrade
+          // is completed.  This way, if there is a JVM
+          // kill/crash, OS crash, power loss, etc. while
+          // writing the upgraded file, the marker file
+          // will be missing:
+          IndexOutput markerOutput = directory.createOutput(markerFileName, IOContext.DEFAULT);
+          try {
+            CodecUtil.writeHeader(markerOutput, SEGMENT_INFO_UPGRADE_CODEC, SEGMENT_INFO_UPGRADE_VERSION);
+          } finally {
+            markerOutput.close();
+          }
+          upgradedSIFiles.add(markerFileName);
+          directory.sync(Collections.singletonList(markerFileName));
+        }
+      }
+    }
+    out.writeStringStringMap(userData);
+  }
+
+  /**
+   * Expert: writes these infos to the given output, in the same format as
+   * a segments_N file, but without committing them nor changing their
+   * generation. This can be used to copy a point in time, such as the one
+   * of a near-real-time reader, to another directory, where it can then be
+   * opened by writing the output as the next segments_N file.
+   *
+   * @lucene.internal
+   */
+  public void write(Directory directory, IndexOutput out) throws IOException {
+    writeInfos(directory, out, null);
+    CodecUtil.writeFooter(out);
+  }
+
   private static boolean segmentWasUpgraded(Directory directory, SegmentInfo si) {
     // Check marker file:
     String markerFileName = IndexFileNames.segmentFileName(si.name, "upgraded", Lucene3xSegmentInfoFormat.UPGRADED_SI_EXTENSION);
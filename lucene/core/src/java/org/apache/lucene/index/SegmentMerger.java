@@ -20,6 +20,10 @@ package org.apache.lucene.index;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.lucene.codecs.Codec;
 import org.apache.lucene.codecs.FieldInfosWriter;
@@ -33,11 +37,17 @@ import org.apache.lucene.store.IOContext;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.InfoStream;
+import org.apache.lucene.util.ThreadInterruptedException;
 
 /**
  * The SegmentMerger class combines two or more Segments, represented by an
  * IndexReader, into a single Segment.  Call the merge method to combine the
  * segments.
+ * <p>
+ * Stored fields, term vectors, postings, doc values and norms are written
+ * to files of their own and are merged independently of each other. If an
+ * executor is given they are merged concurrently, on the merging thread and
+ * the executor's threads.
  *
  * @see #merge
  */
@@ -48,13 +58,16 @@ final class SegmentMerger {
   private final Codec codec;
   
   private final IOContext context;
+
+  private final ExecutorService executor;
   
   private final MergeState mergeState;
   private final FieldInfos.Builder fieldInfosBuilder;
 
   // note, just like in codec apis Directory 'dir' is NOT the same as segmentInfo.dir!!
   SegmentMerger(List<AtomicReader> readers, SegmentInfo segmentInfo, InfoStream infoStream, Directory dir, int termIndexInterval,
-                MergeState.CheckAbort checkAbort, FieldInfos.FieldNumbers fieldNumbers, IOContext context, boolean validate) throws IOException {
+                MergeState.CheckAbort checkAbort, FieldInfos.FieldNumbers fieldNumbers, IOContext context, boolean validate,
+                ExecutorService executor) throws IOException {
     // validate incoming readers
     if (validate) {
       for (AtomicReader reader : readers) {
@@ -66,6 +79,7 @@ final class SegmentMerger {
     this.termIndexInterval = termIndexInterval;
     this.codec = segmentInfo.getCodec();
     this.context = context;
+    this.executor = executor;
     this.fieldInfosBuilder = new FieldInfos.Builder(fieldNumbers);
     mergeState.segmentInfo.setDocCount(setDocMaps());
   }
@@ -93,67 +107,133 @@ final class SegmentMerger {
     // threads.
     mergeFieldInfos();
     setMatchingSegmentReaders();
-    long t0 = 0;
-    if (mergeState.infoStream.isEnabled("SM")) {
-      t0 = System.nanoTime();
-    }
-    int numMerged = mergeFields();
-    if (mergeState.infoStream.isEnabled("SM")) {
-      long t1 = System.nanoTime();
-      mergeState.infoStream.message("SM", ((t1-t0)/1000000) + " msec to merge stored fields [" + numMerged + " docs]");
-    }
-    assert numMerged == mergeState.segmentInfo.getDocCount();
 
-    final SegmentWriteState segmentWriteState = new SegmentWriteState(mergeState.infoStream, directory, mergeState.segmentInfo,
-                                                                      mergeState.fieldInfos, termIndexInterval, null, context);
-    if (mergeState.infoStream.isEnabled("SM")) {
-      t0 = System.nanoTime();
+    final List<MergePart> parts = new ArrayList<>();
+    parts.add(new MergePart("stored fields") {
+      @Override
+      void merge() throws IOException {
+        int numMerged = mergeFields();
+        assert numMerged == mergeState.segmentInfo.getDocCount();
+      }
+    });
+    parts.add(new MergePart("postings") {
+      @Override
+      void merge() throws IOException {
+        mergeTerms(newSegmentWriteState());
+      }
+    });
+    if (mergeState.fieldInfos.hasDocValues()) {
+      parts.add(new MergePart("doc values") {
+        @Override
+        void merge() throws IOException {
+          mergeDocValues(newSegmentWriteState());
+        }
+      });
     }
-    mergeTerms(segmentWriteState);
-    if (mergeState.infoStream.isEnabled("SM")) {
-      long t1 = System.nanoTime();
-      mergeState.infoStream.message("SM", ((t1-t0)/1000000) + " msec to merge postings [" + numMerged + " docs]");
+    if (mergeState.fieldInfos.hasNorms()) {
+      parts.add(new MergePart("norms") {
+        @Override
+        void merge() throws IOException {
+          mergeNorms(newSegmentWriteState());
+        }
+      });
     }
-
-    if (mergeState.infoStream.isEnabled("SM")) {
-      t0 = System.nanoTime();
+    if (mergeState.fieldInfos.hasVectors()) {
+      parts.add(new MergePart("vectors") {
+        @Override
+        void merge() throws IOException {
+          int numMerged = mergeVectors();
+          assert numMerged == mergeState.segmentInfo.getDocCount();
+        }
+      });
     }
-    if (mergeState.fieldInfos.hasDocValues()) {
-      mergeDocValues(segmentWriteState);
+    mergeParts(parts);
+    
+    // write the merged infos
+    FieldInfosWriter fieldInfosWriter = codec.fieldInfosFormat().getFieldInfosWriter();
+    fieldInfosWriter.write(directory, mergeState.segmentInfo.name, "", mergeState.fieldInfos, context);
+
+    return mergeState;
+  }
+
+  private SegmentWriteState newSegmentWriteState() {
+    return new SegmentWriteState(mergeState.infoStream, directory, mergeState.segmentInfo,
+                                 mergeState.fieldInfos, termIndexInterval, null, context);
+  }
+
+  /**
+   * Merges the given parts, one after the other without an executor. With
+   * one the first part is merged on this thread while the others run on
+   * the executor, and this method returns once all of them are done, so no
+   * part is still writing when a failed merge deletes its files.
+   */
+  private void mergeParts(List<MergePart> parts) throws IOException {
+    if (executor == null || parts.size() == 1) {
+      for (MergePart part : parts) {
+        part.call();
+      }
+      return;
     }
-    if (mergeState.infoStream.isEnabled("SM")) {
-      long t1 = System.nanoTime();
-      mergeState.infoStream.message("SM", ((t1-t0)/1000000) + " msec to merge doc values [" + numMerged + " docs]");
+
+    final List<Future<Void>> futures = new ArrayList<>();
+    Throwable th = null;
+    try {
+      for (MergePart part : parts.subList(1, parts.size())) {
+        futures.add(executor.submit(part));
+      }
+      parts.get(0).call();
+    } catch (Throwable t) {
+      th = t;
     }
-    
-    if (mergeState.fieldInfos.hasNorms()) {
-      if (mergeState.infoStream.isEnabled("SM")) {
-        t0 = System.nanoTime();
+
+    boolean interrupted = false;
+    for (Future<Void> future : futures) {
+      while (true) {
+        try {
+          future.get();
+        } catch (InterruptedException ie) {
+          interrupted = true;
+          continue;
+        } catch (ExecutionException ee) {
+          if (th == null) {
+            th = ee.getCause();
+          }
+        }
+        break;
       }
-      mergeNorms(segmentWriteState);
-      if (mergeState.infoStream.isEnabled("SM")) {
-        long t1 = System.nanoTime();
-        mergeState.infoStream.message("SM", ((t1-t0)/1000000) + " msec to merge norms [" + numMerged + " docs]");
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+      if (th == null) {
+        th = new ThreadInterruptedException(new InterruptedException());
       }
     }
+    IOUtils.reThrow(th);
+  }
 
-    if (mergeState.fieldInfos.hasVectors()) {
+  /** Merges the files of one part of the segment. */
+  private abstract class MergePart implements Callable<Void> {
+    private final String name;
+
+    MergePart(String name) {
+      this.name = name;
+    }
+
+    abstract void merge() throws IOException;
+
+    @Override
+    public Void call() throws IOException {
+      long t0 = 0;
       if (mergeState.infoStream.isEnabled("SM")) {
         t0 = System.nanoTime();
       }
-      numMerged = mergeVectors();
+      merge();
       if (mergeState.infoStream.isEnabled("SM")) {
         long t1 = System.nanoTime();
-        mergeState.infoStream.message("SM", ((t1-t0)/1000000) + " msec to merge vectors [" + numMerged + " docs]");
+        mergeState.infoStream.message("SM", ((t1-t0)/1000000) + " msec to merge " + name + " [" + mergeState.segmentInfo.getDocCount() + " docs]");
       }
-      assert numMerged == mergeState.segmentInfo.getDocCount();
+      return null;
     }
-    
-    // write the merged infos
-    FieldInfosWriter fieldInfosWriter = codec.fieldInfosFormat().getFieldInfosWriter();
-    fieldInfosWriter.write(directory, mergeState.segmentInfo.name, "", mergeState.fieldInfos, context);
-
-    return mergeState;
   }
 
   private void mergeDocValues(SegmentWriteState segmentWriteState) throws IOException {
@@ -244,15 +324,36 @@ final class SegmentMerger {
         if (field.hasNorms()) {
           List<NumericDocValues> toMerge = new ArrayList<>();
           List<Bits> docsWithField = new ArrayList<>();
+          long minNorm = Long.MAX_VALUE, maxNorm = Long.MIN_VALUE;
           for (AtomicReader reader : mergeState.readers) {
             NumericDocValues norms = reader.getNormValues(field.name);
             if (norms == null) {
               norms = DocValues.emptyNumeric();
+            } else {
+              final FieldInfo readerField = reader.getFieldInfos().fieldInfo(field.name);
+              if (reader instanceof SegmentReader && readerField.getMinNorm() != Long.MIN_VALUE) {
+                minNorm = Math.min(minNorm, readerField.getMinNorm());
+                maxNorm = Math.max(maxNorm, readerField.getMaxNorm());
+              } else {
+                // other readers may not return the norms of their segment, and
+                // older segments were written before their range was recorded
+                final Bits liveDocs = reader.getLiveDocs();
+                for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                  if (liveDocs == null || liveDocs.get(doc)) {
+                    final long norm = norms.get(doc);
+                    minNorm = Math.min(minNorm, norm);
+                    maxNorm = Math.max(maxNorm, norm);
+                  }
+                }
+              }
             }
             toMerge.add(norms);
             docsWithField.add(new Bits.MatchAllBits(reader.maxDoc()));
           }
           consumer.mergeNumericField(field, mergeState, toMerge, docsWithField);
+          if (minNorm <= maxNorm) {
+            field.setNormsRange(minNorm, maxNorm);
+          }
         }
       }
       success = true;
@@ -90,6 +90,20 @@ public final class SegmentReader extends AtomicReader implements Accountable {
 
   private final List<Long> dvGens = new ArrayList<>();
   
+  // the stacked sparse generations of numeric DocValues updates, by field
+  final Map<String,SparseNumericDocValuesUpdates> sparseNumericUpdates = new HashMap<>();
+  
+  // reads the latest generation of updated stored fields on top of the core's
+  // reader, null if the stored fields of the segment were never updated
+  private final StoredFieldsReader updatedFieldsReader;
+  
+  final CloseableThreadLocal<StoredFieldsReader> updatedFieldsReaderLocal = new CloseableThreadLocal<StoredFieldsReader>() {
+    @Override
+    protected StoredFieldsReader initialValue() {
+      return updatedFieldsReader.clone();
+    }
+  };
+  
   /**
    * Constructs a new SegmentReader with a new core.
    * @throws CorruptIndexException if the index is corrupt
@@ -122,7 +136,9 @@ public final class SegmentReader extends AtomicReader implements Accountable {
 
       if (fieldInfos.hasDocValues()) {
         initDocValuesProducers(codec);
+        initSparseNumericUpdates(null);
       }
+      updatedFieldsReader = openUpdatedFieldsReader(codec);
 
       success = true;
     } finally {
@@ -172,7 +188,9 @@ public final class SegmentReader extends AtomicReader implements Accountable {
       
       if (fieldInfos.hasDocValues()) {
         initDocValuesProducers(codec);
+        initSparseNumericUpdates(sr);
       }
+      updatedFieldsReader = openUpdatedFieldsReader(codec);
       success = true;
     } finally {
       if (!success) {
@@ -261,6 +279,37 @@ public final class SegmentReader extends AtomicReader implements Accountable {
     }
   }
   
+  // loads the sparse generations of numeric DocValues updates, which are
+  // written outside of the compound file; the ones of fields which have the
+  // same generations as in the previous reader are shared with it
+  private void initSparseNumericUpdates(SegmentReader previous) throws IOException {
+    for (FieldInfo fi : fieldInfos) {
+      final String gens = fi.getAttribute(SparseNumericDocValuesUpdates.GENS_ATTRIBUTE);
+      if (gens == null || fi.getDocValuesType() != DocValuesType.NUMERIC) continue;
+      SparseNumericDocValuesUpdates updates = null;
+      if (previous != null) {
+        final FieldInfo previousInfo = previous.fieldInfos.fieldInfo(fi.name);
+        if (previousInfo != null && gens.equals(previousInfo.getAttribute(SparseNumericDocValuesUpdates.GENS_ATTRIBUTE))) {
+          updates = previous.sparseNumericUpdates.get(fi.name);
+        }
+      }
+      if (updates == null) {
+        updates = SparseNumericDocValuesUpdates.read(si.info.dir, si.info, fi, IOContext.READONCE);
+      }
+      sparseNumericUpdates.put(fi.name, updates);
+    }
+  }
+  
+  // opens the reader of the stored fields updates, which are always written
+  // outside of the compound file
+  private StoredFieldsReader openUpdatedFieldsReader(Codec codec) throws IOException {
+    if (!si.hasStoredFieldsUpdates()) {
+      return null;
+    }
+    final String segmentSuffix = Long.toString(si.getStoredFieldsGen(), Character.MAX_RADIX);
+    return codec.storedFieldsFormat().updatedFieldsReader(core.fieldsReaderOrig, si.info.dir, si.info, fieldInfos, segmentSuffix, IOContext.READ);
+  }
+  
   /**
    * Reads the most recent {@link FieldInfos} of the given segment info.
    * 
@@ -308,7 +357,7 @@ public final class SegmentReader extends AtomicReader implements Accountable {
     } finally {
       dvProducersByField.clear();
       try {
-        IOUtils.close(docValuesLocal, docsWithFieldLocal);
+        IOUtils.close(docValuesLocal, docsWithFieldLocal, updatedFieldsReaderLocal, updatedFieldsReader);
       } finally {
         segDocValues.decRef(dvGens);
       }
@@ -326,6 +375,9 @@ public final class SegmentReader extends AtomicReader implements Accountable {
    *  @lucene.internal */
   public StoredFieldsReader getFieldsReader() {
     ensureOpen();
+    if (updatedFieldsReader != null) {
+      return updatedFieldsReaderLocal.get();
+    }
     return core.fieldsReaderLocal.get();
   }
   
@@ -335,6 +387,14 @@ public final class SegmentReader extends AtomicReader implements Accountable {
     getFieldsReader().visitDocument(docID, visitor);
   }
 
+  @Override
+  public void document(int[] docIDs, StoredFieldVisitor[] visitors) throws IOException {
+    for (int docID : docIDs) {
+      checkBounds(docID);
+    }
+    getFieldsReader().visitDocuments(docIDs, visitors);
+  }
+
   @Override
   public Fields fields() {
     ensureOpen();
@@ -465,6 +525,10 @@ public final class SegmentReader extends AtomicReader implements Accountable {
       DocValuesProducer dvProducer = dvProducersByField.get(field);
       assert dvProducer != null;
       NumericDocValues dv = dvProducer.getNumeric(fi);
+      final SparseNumericDocValuesUpdates updates = sparseNumericUpdates.get(field);
+      if (updates != null) {
+        dv = updates.apply(dv);
+      }
       dvFields.put(field, dv);
       return dv;
     }
@@ -491,6 +555,10 @@ public final class SegmentReader extends AtomicReader implements Accountable {
       DocValuesProducer dvProducer = dvProducersByField.get(field);
       assert dvProducer != null;
       Bits dv = dvProducer.getDocsWithField(fi);
+      final SparseNumericDocValuesUpdates updates = sparseNumericUpdates.get(field);
+      if (updates != null) {
+        dv = updates.apply(dv);
+      }
       dvFields.put(field, dv);
       return dv;
     }
@@ -610,6 +678,9 @@ public final class SegmentReader extends AtomicReader implements Accountable {
         ramBytesUsed += producer.ramBytesUsed();
       }
     }
+    for (SparseNumericDocValuesUpdates updates : sparseNumericUpdates.values()) {
+      ramBytesUsed += updates.ramBytesUsed();
+    }
     if (core != null) {
       ramBytesUsed += core.ramBytesUsed();
     }
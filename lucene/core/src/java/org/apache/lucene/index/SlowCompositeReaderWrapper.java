@@ -228,6 +228,12 @@ public final class SlowCompositeReaderWrapper extends AtomicReader {
     in.document(docID, visitor);
   }
 
+  @Override
+  public void document(int[] docIDs, StoredFieldVisitor[] visitors) throws IOException {
+    ensureOpen();
+    in.document(docIDs, visitors);
+  }
+
   @Override
   public Bits getLiveDocs() {
     ensureOpen();
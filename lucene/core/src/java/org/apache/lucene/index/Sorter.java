@@ -1,4 +1,4 @@
-package org.apache.lucene.index.sorter;
+package org.apache.lucene.index;
 
 /*
  * Licensed to the Apache Software Foundation (ASF) under one or more
@@ -20,12 +20,11 @@ package org.apache.lucene.index.sorter;
 import java.io.IOException;
 import java.util.Comparator;
 
-import org.apache.lucene.index.AtomicReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.FieldComparator;
 import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.PriorityQueue;
 import org.apache.lucene.util.TimSorter;
 import org.apache.lucene.util.packed.PackedInts;
 import org.apache.lucene.util.packed.PackedLongValues;
@@ -33,13 +32,20 @@ import org.apache.lucene.util.packed.PackedLongValues;
 /**
  * Sorts documents of a given index by returning a permutation on the document
  * IDs.
- * @lucene.experimental
+ * @lucene.internal
  */
-final class Sorter {
+public final class Sorter {
+
+  /**
+   * Put in the {@link SegmentInfo#getDiagnostics() diagnostics} to denote that
+   * a segment is sorted, with the {@link #getID() identifier} of its sorter.
+   */
+  public static final String SORTER_ID_PROP = "sorter";
+
   final Sort sort;
   
   /** Creates a new Sorter to sort the index with {@code sort} */
-  Sorter(Sort sort) {
+  public Sorter(Sort sort) {
     if (sort.needsScores()) {
       throw new IllegalArgumentException("Cannot sort an index with a Sort that refers to the relevance score");
     }
@@ -51,19 +57,22 @@ final class Sorter {
    * {@link IndexReader#maxDoc()}, <code>oldToNew(newToOld(docID))</code> must
    * return <code>docID</code>.
    */
-  static abstract class DocMap {
+  public static abstract class DocMap {
+
+    /** Sole constructor. */
+    protected DocMap() {}
 
     /** Given a doc ID from the original index, return its ordinal in the
      *  sorted index. */
-    abstract int oldToNew(int docID);
+    public abstract int oldToNew(int docID);
 
     /** Given the ordinal of a doc ID, return its doc ID in the original index. */
-    abstract int newToOld(int docID);
+    public abstract int newToOld(int docID);
 
     /** Return the number of documents in this map. This must be equal to the
      *  {@link AtomicReader#maxDoc() number of documents} of the
      *  {@link AtomicReader} which is sorted. */
-    abstract int size();
+    public abstract int size();
   }
 
   /** Check consistency of a {@link DocMap}, useful for assertions. */
@@ -161,6 +170,52 @@ final class Sorter {
     // that case timSort can save a lot of time
     sorter.sort(0, docs.length); // docs is now the newToOld mapping
 
+    return newDocMap(docs);
+  }
+
+  /** Computes the old-to-new permutation over the given comparator, of
+   *  documents that are sorted between consecutive {@code runStarts}. */
+  private static Sorter.DocMap merge(final int maxDoc, int[] runStarts, final DocComparator comparator) {
+    // the current document of each run
+    final PriorityQueue<int[]> queue = new PriorityQueue<int[]>(runStarts.length) {
+      @Override
+      protected boolean lessThan(int[] run1, int[] run2) {
+        // ties keep the order of the document IDs, as the stable sort does
+        final int cmp = comparator.compare(run1[0], run2[0]);
+        return cmp < 0 || (cmp == 0 && run1[0] < run2[0]);
+      }
+    };
+    for (int i = 0; i < runStarts.length; ++i) {
+      final int end = i + 1 < runStarts.length ? runStarts[i+1] : maxDoc;
+      if (runStarts[i] < end) {
+        queue.add(new int[] { runStarts[i], end });
+      }
+    }
+
+    final int[] docs = new int[maxDoc];
+    boolean sorted = true;
+    for (int i = 0; i < maxDoc; ++i) {
+      final int[] top = queue.top();
+      docs[i] = top[0];
+      sorted &= top[0] == i;
+      if (++top[0] < top[1]) {
+        queue.updateTop();
+      } else {
+        queue.pop();
+      }
+    }
+    assert queue.size() == 0;
+    if (sorted) {
+      return null;
+    }
+    return newDocMap(docs); // docs is the newToOld mapping
+  }
+
+  /** Returns the {@link DocMap} of the given newToOld mapping, which it
+   *  overwrites. */
+  private static Sorter.DocMap newDocMap(final int[] docs) {
+    final int maxDoc = docs.length;
+
     // The reason why we use MonotonicAppendingLongBuffer here is that it
     // wastes very little memory if the index is in random order but can save
     // a lot of memory if the index is already "almost" sorted
@@ -211,7 +266,21 @@ final class Sorter {
    * <b>NOTE:</b> deleted documents are expected to appear in the mapping as
    * well, they will however be marked as deleted in the sorted view.
    */
-  DocMap sort(AtomicReader reader) throws IOException {
+  public DocMap sort(AtomicReader reader) throws IOException {
+    return sort(reader.maxDoc(), newComparator(reader));
+  }
+
+  /**
+   * Same as {@link #sort(AtomicReader)}, for a reader whose documents are
+   * already sorted between consecutive {@code runStarts}, as they are when the
+   * reader is a view over sorted segments and {@code runStarts} are their doc
+   * bases. The runs are merged instead of sorting all documents again.
+   */
+  public DocMap merge(AtomicReader reader, int[] runStarts) throws IOException {
+    return merge(reader.maxDoc(), runStarts, newComparator(reader));
+  }
+
+  private DocComparator newComparator(AtomicReader reader) throws IOException {
     SortField fields[] = sort.getSort();
     final int reverseMul[] = new int[fields.length];
     final FieldComparator<?> comparators[] = new FieldComparator[fields.length];
@@ -222,7 +291,7 @@ final class Sorter {
       comparators[i].setNextReader(reader.getContext());
       comparators[i].setScorer(FAKESCORER);
     }
-    final DocComparator comparator = new DocComparator() {
+    return new DocComparator() {
       @Override
       public int compare(int docID1, int docID2) {
         try {
@@ -242,7 +311,6 @@ final class Sorter {
         }
       }
     };
-    return sort(reader.maxDoc(), comparator);
   }
 
   /**
@@ -0,0 +1,274 @@
+package org.apache.lucene.index;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.packed.BlockPackedReaderIterator;
+import org.apache.lucene.util.packed.BlockPackedWriter;
+import org.apache.lucene.util.packed.PackedInts;
+import org.apache.lucene.util.packed.PackedLongValues;
+
+/**
+ * The values of the documents of a segment whose {@link NumericDocValues}
+ * were updated, which readers overlay on the values of the field instead of
+ * the whole field being rewritten for every generation of updates.
+ * <p>
+ * Each generation of sparse updates of a field is written to its own
+ * <code>.dvu</code> file, and the generations that apply on top of the
+ * field's values are listed in its {@link #GENS_ATTRIBUTE} attribute, oldest
+ * first. A file holds:
+ * <ul>
+ * <li>Header, the number of updated documents and the deltas between their
+ * increasing doc IDs as VInts</li>
+ * <li>Their new values, written with a {@link BlockPackedWriter}</li>
+ * <li>Footer</li>
+ * </ul>
+ *
+ * @lucene.experimental
+ */
+final class SparseNumericDocValuesUpdates implements Accountable {
+
+  /** The {@link FieldInfo} attribute which lists the sparse generations of
+   *  the field, as comma-separated generations in radix 36. */
+  static final String GENS_ATTRIBUTE = "SparseNumericDocValuesUpdates.gens";
+
+  /** Extension of sparse updates files. */
+  static final String EXTENSION = "dvu";
+
+  /** Once a field has that many sparse generations, its next updates rewrite
+   *  all its values. */
+  static final int MAX_GENS = 10;
+
+  /** The sparse generations of a field may update at most 1 in that many
+   *  documents of the segment, beyond that its next updates rewrite all its
+   *  values. */
+  static final int MIN_DOCS_PER_UPDATE = 32;
+
+  static final String CODEC_NAME = "SparseNumericDocValuesUpdates";
+  static final int VERSION_START = 0;
+  static final int VERSION_CURRENT = VERSION_START;
+
+  private static final int BLOCK_SIZE = 128;
+
+  private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(SparseNumericDocValuesUpdates.class);
+
+  private final int[] docs; // increasing
+  private final PackedLongValues values;
+
+  private SparseNumericDocValuesUpdates(int[] docs, PackedLongValues values) {
+    assert docs.length == values.size();
+    this.docs = docs;
+    this.values = values;
+  }
+
+  /** Returns the number of updated documents. */
+  int size() {
+    return docs.length;
+  }
+
+  /** Returns the name of the file of the given sparse generation. */
+  static String fileName(String segmentName, long gen) {
+    return IndexFileNames.segmentFileName(segmentName, Long.toString(gen, Character.MAX_RADIX), EXTENSION);
+  }
+
+  /** Returns the sparse generations of the field, oldest first. */
+  static long[] getGens(FieldInfo fieldInfo) {
+    final String gens = fieldInfo.getAttribute(GENS_ATTRIBUTE);
+    if (gens == null) {
+      return new long[0];
+    }
+    final String[] parts = gens.split(",");
+    final long[] result = new long[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      result[i] = Long.parseLong(parts[i], Character.MAX_RADIX);
+    }
+    return result;
+  }
+
+  /** Adds the given generation as the newest sparse generation of the field. */
+  static void addGen(FieldInfo fieldInfo, long gen) {
+    final String gens = fieldInfo.getAttribute(GENS_ATTRIBUTE);
+    final String newGen = Long.toString(gen, Character.MAX_RADIX);
+    fieldInfo.putAttribute(GENS_ATTRIBUTE, gens == null ? newGen : gens + "," + newGen);
+  }
+
+  /**
+   * Writes the updated values of the given iterator as a sparse generation
+   * and returns the number of updated documents.
+   */
+  static int write(Directory dir, SegmentInfo si, long gen, NumericDocValuesFieldUpdates.Iterator updates, IOContext context) throws IOException {
+    int count = 0;
+    updates.reset();
+    while (updates.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+      count++;
+    }
+
+    boolean success = false;
+    final IndexOutput out = dir.createOutput(fileName(si.name, gen), context);
+    try {
+      CodecUtil.writeHeader(out, CODEC_NAME, VERSION_CURRENT);
+      out.writeVInt(PackedInts.VERSION_CURRENT);
+      out.writeVInt(count);
+      updates.reset();
+      int previous = 0;
+      for (int doc = updates.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = updates.nextDoc()) {
+        out.writeVInt(doc - previous);
+        previous = doc;
+      }
+      final BlockPackedWriter writer = new BlockPackedWriter(out, BLOCK_SIZE);
+      updates.reset();
+      while (updates.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+        writer.add(updates.value().longValue());
+      }
+      writer.finish();
+      CodecUtil.writeFooter(out);
+      success = true;
+    } finally {
+      if (success) {
+        IOUtils.close(out);
+      } else {
+        IOUtils.closeWhileHandlingException(out);
+      }
+    }
+    return count;
+  }
+
+  /** Reads the given sparse generation. */
+  static SparseNumericDocValuesUpdates read(Directory dir, SegmentInfo si, long gen, IOContext context) throws IOException {
+    try (ChecksumIndexInput in = dir.openChecksumInput(fileName(si.name, gen), context)) {
+      CodecUtil.checkHeader(in, CODEC_NAME, VERSION_START, VERSION_CURRENT);
+      final int packedIntsVersion = in.readVInt();
+      final int count = in.readVInt();
+      final int[] docs = new int[count];
+      int doc = 0;
+      for (int i = 0; i < count; i++) {
+        doc += in.readVInt();
+        if (doc >= si.getDocCount() || (i > 0 && doc <= docs[i-1])) {
+          throw new CorruptIndexException("invalid doc=" + doc + " at index " + i + " (resource=" + in + ")");
+        }
+        docs[i] = doc;
+      }
+      final BlockPackedReaderIterator it = new BlockPackedReaderIterator(in, packedIntsVersion, BLOCK_SIZE, count);
+      final PackedLongValues.Builder values = PackedLongValues.deltaPackedBuilder(PackedInts.COMPACT);
+      for (int i = 0; i < count; i++) {
+        values.add(it.next());
+      }
+      CodecUtil.checkFooter(in);
+      return new SparseNumericDocValuesUpdates(docs, values.build());
+    }
+  }
+
+  /**
+   * Reads the sparse generations of the field, if it has any, and returns
+   * them stacked into a single instance, or null if it has none.
+   */
+  static SparseNumericDocValuesUpdates read(Directory dir, SegmentInfo si, FieldInfo fieldInfo, IOContext context) throws IOException {
+    SparseNumericDocValuesUpdates stacked = null;
+    for (long gen : getGens(fieldInfo)) {
+      final SparseNumericDocValuesUpdates updates = read(dir, si, gen, context);
+      stacked = stacked == null ? updates : stacked.stack(updates);
+    }
+    return stacked;
+  }
+
+  /** Returns the values of this instance, overridden by the newer ones. */
+  SparseNumericDocValuesUpdates stack(SparseNumericDocValuesUpdates newer) {
+    final int[] docs = new int[this.docs.length + newer.docs.length];
+    final PackedLongValues.Builder values = PackedLongValues.deltaPackedBuilder(PackedInts.COMPACT);
+    int i = 0, j = 0, size = 0;
+    while (i < this.docs.length || j < newer.docs.length) {
+      if (j == newer.docs.length || (i < this.docs.length && this.docs[i] < newer.docs[j])) {
+        docs[size++] = this.docs[i];
+        values.add(this.values.get(i++));
+      } else {
+        if (i < this.docs.length && this.docs[i] == newer.docs[j]) {
+          i++; // overridden
+        }
+        docs[size++] = newer.docs[j];
+        values.add(newer.values.get(j++));
+      }
+    }
+    return new SparseNumericDocValuesUpdates(Arrays.copyOf(docs, size), values.build());
+  }
+
+  /** Returns the values of the given field with the updated values on top. */
+  NumericDocValues apply(final NumericDocValues in) {
+    if (docs.length == 0) {
+      return in;
+    }
+    final int minDoc = docs[0], maxDoc = docs[docs.length - 1];
+    return new NumericDocValues() {
+      @Override
+      public long get(int docID) {
+        if (docID >= minDoc && docID <= maxDoc) {
+          final int index = Arrays.binarySearch(docs, docID);
+          if (index >= 0) {
+            return values.get(index);
+          }
+        }
+        return in.get(docID);
+      }
+    };
+  }
+
+  /** Returns the documents which have a value for the field, given the ones
+   *  which had one before the updates. */
+  Bits apply(final Bits in) {
+    if (docs.length == 0 || in instanceof Bits.MatchAllBits) {
+      return in;
+    }
+    final int minDoc = docs[0], maxDoc = docs[docs.length - 1];
+    return new Bits() {
+      @Override
+      public boolean get(int index) {
+        if (in.get(index)) {
+          return true;
+        }
+        // updated documents always have a value
+        return index >= minDoc && index <= maxDoc && Arrays.binarySearch(docs, index) >= 0;
+      }
+
+      @Override
+      public int length() {
+        return in.length();
+      }
+    };
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(docs) + values.ramBytesUsed();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(size=" + docs.length + ")";
+  }
+}
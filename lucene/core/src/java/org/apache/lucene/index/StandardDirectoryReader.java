@@ -30,7 +30,10 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.util.IOUtils;
 
-final class StandardDirectoryReader extends DirectoryReader {
+/** Default implementation of {@link DirectoryReader}.
+ *
+ * @lucene.internal */
+public final class StandardDirectoryReader extends DirectoryReader {
 
   private final IndexWriter writer;
   private final SegmentInfos segmentInfos;
@@ -333,6 +336,13 @@ final class StandardDirectoryReader extends DirectoryReader {
     return StandardDirectoryReader.open(directory, infos, getSequentialSubReaders(), termInfosIndexDivisor);
   }
 
+  /** Returns the {@link SegmentInfos} this reader is reading. For a
+   *  near-real-time reader, these may reference segments and deletes which
+   *  were not committed yet. */
+  public SegmentInfos getSegmentInfos() {
+    return segmentInfos;
+  }
+
   @Override
   public long getVersion() {
     ensureOpen();
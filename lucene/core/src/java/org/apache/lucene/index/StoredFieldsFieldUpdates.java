@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.lucene.index;
+
+import java.util.Arrays;
+
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.InPlaceMergeSorter;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * A {@link DocValuesFieldUpdates} which holds updates of the stored values of a
+ * single field, for a set of documents. The value of a document is the array of
+ * {@link StoredField}s replacing all values the field had.
+ * 
+ * @lucene.experimental
+ */
+class StoredFieldsFieldUpdates extends DocValuesFieldUpdates {
+  
+  final static class Iterator extends DocValuesFieldUpdates.Iterator {
+    private final int size;
+    private final int[] docs;
+    private final StoredField[][] values;
+    private int idx = 0;
+    private int doc = -1;
+    private StoredField[] value = null;
+    
+    Iterator(int size, int[] docs, StoredField[][] values) {
+      this.size = size;
+      this.docs = docs;
+      this.values = values;
+    }
+    
+    @Override
+    StoredField[] value() {
+      return value;
+    }
+    
+    @Override
+    int nextDoc() {
+      if (idx >= size) {
+        value = null;
+        return doc = DocIdSetIterator.NO_MORE_DOCS;
+      }
+      doc = docs[idx];
+      ++idx;
+      while (idx < size && docs[idx] == doc) {
+        ++idx;
+      }
+      // the last update of the document wins
+      value = values[idx - 1];
+      return doc;
+    }
+    
+    @Override
+    int doc() {
+      return doc;
+    }
+    
+    @Override
+    void reset() {
+      doc = -1;
+      value = null;
+      idx = 0;
+    }
+  }
+
+  private int[] docs;
+  private StoredField[][] values;
+  private int size;
+  private long valuesBytes;
+  
+  public StoredFieldsFieldUpdates(String field) {
+    super(field, null);
+    docs = new int[1];
+    values = new StoredField[1][];
+    size = 0;
+  }
+  
+  @Override
+  public void add(int doc, Object value) {
+    if (size == Integer.MAX_VALUE) {
+      throw new IllegalStateException("cannot support more than Integer.MAX_VALUE doc/value entries");
+    }
+    StoredField[] val = (StoredField[]) value;
+    
+    // grow the structures to have room for more elements
+    if (docs.length == size) {
+      docs = ArrayUtil.grow(docs, size + 1);
+      values = Arrays.copyOf(values, docs.length);
+    }
+    
+    docs[size] = doc;
+    values[size] = val;
+    valuesBytes += RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + val.length * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+    ++size;
+  }
+
+  @Override
+  public Iterator iterator() {
+    final int[] docs = this.docs;
+    final StoredField[][] values = this.values;
+    new InPlaceMergeSorter() {
+      @Override
+      protected void swap(int i, int j) {
+        int tmpDoc = docs[j];
+        docs[j] = docs[i];
+        docs[i] = tmpDoc;
+        
+        StoredField[] tmpValue = values[j];
+        values[j] = values[i];
+        values[i] = tmpValue;
+      }
+      
+      @Override
+      protected int compare(int i, int j) {
+        int x = docs[i];
+        int y = docs[j];
+        return (x < y) ? -1 : ((x == y) ? 0 : 1);
+      }
+    }.sort(0, size);
+    
+    return new Iterator(size, docs, values);
+  }
+
+  @Override
+  public void merge(DocValuesFieldUpdates other) {
+    StoredFieldsFieldUpdates otherUpdates = (StoredFieldsFieldUpdates) other;
+    if ((long) size + otherUpdates.size > Integer.MAX_VALUE) {
+      throw new IllegalStateException(
+          "cannot support more than Integer.MAX_VALUE doc/value entries; size="
+              + size + " other.size=" + otherUpdates.size);
+    }
+    int newSize = size + otherUpdates.size;
+    docs = ArrayUtil.grow(docs, newSize);
+    values = Arrays.copyOf(values, docs.length);
+    System.arraycopy(otherUpdates.docs, 0, docs, size, otherUpdates.size);
+    System.arraycopy(otherUpdates.values, 0, values, size, otherUpdates.size);
+    size = newSize;
+    valuesBytes += otherUpdates.valuesBytes;
+  }
+
+  @Override
+  public boolean any() {
+    return size > 0;
+  }
+
+  @Override
+  public long ramBytesPerDoc() {
+    // the fields are shared with the updates they came from, so only count the references to them
+    long bytesPerDoc = RamUsageEstimator.NUM_BYTES_INT + RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+    if (size > 0) {
+      bytesPerDoc += (long) Math.ceil((double) valuesBytes / size);
+    }
+    return bytesPerDoc;
+  }
+
+}
@@ -0,0 +1,252 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * A Scorer for pure disjunctions, which scores like {@link DisjunctionSumScorer}
+ * until its collector {@link #setMinCompetitiveScore(float) sets} the minimum
+ * competitive score. From then on, it skips the documents which can not score
+ * more than it, using the {@link Scorer#getMaxScore(int) score bounds} of its
+ * sub-scorers:
+ * <ul>
+ *  <li>documents are visited in windows which end with the first block
+ *      boundary of any sub-scorer, and windows whose sum of maximum scores can
+ *      not compete are skipped altogether,</li>
+ *  <li>in the other windows, the sub-scorers whose sum of maximum scores can
+ *      not compete on their own only get advanced to the documents which the
+ *      other sub-scorers match, and only as long as the document may still
+ *      compete.</li>
+ * </ul>
+ * Skipped documents are not collected, so collectors can not count all hits.
+ */
+final class BlockMaxDisjunctionSumScorer extends Scorer {
+  // scales bounds up so that rounding errors of float scores can't make
+  // them skip a competitive document
+  private static final double BOUND_SCALE = 1 + 1e-5;
+
+  private final DisjunctionSumScorer disjunction;
+  private final Scorer[] subScorers;
+  private final double maxCoord;
+
+  private float minCompetitiveScore = Float.NEGATIVE_INFINITY;
+  private boolean skipping; // false until the collector sets a minimum competitive score
+
+  private int doc = -1;
+
+  private int upTo = -1;             // last doc of the current window
+  private final double[] maxScores;  // max scores of subScorers in the window, in ascending order
+  private final double[] prefixSums; // prefixSums[i] is the sum of maxScores[0..i]
+  private int numNonEssential;       // number of subScorers which can't compete on their own
+
+  /** Construct a <code>BlockMaxDisjunctionSumScorer</code>.
+   * @param weight The weight to be used.
+   * @param subScorers Array of at least two subscorers.
+   * @param coord Table of coordination factors
+   */
+  BlockMaxDisjunctionSumScorer(Weight weight, Scorer[] subScorers, float[] coord) {
+    super(weight);
+    // DisjunctionScorer reorders the array of its heap
+    this.disjunction = new DisjunctionSumScorer(weight, subScorers.clone(), coord);
+    this.subScorers = subScorers;
+    double max = 0;
+    for (int i = 1; i <= subScorers.length; i++) {
+      if (coord[i] < 0) {
+        max = Double.POSITIVE_INFINITY;
+        break;
+      }
+      max = Math.max(max, coord[i]);
+    }
+    this.maxCoord = max;
+    this.maxScores = new double[subScorers.length];
+    this.prefixSums = new double[subScorers.length];
+  }
+
+  @Override
+  public void setMinCompetitiveScore(float minScore) throws IOException {
+    if (minScore <= minCompetitiveScore) {
+      return;
+    }
+    minCompetitiveScore = minScore;
+    if (skipping == false) {
+      skipping = true;
+      doc = disjunction.docID();
+    }
+    // partition the sub-scorers again against the new minimum
+    upTo = -1;
+  }
+
+  private boolean canCompete(double maxScore) {
+    return maxScore * maxCoord * BOUND_SCALE > minCompetitiveScore;
+  }
+
+  /**
+   * Moves to the window of the given target: finds its end, and sorts the
+   * sub-scorers by their maximum score in it, so that the first
+   * {@link #numNonEssential} ones can not compete on their own.
+   */
+  private void moveToWindow(int target) throws IOException {
+    upTo = NO_MORE_DOCS;
+    for (Scorer subScorer : subScorers) {
+      if (subScorer.docID() != NO_MORE_DOCS) {
+        upTo = Math.min(upTo, subScorer.advanceShallow(target));
+      }
+    }
+    for (int i = 0; i < subScorers.length; i++) {
+      final Scorer subScorer = subScorers[i];
+      final double maxScore = subScorer.docID() == NO_MORE_DOCS ? 0 : subScorer.getMaxScore(upTo);
+      // insertion sort, there are few sub-scorers
+      int j = i;
+      for (; j > 0 && maxScores[j - 1] > maxScore; j--) {
+        maxScores[j] = maxScores[j - 1];
+        subScorers[j] = subScorers[j - 1];
+      }
+      maxScores[j] = maxScore;
+      subScorers[j] = subScorer;
+    }
+    double sum = 0;
+    numNonEssential = 0;
+    for (int i = 0; i < subScorers.length; i++) {
+      sum += maxScores[i];
+      prefixSums[i] = sum;
+      if (numNonEssential == i && canCompete(sum) == false) {
+        numNonEssential++;
+      }
+    }
+  }
+
+  private int advanceTo(int target) throws IOException {
+    while (true) {
+      if (target > upTo) {
+        moveToWindow(target);
+        if (numNonEssential == subScorers.length) {
+          // no document of the window can compete
+          if (upTo == NO_MORE_DOCS) {
+            return doc = NO_MORE_DOCS;
+          }
+          target = upTo + 1;
+          continue;
+        }
+      }
+
+      int candidate = NO_MORE_DOCS;
+      for (int i = numNonEssential; i < subScorers.length; i++) {
+        final Scorer subScorer = subScorers[i];
+        int subDoc = subScorer.docID();
+        if (subDoc < target) {
+          subDoc = subScorer.advance(target);
+        }
+        candidate = Math.min(candidate, subDoc);
+      }
+      if (candidate > upTo) {
+        // the non-essential scorers may match documents before the
+        // candidate, which could compete in the next window
+        target = upTo + 1;
+        continue;
+      }
+      if (candidate == NO_MORE_DOCS) {
+        return doc = NO_MORE_DOCS;
+      }
+
+      double sum = 0;
+      for (int i = numNonEssential; i < subScorers.length; i++) {
+        final Scorer subScorer = subScorers[i];
+        if (subScorer.docID() == candidate) {
+          sum += subScorer.score();
+        }
+      }
+      boolean competitive = true;
+      for (int i = numNonEssential - 1; i >= 0; i--) {
+        if (canCompete(sum + prefixSums[i]) == false) {
+          competitive = false;
+          break;
+        }
+        final Scorer subScorer = subScorers[i];
+        int subDoc = subScorer.docID();
+        if (subDoc < candidate) {
+          subDoc = subScorer.advance(candidate);
+        }
+        if (subDoc == candidate) {
+          sum += subScorer.score();
+        }
+      }
+      if (competitive) {
+        // all sub-scorers are on or after the candidate now, so the
+        // disjunction can score it exactly like when it is not skipping
+        disjunction.resetTo(candidate);
+        if (disjunction.score() > minCompetitiveScore) {
+          return doc = candidate;
+        }
+      }
+      target = candidate + 1;
+    }
+  }
+
+  @Override
+  public int docID() {
+    return skipping ? doc : disjunction.docID();
+  }
+
+  @Override
+  public int nextDoc() throws IOException {
+    if (skipping) {
+      assert doc != NO_MORE_DOCS;
+      return advanceTo(doc + 1);
+    }
+    return disjunction.nextDoc();
+  }
+
+  @Override
+  public int advance(int target) throws IOException {
+    if (skipping) {
+      assert doc != NO_MORE_DOCS;
+      return advanceTo(target);
+    }
+    return disjunction.advance(target);
+  }
+
+  @Override
+  public float score() throws IOException {
+    return disjunction.score();
+  }
+
+  @Override
+  public int freq() throws IOException {
+    return disjunction.freq();
+  }
+
+  @Override
+  public long cost() {
+    return disjunction.cost();
+  }
+
+  @Override
+  public Collection<ChildScorer> getChildren() {
+    if (skipping == false) {
+      return disjunction.getChildren();
+    }
+    ArrayList<ChildScorer> children = new ArrayList<>(subScorers.length);
+    for (Scorer subScorer : subScorers) {
+      children.add(new ChildScorer(subScorer, "SHOULD"));
+    }
+    return children;
+  }
+}
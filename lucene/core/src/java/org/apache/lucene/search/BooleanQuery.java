@@ -311,7 +311,11 @@ public class BooleanQuery extends Query implements Iterable<BooleanClause> {
       if (scoreDocsInOrder || minNrShouldMatch > 1) {
         // TODO: (LUCENE-4872) in some cases BooleanScorer may be faster for minNrShouldMatch
         // but the same is even true of pure conjunctions...
-        return super.bulkScorer(context, scoreDocsInOrder, acceptDocs);
+        Scorer scorer = scorer(context, acceptDocs, true);
+        if (scorer == null) {
+          return null;
+        }
+        return new DefaultBulkScorer(scorer);
       }
 
       List<BulkScorer> prohibited = new ArrayList<>();
@@ -342,6 +346,15 @@ public class BooleanQuery extends Query implements Iterable<BooleanClause> {
     @Override
     public Scorer scorer(AtomicReaderContext context, Bits acceptDocs)
         throws IOException {
+      return scorer(context, acceptDocs, false);
+    }
+
+    /**
+     * Returns the scorer of this query. A top scorer is the one the collector
+     * gets, so only it may be told the minimum competitive score.
+     */
+    private Scorer scorer(AtomicReaderContext context, Bits acceptDocs, boolean topScorer)
+        throws IOException {
       // initially the user provided value,
       // but if minNrShouldMatch == optional.size(),
       // we will optimize and move these to required, making this 0
@@ -395,6 +408,12 @@ public class BooleanQuery extends Query implements Iterable<BooleanClause> {
       
       // pure disjunction
       if (required.isEmpty()) {
+        if (topScorer && prohibited.isEmpty() && optional.size() > 1 && minShouldMatch <= 1) {
+          // may skip non-competitive documents for collectors which don't count all hits
+          return new BlockMaxDisjunctionSumScorer(this,
+                                                  optional.toArray(new Scorer[optional.size()]),
+                                                  coords(optional.size(), disableCoord));
+        }
         return excl(opt(optional, minShouldMatch, disableCoord), prohibited);
       }
       
@@ -494,13 +513,7 @@ public class BooleanQuery extends Query implements Iterable<BooleanClause> {
           return opt;
         }
       } else {
-        float coords[];
-        if (disableCoord) {
-          coords = new float[optional.size()+1];
-          Arrays.fill(coords, 1F);
-        } else {
-          coords = coords();
-        }
+        float coords[] = coords(optional.size(), disableCoord);
         if (minShouldMatch > 1) {
           return new MinShouldMatchSumScorer(this, optional, minShouldMatch, coords);
         } else {
@@ -511,6 +524,15 @@ public class BooleanQuery extends Query implements Iterable<BooleanClause> {
       }
     }
     
+    private float[] coords(int numOptional, boolean disableCoord) {
+      if (disableCoord) {
+        float coords[] = new float[numOptional+1];
+        Arrays.fill(coords, 1F);
+        return coords;
+      }
+      return coords();
+    }
+
     private float[] coords() {
       float[] coords = new float[maxCoord+1];
       coords[0] = 0F;
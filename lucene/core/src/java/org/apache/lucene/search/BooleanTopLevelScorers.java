@@ -44,6 +44,11 @@ class BooleanTopLevelScorers {
       return in.score() * boost;
     }
 
+    @Override
+    public TwoPhaseIterator asTwoPhaseIterator() {
+      return in.asTwoPhaseIterator();
+    }
+
     @Override
     public Collection<ChildScorer> getChildren() {
       return Collections.singleton(new ChildScorer(in, "BOOSTED"));
@@ -0,0 +1,172 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.lucene.util.ArrayUtil;
+
+/** A conjunction of {@link DocIdSetIterator}s: iterates over the doc IDs
+ *  which all of the given iterators match. Scorers which expose a
+ *  {@link TwoPhaseIterator} are intersected through their approximation, and
+ *  their matches are only verified once all approximations agree on a
+ *  document.
+ * @lucene.internal */
+public class ConjunctionDISI extends DocIdSetIterator {
+
+  /** Create a conjunction over the provided iterators, taking advantage of
+   *  the {@link Scorer#asTwoPhaseIterator() two-phase iterators} of scorers. */
+  public static ConjunctionDISI intersect(List<? extends DocIdSetIterator> iterators) {
+    final List<DocIdSetIterator> allIterators = new ArrayList<>(iterators.size());
+    final List<TwoPhaseIterator> twoPhaseIterators = new ArrayList<>();
+    for (DocIdSetIterator iterator : iterators) {
+      TwoPhaseIterator twoPhaseIterator = null;
+      if (iterator instanceof Scorer) {
+        twoPhaseIterator = ((Scorer) iterator).asTwoPhaseIterator();
+      }
+      if (twoPhaseIterator == null) {
+        allIterators.add(iterator);
+      } else {
+        allIterators.add(twoPhaseIterator.approximation());
+        twoPhaseIterators.add(twoPhaseIterator);
+      }
+    }
+    if (twoPhaseIterators.isEmpty()) {
+      return new ConjunctionDISI(allIterators);
+    } else {
+      return new TwoPhaseConjunctionDISI(allIterators, twoPhaseIterators);
+    }
+  }
+
+  final DocIdSetIterator lead;
+  final DocIdSetIterator[] others;
+
+  ConjunctionDISI(List<? extends DocIdSetIterator> iterators) {
+    assert iterators.size() > 0;
+    final DocIdSetIterator[] sorted = iterators.toArray(new DocIdSetIterator[iterators.size()]);
+    // Sort the array the first time to allow the least frequent iterator to
+    // lead the matching.
+    ArrayUtil.timSort(sorted, new Comparator<DocIdSetIterator>() {
+      @Override
+      public int compare(DocIdSetIterator o1, DocIdSetIterator o2) {
+        return Long.compare(o1.cost(), o2.cost());
+      }
+    });
+    lead = sorted[0];
+    others = Arrays.copyOfRange(sorted, 1, sorted.length);
+  }
+
+  /** Return whether the current doc, on which all iterators agree, matches. */
+  boolean matches() throws IOException {
+    return true;
+  }
+
+  private int doNext(int doc) throws IOException {
+    for (;;) {
+      // doc may already be NO_MORE_DOCS here, but we don't check explicitly
+      // since all iterators should advance to NO_MORE_DOCS, match, then
+      // return that value.
+      advanceHead: {
+        for (DocIdSetIterator other : others) {
+          // invariant: other.docID() <= doc at this point.
+
+          // other.docID() may already be equal to doc if we "broke advanceHead"
+          // on the previous iteration and the advance on the lead exactly matched.
+          if (other.docID() < doc) {
+            final int next = other.advance(doc);
+
+            if (next > doc) {
+              // iterator beyond the current doc - advance lead to the new highest doc.
+              doc = lead.advance(next);
+              break advanceHead;
+            }
+          }
+        }
+        // success - all iterators are on the same doc
+        if (doc == NO_MORE_DOCS || matches()) {
+          return doc;
+        }
+        doc = lead.nextDoc();
+      }
+    }
+  }
+
+  @Override
+  public int docID() {
+    return lead.docID();
+  }
+
+  @Override
+  public int nextDoc() throws IOException {
+    return doNext(lead.nextDoc());
+  }
+
+  @Override
+  public int advance(int target) throws IOException {
+    return doNext(lead.advance(target));
+  }
+
+  @Override
+  public long cost() {
+    return lead.cost();
+  }
+
+  /** Return a {@link TwoPhaseIterator} view of this conjunction, or null if
+   *  none of its iterators exposes an approximation. */
+  public TwoPhaseIterator asTwoPhaseIterator() {
+    return null;
+  }
+
+  /** A conjunction which verifies the matches of its two-phase iterators
+   *  after their approximations agree on a document. */
+  private static class TwoPhaseConjunctionDISI extends ConjunctionDISI {
+
+    private final TwoPhaseIterator[] twoPhaseIterators;
+    private final ConjunctionDISI approximation;
+
+    TwoPhaseConjunctionDISI(List<? extends DocIdSetIterator> iterators, List<TwoPhaseIterator> twoPhaseIterators) {
+      super(iterators);
+      this.twoPhaseIterators = twoPhaseIterators.toArray(new TwoPhaseIterator[twoPhaseIterators.size()]);
+      this.approximation = new ConjunctionDISI(iterators);
+    }
+
+    @Override
+    boolean matches() throws IOException {
+      for (TwoPhaseIterator twoPhaseIterator : twoPhaseIterators) {
+        if (!twoPhaseIterator.matches()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public TwoPhaseIterator asTwoPhaseIterator() {
+      return new TwoPhaseIterator(approximation) {
+        @Override
+        public boolean matches() throws IOException {
+          return TwoPhaseConjunctionDISI.this.matches();
+        }
+      };
+    }
+  }
+}
@@ -52,6 +52,18 @@ abstract class DisjunctionScorer extends Scorer {
     }
   }
   
+  /**
+   * Positions this scorer on <code>target</code>, which its sub-scorers were
+   * advanced to without it: none of them may be before <code>target</code>,
+   * and one of them must be on it.
+   */
+  final void resetTo(int target) {
+    heapify();
+    assert subScorers[0].docID() == target;
+    doc = target;
+    freq = -1;
+  }
+  
   /** 
    * The subtree of subScorers at root is a min heap except possibly for its root element.
    * Bubble the root down as required to make the subtree a heap.
@@ -160,39 +160,57 @@ public class FilteredQuery extends Query {
    */
   private static final class QueryFirstScorer extends Scorer {
     private final Scorer scorer;
-    private int scorerDoc = -1;
+    private final TwoPhaseIterator twoPhase; // null if the scorer has no approximation
+    private final DocIdSetIterator approximation;
     private final Bits filterBits;
 
     protected QueryFirstScorer(Weight weight, Bits filterBits, Scorer other) {
       super(weight);
       this.scorer = other;
+      this.twoPhase = other.asTwoPhaseIterator();
+      this.approximation = twoPhase == null ? other : twoPhase.approximation();
       this.filterBits = filterBits;
     }
 
+    /** Checks the filter first, since it is cheaper than verifying the match of the scorer. */
+    private boolean matches(int doc) throws IOException {
+      return filterBits.get(doc) && (twoPhase == null || twoPhase.matches());
+    }
+
     @Override
     public int nextDoc() throws IOException {
       int doc;
       for(;;) {
-        doc = scorer.nextDoc();
-        if (doc == Scorer.NO_MORE_DOCS || filterBits.get(doc)) {
-          return scorerDoc = doc;
+        doc = approximation.nextDoc();
+        if (doc == Scorer.NO_MORE_DOCS || matches(doc)) {
+          return doc;
         }
       } 
     }
     
     @Override
     public int advance(int target) throws IOException {
-      int doc = scorer.advance(target);
-      if (doc != Scorer.NO_MORE_DOCS && !filterBits.get(doc)) {
-        return scorerDoc = nextDoc();
+      int doc = approximation.advance(target);
+      if (doc != Scorer.NO_MORE_DOCS && !matches(doc)) {
+        return nextDoc();
       } else {
-        return scorerDoc = doc;
+        return doc;
       }
     }
 
     @Override
     public int docID() {
-      return scorerDoc;
+      return approximation.docID();
+    }
+
+    @Override
+    public TwoPhaseIterator asTwoPhaseIterator() {
+      return new TwoPhaseIterator(approximation) {
+        @Override
+        public boolean matches() throws IOException {
+          return QueryFirstScorer.this.matches(approximation.docID());
+        }
+      };
     }
     
     @Override
@@ -217,10 +235,14 @@ public class FilteredQuery extends Query {
   private static class QueryFirstBulkScorer extends BulkScorer {
 
     private final Scorer scorer;
+    private final TwoPhaseIterator twoPhase; // null if the scorer has no approximation
+    private final DocIdSetIterator approximation;
     private final Bits filterBits;
 
     public QueryFirstBulkScorer(Scorer scorer, Bits filterBits) {
       this.scorer = scorer;
+      this.twoPhase = scorer.asTwoPhaseIterator();
+      this.approximation = twoPhase == null ? scorer : twoPhase.approximation();
       this.filterBits = filterBits;
     }
 
@@ -229,22 +251,22 @@ public class FilteredQuery extends Query {
       // the normalization trick already applies the boost of this query,
       // so we can use the wrapped scorer directly:
       collector.setScorer(scorer);
-      if (scorer.docID() == -1) {
-        scorer.nextDoc();
+      if (approximation.docID() == -1) {
+        approximation.nextDoc();
       }
       while (true) {
-        final int scorerDoc = scorer.docID();
+        final int scorerDoc = approximation.docID();
         if (scorerDoc < maxDoc) {
-          if (filterBits.get(scorerDoc)) {
+          if (filterBits.get(scorerDoc) && (twoPhase == null || twoPhase.matches())) {
             collector.collect(scorerDoc);
           }
-          scorer.nextDoc();
+          approximation.nextDoc();
         } else {
           break;
         }
       }
 
-      return scorer.docID() != Scorer.NO_MORE_DOCS;
+      return approximation.docID() != Scorer.NO_MORE_DOCS;
     }
   }
   
@@ -252,20 +274,33 @@ public class FilteredQuery extends Query {
    * A Scorer that uses a "leap-frog" approach (also called "zig-zag join"). The scorer and the filter
    * take turns trying to advance to each other's next matching document, often
    * jumping past the target document. When both land on the same document, it's
-   * collected.
+   * collected. If the scorer exposes a {@link TwoPhaseIterator}, its approximation
+   * takes part in the leap-frog, and the scorer's match is only verified on the
+   * documents which the filter accepts.
    */
   private static class LeapFrogScorer extends Scorer {
     private final DocIdSetIterator secondary;
     private final DocIdSetIterator primary;
     private final Scorer scorer;
+    private final TwoPhaseIterator twoPhase; // null if the scorer has no approximation
     protected int primaryDoc = -1;
     protected int secondaryDoc = -1;
 
     protected LeapFrogScorer(Weight weight, DocIdSetIterator primary, DocIdSetIterator secondary, Scorer scorer) {
       super(weight);
+      this.scorer = scorer;
+      this.twoPhase = scorer.asTwoPhaseIterator();
+      if (twoPhase != null) {
+        // the scorer is either the primary or the secondary iterator
+        if (primary == scorer) {
+          primary = twoPhase.approximation();
+        } else {
+          assert secondary == scorer;
+          secondary = twoPhase.approximation();
+        }
+      }
       this.primary = primary;
       this.secondary = secondary;
-      this.scorer = scorer;
     }
 
     private final int advanceToNextCommonDoc() throws IOException {
@@ -273,7 +308,10 @@ public class FilteredQuery extends Query {
         if (secondaryDoc < primaryDoc) {
           secondaryDoc = secondary.advance(primaryDoc);
         } else if (secondaryDoc == primaryDoc) {
-          return primaryDoc;
+          if (twoPhase == null || primaryDoc == NO_MORE_DOCS || twoPhase.matches()) {
+            return primaryDoc;
+          }
+          primaryDoc = primaryNext();
         } else {
           primaryDoc = primary.advance(secondaryDoc);
         }
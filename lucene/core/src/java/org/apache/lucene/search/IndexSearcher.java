@@ -196,6 +196,14 @@ public class IndexSearcher {
     reader.document(docID, fieldVisitor);
   }
 
+  /** 
+   * Sugar for <code>.getIndexReader().document(docIDs, fieldVisitors)</code>
+   * @see IndexReader#document(int[], StoredFieldVisitor[]) 
+   */
+  public void doc(int[] docIDs, StoredFieldVisitor[] fieldVisitors) throws IOException {
+    reader.document(docIDs, fieldVisitors);
+  }
+
   /** 
    * Sugar for <code>.getIndexReader().document(docID, fieldsToLoad)</code>
    * @see IndexReader#document(int, Set) 
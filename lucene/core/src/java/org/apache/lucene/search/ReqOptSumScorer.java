@@ -47,6 +47,12 @@ class ReqOptSumScorer extends Scorer {
     this.optScorer = optScorer;
   }
 
+  @Override
+  public TwoPhaseIterator asTwoPhaseIterator() {
+    // the optional scorer is only advanced when scoring
+    return reqScorer.asTwoPhaseIterator();
+  }
+
   @Override
   public int nextDoc() throws IOException {
     return reqScorer.nextDoc();
@@ -60,6 +60,50 @@ public abstract class Scorer extends DocsEnum {
    * {@link Collector#collect}.
    */
   public abstract float score() throws IOException;
+
+  /**
+   * Expert: returns an upper bound of the scores of the documents from the
+   * last {@link #advanceShallow(int) shallow target} up to <code>upTo</code>,
+   * inclusive. Bounds are tighter if <code>upTo</code> is not after the
+   * document {@link #advanceShallow(int)} returned. The default
+   * implementation returns {@link Float#POSITIVE_INFINITY}.
+   * @lucene.experimental
+   */
+  public float getMaxScore(int upTo) throws IOException {
+    return Float.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Expert: signals that documents whose score is less than or equal to
+   * <code>minScore</code> are not competitive anymore, so that this scorer
+   * may skip them. {@link Collector}s only call it on the scorer they were
+   * {@link Collector#setScorer(Scorer) given}, when they do not need to
+   * count all hits, and the given scores never decrease. The default
+   * implementation does nothing.
+   * @lucene.experimental
+   */
+  public void setMinCompetitiveScore(float minScore) throws IOException {
+  }
+  
+  /**
+   * Expert: optional method to expose an approximation of this scorer, which
+   * is cheaper to iterate than the scorer itself, along with a way to verify
+   * its matches, such as checking the positions of a phrase. Conjunctions
+   * intersect the approximations of their clauses, and only verify a
+   * document once all of them agree on it. The returned
+   * {@link TwoPhaseIterator}'s approximation must be positioned on the same
+   * document as this scorer, and the current document of this scorer is the
+   * current document of the approximation while it is iterated: its
+   * {@link #score()} and {@link #freq()} are only valid once
+   * {@link TwoPhaseIterator#matches()} returned <code>true</code>.
+   * <p>
+   * The default implementation returns <code>null</code>, which means that
+   * this scorer does not support approximations.
+   * @lucene.experimental
+   */
+  public TwoPhaseIterator asTwoPhaseIterator() {
+    return null;
+  }
   
   /** returns parent Weight
    * @lucene.experimental
@@ -24,6 +24,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.similarities.Similarity;
@@ -49,7 +50,7 @@ final class SloppyPhraseScorer extends Scorer {
   private PhrasePositions[] rptStack; // temporary stack for switching colliding repeating pps 
   
   private int numMatches;
-  private final long cost;
+  private final ConjunctionDISI conjunction;
   
   SloppyPhraseScorer(Weight weight, PhraseQuery.PostingsAndFreq[] postings,
       int slop, Similarity.SimScorer docScorer) {
@@ -58,8 +59,7 @@ final class SloppyPhraseScorer extends Scorer {
     this.slop = slop;
     this.numPostings = postings==null ? 0 : postings.length;
     pq = new PhraseQueue(postings.length);
-    // min(cost)
-    cost = postings[0].postings.cost();
+    List<DocIdSetIterator> iterators = new ArrayList<>(postings.length);
     // convert tps to a list of phrase positions.
     // note: phrase-position differs from term-position in that its position
     // reflects the phrase offset: pp.pos = tp.pos - offset.
@@ -68,15 +68,16 @@ final class SloppyPhraseScorer extends Scorer {
     if (postings.length > 0) {
       min = new PhrasePositions(postings[0].postings, postings[0].position, 0, postings[0].terms);
       max = min;
-      max.doc = -1;
+      iterators.add(min.postings);
       for (int i = 1; i < postings.length; i++) {
         PhrasePositions pp = new PhrasePositions(postings[i].postings, postings[i].position, i, postings[i].terms);
         max.next = pp;
         max = pp;
-        max.doc = -1;
+        iterators.add(pp.postings);
       }
       max.next = min; // make it cyclic for easier manipulation
     }
+    conjunction = ConjunctionDISI.intersect(iterators);
   }
 
   /**
@@ -549,55 +550,54 @@ final class SloppyPhraseScorer extends Scorer {
 //    }
 //  }
   
-  private boolean advanceMin(int target) throws IOException {
-    if (!min.skipTo(target)) { 
-      max.doc = NO_MORE_DOCS; // for further calls to docID() 
-      return false;
-    }
-    min = min.next; // cyclic
-    max = max.next; // cyclic
-    return true;
-  }
-  
   @Override
   public int docID() {
-    return max.doc; 
+    return conjunction.docID();
   }
 
-  @Override
-  public int nextDoc() throws IOException {
-    return advance(max.doc + 1); // advance to the next doc after #docID()
-  }
-  
   @Override
   public float score() {
-    return docScorer.score(max.doc, sloppyFreq);
+    return docScorer.score(docID(), sloppyFreq);
   }
 
   @Override
-  public int advance(int target) throws IOException {
-    assert target > docID();
-    do {
-      if (!advanceMin(target)) {
-        return NO_MORE_DOCS;
+  public TwoPhaseIterator asTwoPhaseIterator() {
+    return new TwoPhaseIterator(conjunction) {
+      @Override
+      public boolean matches() throws IOException {
+        sloppyFreq = phraseFreq(); // check for phrase
+        return sloppyFreq != 0f;
       }
-      while (min.doc < max.doc) {
-        if (!advanceMin(max.doc)) {
-          return NO_MORE_DOCS;
-        }
+    };
+  }
+
+  private int doNext(int doc) throws IOException {
+    for (;; doc = conjunction.nextDoc()) {
+      if (doc == NO_MORE_DOCS) {
+        return doc;
       }
       // found a doc with all of the terms
       sloppyFreq = phraseFreq(); // check for phrase
-      target = min.doc + 1; // next target in case sloppyFreq is still 0
-    } while (sloppyFreq == 0f);
+      if (sloppyFreq != 0f) {
+        return doc; // found a match
+      }
+    }
+  }
 
-    // found a match
-    return max.doc;
+  @Override
+  public int nextDoc() throws IOException {
+    return doNext(conjunction.nextDoc());
+  }
+
+  @Override
+  public int advance(int target) throws IOException {
+    assert target > docID();
+    return doNext(conjunction.advance(target));
   }
 
   @Override
   public long cost() {
-    return cost;
+    return conjunction.cost();
   }
 
   @Override
@@ -83,7 +83,10 @@ public class TermQuery extends Query {
       }
       DocsEnum docs = termsEnum.docs(acceptDocs, null);
       assert docs != null;
-      return new TermScorer(this, docs, similarity.simScorer(stats, context));
+      final long totalTermFreq = termsEnum.totalTermFreq();
+      // no document has more occurrences than the ones the other documents leave
+      final long maxFreq = totalTermFreq == -1 ? Integer.MAX_VALUE : totalTermFreq - termsEnum.docFreq() + 1;
+      return new TermScorer(this, docs, similarity.simScorer(stats, context), (int) Math.min(maxFreq, Integer.MAX_VALUE));
     }
     
     /**
@@ -27,6 +27,8 @@ import org.apache.lucene.search.similarities.Similarity;
 final class TermScorer extends Scorer {
   private final DocsEnum docsEnum;
   private final Similarity.SimScorer docScorer;
+  private final int maxFreq; // bounds the frequency of the term in any document
+  private int shallowUpTo = -1;
   
   /**
    * Construct a <code>TermScorer</code>.
@@ -38,11 +40,15 @@ final class TermScorer extends Scorer {
    * @param docScorer
    *          The </code>Similarity.SimScorer</code> implementation 
    *          to be used for score computations.
+   * @param maxFreq
+   *          The maximum number of occurrences of the <code>Term</code> in
+   *          a document, which bounds its scores.
    */
-  TermScorer(Weight weight, DocsEnum td, Similarity.SimScorer docScorer) {
+  TermScorer(Weight weight, DocsEnum td, Similarity.SimScorer docScorer, int maxFreq) {
     super(weight);
     this.docScorer = docScorer;
     this.docsEnum = td;
+    this.maxFreq = maxFreq;
   }
 
   @Override
@@ -85,6 +91,17 @@ final class TermScorer extends Scorer {
     return docsEnum.advance(target);
   }
   
+  @Override
+  public int advanceShallow(int target) throws IOException {
+    return shallowUpTo = docsEnum.advanceShallow(target);
+  }
+
+  @Override
+  public float getMaxScore(int upTo) throws IOException {
+    final int freq = upTo <= shallowUpTo ? Math.min(docsEnum.getMaxFreq(), maxFreq) : maxFreq;
+    return docScorer.maxScore(freq);
+  }
+
   @Override
   public long cost() {
     return docsEnum.cost();
@@ -38,8 +38,8 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
 
   // Assumes docs are scored in order.
   private static class InOrderTopScoreDocCollector extends TopScoreDocCollector {
-    private InOrderTopScoreDocCollector(int numHits) {
-      super(numHits);
+    private InOrderTopScoreDocCollector(int numHits, boolean trackTotalHits) {
+      super(numHits, trackTotalHits);
     }
     
     @Override
@@ -60,6 +60,7 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
       pqTop.doc = doc + docBase;
       pqTop.score = score;
       pqTop = pq.updateTop();
+      updateMinCompetitiveScore();
     }
     
     @Override
@@ -75,8 +76,8 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
     private int afterDoc;
     private int collectedHits;
 
-    private InOrderPagingScoreDocCollector(ScoreDoc after, int numHits) {
-      super(numHits);
+    private InOrderPagingScoreDocCollector(ScoreDoc after, int numHits, boolean trackTotalHits) {
+      super(numHits, trackTotalHits);
       this.after = after;
     }
     
@@ -105,6 +106,7 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
       pqTop.doc = doc + docBase;
       pqTop.score = score;
       pqTop = pq.updateTop();
+      updateMinCompetitiveScore();
     }
 
     @Override
@@ -249,6 +251,28 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
    * objects.
    */
   public static TopScoreDocCollector create(int numHits, ScoreDoc after, boolean docsScoredInOrder) {
+    return create(numHits, after, docsScoredInOrder, true);
+  }
+
+  /**
+   * Creates a new {@link TopScoreDocCollector} given the number of hits to
+   * collect, the bottom of the previous page, whether documents are scored in
+   * order by the input {@link Scorer} to {@link #setScorer(Scorer)}, and
+   * whether the total number of hits is needed.
+   * <p>
+   * If it is not, and documents are scored in order, the collector
+   * {@link Scorer#setMinCompetitiveScore(float) tells} the scorer the score
+   * of its worst hit once it has <code>numHits</code> hits, so that the
+   * scorer may skip the documents which can't compete, and
+   * {@link TopDocs#totalHits} is only a lower bound of the number of hits.
+   *
+   * <p><b>NOTE</b>: The instances returned by this method
+   * pre-allocate a full array of length
+   * <code>numHits</code>, and fill the array with sentinel
+   * objects.
+   * @lucene.experimental
+   */
+  public static TopScoreDocCollector create(int numHits, ScoreDoc after, boolean docsScoredInOrder, boolean trackTotalHits) {
     
     if (numHits <= 0) {
       throw new IllegalArgumentException("numHits must be > 0; please use TotalHitCountCollector if you just need the total hit count");
@@ -256,8 +280,8 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
     
     if (docsScoredInOrder) {
       return after == null 
-        ? new InOrderTopScoreDocCollector(numHits) 
-        : new InOrderPagingScoreDocCollector(after, numHits);
+        ? new InOrderTopScoreDocCollector(numHits, trackTotalHits) 
+        : new InOrderPagingScoreDocCollector(after, numHits, trackTotalHits);
     } else {
       return after == null
         ? new OutOfOrderTopScoreDocCollector(numHits)
@@ -269,10 +293,16 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
   ScoreDoc pqTop;
   int docBase = 0;
   Scorer scorer;
+  final boolean trackTotalHits;
     
   // prevents instantiation
   private TopScoreDocCollector(int numHits) {
+    this(numHits, true);
+  }
+
+  private TopScoreDocCollector(int numHits, boolean trackTotalHits) {
     super(new HitQueue(numHits, true));
+    this.trackTotalHits = trackTotalHits;
     // HitQueue implements getSentinelObject to return a ScoreDoc, so we know
     // that at this point top() is already initialized.
     pqTop = pq.top();
@@ -307,5 +337,14 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
   @Override
   public void setScorer(Scorer scorer) throws IOException {
     this.scorer = scorer;
+    updateMinCompetitiveScore();
+  }
+
+  /** Unless all hits must be counted, tells the scorer the score hits need
+   *  to beat once the queue is full. */
+  final void updateMinCompetitiveScore() throws IOException {
+    if (trackTotalHits == false && pqTop.score != Float.NEGATIVE_INFINITY) {
+      scorer.setMinCompetitiveScore(pqTop.score);
+    }
   }
 }
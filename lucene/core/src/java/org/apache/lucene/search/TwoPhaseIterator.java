@@ -0,0 +1,56 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+/**
+ * Returned by {@link Scorer#asTwoPhaseIterator()} to expose an approximation
+ * of a {@link DocIdSetIterator}. When the {@link #approximation()}'s
+ * {@link DocIdSetIterator#nextDoc()} or {@link DocIdSetIterator#advance(int)}
+ * return, {@link #matches()} needs to be checked in order to know whether the
+ * returned doc ID actually matches.
+ * <p>
+ * This allows conjunctions to only verify the expensive part of a match, such
+ * as the positions of a phrase, once all their cheap clauses agree on a
+ * document.
+ *
+ * @lucene.experimental
+ */
+public abstract class TwoPhaseIterator {
+
+  protected final DocIdSetIterator approximation;
+
+  /** Takes the approximation to be returned by {@link #approximation()}. */
+  protected TwoPhaseIterator(DocIdSetIterator approximation) {
+    this.approximation = approximation;
+  }
+
+  /** Return an approximation. The returned {@link DocIdSetIterator} is a
+   *  superset of the matching documents, and each match needs to be confirmed
+   *  with {@link #matches()} in order to know whether it matches or not. */
+  public DocIdSetIterator approximation() {
+    return approximation;
+  }
+
+  /** Return whether the current doc ID that the {@link #approximation()} is
+   *  on matches. This method should only be called when the approximation is
+   *  positioned, and at most once per document. */
+  public abstract boolean matches() throws IOException;
+
+}
@@ -20,6 +20,7 @@ package org.apache.lucene.search.similarities;
 import java.io.IOException;
 
 import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.FieldInvertState;
 import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.search.CollectionStatistics;
@@ -214,7 +215,8 @@ public class BM25Similarity extends Similarity {
   @Override
   public final SimScorer simScorer(SimWeight stats, AtomicReaderContext context) throws IOException {
     BM25Stats bm25stats = (BM25Stats) stats;
-    return new BM25DocScorer(bm25stats, context.reader().getNormValues(bm25stats.field));
+    return new BM25DocScorer(bm25stats, context.reader().getNormValues(bm25stats.field),
+                             context.reader().getFieldInfos().fieldInfo(bm25stats.field));
   }
   
   private class BM25DocScorer extends SimScorer {
@@ -222,12 +224,28 @@ public class BM25Similarity extends Similarity {
     private final float weightValue; // boost * idf * (k1 + 1)
     private final NumericDocValues norms;
     private final float[] cache;
+    private final float minNorm; // smallest length normalization of the segment's documents
     
-    BM25DocScorer(BM25Stats stats, NumericDocValues norms) throws IOException {
+    BM25DocScorer(BM25Stats stats, NumericDocValues norms, FieldInfo fieldInfo) throws IOException {
       this.stats = stats;
       this.weightValue = stats.weight * (k1 + 1);
       this.cache = stats.cache;
       this.norms = norms;
+      if (norms == null) {
+        minNorm = k1;
+      } else {
+        long lo = fieldInfo == null ? Long.MIN_VALUE : fieldInfo.getMinNorm();
+        long hi = fieldInfo == null ? Long.MAX_VALUE : fieldInfo.getMaxNorm();
+        if (hi < lo || hi >= lo + cache.length) { // unknown, or more values than the cache
+          lo = 0;
+          hi = cache.length - 1;
+        }
+        float min = Float.POSITIVE_INFINITY;
+        for (long norm = lo; norm <= hi; norm++) {
+          min = Math.min(min, cache[(byte)norm & 0xFF]);
+        }
+        minNorm = min;
+      }
     }
     
     @Override
@@ -236,6 +254,14 @@ public class BM25Similarity extends Similarity {
       float norm = norms == null ? k1 : cache[(byte)norms.get(doc) & 0xFF];
       return weightValue * freq / (freq + norm);
     }
+
+    @Override
+    public float maxScore(float freq) {
+      if (weightValue < 0) {
+        return Float.POSITIVE_INFINITY;
+      }
+      return weightValue * freq / (freq + minNorm);
+    }
     
     @Override
     public Explanation explain(int doc, Explanation freq) {
@@ -198,6 +198,18 @@ public abstract class Similarity {
      */
     public abstract float score(int doc, float freq);
 
+    /**
+     * Returns an upper bound of the {@link #score(int, float) score} of the
+     * documents of the segment whose sloppy frequency is at most
+     * <code>freq</code>, which scorers use to skip documents which can not
+     * compete. The default implementation returns
+     * {@link Float#POSITIVE_INFINITY}, meaning scores are unbounded.
+     * @lucene.experimental
+     */
+    public float maxScore(float freq) {
+      return Float.POSITIVE_INFINITY;
+    }
+
     /** Computes the amount of a sloppy phrase match, based on an edit distance. */
     public abstract float computeSlopFactor(int distance);
     
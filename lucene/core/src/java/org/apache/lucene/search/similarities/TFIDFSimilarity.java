@@ -20,6 +20,7 @@ package org.apache.lucene.search.similarities;
 import java.io.IOException;
 
 import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.FieldInvertState;
 import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.search.CollectionStatistics;
@@ -550,7 +551,8 @@ public abstract class TFIDFSimilarity extends Similarity {
    * <p>Terms and phrases repeated in a document indicate the topic of the
    * document, so implementations of this method usually return larger values
    * when <code>freq</code> is large, and smaller values when <code>freq</code>
-   * is small.
+   * is small. It must not decrease as <code>freq</code> increases, since
+   * scorers rely on that to bound the scores of the documents they skip.
    *
    * @param freq the frequency of a term within a document
    * @return a score factor based on a term's within-document frequency
@@ -695,18 +697,22 @@ public abstract class TFIDFSimilarity extends Similarity {
   @Override
   public final SimScorer simScorer(SimWeight stats, AtomicReaderContext context) throws IOException {
     IDFStats idfstats = (IDFStats) stats;
-    return new TFIDFSimScorer(idfstats, context.reader().getNormValues(idfstats.field));
+    return new TFIDFSimScorer(idfstats, context.reader().getNormValues(idfstats.field),
+                              context.reader().getFieldInfos().fieldInfo(idfstats.field));
   }
   
   private final class TFIDFSimScorer extends SimScorer {
     private final IDFStats stats;
     private final float weightValue;
     private final NumericDocValues norms;
+    private final FieldInfo fieldInfo;
+    private float maxNorm = Float.NaN; // lazily decoded from the range of the segment's norms
     
-    TFIDFSimScorer(IDFStats stats, NumericDocValues norms) throws IOException {
+    TFIDFSimScorer(IDFStats stats, NumericDocValues norms, FieldInfo fieldInfo) throws IOException {
       this.stats = stats;
       this.weightValue = stats.value;
       this.norms = norms;
+      this.fieldInfo = fieldInfo;
     }
     
     @Override
@@ -715,6 +721,31 @@ public abstract class TFIDFSimilarity extends Similarity {
       
       return norms == null ? raw : raw * decodeNormValue(norms.get(doc));  // normalize for field
     }
+
+    @Override
+    public float maxScore(float freq) {
+      if (weightValue < 0) {
+        return Float.POSITIVE_INFINITY;
+      }
+      final float raw = tf(freq) * weightValue;
+      if (norms == null) {
+        return raw;
+      }
+      if (Float.isNaN(maxNorm)) {
+        final long lo = fieldInfo == null ? Long.MIN_VALUE : fieldInfo.getMinNorm();
+        final long hi = fieldInfo == null ? Long.MAX_VALUE : fieldInfo.getMaxNorm();
+        if (hi < lo || hi > lo + 255) { // unknown, or too many values to decode
+          maxNorm = Float.POSITIVE_INFINITY;
+        } else {
+          float max = 0;
+          for (long norm = lo; norm <= hi; norm++) {
+            max = Math.max(max, decodeNormValue(norm));
+          }
+          maxNorm = max;
+        }
+      }
+      return maxNorm == Float.POSITIVE_INFINITY ? maxNorm : raw * maxNorm;
+    }
     
     @Override
     public float computeSlopFactor(int distance) {
@@ -17,50 +17,413 @@ package org.apache.lucene.store;
  * limitations under the License.
  */
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import org.apache.lucene.codecs.embeddeddb.BerkeleyDBStore;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.codecs.embeddeddb.EmbeddedDBStore;
+import org.apache.lucene.codecs.embeddeddb.EDBDocumentKey;
+import org.apache.lucene.codecs.embeddeddb.EDBRecordCursor;
+import org.apache.lucene.codecs.embeddeddb.EDBStoreConfig;
+import org.apache.lucene.codecs.embeddeddb.EDBStoreRegistry;
+import org.apache.lucene.codecs.embeddeddb.EDBWriteBatch;
 import org.apache.lucene.codecs.embeddeddb.Logger;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NamedThreadFactory;
 
 /**
  * Created by rlmathes on 8/11/17.
  *
  * EDBDirectory ensures that as stored field files age and are deleted, their associated rows in the Embedded Database (Berkeley)
  * are also deleted.
+ *
+ * It wraps the directory holding the rest of the index, e.g. an {@link MMapDirectory} or {@link NRTCachingDirectory},
+ * so only stored fields go to the embedded database while postings, doc values and norms stay in files. The
+ * constructors without a delegate keep the index files in a {@link RAMDirectory}, as earlier versions did.
+ *
+ * Deleting a fields file, or a compound file holding one, only records its handle as a tombstone. Tombstones are
+ * purged from the store by a background thread after files were deleted, once no fields file of this directory
+ * refers to the handle any more and no open reader still reads it, and on close. A tombstone which is still read or
+ * whose purge failed is kept and purged again after the next delete. The handles of every fields and compound file
+ * are read once and cached by file name, so purges only open the files written since the previous one.
+ *
+ * The directory also decides where the documents of its index are stored: an EDBDirectory created with a store
+ * location gets an embedded database environment of its own, one created without shares the default store.
  */
-public class EDBDirectory extends RAMDirectory {
+public class EDBDirectory extends FilterDirectory {
 
-    private List<String> handleTombstones = new ArrayList<>();
     public static final String FIELDS_EXTENSION = "fdt";
+    /** Tombstoned handles, mapped to the number of the delete which tombstoned them last */
+    private final Map<BytesRef,Long> handleTombstones = new HashMap<>();
+    private long deletes;
+    /** Handles of the complete fields and compound files seen so far, index files are never rewritten under the same name */
+    private final Map<String,List<byte[]>> fileHandles = new HashMap<>();
+    private final File storeLocation;
+    private final EmbeddedDBStore store;
+    private volatile boolean isOpen = true;
+
+    /** Held while purging, so purges run one at a time without blocking file deletes */
+    private final Object purgeLock = new Object();
+    private final ExecutorService purger = Executors.newSingleThreadExecutor(new NamedThreadFactory("edb-directory-purger"));
+    private boolean purgeScheduled;
+
+    /** Constructs an in-memory directory whose documents are kept in the default store */
+    public EDBDirectory() throws IOException {
+        this(EDBStoreRegistry.defaultLocation());
+    }
+
+    /**
+     * Constructs an in-memory directory whose documents are kept in the store at the given location
+     *
+     * @param storeLocation - Directory holding the embedded database environment of this index
+     */
+    public EDBDirectory(File storeLocation) throws IOException {
+        this(new RAMDirectory(), storeLocation, null);
+    }
+
+    /**
+     * Constructs an in-memory directory whose documents are kept in the store at the given location, which is opened
+     * with the given config unless it is already open
+     *
+     * @param storeLocation - Directory holding the embedded database environment of this index
+     * @param config - Tuning of the store, or null to use the registry's default config
+     */
+    public EDBDirectory(File storeLocation, EDBStoreConfig config) throws IOException {
+        this(new RAMDirectory(), storeLocation, config);
+    }
 
-    /** Removes an existing file in the directory.
+    /**
+     * Constructs a directory keeping the index files in the given directory and the documents in the default store
+     *
+     * @param in - Directory holding every index file, it is closed with this directory
+     */
+    public EDBDirectory(Directory in) throws IOException {
+        this(in, EDBStoreRegistry.defaultLocation(), null);
+    }
+
+    /**
+     * Constructs a directory keeping the index files in the given directory and the documents in the store at the
+     * given location, which is opened with the given config unless it is already open
+     *
+     * @param in - Directory holding every index file, it is closed with this directory
+     * @param storeLocation - Directory holding the embedded database environment of this index, which must not be
+     *                      inside the index directory
+     * @param config - Tuning of the store, or null to use the registry's default config
+     */
+    public EDBDirectory(Directory in, File storeLocation, EDBStoreConfig config) throws IOException {
+        super(in);
+        this.storeLocation = storeLocation;
+        boolean success = false;
+        try {
+            this.store = EDBStoreRegistry.acquire(storeLocation, config);
+            success = true;
+        }
+        finally {
+            if(!success) {
+                purger.shutdown();
+                in.close();
+            }
+        }
+    }
+
+    /** Returns the location of the store holding the documents of this directory */
+    public File getStoreLocation() {
+        return storeLocation;
+    }
+
+    /** Removes an existing file in the directory and purges the documents of stale handles in the background.
      * @throws IOException if the file does not exist
      */
     @Override
     public void deleteFile(String name) throws IOException {
-        if(name.contains(FIELDS_EXTENSION)) {
-            IndexInput fieldsStream = this.openInput(name, IOContext.DEFAULT);
-            String staleHandle = null;
-            try {
-                staleHandle = fieldsStream.readString();
-                handleTombstones.add(staleHandle);
+        ensureOpen();
+        final String compoundFile = compoundFileOf(name);
+        List<byte[]> handles = null;
+        if(name.endsWith("." + FIELDS_EXTENSION) || null != compoundFile) {
+            final String file = null == compoundFile ? name : compoundFile;
+            synchronized (this) {
+                handles = fileHandles.get(file);
             }
-            catch(IOException e) {
-                //Log message disabled due to log flooding, need to make trace or debug message
-                //Logger.error("Unable to read handle from stale fields file.");
+            if(null == handles) {
+                handles = new ArrayList<>();
+                try {
+                    collectHandles(in, file, IOContext.READONCE, handles);
+                }
+                catch(IOException e) {
+                    //Log message disabled due to log flooding, need to make trace or debug message
+                    //Logger.error("Unable to read handle from stale fields file.");
+                }
+            }
+        }
+        in.deleteFile(name);
+        if(null != handles) {
+            // Only once the file is gone, so a purge listing the directory before cannot take the handles for live
+            synchronized (this) {
+                ++deletes;
+                for(byte[] handle : handles) {
+                    handleTombstones.put(new BytesRef(handle), deletes);
+                }
+            }
+        }
+        // also after deleting other files, so tombstones an open reader kept from being purged are retried
+        schedulePurge();
+    }
+
+    /**
+     * Returns the compound file of the given compound file or entry table, or null if it is neither
+     */
+    private static String compoundFileOf(String name) {
+        if(name.endsWith("." + IndexFileNames.COMPOUND_FILE_EXTENSION)) {
+            return name;
+        }
+        if(name.endsWith("." + IndexFileNames.COMPOUND_FILE_ENTRIES_EXTENSION)) {
+            return IndexFileNames.segmentFileName(IndexFileNames.parseSegmentName(name), "", IndexFileNames.COMPOUND_FILE_EXTENSION);
+        }
+        return null;
+    }
+
+    private synchronized void schedulePurge() {
+        if(!isOpen || purgeScheduled || handleTombstones.isEmpty()) {
+            return;
+        }
+        purgeScheduled = true;
+        purger.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (EDBDirectory.this) {
+                    purgeScheduled = false;
+                }
+                try {
+                    purgeStaleHandles();
+                }
+                catch(AlreadyClosedException e) {
+                    // The remaining tombstones are purged by close
+                }
+                catch(IOException e) {
+                    Logger.error("Failed to purge the documents of stale handles.");
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes the documents of every tombstoned handle which is neither referenced by a fields file of this directory
+     * nor retained by an open reader. Handles which are still read, or whose documents could not be deleted, stay
+     * tombstoned until a later purge.
+     */
+    public void purgeStaleHandles() throws IOException {
+        ensureOpen();
+        purge();
+    }
+
+    private void purge() throws IOException {
+        synchronized (purgeLock) {
+            final long listedDeletes;
+            synchronized (this) {
+                if(handleTombstones.isEmpty()) {
+                    return;
+                }
+                listedDeletes = deletes;
+            }
+            final Set<BytesRef> liveHandles = liveHandles();
+            if(null == liveHandles) {
+                return;
+            }
+            final List<BytesRef> staleHandles = new ArrayList<>();
+            synchronized (this) {
+                for(final Iterator<Map.Entry<BytesRef,Long>> it = handleTombstones.entrySet().iterator(); it.hasNext();) {
+                    final Map.Entry<BytesRef,Long> tombstone = it.next();
+                    if(tombstone.getValue() > listedDeletes) {
+                        // Tombstoned while listing the directory, which may still have listed the deleted file
+                        continue;
+                    }
+                    final BytesRef handle = tombstone.getKey();
+                    if(liveHandles.contains(handle)) {
+                        // Still referenced, e.g. by the compound file its fields file was folded into
+                        it.remove();
+                    }
+                    else if(!store.isHandleRetained(handle.bytes)) {
+                        staleHandles.add(handle);
+                    }
+                }
+            }
+            for(final BytesRef handle : staleHandles) {
+                if(store.purgeStaleHandle(handle.bytes)) {
+                    synchronized (this) {
+                        handleTombstones.remove(handle);
+                    }
+                }
             }
-            fieldsStream.close();
         }
-        super.deleteFile(name);
     }
 
-    /** Closes the store to future operations, releasing associated memory. */
+    /**
+     * Returns the handles of every fields file currently in the directory, or null if a file could not be read yet,
+     * e.g. a compound file which is still being written. Only files which are not cached yet are read. Only called
+     * while holding the purge lock.
+     */
+    private Set<BytesRef> liveHandles() throws IOException {
+        final Set<String> files = new HashSet<>();
+        final Set<BytesRef> liveHandles = new HashSet<>();
+        for(final String file : in.listAll()) {
+            if(!file.endsWith("." + FIELDS_EXTENSION) && !file.endsWith("." + IndexFileNames.COMPOUND_FILE_EXTENSION)) {
+                continue;
+            }
+            files.add(file);
+            List<byte[]> handles;
+            synchronized (this) {
+                handles = fileHandles.get(file);
+            }
+            if(null == handles) {
+                handles = new ArrayList<>();
+                final boolean complete;
+                try {
+                    complete = collectHandles(in, file, IOContext.READONCE, handles);
+                }
+                catch(IOException e) {
+                    return null;
+                }
+                if(complete) {
+                    // Also without handles, e.g. the fields file of another stored fields format
+                    synchronized (this) {
+                        fileHandles.put(file, handles);
+                    }
+                }
+            }
+            for(final byte[] handle : handles) {
+                liveHandles.add(new BytesRef(handle));
+            }
+        }
+        synchronized (this) {
+            fileHandles.keySet().retainAll(files);
+        }
+        return liveHandles;
+    }
+
+    /**
+     * Copies a file to another directory. The documents of a fields file live in this directory's store rather than
+     * in the file, so when the target keeps its documents in another store they are copied into it as well.
+     */
     @Override
-    public void close() {
-        for(final String staleHandle : handleTombstones) {
-            BerkeleyDBStore.INSTANCE.purgeStaleHandle(staleHandle);
+    public void copy(Directory to, String src, String dest, IOContext context) throws IOException {
+        super.copy(to, src, dest, context);
+        if(!src.endsWith("." + FIELDS_EXTENSION) && !src.endsWith("." + IndexFileNames.COMPOUND_FILE_EXTENSION)) {
+            return;
+        }
+        final EmbeddedDBStore target = EDBStoreRegistry.acquire(to);
+        try {
+            if(target == store) {
+                return;
+            }
+            final List<byte[]> handles = new ArrayList<>();
+            collectHandles(this, src, context, handles);
+            for(byte[] handle : handles) {
+                copyDocuments(handle, target);
+            }
+        }
+        finally {
+            EDBStoreRegistry.release(target);
+        }
+    }
+
+    /**
+     * Adds the handles of the given fields file, or of the fields files inside the given compound file, to the list
+     *
+     * @return - False if a fields file ended before its handle, e.g. because it is still being written
+     */
+    private static boolean collectHandles(Directory directory, String file, IOContext context, List<byte[]> handles) throws IOException {
+        if(file.endsWith("." + FIELDS_EXTENSION)) {
+            return readHandle(directory, file, context, handles);
+        }
+        boolean complete = true;
+        try(CompoundFileDirectory cfs = new CompoundFileDirectory(directory, file, context, false)) {
+            for(String entry : cfs.listAll()) {
+                if(entry.endsWith("." + FIELDS_EXTENSION)) {
+                    complete &= readHandle(cfs, entry, context, handles);
+                }
+            }
+        }
+        return complete;
+    }
+
+    private static boolean readHandle(Directory directory, String fieldsFile, IOContext context, List<byte[]> handles) throws IOException {
+        try(IndexInput fieldsStream = directory.openInput(fieldsFile, context)) {
+            handles.add(EDBDocumentKey.handleID(fieldsStream.readString()));
+        }
+        catch(IllegalArgumentException e) {
+            // Fields file of another stored fields format, its documents are in the file itself
+        }
+        catch(EOFException e) {
+            // Either a short fields file of another format or one which is still being written
+            return false;
+        }
+        return true;
+    }
+
+    private void copyDocuments(byte[] handle, EmbeddedDBStore target) throws IOException {
+        final EDBWriteBatch batch = target.beginWriteBatch(handle);
+        boolean success = false;
+        try(EDBRecordCursor records = store.openRecordCursor(handle)) {
+            while(records.next()) {
+                batch.put(records.docID(), records.record(), records.recordOffset(), records.recordLength());
+            }
+            batch.commit();
+            success = true;
+        }
+        finally {
+            if(!success) {
+                batch.abort();
+            }
+        }
+    }
+
+    @Override
+    protected void ensureOpen() throws AlreadyClosedException {
+        if(!isOpen) {
+            throw new AlreadyClosedException("this Directory is closed");
+        }
+    }
+
+    /**
+     * Waits for a running purge, purges the remaining tombstones, releases the store and closes the wrapped
+     * directory. Handles still retained by an open reader are left in the store.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if(!isOpen) {
+                return;
+            }
+            isOpen = false;
+        }
+        purger.shutdown();
+        try {
+            purger.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            purge();
+        }
+        finally {
+            try {
+                EDBStoreRegistry.release(store);
+            }
+            catch(IOException e) {
+                Logger.error("Failed to release the embedded database store of the directory.");
+            }
+            in.close();
         }
-        super.close();
     }
 }
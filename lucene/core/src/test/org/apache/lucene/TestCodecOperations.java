@@ -17,17 +17,26 @@ package org.apache.lucene;
  * limitations under the License.
  */
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.embeddeddb.EDBDocumentKey;
+import org.apache.lucene.codecs.embeddeddb.EDBStoreRegistry;
 import org.apache.lucene.codecs.embeddeddb.EmbeddedDBCodec;
-import org.apache.lucene.codecs.embeddeddb.BerkeleyDBStore;
+import org.apache.lucene.codecs.embeddeddb.EmbeddedDBStore;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexFileNames;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
@@ -39,6 +48,12 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.EDBDirectory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MockDirectoryWrapper;
 import org.apache.lucene.util.LuceneTestCase;
 import org.apache.lucene.util.Version;
 import org.junit.Assert;
@@ -184,4 +199,152 @@ public class TestCodecOperations extends LuceneTestCase {
     directory.close();
 
   }
+
+  @Test
+  public void testSeparateStores() throws IOException {
+
+    Analyzer analyzer = new MockAnalyzer(random());
+    Directory[] directories = new Directory[] {
+        new EDBDirectory(createTempDir("store1")), new EDBDirectory(createTempDir("store2"))};
+    for (int i = 0; i < directories.length; i++) {
+      IndexWriterConfig config = new IndexWriterConfig(Version.LATEST, analyzer);
+      config.setCodec(new EmbeddedDBCodec());
+      IndexWriter writer = new IndexWriter(directories[i], config);
+      Document doc = new Document();
+      doc.add(newTextField("index", "index" + i, Field.Store.YES));
+      writer.addDocument(doc);
+      writer.close();
+    }
+
+    DirectoryReader reader = DirectoryReader.open(directories[1]);
+    directories[0].close();
+    assertEquals("index1", reader.document(0).get("index"));
+    reader.close();
+    directories[1].close();
+  }
+
+  @Test
+  public void testPurgeAfterCommit() throws Exception {
+
+    File storeLocation = createTempDir("store");
+    Directory files = newFSDirectory(createTempDir("index"));
+    if (files instanceof MockDirectoryWrapper) {
+      // test needs files to always be actually deleted, the handles of remaining fields files stay live
+      ((MockDirectoryWrapper) files).setEnableVirusScanner(false);
+    }
+    EDBDirectory directory = new EDBDirectory(files, storeLocation, null);
+    IndexWriterConfig config = new IndexWriterConfig(Version.LATEST, new MockAnalyzer(random()));
+    config.setCodec(new EmbeddedDBCodec());
+    config.setUseCompoundFile(false);
+    config.setMergePolicy(newLogMergePolicy(false));
+    IndexWriter writer = new IndexWriter(directory, config);
+    for (int i = 0; i < 2; i++) {
+      Document doc = new Document();
+      doc.add(newStringField("id", "doc" + i, Field.Store.YES));
+      writer.addDocument(doc);
+      writer.commit();
+    }
+
+    DirectoryReader reader = DirectoryReader.open(directory);
+    List<byte[]> handles = new ArrayList<>();
+    for (AtomicReaderContext context : reader.leaves()) {
+      SegmentReader segmentReader = (SegmentReader) context.reader();
+      String fieldsFile = IndexFileNames.segmentFileName(segmentReader.getSegmentName(), "", EDBDirectory.FIELDS_EXTENSION);
+      try (IndexInput in = directory.openInput(fieldsFile, IOContext.READONCE)) {
+        handles.add(EDBDocumentKey.handleID(in.readString()));
+      }
+    }
+    assertEquals(2, handles.size());
+
+    writer.forceMerge(1);
+    writer.commit();
+    writer.addDocument(new Document());
+    writer.commit();
+    EmbeddedDBStore store = EDBStoreRegistry.acquire(storeLocation);
+    try {
+      // the old reader still holds the merged away segments
+      assertEquals("doc0", reader.document(0).get("id"));
+      assertEquals("doc1", reader.document(1).get("id"));
+      reader.close();
+
+      writer.addDocument(new Document());
+      writer.commit();
+      // the commit deletes the files of the previous one, which purges in the background
+      for (byte[] handle : handles) {
+        for (int i = 0; i < 100 && store.getRecord(handle, 0) != null; i++) {
+          Thread.sleep(50);
+        }
+        assertNull(store.getRecord(handle, 0));
+      }
+      writer.close();
+
+      reader = DirectoryReader.open(directory);
+      assertEquals("doc0", reader.document(0).get("id"));
+      assertEquals("doc1", reader.document(1).get("id"));
+      reader.close();
+    } finally {
+      EDBStoreRegistry.release(store);
+    }
+    directory.close();
+  }
+
+  @Test
+  public void testPurgeReadsFilesOnce() throws Exception {
+
+    final Map<String,Integer> opens = new HashMap<>();
+    Directory files = new FilterDirectory(FSDirectory.open(createTempDir("index"))) {
+      @Override
+      public IndexInput openInput(String name, IOContext context) throws IOException {
+        if (context.readOnce) {
+          synchronized (opens) {
+            Integer count = opens.get(name);
+            opens.put(name, null == count ? 1 : count + 1);
+          }
+        }
+        return super.openInput(name, context);
+      }
+    };
+    EDBDirectory directory = new EDBDirectory(files, createTempDir("store"), null);
+    // a segment of another stored fields format and two of the embedded database, one in a compound file
+    for (int i = 0; i < 3; i++) {
+      IndexWriterConfig config = new IndexWriterConfig(Version.LATEST, new MockAnalyzer(random()));
+      config.setCodec(i == 0 ? Codec.forName("Lucene410") : new EmbeddedDBCodec());
+      config.setUseCompoundFile(i == 2);
+      IndexWriter writer = new IndexWriter(directory, config);
+      for (int j = 0; j < 10; j++) {
+        Document doc = new Document();
+        doc.add(newStringField("id", "doc" + i + "_" + j, Field.Store.YES));
+        doc.add(new StoredField("body", "stored fields of document " + j + " of segment " + i));
+        writer.addDocument(doc);
+      }
+      writer.close();
+    }
+
+    DirectoryReader reader = DirectoryReader.open(directory);
+    String deletedFile = null;
+    for (AtomicReaderContext context : reader.leaves()) {
+      String fieldsFile = IndexFileNames.segmentFileName(((SegmentReader) context.reader()).getSegmentName(), "", EDBDirectory.FIELDS_EXTENSION);
+      if (directory.fileExists(fieldsFile) && ((SegmentReader) context.reader()).getSegmentInfo().info.getCodec() instanceof EmbeddedDBCodec) {
+        deletedFile = fieldsFile;
+      }
+    }
+    assertNotNull(deletedFile);
+    // tombstones the handle, which the open reader keeps from being purged
+    directory.deleteFile(deletedFile);
+    directory.purgeStaleHandles();
+    final Map<String,Integer> opensAfterFirstPurge;
+    synchronized (opens) {
+      opensAfterFirstPurge = new HashMap<>(opens);
+    }
+    assertFalse(opensAfterFirstPurge.isEmpty());
+    for (int i = 0; i < 3; i++) {
+      directory.purgeStaleHandles();
+    }
+    synchronized (opens) {
+      assertEquals(opensAfterFirstPurge, opens);
+    }
+    assertEquals("doc1_0", reader.document(10).get("id"));
+    reader.close();
+    directory.close();
+  }
 }
@@ -0,0 +1,64 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * Documents, records and handles shared by the tests of the EmbeddedDB stores
+ */
+final class EDBTestUtil {
+
+    private EDBTestUtil() {}
+
+    /**
+     * Returns the binary id of a new random handle
+     */
+    static byte[] newHandle() {
+        return EDBDocumentKey.handleID(UUID.randomUUID().toString());
+    }
+
+    /**
+     * Returns the encoded record of a document holding the given string as field 0
+     */
+    static byte[] encodedRecord(String value) {
+        EDBDocument document = new EDBDocument();
+        document.addField(newField(0, value));
+        DatabaseEntry entry = new DatabaseEntry();
+        new EDBDocumentBinding(null).objectToEntry(document, entry);
+        return Arrays.copyOfRange(entry.getData(), entry.getOffset(), entry.getOffset() + entry.getSize());
+    }
+
+    /**
+     * Returns a stored field with the given number and a string or numeric value
+     */
+    static EDBStoredField newField(int number, Object value) {
+        EDBStoredField field = new EDBStoredField();
+        field.setNumber(number);
+        if(value instanceof String) {
+            field.setStringValue((String) value);
+        }
+        else {
+            field.setNumericValue((Number) value);
+        }
+        return field;
+    }
+}
@@ -17,65 +17,497 @@ package org.apache.lucene.codecs.embeddeddb;
  * limitations under the License.
  */
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
 import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.StatsConfig;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.junit.After;
 import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.apache.lucene.codecs.embeddeddb.EDBTestUtil.encodedRecord;
+import static org.apache.lucene.codecs.embeddeddb.EDBTestUtil.newField;
 
 /**
  * Created by rlmathes on 7/16/17.
  */
 public class TestBerkeleyDBStore {
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private BerkeleyDBStore store;
+
+    @Before
+    public void openStore() throws Exception {
+        store = new BerkeleyDBStore(tempFolder.newFolder("store"), EDBStoreConfig.testing());
+    }
+
+    @After
+    public void closeStore() {
+        store.close();
+    }
+
     @Test
     public void testGetStore() throws Exception {
 
-        Database store = BerkeleyDBStore.INSTANCE.getStore();
-        Assert.assertEquals("document_store", store.getDatabaseName());
+        Database database = store.getStore();
+        Assert.assertEquals("document_store", database.getDatabaseName());
+    }
+
+    @Test
+    public void testStoreRegistry() throws Exception {
+
+        File location = tempFolder.newFolder("registry");
+        EmbeddedDBStore first = EDBStoreRegistry.acquire(location);
+        EmbeddedDBStore second = EDBStoreRegistry.acquire(new File(location, "."));
+        EmbeddedDBStore other = EDBStoreRegistry.acquire(tempFolder.newFolder("other"));
+        Assert.assertSame(first, second);
+        Assert.assertNotSame(first, other);
+
+        byte[] handle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+        EDBDocument document = new EDBDocument();
+        document.addField(newField(0, "test_value"));
+        first.put(handle, 0, document);
+        Assert.assertTrue(other.get(handle, 0).getFields().isEmpty());
+
+        EDBStoreRegistry.release(first);
+        Assert.assertEquals("test_value", second.get(handle, 0).getFields().get(0).getStringValue());
+        EDBStoreRegistry.release(second);
+        EDBStoreRegistry.release(other);
+        try {
+            EDBStoreRegistry.release(second);
+            Assert.fail("released store was released again");
+        } catch (IllegalStateException expected) {}
+
+        EmbeddedDBStore reopened = EDBStoreRegistry.acquire(location);
+        Assert.assertNotSame(first, reopened);
+        Assert.assertEquals("test_value", reopened.get(handle, 0).getFields().get(0).getStringValue());
+        EDBStoreRegistry.release(reopened);
+    }
+
+    @Test
+    public void testStoreConfig() throws Exception {
+
+        EDBStoreConfig config = new EDBStoreConfig()
+                .setCacheSize(8 * 1024 * 1024)
+                .setLogFileSize(4 * 1024 * 1024)
+                .setCleanerMinUtilization(60)
+                .setDurability(EDBStoreConfig.Durability.WRITE_NO_SYNC);
+        EnvironmentConfig environmentConfig = config.toEnvironmentConfig();
+        Assert.assertEquals(Integer.toString(8 * 1024 * 1024), environmentConfig.getConfigParam("je.maxMemory"));
+        Assert.assertEquals(Integer.toString(4 * 1024 * 1024), environmentConfig.getConfigParam("je.log.fileMax"));
+        Assert.assertEquals("60", environmentConfig.getConfigParam("je.cleaner.minUtilization"));
+        Assert.assertEquals("true", environmentConfig.getConfigParam("je.env.runCleaner"));
+        Assert.assertTrue(environmentConfig.getTxnWriteNoSync());
+        Assert.assertFalse(environmentConfig.getTxnNoSync());
+        Assert.assertEquals("false", EDBStoreConfig.testing().toEnvironmentConfig().getConfigParam("je.env.runCheckpointer"));
+
+        File location = tempFolder.newFolder("configured");
+        BerkeleyDBStore configured = (BerkeleyDBStore) EDBStoreRegistry.acquire(location, config);
+        try {
+            config.setCleanerMinUtilization(10);
+            Assert.assertEquals(60, configured.getConfig().getCleanerMinUtilization());
+            Assert.assertSame(configured, EDBStoreRegistry.acquire(location, EDBStoreConfig.testing()));
+            EDBStoreRegistry.release(configured);
+
+            byte[] handle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+            EDBWriteBatch batch = configured.beginWriteBatch(handle);
+            batch.put(0, new byte[] {1, 0}, 0, 2);
+            batch.commit();
+            Assert.assertNotNull(configured.getRecord(handle, 0));
+        } finally {
+            EDBStoreRegistry.release(configured);
+        }
+
+        try {
+            new EDBStoreConfig().setCachePercent(0);
+            Assert.fail("cache percent of 0 was accepted");
+        } catch (IllegalArgumentException expected) {}
+    }
+
+    @Test
+    public void testMemoryOnlyStore() throws Exception {
+
+        File location = new File(tempFolder.getRoot(), "memory");
+        BerkeleyDBStore memoryOnly = new BerkeleyDBStore(location, EDBStoreConfig.testing().setMemoryOnly(true));
+        try {
+            byte[] handle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+            EDBWriteBatch batch = memoryOnly.beginWriteBatch(handle);
+            batch.put(0, new byte[] {1, 0}, 0, 2);
+            batch.commit();
+            Assert.assertNotNull(memoryOnly.getRecord(handle, 0));
+            Assert.assertFalse(location.exists());
+        } finally {
+            memoryOnly.close();
+        }
     }
 
     @Test
     public void testPutAndGet() {
 
-        String segmentName = "seg_1";
+        byte[] handle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
         int docID = 0;
-        StringBuilder documentKey = new StringBuilder(segmentName);
-        documentKey.append(docID);
 
         EDBDocument document = new EDBDocument();
         EDBStoredField field = new EDBStoredField();
         field.setStringValue("test_value");
         document.addField(field);
-        BerkeleyDBStore.INSTANCE.put(documentKey.toString(), document);
+        store.put(handle, docID, document);
 
-        List<EDBStoredField> fields = BerkeleyDBStore.INSTANCE.get(documentKey.toString()).getFields();
+        List<EDBStoredField> fields = store.get(handle, docID).getFields();
         Assert.assertEquals("test_value", fields.get(0).getStringValue());
     }
 
     @Test
-    public void testHandleIndex() {
-
-        BerkeleyDBStore.INSTANCE.purgeAllDocuments();
-
-        String handle = "test-handle-1";
-        for(int i = 0; i < 100; i++) {
-            StringBuilder documentKey = new StringBuilder(handle);
-            documentKey.append("_" + i);
+    public void testPurgeStaleHandle() {
 
+        byte[] handle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+        byte[] liveHandle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+        // more documents than are deleted per transaction
+        int numDocs = BerkeleyDBStore.PURGE_BATCH_SIZE * 2 + 1;
+        for(int i = 0; i < numDocs; i++) {
             EDBDocument document = new EDBDocument();
             EDBStoredField field = new EDBStoredField();
             field.setStringValue("test_value");
             document.addField(field);
-            BerkeleyDBStore.INSTANCE.put(documentKey.toString(), document);
+            store.put(handle, i, document);
+            store.put(liveHandle, i, document);
+        }
+
+        Long expectedRowsBefore = 2L * numDocs;
+        Long expectedRowsAfter = (long) numDocs;
+        Assert.assertEquals(expectedRowsBefore, store.totalDocumentStoreRowCount());
+
+        Assert.assertTrue(store.purgeStaleHandle(handle));
+
+        Assert.assertEquals(expectedRowsAfter, store.totalDocumentStoreRowCount());
+        Assert.assertTrue(store.get(handle, 0).getFields().isEmpty());
+        Assert.assertTrue(store.get(handle, numDocs - 1).getFields().isEmpty());
+        Assert.assertEquals("test_value", store.get(liveHandle, numDocs - 1).getFields().get(0).getStringValue());
+    }
+
+    @Test
+    public void testLegacyRecords() throws Exception {
+
+        byte[] handle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+        byte[] liveHandle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+        Assert.assertFalse(store.hasLegacyRecords());
+        Assert.assertNull(store.getRecord(handle, 0));
+
+        // an earlier version of the store kept documents under serialized string keys next to a handle index
+        byte[] record = encodedRecord("test_value");
+        Database documentStore = store.getStore();
+        for(int i = 0; i < 150; i++) {
+            documentStore.put(null, store.legacyKey(handle, i), new DatabaseEntry(record));
+            documentStore.put(null, store.legacyKey(liveHandle, i), new DatabaseEntry(record));
+        }
+        documentStore.put(null, new DatabaseEntry(EDBDocumentKey.documentKey(handle, 150)), new DatabaseEntry(record));
+        DatabaseConfig indexConfig = new DatabaseConfig();
+        indexConfig.setAllowCreate(true);
+        documentStore.getEnvironment().openDatabase(null, "handle_index", indexConfig).close();
+        File location = store.getLocation();
+        store.close();
+
+        store = new BerkeleyDBStore(location, EDBStoreConfig.testing());
+        Assert.assertTrue(store.hasLegacyRecords());
+        Assert.assertEquals("test_value", store.get(handle, 99).getFields().get(0).getStringValue());
+        Assert.assertNotNull(store.getRecord(liveHandle, 149));
+
+        Assert.assertTrue(store.purgeStaleHandle(handle));
+        Assert.assertEquals(Long.valueOf(150), store.totalDocumentStoreRowCount());
+        Assert.assertNull(store.getRecord(handle, 5));
+        Assert.assertNull(store.getRecord(handle, 150));
+        Assert.assertTrue(store.purgeStaleHandle(liveHandle));
+        Assert.assertEquals(Long.valueOf(0), store.totalDocumentStoreRowCount());
+        store.close();
+
+        // the handle index is dropped once no legacy key is left
+        store = new BerkeleyDBStore(location, EDBStoreConfig.testing());
+        Assert.assertFalse(store.hasLegacyRecords());
+        Assert.assertFalse(store.getStore().getEnvironment().getDatabaseNames().contains("handle_index"));
+    }
+
+    @Test
+    public void testRetainHandle() {
+
+        byte[] handle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+        Assert.assertFalse(store.isHandleRetained(handle));
+        store.retainHandle(handle);
+        store.retainHandle(handle.clone());
+        store.releaseHandle(handle);
+        Assert.assertTrue(store.isHandleRetained(handle));
+        store.releaseHandle(handle);
+        Assert.assertFalse(store.isHandleRetained(handle));
+        try {
+            store.releaseHandle(handle);
+            Assert.fail("released handle was released again");
+        } catch (IllegalStateException expected) {}
+    }
+
+    @Test
+    public void testWriteBatch() throws Exception {
+
+        byte[] record = encodedRecord("test_value");
+        byte[] committedHandle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+        EDBWriteBatch batch = store.beginWriteBatch(committedHandle);
+        for(int i = 0; i < 10; i++) {
+            batch.put(i, record, 0, record.length);
+        }
+        batch.commit();
+        batch.abort();
+
+        byte[] abortedHandle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+        batch = store.beginWriteBatch(abortedHandle);
+        for(int i = 0; i < 10; i++) {
+            batch.put(i, record, 0, record.length);
         }
+        batch.abort();
 
-        Long expectedRowsBefore = 100L;
-        Long expectedRowsAfter = 0L;
-        Assert.assertEquals(expectedRowsBefore, BerkeleyDBStore.INSTANCE.totalDocumentStoreRowCount());
+        Long expectedRows = 10L;
+        Assert.assertEquals(expectedRows, store.totalDocumentStoreRowCount());
+        Assert.assertEquals("test_value", store.get(committedHandle, 9).getFields().get(0).getStringValue());
+        Assert.assertTrue(store.get(abortedHandle, 0).getFields().isEmpty());
+    }
+
+    @Test
+    public void testLargeWriteBatch() throws Exception {
+
+        byte[] record = encodedRecord("test_value");
+        int numDocs = 2 * BerkeleyDBWriteBatch.MAX_TRANSACTION_RECORDS + 17;
+        byte[] committedHandle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+        EDBWriteBatch batch = store.beginWriteBatch(committedHandle);
+        for(int i = 0; i < numDocs; i++) {
+            batch.put(i, record, 0, record.length);
+            if(i % 100 == 0) {
+                // the batch commits in parts rather than locking every record of the handle
+                int writeLocks = store.getStore().getEnvironment().getLockStats(new StatsConfig()).getNWriteLocks();
+                Assert.assertTrue(Integer.toString(writeLocks), writeLocks <= BerkeleyDBWriteBatch.MAX_TRANSACTION_RECORDS);
+            }
+        }
+        batch.commit();
+
+        // aborted after some of its parts were committed
+        byte[] abortedHandle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+        batch = store.beginWriteBatch(abortedHandle);
+        for(int i = 0; i < numDocs; i++) {
+            batch.put(i, record, 0, record.length);
+        }
+        batch.abort();
+
+        Assert.assertEquals(Long.valueOf(numDocs), store.totalDocumentStoreRowCount());
+        try(EDBRecordCursor cursor = store.openRecordCursor(committedHandle)) {
+            for(int i = 0; i < numDocs; i++) {
+                Assert.assertTrue(cursor.next());
+                Assert.assertEquals(i, cursor.docID());
+            }
+            Assert.assertFalse(cursor.next());
+        }
+        Assert.assertNull(store.getRecord(abortedHandle, 0));
+    }
+
+    @Test
+    public void testStats() throws Exception {
+
+        byte[] record = encodedRecord("test_value");
+        byte[] handle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+        EDBWriteBatch batch = store.beginWriteBatch(handle);
+        for(int i = 0; i < 10; i++) {
+            batch.put(i, record, 0, record.length);
+        }
+        batch.commit();
+        Assert.assertNotNull(store.getRecord(handle, 3));
+        Assert.assertNull(store.getRecord(handle, 10));
+        try(EDBRecordCursor cursor = store.openRecordCursor(handle)) {
+            while(cursor.next()) {}
+        }
+
+        EDBStoreStats stats = store.getStats();
+        Assert.assertEquals(1, stats.getStores());
+        Assert.assertEquals(10, stats.getWrites());
+        Assert.assertEquals(10L * record.length, stats.getBytesWritten());
+        Assert.assertEquals(1, stats.getCommitLatency().getCount());
+        // a hit, a miss, ten records walked and the read past the handle's last record
+        Assert.assertEquals(13, stats.getReads());
+        Assert.assertEquals(11L * record.length, stats.getBytesRead());
+        Assert.assertTrue(stats.getCacheBytes() > 0);
+        Assert.assertTrue(stats.getLogSize() > 0);
+        Assert.assertTrue(store.ramBytesUsed() > 0);
+
+        EDBStoreStats.Latency reads = stats.getReadLatency();
+        Assert.assertEquals(0, new EDBStoreStats.Latency(new long[EDBStoreStats.Latency.BUCKETS], 0, 0).getPercentileNanos(99));
+        Assert.assertTrue(reads.getPercentileNanos(50) <= reads.getPercentileNanos(99));
+        Assert.assertTrue(reads.getPercentileNanos(100) <= reads.getMaxNanos());
+        Assert.assertTrue(reads.getMeanNanos() <= reads.getMaxNanos());
+        try {
+            reads.getPercentileNanos(101);
+            Assert.fail();
+        } catch(IllegalArgumentException expected) {
+            // ok
+        }
+
+        EDBStoreStats total = EDBStoreStats.sum(Arrays.asList(stats, stats));
+        Assert.assertEquals(2, total.getStores());
+        Assert.assertEquals(26, total.getReads());
+        Assert.assertEquals(reads.getMaxNanos(), total.getReadLatency().getMaxNanos());
+        Assert.assertEquals(0, EDBStoreStats.sum(new ArrayList<EDBStoreStats>()).getReads());
+    }
+
+    @Test
+    public void testRecordCursor() throws Exception {
+
+        byte[] record = encodedRecord("test_value");
+        byte[] scannedHandle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+        byte[] otherHandle = EDBDocumentKey.handleID(UUID.randomUUID().toString());
+        EDBDocument document = new EDBDocument();
+        document.addField(newField(0, "test_value"));
+        for(int i = 0; i < 10; i += 2) {
+            store.put(scannedHandle, i, document);
+        }
+        EDBWriteBatch batch = store.beginWriteBatch(otherHandle);
+        batch.put(0, record, 0, record.length);
+        batch.commit();
+        batch = store.beginWriteBatch(scannedHandle);
+        for(int i = 1; i < 10; i += 2) {
+            batch.put(i, record, 0, record.length);
+        }
+        batch.commit();
+
+        try(EDBRecordCursor cursor = store.openRecordCursor(scannedHandle)) {
+            for(int i = 0; i < 10; i++) {
+                Assert.assertTrue(cursor.next());
+                Assert.assertEquals(i, cursor.docID());
+            }
+            Assert.assertFalse(cursor.next());
+            Assert.assertFalse(cursor.next());
+
+            Assert.assertTrue(cursor.seek(5));
+            Assert.assertEquals(5, cursor.docID());
+            Assert.assertTrue(cursor.next());
+            Assert.assertEquals(6, cursor.docID());
+            Assert.assertTrue(cursor.seek(0));
+            Assert.assertEquals(0, cursor.docID());
+            Assert.assertFalse(cursor.seek(10));
+        }
+
+        store.delete(scannedHandle, 3);
+        try(EDBRecordCursor cursor = store.openRecordCursor(scannedHandle)) {
+            Assert.assertTrue(cursor.seek(3));
+            Assert.assertEquals(4, cursor.docID());
+        }
+
+        try(EDBRecordCursor cursor = store.openRecordCursor(otherHandle)) {
+            Assert.assertTrue(cursor.next());
+            Assert.assertArrayEquals(record, Arrays.copyOfRange(cursor.record(), cursor.recordOffset(), cursor.recordOffset() + cursor.recordLength()));
+            Assert.assertFalse(cursor.next());
+        }
+    }
+
+    @Test
+    public void testDocumentKey() {
+
+        String handle = UUID.randomUUID().toString();
+        byte[] handleID = EDBDocumentKey.handleID(handle);
+        Assert.assertEquals(handle, EDBDocumentKey.handle(handleID));
+
+        byte[] first = EDBDocumentKey.documentKey(handleID, 255);
+        byte[] second = EDBDocumentKey.documentKey(handleID, 256);
+        Assert.assertEquals(EDBDocumentKey.KEY_LENGTH, first.length);
+        Assert.assertEquals(255, EDBDocumentKey.docID(first, 0));
+        Assert.assertTrue(EDBDocumentKey.hasHandle(second, 0, second.length, handleID));
+        // keys of one handle must sort in document order, byte by byte
+        Assert.assertTrue((first[EDBDocumentKey.KEY_LENGTH - 2] & 0xFF) < (second[EDBDocumentKey.KEY_LENGTH - 2] & 0xFF));
+    }
+
+    @Test
+    public void testBinaryRecordRoundTrip() {
+
+        EDBDocument document = new EDBDocument();
+        document.addField(newField(0, "text value \u00e9\u4e2d"));
+        document.addField(newField(1, Integer.valueOf(-7)));
+        document.addField(newField(2, Long.valueOf(Long.MIN_VALUE)));
+        document.addField(newField(3, Float.valueOf(1.5f)));
+        document.addField(newField(4, Double.valueOf(-0.25d)));
+        EDBStoredField binary = new EDBStoredField();
+        binary.setNumber(5);
+        binary.setBinaryValue(new byte[] {9, 1, 2, 3, 9});
+        binary.setOffset(1);
+        binary.setLength(3);
+        document.addField(binary);
+
+        EDBDocumentBinding binding = new EDBDocumentBinding(null);
+        DatabaseEntry entry = new DatabaseEntry();
+        binding.objectToEntry(document, entry);
+        Assert.assertEquals(EDBDocumentBinding.VERSION_CURRENT, entry.getData()[0]);
+        Assert.assertFalse(EDBDocumentBinding.isLegacyRecord(entry));
+
+        List<EDBStoredField> fields = ((EDBDocument) binding.entryToObject(entry)).getFields();
+        Assert.assertEquals(6, fields.size());
+        Assert.assertEquals("text value \u00e9\u4e2d", fields.get(0).getStringValue());
+        Assert.assertEquals(Integer.valueOf(-7), fields.get(1).getNumericValue());
+        Assert.assertEquals(Long.valueOf(Long.MIN_VALUE), fields.get(2).getNumericValue());
+        Assert.assertEquals(Float.valueOf(1.5f), fields.get(3).getNumericValue());
+        Assert.assertEquals(Double.valueOf(-0.25d), fields.get(4).getNumericValue());
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, fields.get(5).getBinaryValue());
+        for(int i = 0; i < fields.size(); i++) {
+            Assert.assertEquals(i, fields.get(i).getNumber());
+            Assert.assertNull(fields.get(i).getName());
+        }
+    }
+
+    @Test
+    public void testVisitRecord() throws Exception {
+
+        EDBDocument document = new EDBDocument();
+        document.addField(newField(0, "doc_id"));
+        EDBStoredField body = new EDBStoredField();
+        body.setNumber(1);
+        body.setBinaryValue(new byte[1 << 16]);
+        body.setLength(1 << 16);
+        document.addField(body);
+        document.addField(newField(2, "doc_title"));
+        document.addField(newField(3, Integer.valueOf(42)));
+        document.addField(newField(4, "after_stop"));
+        DatabaseEntry entry = new DatabaseEntry();
+        new EDBDocumentBinding(null).objectToEntry(document, entry);
+
+        FieldInfo[] infos = new FieldInfo[5];
+        for(int i = 0; i < infos.length; i++) {
+            infos[i] = new FieldInfo("field" + i, false, i, false, false, false, null, null, null, -1, null);
+        }
+        final List<String> visited = new ArrayList<>();
+        EDBDocumentBinding.visit(entry.getData(), entry.getOffset(), entry.getSize(), new FieldInfos(infos), new StoredFieldVisitor() {
+            @Override
+            public Status needsField(FieldInfo fieldInfo) {
+                if(fieldInfo.number == 3) {
+                    return Status.STOP;
+                }
+                return fieldInfo.number == 1 ? Status.NO : Status.YES;
+            }
 
-        BerkeleyDBStore.INSTANCE.purgeStaleHandle(handle);
+            @Override
+            public void stringField(FieldInfo fieldInfo, String value) {
+                visited.add(fieldInfo.name + "=" + value);
+            }
 
-        Assert.assertEquals(expectedRowsAfter, BerkeleyDBStore.INSTANCE.totalDocumentStoreRowCount());
+            @Override
+            public void binaryField(FieldInfo fieldInfo, byte[] value) {
+                Assert.fail("skipped field was decoded");
+            }
+        });
+        Assert.assertEquals(Arrays.asList("field0=doc_id", "field2=doc_title"), visited);
     }
 
-}
\ No newline at end of file
+}
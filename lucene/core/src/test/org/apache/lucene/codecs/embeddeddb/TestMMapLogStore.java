@@ -0,0 +1,407 @@
+package org.apache.lucene.codecs.embeddeddb;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.apache.lucene.codecs.embeddeddb.EDBTestUtil.encodedRecord;
+import static org.apache.lucene.codecs.embeddeddb.EDBTestUtil.newField;
+import static org.apache.lucene.codecs.embeddeddb.EDBTestUtil.newHandle;
+
+public class TestMMapLogStore {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File location;
+    private MMapLogStore store;
+
+    @Before
+    public void openStore() throws Exception {
+        location = tempFolder.newFolder("store");
+        store = new MMapLogStore(location, config());
+    }
+
+    @After
+    public void closeStore() throws Exception {
+        store.close();
+    }
+
+    /** Small files and no background compaction, so tests decide when files roll and are compacted */
+    private static EDBStoreConfig config() {
+        return EDBStoreConfig.testing()
+                .setBackend(EDBStoreConfig.Backend.MMAP_LOG)
+                .setLogFileSize(1024 * 1024);
+    }
+
+    private void reopen() throws IOException {
+        store.close();
+        store = new MMapLogStore(location, config());
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+
+        byte[] handle = newHandle();
+        EDBDocument document = new EDBDocument();
+        document.addField(newField(0, "test_value"));
+        store.put(handle, 0, document);
+
+        Assert.assertEquals("test_value", store.get(handle, 0).getFields().get(0).getStringValue());
+        Assert.assertTrue(store.get(handle, 1).getFields().isEmpty());
+        Assert.assertNull(store.getRecord(newHandle(), 0));
+
+        reopen();
+        Assert.assertEquals("test_value", store.get(handle, 0).getFields().get(0).getStringValue());
+    }
+
+    @Test
+    public void testWriteBatch() throws Exception {
+
+        byte[] record = encodedRecord("test_value");
+        byte[] committedHandle = newHandle();
+        EDBWriteBatch batch = store.beginWriteBatch(committedHandle);
+        for(int i = 0; i < 10; i++) {
+            batch.put(i, record, 0, record.length);
+        }
+        Assert.assertNull(store.getRecord(committedHandle, 0));
+        batch.commit();
+        batch.abort();
+
+        byte[] abortedHandle = newHandle();
+        batch = store.beginWriteBatch(abortedHandle);
+        for(int i = 0; i < 10; i++) {
+            batch.put(i, record, 0, record.length);
+        }
+        batch.abort();
+
+        try {
+            EDBWriteBatch unordered = store.beginWriteBatch(newHandle());
+            unordered.put(1, record, 0, record.length);
+            unordered.put(1, record, 0, record.length);
+            Assert.fail("documents out of order were accepted");
+        } catch (IllegalArgumentException expected) {}
+
+        Assert.assertEquals("test_value", store.get(committedHandle, 9).getFields().get(0).getStringValue());
+        Assert.assertTrue(store.get(abortedHandle, 0).getFields().isEmpty());
+
+        reopen();
+        Assert.assertEquals("test_value", store.get(committedHandle, 9).getFields().get(0).getStringValue());
+        Assert.assertTrue(store.get(abortedHandle, 0).getFields().isEmpty());
+    }
+
+    @Test
+    public void testUncommittedBatchIsDiscarded() throws Exception {
+
+        // more than one frame, so records are on disk before the batch commits
+        byte[] record = new byte[64 * 1024];
+        byte[] handle = newHandle();
+        EDBWriteBatch batch = store.beginWriteBatch(handle);
+        for(int i = 0; i < 20; i++) {
+            batch.put(i, record, 0, record.length);
+        }
+        Assert.assertNull(store.getRecord(handle, 0));
+
+        reopen();
+        Assert.assertNull(store.getRecord(handle, 0));
+        try(EDBRecordCursor cursor = store.openRecordCursor(handle)) {
+            Assert.assertFalse(cursor.next());
+        }
+    }
+
+    @Test
+    public void testRecordCursor() throws Exception {
+
+        byte[] record = encodedRecord("test_value");
+        byte[] updated = encodedRecord("updated_value");
+        byte[] scannedHandle = newHandle();
+        byte[] otherHandle = newHandle();
+        EDBDocument document = new EDBDocument();
+        document.addField(newField(0, "test_value"));
+        for(int i = 0; i < 10; i += 2) {
+            store.put(scannedHandle, i, document);
+        }
+        EDBWriteBatch batch = store.beginWriteBatch(otherHandle);
+        batch.put(0, record, 0, record.length);
+        batch.commit();
+        batch = store.beginWriteBatch(scannedHandle);
+        for(int i = 1; i < 10; i += 2) {
+            batch.put(i, record, 0, record.length);
+        }
+        batch.put(10, updated, 0, updated.length);
+        batch.commit();
+        batch = store.beginWriteBatch(scannedHandle);
+        batch.put(4, updated, 0, updated.length);
+        batch.commit();
+
+        for(int pass = 0; pass < 2; pass++) {
+            try(EDBRecordCursor cursor = store.openRecordCursor(scannedHandle)) {
+                for(int i = 0; i <= 10; i++) {
+                    Assert.assertTrue(cursor.next());
+                    Assert.assertEquals(i, cursor.docID());
+                    byte[] expected = i == 4 || i == 10 ? updated : record;
+                    Assert.assertArrayEquals(expected, Arrays.copyOfRange(cursor.record(), cursor.recordOffset(), cursor.recordOffset() + cursor.recordLength()));
+                }
+                Assert.assertFalse(cursor.next());
+                Assert.assertFalse(cursor.next());
+
+                Assert.assertTrue(cursor.seek(5));
+                Assert.assertEquals(5, cursor.docID());
+                Assert.assertTrue(cursor.next());
+                Assert.assertEquals(6, cursor.docID());
+                Assert.assertTrue(cursor.seek(0));
+                Assert.assertEquals(0, cursor.docID());
+                Assert.assertFalse(cursor.seek(11));
+            }
+            Assert.assertEquals("updated_value", store.get(scannedHandle, 4).getFields().get(0).getStringValue());
+            // the runs of the handle are rebuilt the same way when the store is opened again
+            reopen();
+        }
+
+        try(EDBRecordCursor cursor = store.openRecordCursor(otherHandle)) {
+            Assert.assertTrue(cursor.next());
+            Assert.assertArrayEquals(record, Arrays.copyOfRange(cursor.record(), cursor.recordOffset(), cursor.recordOffset() + cursor.recordLength()));
+            Assert.assertFalse(cursor.next());
+        }
+    }
+
+    @Test
+    public void testManyRuns() throws Exception {
+
+        byte[] handle = newHandle();
+        String[] expected = new String[5];
+        for(int i = 0; i < 3 * MMapLogIndex.MAX_RUNS; i++) {
+            EDBDocument document = new EDBDocument();
+            document.addField(newField(0, "value" + i));
+            store.put(handle, i % 5, document);
+            expected[i % 5] = "value" + i;
+        }
+        for(int pass = 0; pass < 2; pass++) {
+            for(int docID = 0; docID < 5; docID++) {
+                Assert.assertEquals(expected[docID], store.get(handle, docID).getFields().get(0).getStringValue());
+            }
+            reopen();
+        }
+    }
+
+    @Test
+    public void testPurgeStaleHandle() throws Exception {
+
+        byte[] handle = newHandle();
+        byte[] liveHandle = newHandle();
+        for(int i = 0; i < 100; i++) {
+            EDBDocument document = new EDBDocument();
+            document.addField(newField(0, "test_value"));
+            store.put(handle, i, document);
+            store.put(liveHandle, i, document);
+        }
+
+        Assert.assertTrue(store.purgeStaleHandle(handle));
+        Assert.assertTrue(store.get(handle, 0).getFields().isEmpty());
+        Assert.assertEquals("test_value", store.get(liveHandle, 99).getFields().get(0).getStringValue());
+
+        reopen();
+        Assert.assertTrue(store.get(handle, 0).getFields().isEmpty());
+        Assert.assertEquals("test_value", store.get(liveHandle, 99).getFields().get(0).getStringValue());
+
+        // a closed store cannot record the purge, so it has to be retried
+        store.close();
+        Assert.assertFalse(store.purgeStaleHandle(liveHandle));
+        reopen();
+        Assert.assertEquals("test_value", store.get(liveHandle, 99).getFields().get(0).getStringValue());
+    }
+
+    @Test
+    public void testTornFrame() throws Exception {
+
+        byte[] handle = newHandle();
+        EDBDocument document = new EDBDocument();
+        document.addField(newField(0, "test_value"));
+        store.put(handle, 0, document);
+        store.close();
+
+        File logFile = store.getFiles().values().iterator().next().file;
+        long length = logFile.length();
+        try(RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            // the header of a frame whose body was never written
+            file.seek(length);
+            file.write(new byte[] {MMapLogStore.FRAME_PUT, 0, 0, 1, 0, 42});
+        }
+
+        store = new MMapLogStore(location, config());
+        Assert.assertEquals(length, logFile.length());
+        Assert.assertEquals("test_value", store.get(handle, 0).getFields().get(0).getStringValue());
+        store.put(handle, 1, document);
+        reopen();
+        Assert.assertEquals("test_value", store.get(handle, 1).getFields().get(0).getStringValue());
+    }
+
+    @Test
+    public void testRecordsAcrossChunks() throws Exception {
+
+        store.close();
+        store = new MMapLogStore(location, config().setLogFileSize(4L * MMapLogFile.CHUNK_SIZE));
+        // records which do not divide the chunk size, so some of them start in one chunk and end in the next
+        byte[] handle = newHandle();
+        byte[] record = new byte[100000];
+        int docCount = MMapLogFile.CHUNK_SIZE / record.length * 2 + 10;
+        for(int start = 0; start < docCount; start += 50) {
+            EDBWriteBatch batch = store.beginWriteBatch(handle);
+            for(int docID = start; docID < Math.min(start + 50, docCount); docID++) {
+                Arrays.fill(record, (byte) docID);
+                batch.put(docID, record, 0, record.length);
+            }
+            batch.commit();
+        }
+        Assert.assertEquals(1, store.getFiles().size());
+
+        for(int pass = 0; pass < 2; pass++) {
+            for(int docID = 0; docID < docCount; docID++) {
+                Arrays.fill(record, (byte) docID);
+                Assert.assertArrayEquals(record, store.getRecord(handle, docID).bytes);
+            }
+            store.close();
+            store = new MMapLogStore(location, config().setLogFileSize(4L * MMapLogFile.CHUNK_SIZE));
+        }
+    }
+
+    @Test
+    public void testRollAndCompact() throws Exception {
+
+        byte[] record = new byte[1024];
+        byte[] smallHandle = newHandle();
+        byte[] purgedHandle = newHandle();
+        byte[] liveHandle = newHandle();
+        writeRecords(smallHandle, 10, record);
+        writeRecords(purgedHandle, 600, record);
+        writeRecords(liveHandle, 600, record);
+        Assert.assertEquals(2, store.getFiles().size());
+        Assert.assertEquals(0, store.compact());
+
+        EDBRecordCursor cursor = store.openRecordCursor(smallHandle);
+        store.purgeStaleHandle(purgedHandle);
+        Assert.assertEquals(1, store.getStats().getCleanerBacklog());
+        Assert.assertEquals(1, store.compact());
+        Assert.assertEquals(1, store.getFiles().size());
+        Assert.assertEquals(0, store.getStats().getCleanerBacklog());
+
+        // readers keep the buffers of compacted files
+        for(int i = 0; i < 10; i++) {
+            Assert.assertTrue(cursor.next());
+            Assert.assertEquals(i, cursor.docID());
+        }
+        cursor.close();
+
+        for(int pass = 0; pass < 2; pass++) {
+            Assert.assertNotNull(store.getRecord(smallHandle, 9));
+            Assert.assertNotNull(store.getRecord(liveHandle, 599));
+            Assert.assertNull(store.getRecord(purgedHandle, 0));
+            reopen();
+        }
+    }
+
+    @Test
+    public void testSeekFollowsIndex() throws Exception {
+
+        byte[] record = new byte[1024];
+        byte[] purgedHandle = newHandle();
+        byte[] liveHandle = newHandle();
+        writeRecords(purgedHandle, 600, record);
+        writeRecords(liveHandle, 600, record);
+        EDBRecordCursor purged = store.openRecordCursor(purgedHandle);
+        EDBRecordCursor live = store.openRecordCursor(liveHandle);
+        Assert.assertTrue(purged.seek(10));
+        Assert.assertTrue(live.seek(10));
+
+        // kept open, as readers keep their cursors, the cursors find records moved by compaction
+        store.purgeStaleHandle(purgedHandle);
+        Assert.assertEquals(1, store.compact());
+        Assert.assertFalse(purged.seek(10));
+        for(int i = 0; i < 600; i += 100) {
+            Assert.assertTrue(live.seek(i));
+            Assert.assertEquals(i, live.docID());
+            Assert.assertEquals(1024, live.recordLength());
+        }
+        purged.close();
+        live.close();
+    }
+
+    @Test
+    public void testStoreRegistry() throws Exception {
+
+        File newLocation = tempFolder.newFolder("registry");
+        EmbeddedDBStore created = EDBStoreRegistry.acquire(newLocation, config());
+        Assert.assertTrue(created instanceof MMapLogStore);
+        EDBStoreRegistry.release(created);
+        Assert.assertTrue(MMapLogStore.exists(newLocation));
+
+        // the files found in the location decide, not the config
+        EmbeddedDBStore reopened = EDBStoreRegistry.acquire(newLocation, EDBStoreConfig.testing());
+        Assert.assertTrue(reopened instanceof MMapLogStore);
+        EDBStoreRegistry.release(reopened);
+
+        File berkeleyLocation = tempFolder.newFolder("berkeley");
+        EDBStoreRegistry.release(EDBStoreRegistry.acquire(berkeleyLocation, EDBStoreConfig.testing()));
+        EmbeddedDBStore berkeley = EDBStoreRegistry.acquire(berkeleyLocation, config());
+        Assert.assertTrue(berkeley instanceof BerkeleyDBStore);
+        EDBStoreRegistry.release(berkeley);
+    }
+
+    @Test
+    public void testStats() throws Exception {
+
+        byte[] record = encodedRecord("test_value");
+        byte[] handle = newHandle();
+        writeRecords(handle, 10, record);
+        Assert.assertNotNull(store.getRecord(handle, 3));
+        Assert.assertNull(store.getRecord(handle, 10));
+        try(EDBRecordCursor cursor = store.openRecordCursor(handle)) {
+            while(cursor.next()) {}
+        }
+
+        EDBStoreStats stats = store.getStats();
+        Assert.assertEquals(1, stats.getStores());
+        Assert.assertEquals(10, stats.getWrites());
+        Assert.assertEquals(10L * record.length, stats.getBytesWritten());
+        Assert.assertEquals(1, stats.getCommitLatency().getCount());
+        // a hit, a miss, ten records walked and the read past the handle's last record
+        Assert.assertEquals(13, stats.getReads());
+        Assert.assertEquals(11L * record.length, stats.getBytesRead());
+        Assert.assertTrue(stats.getLogSize() > 10L * record.length);
+        Assert.assertTrue(store.ramBytesUsed() > 0);
+        Assert.assertEquals(store.ramBytesUsed(), stats.getCacheBytes());
+    }
+
+    private void writeRecords(byte[] handle, int count, byte[] record) throws IOException {
+        EDBWriteBatch batch = store.beginWriteBatch(handle);
+        for(int i = 0; i < count; i++) {
+            batch.put(i, record, 0, record.length);
+        }
+        batch.commit();
+    }
+}
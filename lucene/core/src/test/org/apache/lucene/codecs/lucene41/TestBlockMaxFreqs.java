@@ -0,0 +1,172 @@
+package org.apache.lucene.codecs.lucene41;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.FieldInfo.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.TestUtil;
+
+/** 
+ * Tests the maximum frequencies of the blocks of BlockPostingsFormat
+ */
+public class TestBlockMaxFreqs extends LuceneTestCase {
+
+  private Directory dir;
+  private IndexWriter writer;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    dir = newDirectory();
+    IndexWriterConfig iwc = newIndexWriterConfig(new MockAnalyzer(random()));
+    iwc.setCodec(TestUtil.alwaysPostingsFormat(new Lucene41PostingsFormat()));
+    iwc.setMergePolicy(newLogMergePolicy()); // keeps docs in order
+    writer = new IndexWriter(dir, iwc);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    writer.close();
+    dir.close();
+    super.tearDown();
+  }
+
+  private static Document newDocument(String fieldName, FieldType type, String... terms) {
+    StringBuilder text = new StringBuilder();
+    for (String term : terms) {
+      text.append(term).append(' ');
+    }
+    Document doc = new Document();
+    doc.add(new Field(fieldName, text.toString(), type));
+    return doc;
+  }
+
+  public void testSingleBlockMax() throws Exception {
+    final int numDocs = Lucene41PostingsFormat.BLOCK_SIZE * 3 + 10;
+    for (int i = 0; i < numDocs; i++) {
+      if (i == Lucene41PostingsFormat.BLOCK_SIZE + 5) {
+        writer.addDocument(newDocument("body", TextField.TYPE_NOT_STORED, "a", "a", "a", "a", "a"));
+      } else {
+        writer.addDocument(newDocument("body", TextField.TYPE_NOT_STORED, "a"));
+      }
+    }
+    writer.forceMerge(1);
+    DirectoryReader reader = DirectoryReader.open(writer, true);
+    AtomicReader leaf = getOnlySegmentReader(reader);
+    TermsEnum termsEnum = leaf.terms("body").iterator(null);
+    assertTrue(termsEnum.seekExact(new BytesRef("a")));
+    DocsEnum docsEnum = termsEnum.docs(null, null);
+
+    int upTo = docsEnum.advanceShallow(0);
+    assertEquals(Lucene41PostingsFormat.BLOCK_SIZE - 1, upTo);
+    assertEquals(1, docsEnum.getMaxFreq());
+    upTo = docsEnum.advanceShallow(upTo + 1);
+    assertEquals(2 * Lucene41PostingsFormat.BLOCK_SIZE - 1, upTo);
+    assertEquals(5, docsEnum.getMaxFreq());
+    upTo = docsEnum.advanceShallow(upTo + 1);
+    assertEquals(3 * Lucene41PostingsFormat.BLOCK_SIZE - 1, upTo);
+    assertEquals(1, docsEnum.getMaxFreq());
+    // the last block has no skip data, the bound of the term applies
+    assertEquals(DocIdSetIterator.NO_MORE_DOCS, docsEnum.advanceShallow(upTo + 1));
+    assertEquals(5, docsEnum.getMaxFreq());
+
+    // looking ahead doesn't move the enum
+    assertEquals(0, docsEnum.nextDoc());
+    assertEquals(1, docsEnum.freq());
+    assertEquals(Lucene41PostingsFormat.BLOCK_SIZE + 5, docsEnum.advance(Lucene41PostingsFormat.BLOCK_SIZE + 5));
+    assertEquals(5, docsEnum.freq());
+    reader.close();
+  }
+
+  public void testRandomBounds() throws Exception {
+    FieldType docsOnly = new FieldType(TextField.TYPE_NOT_STORED);
+    docsOnly.setIndexOptions(IndexOptions.DOCS_ONLY);
+    final String[] terms = new String[] { "a", "b", "c", "d" };
+    final int numDocs = atLeast(2000);
+    for (int i = 0; i < numDocs; i++) {
+      List<String> text = new ArrayList<>();
+      for (int j = 0; j < terms.length; j++) {
+        // terms are less and less frequent
+        if (random().nextInt(j + 1) == 0) {
+          for (int k = random().nextInt(1 + random().nextInt(10)); k >= 0; k--) {
+            text.add(terms[j]);
+          }
+        }
+      }
+      String[] docTerms = text.toArray(new String[text.size()]);
+      Document doc = newDocument("body", TextField.TYPE_NOT_STORED, docTerms);
+      doc.add(newDocument("docs", docsOnly, docTerms).getField("docs"));
+      writer.addDocument(doc);
+    }
+    if (random().nextBoolean()) {
+      writer.forceMerge(1);
+    }
+    DirectoryReader reader = DirectoryReader.open(writer, true);
+    for (AtomicReader leaf : getLeafReaders(reader)) {
+      for (String field : new String[] { "body", "docs" }) {
+        for (String term : terms) {
+          TermsEnum termsEnum = leaf.terms(field).iterator(null);
+          if (termsEnum.seekExact(new BytesRef(term)) == false) {
+            continue;
+          }
+          DocsEnum docsEnum = termsEnum.docs(null, null);
+          DocsEnum shallow = termsEnum.docs(null, null);
+          int upTo = -1;
+          int maxFreq = -1;
+          for (int doc = docsEnum.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docsEnum.nextDoc()) {
+            while (doc > upTo) {
+              // look ahead from a random doc between the end of the last
+              // window and this doc
+              final int target = TestUtil.nextInt(random(), upTo + 1, doc);
+              upTo = shallow.advanceShallow(target);
+              assertTrue(upTo >= target);
+              maxFreq = shallow.getMaxFreq();
+            }
+            assertTrue("freq=" + docsEnum.freq() + " maxFreq=" + maxFreq, docsEnum.freq() <= maxFreq);
+          }
+        }
+      }
+    }
+    reader.close();
+  }
+
+  private static List<AtomicReader> getLeafReaders(DirectoryReader reader) {
+    List<AtomicReader> leaves = new ArrayList<>();
+    for (int i = 0; i < reader.leaves().size(); i++) {
+      leaves.add(reader.leaves().get(i).reader());
+    }
+    return leaves;
+  }
+}
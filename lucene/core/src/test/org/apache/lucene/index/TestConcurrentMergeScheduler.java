@@ -443,4 +443,74 @@ public class TestConcurrentMergeScheduler extends LuceneTestCase {
     w.close();
     d.close();
   }
+
+  public void testAutoIOThrottleSettings() throws Exception {
+    ConcurrentMergeScheduler cms = new ConcurrentMergeScheduler();
+    assertFalse(cms.getAutoIOThrottle());
+    assertEquals(Double.POSITIVE_INFINITY, cms.getIORateLimitMBPerSec(), 0.0);
+    assertEquals(Double.POSITIVE_INFINITY, cms.getForceMergeMBPerSec(), 0.0);
+
+    cms.enableAutoIOThrottle();
+    assertTrue(cms.getAutoIOThrottle());
+    assertEquals(ConcurrentMergeScheduler.START_MB_PER_SEC, cms.getIORateLimitMBPerSec(), 0.0);
+    cms.disableAutoIOThrottle();
+    assertFalse(cms.getAutoIOThrottle());
+    assertEquals(Double.POSITIVE_INFINITY, cms.getIORateLimitMBPerSec(), 0.0);
+
+    cms.setForceMergeMBPerSec(10.0);
+    assertEquals(10.0, cms.getForceMergeMBPerSec(), 0.0);
+    try {
+      cms.setForceMergeMBPerSec(0.0);
+      fail("did not hit exception");
+    } catch (IllegalArgumentException iae) {
+      // expected
+    }
+    assertEquals(0, cms.getTotalIOThrottledNanos());
+    assertEquals(0, cms.getTotalStalledNanos());
+  }
+
+  public void testForceMergeIsThrottled() throws Exception {
+    Directory d = newDirectory();
+    if (d instanceof MockDirectoryWrapper) {
+      ((MockDirectoryWrapper)d).setThrottling(MockDirectoryWrapper.Throttling.NEVER);
+    }
+    IndexWriterConfig iwc = new IndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random()));
+    iwc.setMaxBufferedDocs(10);
+    iwc.setMergePolicy(NoMergePolicy.INSTANCE);
+    ConcurrentMergeScheduler cms = new ConcurrentMergeScheduler();
+    iwc.setMergeScheduler(cms);
+    IndexWriter w = new IndexWriter(d, iwc);
+    for(int i=0;i<100;i++) {
+      Document doc = new Document();
+      doc.add(new StringField("id", ""+i, Field.Store.YES));
+      doc.add(new TextField("body", TestUtil.randomSimpleString(random(), 100, 200), Field.Store.YES));
+      w.addDocument(doc);
+    }
+    w.commit();
+    w.close();
+
+    iwc = new IndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random()));
+    final AtomicBoolean startedUnthrottled = new AtomicBoolean();
+    cms = new ConcurrentMergeScheduler() {
+      @Override
+      protected void doMerge(MergePolicy.OneMerge merge) throws IOException {
+        // the rate is set before the merge thread starts
+        if (merge.rateLimiter == null || merge.rateLimiter.getMbPerSec() != getForceMergeMBPerSec()) {
+          startedUnthrottled.set(true);
+        }
+        super.doMerge(merge);
+      }
+    };
+    // a few KB per second, so merging tens of KB takes a noticeable time
+    cms.setForceMergeMBPerSec(0.05);
+    iwc.setMergeScheduler(cms);
+    w = new IndexWriter(d, iwc);
+    w.forceMerge(1);
+    w.close();
+    assertFalse(startedUnthrottled.get());
+    assertTrue("totalIOThrottledNanos=" + cms.getTotalIOThrottledNanos(), cms.getTotalIOThrottledNanos() > 0);
+    // forced merges aren't throttled by the auto IO throttle
+    assertEquals(Double.POSITIVE_INFINITY, cms.getIORateLimitMBPerSec(), 0.0);
+    d.close();
+  }
 }
@@ -0,0 +1,123 @@
+package org.apache.lucene.index;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.LuceneTestCase.SuppressCodecs;
+import org.apache.lucene.util.TestUtil;
+
+@SuppressCodecs("Lucene3x")
+public class TestIndexSorting extends LuceneTestCase {
+
+  public void testFlushedSegmentsAreSorted() throws Exception {
+    final Sort sort = new Sort(new SortField("sort", SortField.Type.LONG));
+    final boolean fieldUpdates = defaultCodecSupportsFieldUpdates();
+    Directory dir = newDirectory();
+    IndexWriterConfig iwc = newIndexWriterConfig(new MockAnalyzer(random()))
+        .setIndexSort(sort)
+        .setMaxBufferedDocs(TestUtil.nextInt(random(), 10, 100))
+        .setMergePolicy(NoMergePolicy.INSTANCE);
+    IndexWriter w = new IndexWriter(dir, iwc);
+
+    // expected value of each live document, and its group
+    final Map<String,Long> values = new HashMap<>();
+    final Map<String,String> groups = new HashMap<>();
+    final int numDocs = atLeast(500);
+    for (int i = 0; i < numDocs; i++) {
+      final String id = Integer.toString(i);
+      final String group = Integer.toString(random().nextInt(10));
+      final long value = random().nextInt(100);
+      Document doc = new Document();
+      doc.add(new StringField("id", id, Store.YES));
+      doc.add(new StringField("group", group, Store.NO));
+      doc.add(new NumericDocValuesField("sort", random().nextLong()));
+      doc.add(new NumericDocValuesField("value", value));
+      w.addDocument(doc);
+      values.put(id, value);
+      groups.put(id, group);
+
+      if (random().nextInt(20) == 0) {
+        final String deleted = Integer.toString(random().nextInt(i + 1));
+        w.deleteDocuments(new Term("id", deleted));
+        values.remove(deleted);
+      }
+      // deletes and updates only affect the documents added so far, also
+      // when a flushed segment puts later documents before them
+      if (random().nextInt(50) == 0) {
+        final String deleted = Integer.toString(random().nextInt(10));
+        w.deleteDocuments(new TermQuery(new Term("group", deleted)));
+        for (Iterator<String> it = values.keySet().iterator(); it.hasNext(); ) {
+          if (groups.get(it.next()).equals(deleted)) {
+            it.remove();
+          }
+        }
+      }
+      if (fieldUpdates && random().nextInt(20) == 0) {
+        final String updated = Integer.toString(random().nextInt(10));
+        final long newValue = random().nextLong();
+        w.updateNumericDocValue(new Term("group", updated), "value", newValue);
+        for (Map.Entry<String,Long> entry : values.entrySet()) {
+          if (groups.get(entry.getKey()).equals(updated)) {
+            entry.setValue(newValue);
+          }
+        }
+      }
+      if (random().nextInt(100) == 0) {
+        DirectoryReader.open(w, true).close();
+      }
+    }
+
+    DirectoryReader r = DirectoryReader.open(w, true);
+    assertEquals(values.size(), r.numDocs());
+    for (AtomicReaderContext context : r.leaves()) {
+      final AtomicReader reader = context.reader();
+      final SegmentInfo info = ((SegmentReader) reader).getSegmentInfo().info;
+      assertEquals(sort.toString(), info.getDiagnostics().get(Sorter.SORTER_ID_PROP));
+      final NumericDocValues sortValues = reader.getNumericDocValues("sort");
+      final NumericDocValues docValues = reader.getNumericDocValues("value");
+      final Bits liveDocs = reader.getLiveDocs();
+      for (int doc = 0; doc < reader.maxDoc(); doc++) {
+        if (doc > 0) {
+          assertTrue("segment=" + info.name + " doc=" + doc, sortValues.get(doc - 1) <= sortValues.get(doc));
+        }
+        if (liveDocs == null || liveDocs.get(doc)) {
+          final String id = reader.document(doc).get("id");
+          assertEquals("id=" + id, values.get(id).longValue(), docValues.get(doc));
+        }
+      }
+    }
+    r.close();
+    w.close();
+    dir.close();
+  }
+
+}
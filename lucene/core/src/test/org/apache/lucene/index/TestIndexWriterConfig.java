@@ -33,6 +33,7 @@ import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.index.DocumentsWriterPerThread.IndexingChain;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.similarities.DefaultSimilarity;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.InfoStream;
@@ -63,6 +64,9 @@ public class TestIndexWriterConfig extends LuceneTestCase {
     assertNull(conf.getIndexCommit());
     assertEquals(KeepOnlyLastCommitDeletionPolicy.class, conf.getIndexDeletionPolicy().getClass());
     assertEquals(ConcurrentMergeScheduler.class, conf.getMergeScheduler().getClass());
+    assertNull(conf.getMergeExecutor());
+    assertNull(conf.getApplyDeletesExecutor());
+    assertNull(conf.getIndexSort());
     assertEquals(OpenMode.CREATE_OR_APPEND, conf.getOpenMode());
     // we don't need to assert this, it should be unspecified
     assertTrue(IndexSearcher.getDefaultSimilarity() == conf.getSimilarity());
@@ -90,6 +94,9 @@ public class TestIndexWriterConfig extends LuceneTestCase {
     getters.add("getIndexDeletionPolicy");
     getters.add("getMaxFieldLength");
     getters.add("getMergeScheduler");
+    getters.add("getMergeExecutor");
+    getters.add("getApplyDeletesExecutor");
+    getters.add("getIndexSort");
     getters.add("getOpenMode");
     getters.add("getSimilarity");
     getters.add("getTermIndexInterval");
@@ -322,6 +329,13 @@ public class TestIndexWriterConfig extends LuceneTestCase {
     } catch (IllegalArgumentException e) {
       // this is expected
     }
+
+    try {
+      conf.setIndexSort(Sort.RELEVANCE);
+      fail("should not have succeeded to sort the index by relevance");
+    } catch (IllegalArgumentException e) {
+      // this is expected
+    }
     
     try {
       conf.setRAMPerThreadHardLimitMB(0);
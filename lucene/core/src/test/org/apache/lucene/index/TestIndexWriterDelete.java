@@ -26,6 +26,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -46,6 +48,7 @@ import org.apache.lucene.store.MockDirectoryWrapper;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.NamedThreadFactory;
 import org.apache.lucene.util.TestUtil;
 
 public class TestIndexWriterDelete extends LuceneTestCase {
@@ -1253,4 +1256,65 @@ public class TestIndexWriterDelete extends LuceneTestCase {
     r.close();
     d.close();
   }
+
+  public void testApplyDeletesWithExecutor() throws Exception {
+    final long seed = random().nextLong();
+    final int numDocs = atLeast(500);
+    final ExecutorService executor = Executors.newFixedThreadPool(TestUtil.nextInt(random(), 1, 4),
+        new NamedThreadFactory("TestIndexWriterDelete"));
+    try {
+      Directory serialDir = newDirectory();
+      Directory concurrentDir = newDirectory();
+      indexAndDelete(serialDir, seed, numDocs, null);
+      indexAndDelete(concurrentDir, seed, numDocs, executor);
+
+      DirectoryReader serial = DirectoryReader.open(serialDir);
+      DirectoryReader concurrent = DirectoryReader.open(concurrentDir);
+      assertTrue(concurrent.numDocs() < numDocs);
+      assertReaderEquals("deletes applied concurrently", serial, concurrent);
+      serial.close();
+      concurrent.close();
+      serialDir.close();
+      concurrentDir.close();
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+  }
+
+  // indexes, deletes and updates the same documents for the same seed, with deterministic flushes and merges
+  private void indexAndDelete(Directory dir, long seed, int numDocs, ExecutorService executor) throws IOException {
+    final Random random = new Random(seed);
+    final boolean fieldUpdates = defaultCodecSupportsFieldUpdates();
+    IndexWriterConfig iwc = new IndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random))
+        .setMaxBufferedDocs(TestUtil.nextInt(random, 10, 50))
+        .setMergePolicy(new LogDocMergePolicy())
+        .setMergeScheduler(new SerialMergeScheduler())
+        .setApplyDeletesExecutor(executor);
+    IndexWriter w = new IndexWriter(dir, iwc);
+    for (int i = 0; i < numDocs; i++) {
+      Document doc = new Document();
+      doc.add(new StringField("id", Integer.toString(i), Field.Store.YES));
+      doc.add(new StringField("group", Integer.toString(random.nextInt(20)), Field.Store.NO));
+      if (fieldUpdates) {
+        doc.add(new NumericDocValuesField("value", i));
+      }
+      w.addDocument(doc);
+
+      if (random.nextInt(10) == 0) {
+        w.deleteDocuments(new Term("id", Integer.toString(random.nextInt(i + 1))));
+      }
+      if (random.nextInt(50) == 0) {
+        w.deleteDocuments(new TermQuery(new Term("group", Integer.toString(random.nextInt(20)))));
+      }
+      if (fieldUpdates && random.nextInt(10) == 0) {
+        w.updateNumericDocValue(new Term("group", Integer.toString(random.nextInt(20))), "value", random.nextLong());
+      }
+      if (random.nextInt(100) == 0) {
+        // applies the buffered deletes and updates to all segments
+        DirectoryReader.open(w, true).close();
+      }
+    }
+    w.close();
+  }
 }
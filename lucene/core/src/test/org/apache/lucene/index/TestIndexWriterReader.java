@@ -18,6 +18,7 @@ package org.apache.lucene.index;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -37,6 +38,7 @@ import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.store.MockDirectoryWrapper.FakeIOException;
 import org.apache.lucene.store.MockDirectoryWrapper;
 import org.apache.lucene.store.RAMDirectory;
@@ -1171,4 +1173,51 @@ public class TestIndexWriterReader extends LuceneTestCase {
     w.close();
     dir.close();
   }
+
+  public void testWriteAllDeletes() throws Exception {
+    Directory dir = newDirectory();
+    IndexWriterConfig iwc = newIndexWriterConfig(new MockAnalyzer(random()));
+    iwc.setMergePolicy(NoMergePolicy.INSTANCE);
+    IndexWriter w = new IndexWriter(dir, iwc);
+    for (int i = 0; i < 20; i++) {
+      Document doc = new Document();
+      doc.add(newStringField("id", Integer.toString(i), Field.Store.NO));
+      w.addDocument(doc);
+      if (i % 7 == 0) {
+        w.commit();
+      }
+    }
+    w.deleteDocuments(new Term("id", "3"), new Term("id", "15"));
+
+    try {
+      DirectoryReader.open(w, false, true);
+      fail("writeAllDeletes requires applyAllDeletes");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+
+    // copy the uncommitted point in time of the NRT reader to another directory
+    DirectoryReader r = DirectoryReader.open(w, true, true);
+    assertEquals(18, r.numDocs());
+    SegmentInfos infos = ((StandardDirectoryReader) r).getSegmentInfos();
+    Directory dir2 = newDirectory();
+    for (String file : infos.files(dir, false)) {
+      dir.copy(dir2, file, file, newIOContext(random()));
+    }
+    IndexOutput out = dir2.createOutput(IndexFileNames.fileNameFromGeneration(IndexFileNames.SEGMENTS, "", 1), newIOContext(random()));
+    infos.write(dir, out);
+    out.close();
+    dir2.sync(Arrays.asList(dir2.listAll()));
+
+    DirectoryReader r2 = DirectoryReader.open(dir2);
+    assertEquals(r.maxDoc(), r2.maxDoc());
+    assertEquals(18, r2.numDocs());
+    assertEquals(0, count(new Term("id", "3"), r2));
+    assertEquals(1, count(new Term("id", "4"), r2));
+    r2.close();
+    r.close();
+    w.close();
+    dir2.close();
+    dir.close();
+  }
 }
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.util.Random;
 
 import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.codecs.lucene41.Lucene41PostingsFormat;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.TextField;
@@ -123,6 +124,48 @@ public class TestNorms extends LuceneTestCase {
     dir.close();
   }
   
+  public void testNormsRange() throws Exception {
+    Directory dir = newDirectory();
+    IndexWriterConfig config = newIndexWriterConfig(new MockAnalyzer(random()));
+    config.setSimilarity(new CustomNormEncodingSimilarity());
+    config.setCodec(TestUtil.alwaysPostingsFormat(new Lucene41PostingsFormat()));
+    RandomIndexWriter writer = new RandomIndexWriter(random(), dir, config);
+    int numDocs = atLeast(100);
+    for (int i = 0; i < numDocs; i++) {
+      Document doc = new Document();
+      StringBuilder text = new StringBuilder();
+      for (int j = TestUtil.nextInt(random(), 1, 20); j > 0; j--) {
+        text.append("a ");
+      }
+      doc.add(new TextField("foo", text.toString(), Field.Store.NO));
+      writer.addDocument(doc);
+      if (rarely()) {
+        writer.commit();
+      }
+    }
+    assertNormsRange(writer.getReader());
+    writer.forceMerge(1);
+    assertNormsRange(writer.getReader());
+    writer.close();
+    dir.close();
+  }
+
+  private void assertNormsRange(DirectoryReader reader) throws IOException {
+    for (AtomicReaderContext context : reader.leaves()) {
+      AtomicReader leaf = context.reader();
+      NumericDocValues norms = leaf.getNormValues("foo");
+      long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+      for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+        min = Math.min(min, norms.get(doc));
+        max = Math.max(max, norms.get(doc));
+      }
+      FieldInfo fieldInfo = leaf.getFieldInfos().fieldInfo("foo");
+      assertEquals(min, fieldInfo.getMinNorm());
+      assertEquals(max, fieldInfo.getMaxNorm());
+    }
+    reader.close();
+  }
+  
   // TODO: create a testNormsNotPresent ourselves by adding/deleting/merging docs
 
   public void buildIndex(Directory dir) throws IOException {
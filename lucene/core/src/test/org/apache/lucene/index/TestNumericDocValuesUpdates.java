@@ -1287,6 +1287,42 @@ public class TestNumericDocValuesUpdates extends LuceneTestCase {
     dir.close();
   }
   
+  @Test
+  public void testUpdatesOrderAcrossPackets() throws Exception {
+    Directory dir = newDirectory();
+    IndexWriterConfig conf = newIndexWriterConfig(new MockAnalyzer(random()));
+    conf.setMaxBufferedDocs(2); // every second document flushes the buffered updates
+    conf.setMergePolicy(NoMergePolicy.INSTANCE);
+    IndexWriter writer = new IndexWriter(dir, conf);
+    
+    Document doc = new Document();
+    doc.add(new StringField("upd", "t1", Store.NO));
+    doc.add(new NumericDocValuesField("f1", 1L));
+    writer.addDocument(doc);
+    writer.addDocument(doc);
+    writer.commit();
+    
+    // each update is frozen in its own packet, and all are applied at once
+    for (long value = 2; value <= 4; value++) {
+      writer.updateNumericDocValue(new Term("upd", "t1"), "f1", value);
+      writer.addDocument(doc);
+      writer.addDocument(doc);
+    }
+    writer.updateNumericDocValue(new Term("upd", "t1"), "f1", 5L);
+    writer.close();
+    
+    DirectoryReader reader = DirectoryReader.open(dir);
+    for (AtomicReaderContext context : reader.leaves()) {
+      NumericDocValues values = context.reader().getNumericDocValues("f1");
+      for (int docID = 0; docID < context.reader().maxDoc(); docID++) {
+        assertEquals(5, values.get(docID));
+      }
+    }
+    reader.close();
+    
+    dir.close();
+  }
+  
   @Test
   public void testUpdateAllDeletedSegment() throws Exception {
     Directory dir = newDirectory();
@@ -1366,4 +1402,88 @@ public class TestNumericDocValuesUpdates extends LuceneTestCase {
     IOUtils.close(reader, writer, cachingDir);
   }
   
+  @Test
+  public void testSparseUpdateGenerations() throws Exception {
+    Directory dir = newDirectory();
+    IndexWriterConfig conf = newIndexWriterConfig(new MockAnalyzer(random()));
+    // a single segment large enough for a few updates to be written sparsely
+    conf.setMergePolicy(NoMergePolicy.INSTANCE);
+    conf.setMaxBufferedDocs(Integer.MAX_VALUE); // manually flush
+    conf.setRAMBufferSizeMB(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+    IndexWriter writer = new IndexWriter(dir, conf);
+    final int numDocs = 1000;
+    final long[] expected = new long[numDocs];
+    for (int i = 0; i < numDocs; i++) {
+      writer.addDocument(doc(i));
+      expected[i] = i + 1;
+    }
+    writer.commit();
+
+    for (int gen = 1; gen <= SparseNumericDocValuesUpdates.MAX_GENS + 1; gen++) {
+      for (int i = 0; i < 3; i++) {
+        final int id = random().nextInt(numDocs);
+        expected[id] = random().nextLong();
+        writer.updateNumericDocValue(new Term("id", "doc-" + id), "val", expected[id]);
+      }
+      final DirectoryReader reader;
+      if (random().nextBoolean()) {
+        writer.commit();
+        reader = DirectoryReader.open(dir);
+      } else {
+        reader = DirectoryReader.open(writer, true);
+      }
+      assertEquals(1, reader.leaves().size());
+      SegmentReader r = (SegmentReader) reader.leaves().get(0).reader();
+      final long[] gens = SparseNumericDocValuesUpdates.getGens(r.getFieldInfos().fieldInfo("val"));
+      // generations are stacked until there are too many, then compacted
+      assertEquals(gen <= SparseNumericDocValuesUpdates.MAX_GENS ? gen : 0, gens.length);
+      for (long g : gens) {
+        assertTrue(r.getSegmentInfo().files().contains(SparseNumericDocValuesUpdates.fileName(r.getSegmentName(), g)));
+      }
+      NumericDocValues ndv = r.getNumericDocValues("val");
+      Bits docsWithField = r.getDocsWithField("val");
+      for (int i = 0; i < numDocs; i++) {
+        assertTrue(docsWithField.get(i));
+        assertEquals(expected[i], ndv.get(i));
+      }
+      reader.close();
+    }
+
+    // updating many documents rewrites all values
+    for (int i = 0; i < numDocs; i += 10) {
+      expected[i] = -i;
+      writer.updateNumericDocValue(new Term("id", "doc-" + i), "val", expected[i]);
+    }
+    writer.commit();
+    DirectoryReader reader = DirectoryReader.open(dir);
+    SegmentReader r = (SegmentReader) reader.leaves().get(0).reader();
+    assertNull(r.getFieldInfos().fieldInfo("val").getAttribute(SparseNumericDocValuesUpdates.GENS_ATTRIBUTE));
+    NumericDocValues ndv = r.getNumericDocValues("val");
+    for (int i = 0; i < numDocs; i++) {
+      assertEquals(expected[i], ndv.get(i));
+    }
+    reader.close();
+
+    // merging compacts sparse generations as well
+    writer.updateNumericDocValue(new Term("id", "doc-1"), "val", 42L);
+    expected[1] = 42L;
+    writer.close();
+    writer = new IndexWriter(dir, newIndexWriterConfig(new MockAnalyzer(random())));
+    writer.addDocument(doc(numDocs));
+    writer.forceMerge(1);
+    writer.commit();
+    reader = DirectoryReader.open(dir);
+    assertEquals(1, reader.leaves().size());
+    r = (SegmentReader) reader.leaves().get(0).reader();
+    assertNull(r.getFieldInfos().fieldInfo("val").getAttribute(SparseNumericDocValuesUpdates.GENS_ATTRIBUTE));
+    ndv = r.getNumericDocValues("val");
+    for (int i = 0; i < numDocs; i++) {
+      // the merge may have reordered documents
+      DocsEnum docs = r.termDocsEnum(new Term("id", "doc-" + i));
+      assertEquals(expected[i], ndv.get(docs.nextDoc()));
+    }
+    
+    IOUtils.close(reader, writer, dir);
+  }
+  
 }
@@ -19,15 +19,27 @@ package org.apache.lucene.index;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.lucene.analysis.MockAnalyzer;
 import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.FixedBitSet;
 import org.apache.lucene.util.InfoStream;
 import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.NamedThreadFactory;
 import org.apache.lucene.util.TestUtil;
 import org.apache.lucene.util.Version;
 
@@ -82,7 +94,7 @@ public class TestSegmentMerger extends LuceneTestCase {
 
     SegmentMerger merger = new SegmentMerger(Arrays.<AtomicReader>asList(reader1, reader2),
         si, InfoStream.getDefault(), mergedDir, IndexWriterConfig.DEFAULT_TERM_INDEX_INTERVAL,
-        MergeState.CheckAbort.NONE, new FieldInfos.FieldNumbers(), newIOContext(random()), true);
+        MergeState.CheckAbort.NONE, new FieldInfos.FieldNumbers(), newIOContext(random()), true, null);
     MergeState mergeState = merger.merge();
     int docsMerged = mergeState.segmentInfo.getDocCount();
     assertTrue(docsMerged == 2);
@@ -140,6 +152,61 @@ public class TestSegmentMerger extends LuceneTestCase {
     mergedReader.close();
   }
 
+  public void testMergeWithExecutor() throws Exception {
+    final long seed = random().nextLong();
+    final int numDocs = atLeast(200);
+    final ExecutorService executor = Executors.newFixedThreadPool(TestUtil.nextInt(random(), 1, 4),
+        new NamedThreadFactory("TestSegmentMerger"));
+    try {
+      Directory serialDir = newDirectory();
+      Directory concurrentDir = newDirectory();
+      indexAndMerge(serialDir, seed, numDocs, null);
+      indexAndMerge(concurrentDir, seed, numDocs, executor);
+
+      DirectoryReader serial = DirectoryReader.open(serialDir);
+      DirectoryReader concurrent = DirectoryReader.open(concurrentDir);
+      assertEquals(1, concurrent.leaves().size());
+      assertReaderEquals("merged concurrently", serial, concurrent);
+      serial.close();
+      concurrent.close();
+      serialDir.close();
+      concurrentDir.close();
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+  }
+
+  // indexes the same documents and deletions for the same seed, with deterministic flushes and merges
+  private void indexAndMerge(Directory dir, long seed, int numDocs, ExecutorService executor) throws IOException {
+    final Random random = new Random(seed);
+    IndexWriterConfig iwc = new IndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random))
+        .setMaxBufferedDocs(TestUtil.nextInt(random, 10, 50))
+        .setMergePolicy(new LogDocMergePolicy())
+        .setMergeScheduler(new SerialMergeScheduler())
+        .setMergeExecutor(executor);
+    IndexWriter writer = new IndexWriter(dir, iwc);
+    FieldType vectors = new FieldType(TextField.TYPE_STORED);
+    vectors.setStoreTermVectors(true);
+    vectors.setStoreTermVectorPositions(true);
+    for (int i = 0; i < numDocs; i++) {
+      Document doc = new Document();
+      doc.add(new StringField("id", Integer.toString(i), Field.Store.YES));
+      doc.add(new TextField("body", TestUtil.randomSimpleString(random, 0, 20) + " " + TestUtil.randomSimpleString(random, 0, 20), Field.Store.NO));
+      doc.add(new Field("vectors", TestUtil.randomSimpleString(random, 1, 10), vectors));
+      if (defaultCodecSupportsDocValues()) {
+        doc.add(new NumericDocValuesField("number", random.nextLong()));
+        doc.add(new BinaryDocValuesField("binary", new BytesRef(TestUtil.randomSimpleString(random))));
+      }
+      writer.addDocument(doc);
+      if (random.nextInt(10) == 0) {
+        writer.deleteDocuments(new Term("id", Integer.toString(random.nextInt(i + 1))));
+      }
+    }
+    writer.forceMerge(1);
+    writer.close();
+  }
+
   private static boolean equals(MergeState.DocMap map1, MergeState.DocMap map2) {
     if (map1.maxDoc() != map2.maxDoc()) {
       return false;
@@ -0,0 +1,178 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.codecs.lucene41.Lucene41PostingsFormat;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.TestUtil;
+
+public class TestBlockMaxDisjunctionSumScorer extends LuceneTestCase {
+
+  private static final String[] TERMS = new String[] { "a", "b", "c", "d", "e", "f", "g", "h" };
+
+  private IndexWriterConfig newConfig(Similarity similarity) {
+    IndexWriterConfig iwc = newIndexWriterConfig(new MockAnalyzer(random()));
+    // the block max frequencies are recorded by this format
+    iwc.setCodec(TestUtil.alwaysPostingsFormat(new Lucene41PostingsFormat()));
+    iwc.setSimilarity(similarity);
+    return iwc;
+  }
+
+  private static TopDocs search(IndexSearcher searcher, Query query, int numHits, boolean trackTotalHits) throws IOException {
+    TopScoreDocCollector collector = TopScoreDocCollector.create(numHits, null, true, trackTotalHits);
+    searcher.search(query, collector);
+    return collector.topDocs();
+  }
+
+  private static void assertSameHits(TopDocs expected, TopDocs actual) {
+    assertTrue(actual.totalHits <= expected.totalHits);
+    assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+    for (int i = 0; i < expected.scoreDocs.length; i++) {
+      assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+      assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0f);
+    }
+  }
+
+  public void testRandom() throws Exception {
+    Similarity similarity = random().nextBoolean() ? new DefaultSimilarity() : new BM25Similarity();
+    Directory dir = newDirectory();
+    IndexWriter writer = new IndexWriter(dir, newConfig(similarity));
+    int numDocs = atLeast(3000);
+    for (int i = 0; i < numDocs; i++) {
+      StringBuilder text = new StringBuilder();
+      for (int j = 0; j < TERMS.length; j++) {
+        // terms are less and less frequent
+        if (random().nextInt(1 + j * j) == 0) {
+          for (int k = random().nextInt(1 + random().nextInt(8)); k >= 0; k--) {
+            text.append(TERMS[j]).append(' ');
+          }
+        }
+      }
+      for (int k = random().nextInt(10); k > 0; k--) {
+        text.append("filler ");
+      }
+      Document doc = new Document();
+      doc.add(new TextField("body", text.toString(), Field.Store.NO));
+      doc.add(new TextField("id", Integer.toString(i), Field.Store.NO));
+      writer.addDocument(doc);
+      if (rarely()) {
+        writer.deleteDocuments(new Term("id", Integer.toString(random().nextInt(i + 1))));
+      }
+    }
+    if (random().nextBoolean()) {
+      writer.forceMerge(1);
+    }
+    IndexReader reader = DirectoryReader.open(writer, true);
+    writer.close();
+    IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(similarity);
+
+    int iters = atLeast(50);
+    for (int iter = 0; iter < iters; iter++) {
+      BooleanQuery query = new BooleanQuery(random().nextBoolean());
+      for (int i = TestUtil.nextInt(random(), 2, 5); i > 0; i--) {
+        TermQuery clause = new TermQuery(new Term("body", TERMS[random().nextInt(TERMS.length)]));
+        if (random().nextBoolean()) {
+          clause.setBoost(0.1f + 10 * random().nextFloat());
+        }
+        query.add(clause, Occur.SHOULD);
+      }
+      int numHits = TestUtil.nextInt(random(), 1, 20);
+      assertSameHits(search(searcher, query, numHits, true), search(searcher, query, numHits, false));
+    }
+    reader.close();
+    dir.close();
+  }
+
+  public void testSkipsNonCompetitiveDocs() throws Exception {
+    Similarity similarity = new BM25Similarity();
+    Directory dir = newDirectory();
+    IndexWriter writer = new IndexWriter(dir, newConfig(similarity));
+    final int numDocs = 5000;
+    for (int i = 0; i < numDocs; i++) {
+      Document doc = new Document();
+      doc.add(new TextField("body", i % 100 == 0 ? "common rare rare rare rare" : "common", Field.Store.NO));
+      writer.addDocument(doc);
+    }
+    writer.forceMerge(1);
+    IndexReader reader = DirectoryReader.open(writer, true);
+    writer.close();
+    IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(similarity);
+
+    BooleanQuery query = new BooleanQuery();
+    query.add(new TermQuery(new Term("body", "common")), Occur.SHOULD);
+    query.add(new TermQuery(new Term("body", "rare")), Occur.SHOULD);
+    TopDocs expected = search(searcher, query, 10, true);
+    assertEquals(numDocs, expected.totalHits);
+    TopDocs actual = search(searcher, query, 10, false);
+    assertSameHits(expected, actual);
+    // once the top hits all match the rare term, only its documents can compete
+    assertTrue("totalHits=" + actual.totalHits, actual.totalHits < numDocs / 2);
+    reader.close();
+    dir.close();
+  }
+
+  public void testOnlyTopScorerSkips() throws Exception {
+    Similarity similarity = new BM25Similarity();
+    Directory dir = newDirectory();
+    IndexWriter writer = new IndexWriter(dir, newConfig(similarity));
+    for (int i = 0; i < 100; i++) {
+      Document doc = new Document();
+      doc.add(new TextField("body", i % 10 == 0 ? "a b c" : "a b", Field.Store.NO));
+      writer.addDocument(doc);
+    }
+    writer.forceMerge(1);
+    IndexReader reader = DirectoryReader.open(writer, true);
+    writer.close();
+    IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(similarity);
+
+    BooleanQuery disjunction = new BooleanQuery();
+    disjunction.add(new TermQuery(new Term("body", "b")), Occur.SHOULD);
+    disjunction.add(new TermQuery(new Term("body", "c")), Occur.SHOULD);
+    // nested in another query, nothing sets its minimum competitive score
+    Weight weight = searcher.createNormalizedWeight(disjunction);
+    assertTrue(weight.scorer(reader.leaves().get(0), null) instanceof DisjunctionSumScorer);
+
+    BooleanQuery query = new BooleanQuery();
+    query.add(new TermQuery(new Term("body", "a")), Occur.MUST);
+    query.add(disjunction, Occur.MUST);
+    TopDocs expected = search(searcher, query, 10, true);
+    assertEquals(100, expected.totalHits);
+    assertSameHits(expected, search(searcher, query, 10, false));
+    reader.close();
+    dir.close();
+  }
+}
@@ -0,0 +1,343 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.LuceneTestCase;
+
+public class TestTwoPhaseIterator extends LuceneTestCase {
+
+  private Directory dir;
+  private IndexReader reader;
+  private IndexSearcher searcher;
+  private FixedBitSet accepted;  // docs which the approximated query matches
+  private FixedBitSet category;  // docs which match cat:x
+  private FixedBitSet phrase;    // docs which contain "a b"
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    dir = newDirectory();
+    IndexWriterConfig config = newIndexWriterConfig(new MockAnalyzer(random()));
+    config.setMergePolicy(newLogMergePolicy()); // we will use docids to validate
+    RandomIndexWriter w = new RandomIndexWriter(random(), dir, config);
+    final int numDocs = atLeast(500);
+    accepted = new FixedBitSet(numDocs);
+    category = new FixedBitSet(numDocs);
+    phrase = new FixedBitSet(numDocs);
+    final String[] tokens = new String[] { "a", "b", "c" };
+    for (int i = 0; i < numDocs; i++) {
+      Document doc = new Document();
+      doc.add(new StringField("all", "x", Store.NO));
+      if (random().nextInt(10) == 0) {
+        doc.add(new StringField("cat", "x", Store.NO));
+        category.set(i);
+      }
+      if (random().nextBoolean()) {
+        accepted.set(i);
+      }
+      StringBuilder text = new StringBuilder();
+      String previous = null;
+      for (int j = random().nextInt(10); j >= 0; j--) {
+        final String token = tokens[random().nextInt(tokens.length)];
+        if ("a".equals(previous) && "b".equals(token)) {
+          phrase.set(i);
+        }
+        text.append(token).append(' ');
+        previous = token;
+      }
+      doc.add(new TextField("body", text.toString(), Store.NO));
+      w.addDocument(doc);
+    }
+    reader = w.getReader();
+    w.close();
+    searcher = newSearcher(reader);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    reader.close();
+    dir.close();
+    super.tearDown();
+  }
+
+  /** Collects the doc IDs of the hits of the given query. */
+  private FixedBitSet hits(Query query) throws IOException {
+    final FixedBitSet hits = new FixedBitSet(reader.maxDoc());
+    searcher.search(query, new Collector() {
+      private int docBase;
+
+      @Override
+      public void setScorer(Scorer scorer) {
+      }
+
+      @Override
+      public void collect(int doc) {
+        hits.set(docBase + doc);
+      }
+
+      @Override
+      public void setNextReader(AtomicReaderContext context) {
+        docBase = context.docBase;
+      }
+
+      @Override
+      public boolean acceptsDocsOutOfOrder() {
+        return true;
+      }
+    });
+    return hits;
+  }
+
+  private static FixedBitSet intersection(FixedBitSet a, FixedBitSet b) {
+    FixedBitSet result = a.clone();
+    result.and(b);
+    return result;
+  }
+
+  public void testConjunctionVerifiesLast() throws Exception {
+    final ApproximatedQuery approximated = new ApproximatedQuery(accepted);
+    BooleanQuery bq = new BooleanQuery();
+    bq.add(approximated, BooleanClause.Occur.MUST);
+    bq.add(new TermQuery(new Term("cat", "x")), BooleanClause.Occur.MUST);
+    if (random().nextBoolean()) {
+      bq.add(new TermQuery(new Term("all", "x")), BooleanClause.Occur.MUST);
+    }
+    assertEquals(intersection(accepted, category), hits(bq));
+    // the approximated clause was only verified on documents of the category
+    assertTrue(approximated.verifications.get() <= category.cardinality());
+  }
+
+  public void testFilteredQueryVerifiesAcceptedDocsOnly() throws Exception {
+    final Filter filter = new Filter() {
+      @Override
+      public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        final FixedBitSet bits = new FixedBitSet(context.reader().maxDoc());
+        for (int doc = 0; doc < bits.length(); doc++) {
+          if (category.get(context.docBase + doc) && (acceptDocs == null || acceptDocs.get(doc))) {
+            bits.set(doc);
+          }
+        }
+        return bits;
+      }
+    };
+    for (FilteredQuery.FilterStrategy strategy : Arrays.asList(
+        FilteredQuery.RANDOM_ACCESS_FILTER_STRATEGY,
+        FilteredQuery.LEAP_FROG_FILTER_FIRST_STRATEGY,
+        FilteredQuery.LEAP_FROG_QUERY_FIRST_STRATEGY,
+        FilteredQuery.QUERY_FIRST_FILTER_STRATEGY)) {
+      final ApproximatedQuery approximated = new ApproximatedQuery(accepted);
+      final Query query = new FilteredQuery(approximated, filter, strategy);
+      assertEquals(intersection(accepted, category), hits(query));
+      assertTrue(approximated.verifications.get() <= category.cardinality());
+    }
+  }
+
+  public void testPhraseApproximation() throws Exception {
+    PhraseQuery pq = new PhraseQuery();
+    pq.add(new Term("body", "a"));
+    pq.add(new Term("body", "b"));
+    pq.setSlop(random().nextInt(3));
+    final FixedBitSet phraseHits = hits(pq);
+    if (pq.getSlop() == 0) {
+      assertEquals(phrase, phraseHits);
+    }
+
+    // iterating the approximation and verifying its matches gives the same
+    // documents and scores as iterating the scorer
+    final Weight weight = searcher.createNormalizedWeight(pq);
+    for (AtomicReaderContext context : searcher.getIndexReader().leaves()) {
+      final Scorer scorer = weight.scorer(context, context.reader().getLiveDocs());
+      final Scorer twoPhaseScorer = weight.scorer(context, context.reader().getLiveDocs());
+      if (scorer == null) {
+        assertNull(twoPhaseScorer);
+        continue;
+      }
+      final TwoPhaseIterator twoPhase = twoPhaseScorer.asTwoPhaseIterator();
+      assertNotNull(twoPhase);
+      final DocIdSetIterator approximation = twoPhase.approximation();
+      for (int doc = scorer.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = scorer.nextDoc()) {
+        assertTrue(phraseHits.get(context.docBase + doc));
+        for (;;) {
+          final int approxDoc = approximation.nextDoc();
+          assertTrue(approxDoc <= doc);
+          final boolean matches = twoPhase.matches();
+          if (approxDoc == doc) {
+            assertTrue(matches);
+            break;
+          }
+          assertFalse(matches);
+        }
+        assertEquals(doc, twoPhaseScorer.docID());
+        assertEquals(scorer.freq(), twoPhaseScorer.freq());
+        assertEquals(scorer.score(), twoPhaseScorer.score(), 0f);
+      }
+      for (int doc = approximation.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = approximation.nextDoc()) {
+        assertFalse(twoPhase.matches());
+      }
+    }
+
+    // conjunctions and filtered queries agree with the phrase hits
+    BooleanQuery bq = new BooleanQuery();
+    bq.add(pq, BooleanClause.Occur.MUST);
+    bq.add(new TermQuery(new Term("cat", "x")), BooleanClause.Occur.MUST);
+    final FixedBitSet expected = intersection(phraseHits, category);
+    assertEquals(expected, hits(bq));
+    assertEquals(expected, hits(new FilteredQuery(pq, new QueryWrapperFilter(new TermQuery(new Term("cat", "x"))),
+        random().nextBoolean() ? FilteredQuery.LEAP_FROG_FILTER_FIRST_STRATEGY : FilteredQuery.LEAP_FROG_QUERY_FIRST_STRATEGY)));
+  }
+
+  /** A query matching the given documents, whose scorer iterates over all
+   *  documents as an approximation and counts how many it verifies. */
+  private static class ApproximatedQuery extends Query {
+
+    final FixedBitSet accepted;
+    final AtomicInteger verifications = new AtomicInteger();
+    final Query allDocs = new TermQuery(new Term("all", "x"));
+
+    ApproximatedQuery(FixedBitSet accepted) {
+      this.accepted = accepted;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher) throws IOException {
+      final Weight in = allDocs.createWeight(searcher);
+      return new Weight() {
+        @Override
+        public Explanation explain(AtomicReaderContext context, int doc) throws IOException {
+          return in.explain(context, doc);
+        }
+
+        @Override
+        public Query getQuery() {
+          return ApproximatedQuery.this;
+        }
+
+        @Override
+        public float getValueForNormalization() throws IOException {
+          return in.getValueForNormalization();
+        }
+
+        @Override
+        public void normalize(float norm, float topLevelBoost) {
+          in.normalize(norm, topLevelBoost);
+        }
+
+        @Override
+        public Scorer scorer(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+          final Scorer scorer = in.scorer(context, acceptDocs);
+          return scorer == null ? null : new ApproximatedScorer(this, scorer, context.docBase);
+        }
+      };
+    }
+
+    private class ApproximatedScorer extends Scorer {
+      private final Scorer approximation;
+      private final int docBase;
+
+      ApproximatedScorer(Weight weight, Scorer approximation, int docBase) {
+        super(weight);
+        this.approximation = approximation;
+        this.docBase = docBase;
+      }
+
+      private boolean verify() {
+        verifications.incrementAndGet();
+        return accepted.get(docBase + approximation.docID());
+      }
+
+      @Override
+      public TwoPhaseIterator asTwoPhaseIterator() {
+        return new TwoPhaseIterator(approximation) {
+          @Override
+          public boolean matches() throws IOException {
+            return verify();
+          }
+        };
+      }
+
+      private int doNext(int doc) throws IOException {
+        while (doc != NO_MORE_DOCS && !verify()) {
+          doc = approximation.nextDoc();
+        }
+        return doc;
+      }
+
+      @Override
+      public int nextDoc() throws IOException {
+        return doNext(approximation.nextDoc());
+      }
+
+      @Override
+      public int advance(int target) throws IOException {
+        return doNext(approximation.advance(target));
+      }
+
+      @Override
+      public int docID() {
+        return approximation.docID();
+      }
+
+      @Override
+      public float score() throws IOException {
+        return approximation.score();
+      }
+
+      @Override
+      public int freq() throws IOException {
+        return approximation.freq();
+      }
+
+      @Override
+      public long cost() {
+        return approximation.cost();
+      }
+    }
+
+    @Override
+    public String toString(String field) {
+      return "approximated(" + allDocs + ")";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this);
+    }
+  }
+}
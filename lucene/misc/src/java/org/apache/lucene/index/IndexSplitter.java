@@ -142,7 +142,7 @@ public class IndexSplitter {
                                             info.getUseCompoundFile(), info.getCodec(), info.getDiagnostics());
       destInfos.add(new SegmentCommitInfo(newInfo, infoPerCommit.getDelCount(),
           infoPerCommit.getDelGen(), infoPerCommit.getFieldInfosGen(),
-          infoPerCommit.getDocValuesGen()));
+          infoPerCommit.getDocValuesGen(), infoPerCommit.getStoredFieldsGen()));
       // now copy files over
       Collection<String> files = infoPerCommit.files();
       for (final String srcName : files) {
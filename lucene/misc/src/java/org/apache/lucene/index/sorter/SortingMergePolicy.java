@@ -26,6 +26,7 @@ import org.apache.lucene.analysis.Analyzer; // javadocs
 import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.MergePolicy;
 import org.apache.lucene.index.MergeState;
 import org.apache.lucene.index.MergeTrigger;
@@ -35,6 +36,8 @@ import org.apache.lucene.index.SegmentInfo;
 import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.index.SegmentReader;
 import org.apache.lucene.index.SlowCompositeReaderWrapper;
+import org.apache.lucene.index.Sorter;
+import org.apache.lucene.index.SortingAtomicReader;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.Bits;
@@ -44,7 +47,9 @@ import org.apache.lucene.util.packed.PackedLongValues;
 /** A {@link MergePolicy} that reorders documents according to a {@link Sort}
  *  before merging them. As a consequence, all segments resulting from a merge
  *  will be sorted while segments resulting from a flush will be in the order
- *  in which documents have been added.
+ *  in which documents have been added, unless the writer sorts them too with
+ *  {@link IndexWriterConfig#setIndexSort(Sort)}. Segments that are sorted
+ *  already are merged in sort order rather than sorted again.
  *  <p><b>NOTE</b>: Never use this policy if you rely on
  *  {@link IndexWriter#addDocuments(Iterable, Analyzer) IndexWriter.addDocuments}
  *  to have sequentially-assigned doc IDs, this policy will scatter doc IDs.
@@ -60,7 +65,7 @@ public final class SortingMergePolicy extends MergePolicy {
    * Put in the {@link SegmentInfo#getDiagnostics() diagnostics} to denote that
    * this segment is sorted.
    */
-  public static final String SORTER_ID_PROP = "sorter";
+  public static final String SORTER_ID_PROP = Sorter.SORTER_ID_PROP;
   
   class SortingOneMerge extends OneMerge {
 
@@ -83,7 +88,7 @@ public final class SortingMergePolicy extends MergePolicy {
           final IndexReader multiReader = new MultiReader(unsortedReaders.toArray(new AtomicReader[unsortedReaders.size()]));
           atomicView = SlowCompositeReaderWrapper.wrap(multiReader);
         }
-        docMap = sorter.sort(atomicView);
+        docMap = allSorted(unsortedReaders) ? sorter.merge(atomicView, docStarts(unsortedReaders)) : sorter.sort(atomicView);
         sortedView = SortingAtomicReader.wrap(atomicView, docMap);
       }
       // a null doc map means that the readers are already sorted
@@ -97,6 +102,26 @@ public final class SortingMergePolicy extends MergePolicy {
       super.setInfo(info);
     }
 
+    private boolean allSorted(List<AtomicReader> readers) {
+      for (AtomicReader reader : readers) {
+        // doc values updates may have changed the values the segment was sorted by
+        if (!isSorted(reader, sort) || ((SegmentReader) reader).getSegmentInfo().hasFieldUpdates()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int[] docStarts(List<AtomicReader> readers) {
+      final int[] docStarts = new int[readers.size()];
+      int docBase = 0;
+      for (int i = 0; i < docStarts.length; ++i) {
+        docStarts[i] = docBase;
+        docBase += readers.get(i).maxDoc();
+      }
+      return docStarts;
+    }
+
     private PackedLongValues getDeletes(List<AtomicReader> readers) {
       PackedLongValues.Builder deletes = PackedLongValues.monotonicBuilder(PackedInts.COMPACT);
       int deleteCount = 0;
@@ -31,6 +31,7 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IOContext;
 
@@ -204,9 +205,19 @@ public class IndexAndTaxonomyRevision implements Revision {
     }
     
     try {
-      indexWriter.deleteUnusedFiles();
+      deleteUnusedFiles(indexWriter);
     } finally {
-      taxoWriter.getIndexWriter().deleteUnusedFiles();
+      deleteUnusedFiles(taxoWriter.getIndexWriter());
+    }
+  }
+  
+  private static void deleteUnusedFiles(IndexWriter writer) throws IOException {
+    try {
+      writer.deleteUnusedFiles();
+    } catch (AlreadyClosedException e) {
+      // This is OK, it just means the writer was closed before
+      // this revision was released; the next time a writer is
+      // opened on the index, it will delete the unused files.
     }
   }
   
@@ -226,6 +226,16 @@ public class IndexReplicationHandler implements ReplicationHandler {
     return currentRevisionFiles;
   }
   
+  // returns the segments_N file of the current revision, or null if there is none
+  private String currentSegmentsFile() {
+    final Map<String,List<RevisionFile>> revisionFiles = currentRevisionFiles;
+    if (revisionFiles == null) {
+      return null;
+    }
+    final List<RevisionFile> files = revisionFiles.values().iterator().next();
+    return files.isEmpty() ? null : files.get(files.size() - 1).fileName;
+  }
+  
   @Override
   public void revisionReady(String version, Map<String,List<RevisionFile>> revisionFiles,
       Map<String,List<String>> copiedFiles, Map<String,Directory> sourceDirectory) throws IOException {
@@ -235,6 +245,33 @@ public class IndexReplicationHandler implements ReplicationHandler {
     
     Directory clientDir = sourceDirectory.values().iterator().next();
     List<String> files = copiedFiles.values().iterator().next();
+    
+    // a revision may only add files to the current commit point, e.g. the
+    // segments which an NRTIndexRevision copies ahead of the point in time
+    // that references them, in which case its segments_N was not copied
+    List<RevisionFile> revFiles = revisionFiles.values().iterator().next();
+    String revSegmentsFile = revFiles.get(revFiles.size() - 1).fileName;
+    if (!files.contains(revSegmentsFile) && revSegmentsFile.equals(currentSegmentsFile())) {
+      boolean success = false;
+      try {
+        copyFiles(clientDir, indexDir, files);
+        indexDir.sync(files);
+        success = true;
+      } finally {
+        if (!success) {
+          cleanupFilesOnFailure(indexDir, files);
+        }
+      }
+      currentRevisionFiles = revisionFiles;
+      currentVersion = version;
+      if (infoStream.isEnabled(INFO_STREAM_COMPONENT)) {
+        infoStream.message(INFO_STREAM_COMPONENT, "revisionReady(): copied files ahead of commit: currentVersion="
+            + currentVersion + " currentRevisionFiles=" + currentRevisionFiles);
+      }
+      // the index did not change, no need to notify the callback
+      return;
+    }
+    
     String segmentsFile = getSegmentsFile(files, false);
     
     boolean success = false;
@@ -30,6 +30,7 @@ import org.apache.lucene.index.IndexDeletionPolicy;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IOContext;
 
@@ -139,7 +140,13 @@ public class IndexRevision implements Revision {
   @Override
   public void release() throws IOException {
     sdp.release(commit);
-    writer.deleteUnusedFiles();
+    try {
+      writer.deleteUnusedFiles();
+    } catch (AlreadyClosedException e) {
+      // This is OK, it just means the writer was closed before
+      // this revision was released; the next time a writer is
+      // opened on the index, it will delete the unused files.
+    }
   }
   
   @Override
@@ -160,15 +160,25 @@ public class LocalReplicator implements Replicator {
     return sessionToken;
   }
   
+  /**
+   * Releases the revisions of all sessions, and the current revision. A
+   * revision may be released after what it was created from was closed, e.g.
+   * an {@link IndexRevision} after its {@link org.apache.lucene.index.IndexWriter}.
+   */
   @Override
   public synchronized void close() throws IOException {
     if (!closed) {
+      closed = true;
       // release all managed revisions
       for (ReplicationSession session : sessions.values()) {
         session.revision.decRef();
       }
       sessions.clear();
-      closed = true;
+      if (currentRevision != null) {
+        final RefCountedRevision revision = currentRevision;
+        currentRevision = null;
+        revision.decRef();
+      }
     }
   }
   
@@ -0,0 +1,158 @@
+package org.apache.lucene.replicator;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.IndexReaderWarmer;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.store.AlreadyClosedException;
+
+/**
+ * Publishes the near-real-time points in time of an {@link IndexWriter} to
+ * a {@link Replicator}, as {@link NRTIndexRevision}s, so that replicas can
+ * search flushed segments without the primary committing them.
+ * <p>
+ * Merges can rewrite most of the index at once, and replicas would have to
+ * copy the merged segment before they could open the first point in time
+ * which references it. To avoid that, set the {@link #getMergedSegmentWarmer()
+ * warmer} of this publisher on the writer's
+ * {@link IndexWriterConfig#setMergedSegmentWarmer(IndexReaderWarmer)
+ * config}: once a merge has written its segment, and before the writer
+ * commits the merge, it publishes a revision of the last published point in
+ * time with the files of the merged segment, so that replicas copy them
+ * ahead of time. Later revisions then only need replicas to copy the flushed
+ * segments, deletes and segments_N file.
+ * <p>
+ * <b>NOTE:</b> the files of a merged segment are only protected from
+ * deletion once the merge is committed, so replicas which pull a pre-copy
+ * revision of a merge which was aborted in the meantime fail, and retry with
+ * a later revision.
+ *
+ * @lucene.experimental
+ */
+public class NRTIndexPublisher implements Closeable {
+
+  private final IndexWriter writer;
+  private final Replicator replicator;
+  private final IndexReaderWarmer mergedSegmentWarmer = new IndexReaderWarmer() {
+    @Override
+    public void warm(AtomicReader reader) throws IOException {
+      preCopy(((SegmentReader) reader).getSegmentInfo().files());
+    }
+  };
+
+  private final Set<String> preCopyFiles = new HashSet<>();
+  private DirectoryReader current;
+  private long preCopyGen;
+  private boolean closed;
+
+  /** Constructor with the writer to publish and the replicator to publish its revisions to. */
+  public NRTIndexPublisher(IndexWriter writer, Replicator replicator) {
+    this.writer = writer;
+    this.replicator = replicator;
+  }
+
+  /**
+   * Publishes the current near-real-time point in time of the writer, unless
+   * it is not newer than the last published one, and returns whether a new
+   * revision was published.
+   */
+  public boolean publish() throws IOException {
+    ensureOpen();
+    // don't hold our lock while opening the reader, since it may flush
+    // and wait for merges, which pre-copy their segments through us
+    final DirectoryReader reader = DirectoryReader.open(writer, true, true);
+    boolean success = false;
+    try {
+      synchronized (this) {
+        ensureOpen();
+        if (current != null && reader.getVersion() <= current.getVersion()) {
+          return false;
+        }
+        replicator.publish(new NRTIndexRevision(reader, 0, Collections.<String>emptySet()));
+        if (current != null) {
+          current.decRef();
+        }
+        current = reader;
+        preCopyGen = 0;
+        preCopyFiles.clear();
+        success = true;
+        return true;
+      }
+    } finally {
+      if (!success) {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * Publishes a revision of the last published point in time with the given
+   * files of a merged segment, as well as the ones of the segments merged
+   * since that point in time.
+   */
+  synchronized void preCopy(Collection<String> mergedFiles) throws IOException {
+    if (closed || current == null) {
+      // nothing was published yet: replicas copy the merged segment along
+      // with the first point in time
+      return;
+    }
+    preCopyFiles.addAll(mergedFiles);
+    replicator.publish(new NRTIndexRevision(current, ++preCopyGen, preCopyFiles));
+  }
+
+  /**
+   * Returns the {@link IndexReaderWarmer} which pre-copies merged segments to
+   * replicas, which should be set on the writer's config.
+   */
+  public IndexReaderWarmer getMergedSegmentWarmer() {
+    return mergedSegmentWarmer;
+  }
+
+  private synchronized void ensureOpen() {
+    if (closed) {
+      throw new AlreadyClosedException("this publisher is already closed");
+    }
+  }
+
+  /**
+   * Releases the last published point in time. The {@link Replicator} keeps
+   * its own reference to the revisions it replicates.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      if (current != null) {
+        current.decRef();
+        current = null;
+      }
+    }
+  }
+
+}
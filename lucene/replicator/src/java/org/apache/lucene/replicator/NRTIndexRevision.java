@@ -0,0 +1,219 @@
+package org.apache.lucene.replicator;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.StandardDirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.RAMFile;
+import org.apache.lucene.store.RAMOutputStream;
+
+/**
+ * A {@link Revision} of the near-real-time point in time of an
+ * {@link IndexWriter}, which lets replicas search flushed segments, and
+ * deletes, before they are committed. The revision holds a reference to the
+ * near-real-time {@link DirectoryReader} it was created from, which keeps
+ * the writer from deleting its files until it is {@link #release()
+ * released}.
+ * <p>
+ * The files of the revision are the files of the reader's segments,
+ * followed by a segments_N file which is not read from the index directory
+ * but serialized from the reader's {@link SegmentInfos}. Its generation is
+ * the {@link DirectoryReader#getVersion() version} of the reader, so that
+ * {@link IndexReplicationHandler} can replicate this revision like any
+ * other, and replicas open it like a commit. For that reason, a replica
+ * should either replicate {@link IndexRevision commits} or near-real-time
+ * points, but not both.
+ * <p>
+ * A revision may also carry the files of merged segments which are not part
+ * of its point in time yet, see {@link NRTIndexPublisher}: replicas copy
+ * them ahead of the point in time that references them.
+ *
+ * @lucene.experimental
+ */
+public class NRTIndexRevision implements Revision {
+
+  private static final int RADIX = 16;
+  private static final String SOURCE = "index";
+  private static final String PRE_COPY_SEPARATOR = ".";
+
+  private final StandardDirectoryReader reader;
+  private final long infosVersion;
+  private final long preCopyGen;
+  private final String version;
+  private final String segmentsFile;
+  private final byte[] segmentsBytes;
+  private final Map<String,List<RevisionFile>> sourceFiles;
+
+  // returns a RevisionFile with some metadata
+  private static RevisionFile newRevisionFile(String file, Directory dir) throws IOException {
+    RevisionFile revFile = new RevisionFile(file);
+    revFile.size = dir.fileLength(file);
+    return revFile;
+  }
+
+  /** Returns the version of the given infos and pre-copy generation. */
+  private static String revisionVersion(long infosVersion, long preCopyGen) {
+    String version = Long.toString(infosVersion, RADIX);
+    if (preCopyGen > 0) {
+      version += PRE_COPY_SEPARATOR + Long.toString(preCopyGen, RADIX);
+    }
+    return version;
+  }
+
+  /**
+   * Constructor over the given {@link IndexWriter}. Opens a new
+   * near-real-time reader from it, writing all deletes first, which is
+   * closed when this revision is released.
+   */
+  public NRTIndexRevision(IndexWriter writer) throws IOException {
+    this(DirectoryReader.open(writer, true, true), true, 0, Collections.<String>emptySet());
+  }
+
+  /**
+   * Constructor over the given near-real-time reader, which must have been
+   * {@link DirectoryReader#open(IndexWriter, boolean, boolean) opened} with
+   * all its deletes written. The reader is {@link DirectoryReader#incRef()
+   * incRef'd} and decRef'd when this revision is released. If
+   * {@code preCopyGen} is greater than 0, the revision also carries the given
+   * files of merged segments, and its version is greater than the one of the
+   * reader alone.
+   */
+  NRTIndexRevision(DirectoryReader reader, long preCopyGen, Collection<String> preCopyFiles) throws IOException {
+    this(reader, false, preCopyGen, preCopyFiles);
+  }
+
+  private NRTIndexRevision(DirectoryReader reader, boolean ownsReader, long preCopyGen, Collection<String> preCopyFiles) throws IOException {
+    boolean success = false;
+    try {
+      if (!(reader instanceof StandardDirectoryReader)) {
+        throw new IllegalArgumentException("reader must be a near-real-time reader opened from an IndexWriter, got " + reader);
+      }
+      this.reader = (StandardDirectoryReader) reader;
+      final SegmentInfos infos = this.reader.getSegmentInfos();
+      final Directory dir = reader.directory();
+      this.infosVersion = infos.getVersion();
+      this.preCopyGen = preCopyGen;
+      this.version = revisionVersion(infosVersion, preCopyGen);
+      this.segmentsFile = IndexFileNames.fileNameFromGeneration(IndexFileNames.SEGMENTS, "", infosVersion);
+
+      RAMOutputStream out = new RAMOutputStream(new RAMFile(), true);
+      infos.write(dir, out);
+      out.close();
+      this.segmentsBytes = new byte[(int) out.getFilePointer()];
+      out.writeTo(segmentsBytes, 0);
+
+      Set<String> files = new LinkedHashSet<>(infos.files(dir, false));
+      files.addAll(preCopyFiles);
+      List<RevisionFile> revisionFiles = new ArrayList<>(files.size() + 1);
+      for (String file : files) {
+        revisionFiles.add(newRevisionFile(file, dir));
+      }
+      RevisionFile segmentsRevFile = new RevisionFile(segmentsFile);
+      segmentsRevFile.size = segmentsBytes.length;
+      revisionFiles.add(segmentsRevFile); // segments_N must be last
+      this.sourceFiles = Collections.singletonMap(SOURCE, revisionFiles);
+
+      if (!ownsReader) {
+        reader.incRef();
+      }
+      success = true;
+    } finally {
+      if (!success && ownsReader) {
+        reader.close();
+      }
+    }
+  }
+
+  /** Returns the version of the reader this revision was created from. */
+  public long getReaderVersion() {
+    return infosVersion;
+  }
+
+  @Override
+  public int compareTo(String version) {
+    final int sep = version.indexOf(PRE_COPY_SEPARATOR);
+    final long otherInfosVersion, otherPreCopyGen;
+    if (sep == -1) {
+      otherInfosVersion = Long.parseLong(version, RADIX);
+      otherPreCopyGen = 0;
+    } else {
+      otherInfosVersion = Long.parseLong(version.substring(0, sep), RADIX);
+      otherPreCopyGen = Long.parseLong(version.substring(sep + 1), RADIX);
+    }
+    return compare(otherInfosVersion, otherPreCopyGen);
+  }
+
+  @Override
+  public int compareTo(Revision o) {
+    NRTIndexRevision other = (NRTIndexRevision) o;
+    return compare(other.infosVersion, other.preCopyGen);
+  }
+
+  private int compare(long otherInfosVersion, long otherPreCopyGen) {
+    if (infosVersion != otherInfosVersion) {
+      return infosVersion < otherInfosVersion ? -1 : 1;
+    }
+    return preCopyGen < otherPreCopyGen ? -1 : (preCopyGen > otherPreCopyGen ? 1 : 0);
+  }
+
+  @Override
+  public String getVersion() {
+    return version;
+  }
+
+  @Override
+  public Map<String,List<RevisionFile>> getSourceFiles() {
+    return sourceFiles;
+  }
+
+  @Override
+  public InputStream open(String source, String fileName) throws IOException {
+    assert source.equals(SOURCE) : "invalid source; expected=" + SOURCE + " got=" + source;
+    if (fileName.equals(segmentsFile)) {
+      return new ByteArrayInputStream(segmentsBytes);
+    }
+    return new IndexInputInputStream(reader.directory().openInput(fileName, IOContext.READONCE));
+  }
+
+  @Override
+  public void release() throws IOException {
+    reader.decRef();
+  }
+
+  @Override
+  public String toString() {
+    return "NRTIndexRevision version=" + version + " files=" + sourceFiles;
+  }
+
+}
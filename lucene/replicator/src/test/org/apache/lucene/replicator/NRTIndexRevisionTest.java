@@ -0,0 +1,180 @@
+package org.apache.lucene.replicator;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.replicator.ReplicationClient.ReplicationHandler;
+import org.apache.lucene.replicator.ReplicationClient.SourceDirectoryFactory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NRTIndexRevisionTest extends ReplicatorTestCase {
+
+  private Directory publishDir, handlerDir;
+  private IndexWriter publishWriter;
+  private Replicator replicator;
+  private NRTIndexPublisher publisher;
+  private SourceDirectoryFactory sourceDirFactory;
+  private ReplicationHandler handler;
+  private ReplicationClient client;
+  private int id;
+
+  private void addDocuments(int numDocs) throws Exception {
+    for (int i = 0; i < numDocs; i++) {
+      Document doc = new Document();
+      doc.add(newStringField("id", Integer.toString(id++), Field.Store.NO));
+      publishWriter.addDocument(doc);
+    }
+  }
+
+  private void assertReplicaNumDocs(int expected) throws Exception {
+    DirectoryReader reader = DirectoryReader.open(handlerDir);
+    try {
+      assertEquals(expected, reader.numDocs());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    publishDir = newDirectory();
+    handlerDir = newDirectory();
+    IndexWriterConfig conf = newIndexWriterConfig(null);
+    publishWriter = new IndexWriter(publishDir, conf);
+    replicator = new LocalReplicator();
+    publisher = new NRTIndexPublisher(publishWriter, replicator);
+    sourceDirFactory = new PerSessionDirectoryFactory(createTempDir("nrtReplicationTest"));
+    handler = new IndexReplicationHandler(handlerDir, null);
+    client = new ReplicationClient(replicator, handler, sourceDirFactory);
+  }
+
+  @After
+  @Override
+  public void tearDown() throws Exception {
+    IOUtils.close(client, publisher, replicator, publishWriter, publishDir, handlerDir);
+    super.tearDown();
+  }
+
+  @Test
+  public void testSegmentsFileLast() throws Exception {
+    addDocuments(1);
+    Revision rev = new NRTIndexRevision(publishWriter);
+    try {
+      List<RevisionFile> files = rev.getSourceFiles().values().iterator().next();
+      String lastFile = files.get(files.size() - 1).fileName;
+      assertTrue(lastFile.startsWith(IndexFileNames.SEGMENTS) && !lastFile.equals(IndexFileNames.SEGMENTS_GEN));
+      // nothing was committed, the segments file is served from memory
+      assertFalse(slowFileExists(publishDir, lastFile));
+      assertEquals(0, rev.compareTo(rev.getVersion()));
+    } finally {
+      rev.release();
+    }
+  }
+
+  @Test
+  public void testReplicateUncommittedChanges() throws Exception {
+    addDocuments(10);
+    assertTrue(publisher.publish());
+    client.updateNow();
+    assertReplicaNumDocs(10);
+
+    // no changes, nothing to publish
+    assertFalse(publisher.publish());
+
+    addDocuments(5);
+    publishWriter.deleteDocuments(new Term("id", "3"), new Term("id", "12"));
+    assertTrue(publisher.publish());
+    client.updateNow();
+    assertReplicaNumDocs(13);
+
+    // the replica's index can be opened after a restart of its handler
+    handler = new IndexReplicationHandler(handlerDir, null);
+    client.close();
+    client = new ReplicationClient(replicator, handler, sourceDirFactory);
+    addDocuments(1);
+    assertTrue(publisher.publish());
+    client.updateNow();
+    assertReplicaNumDocs(14);
+  }
+
+  @Test
+  public void testPreCopyMergedSegment() throws Exception {
+    publishWriter.getConfig().setMergedSegmentWarmer(publisher.getMergedSegmentWarmer());
+    for (int i = 0; i < 3; i++) {
+      addDocuments(10);
+      publisher.publish();
+    }
+    client.updateNow();
+    assertReplicaNumDocs(30);
+
+    publishWriter.forceMerge(1);
+    Map<String,List<RevisionFile>> preCopyFiles = handlerRevisionFiles(replicator.checkForUpdate(handler.currentVersion()));
+    if (preCopyFiles == null) {
+      // the segments were already merged
+      return;
+    }
+    client.updateNow();
+    // the merged segment was copied, but is not searched yet
+    Set<String> replicaFiles = new HashSet<>(Arrays.asList(handlerDir.listAll()));
+    for (RevisionFile file : preCopyFiles.values().iterator().next()) {
+      assertTrue(file.fileName + " was not copied", replicaFiles.contains(file.fileName));
+    }
+    assertReplicaNumDocs(30);
+
+    assertTrue(publisher.publish());
+    client.updateNow();
+    DirectoryReader reader = DirectoryReader.open(handlerDir);
+    try {
+      assertEquals(1, reader.leaves().size());
+      assertEquals(30, reader.numDocs());
+    } finally {
+      reader.close();
+    }
+  }
+
+  private Map<String,List<RevisionFile>> handlerRevisionFiles(SessionToken session) throws Exception {
+    if (session == null) {
+      return null;
+    }
+    try {
+      assertTrue("expected a pre-copy revision, got " + session.version, session.version.indexOf('.') > 0);
+      return session.sourceFiles;
+    } finally {
+      replicator.release(session.id);
+    }
+  }
+
+}
@@ -67,6 +67,15 @@ public class AssertingStoredFieldsFormat extends StoredFieldsFormat {
       in.visitDocument(n, visitor);
     }
 
+    @Override
+    public void visitDocuments(int[] docIDs, StoredFieldVisitor[] visitors) throws IOException {
+      assert docIDs.length == visitors.length;
+      for (int n : docIDs) {
+        assert n >= 0 && n < maxDoc;
+      }
+      in.visitDocuments(docIDs, visitors);
+    }
+
     @Override
     public StoredFieldsReader clone() {
       return new AssertingStoredFieldsReader(in.clone(), maxDoc);
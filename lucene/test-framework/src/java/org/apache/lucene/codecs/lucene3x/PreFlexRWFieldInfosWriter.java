@@ -90,7 +90,8 @@ class PreFlexRWFieldInfosWriter extends FieldInfosWriter {
           // only in RW case
           output.writeByte((byte) (fi.getNormType() == null ? 0 : 1));
         }
-        assert fi.attributes() == null; // not used or supported
+        // attributes are not supported: the optional ones IndexWriter
+        // records, such as norms ranges, are dropped
       }
       success = true;
     } finally {
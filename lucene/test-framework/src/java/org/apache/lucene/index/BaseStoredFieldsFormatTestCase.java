@@ -36,6 +36,7 @@ import org.apache.lucene.codecs.StoredFieldsFormat;
 import org.apache.lucene.codecs.lucene410.Lucene410Codec;
 import org.apache.lucene.codecs.simpletext.SimpleTextCodec;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
 import org.apache.lucene.document.DoubleField;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Store;
@@ -406,6 +407,68 @@ public abstract class BaseStoredFieldsFormatTestCase extends BaseIndexFileFormat
     dir.close();
   }
   
+  public void testVisitDocuments() throws IOException {
+    Directory dir = newDirectory();
+    IndexWriterConfig iwConf = newIndexWriterConfig(new MockAnalyzer(random()));
+    iwConf.setMaxBufferedDocs(RandomInts.randomIntBetween(random(), 2, 30));
+    RandomIndexWriter iw = new RandomIndexWriter(random(), dir, iwConf);
+
+    final int numDocs = atLeast(300);
+    for (int i = 0; i < numDocs; ++i) {
+      final Document doc = new Document();
+      doc.add(new StringField("id", Integer.toString(i), Store.YES));
+      if (random().nextBoolean()) {
+        doc.add(new StoredField("body", TestUtil.randomSimpleString(random(), 0, 200)));
+      }
+      doc.add(new StoredField("number", i));
+      iw.addDocument(doc);
+    }
+    final DirectoryReader rd = iw.getReader();
+    iw.close();
+
+    // random pages of hits, unsorted, with duplicates and spanning segments
+    for (int iter = 0; iter < 20; ++iter) {
+      final int[] docIDs = new int[RandomInts.randomIntBetween(random(), 0, 150)];
+      final DocumentStoredFieldVisitor[] visitors = new DocumentStoredFieldVisitor[docIDs.length];
+      final boolean[] allFields = new boolean[docIDs.length];
+      for (int i = 0; i < docIDs.length; ++i) {
+        docIDs[i] = random().nextInt(rd.maxDoc());
+        allFields[i] = random().nextBoolean();
+        visitors[i] = allFields[i] ? new DocumentStoredFieldVisitor() : new DocumentStoredFieldVisitor("id", "number");
+      }
+      rd.document(docIDs, visitors);
+      for (int i = 0; i < docIDs.length; ++i) {
+        final Document expected = rd.document(docIDs[i]);
+        final Document actual = visitors[i].getDocument();
+        assertEquals(expected.get("id"), actual.get("id"));
+        assertEquals(expected.getField("number").numericValue(), actual.getField("number").numericValue());
+        assertEquals(allFields[i] ? expected.get("body") : null, actual.get("body"));
+      }
+      for (AtomicReaderContext context : rd.leaves()) {
+        final AtomicReader leaf = context.reader();
+        final int[] leafDocIDs = new int[Math.min(docIDs.length, leaf.maxDoc())];
+        final DocumentStoredFieldVisitor[] leafVisitors = new DocumentStoredFieldVisitor[leafDocIDs.length];
+        for (int i = 0; i < leafDocIDs.length; ++i) {
+          leafDocIDs[i] = random().nextInt(leaf.maxDoc());
+          leafVisitors[i] = new DocumentStoredFieldVisitor();
+        }
+        leaf.document(leafDocIDs, leafVisitors);
+        for (int i = 0; i < leafDocIDs.length; ++i) {
+          assertEquals(leaf.document(leafDocIDs[i]).get("id"), leafVisitors[i].getDocument().get("id"));
+        }
+      }
+    }
+
+    try {
+      rd.document(new int[] {0}, new StoredFieldVisitor[0]);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // ok
+    }
+    rd.close();
+    dir.close();
+  }
+
   public void testConcurrentReads() throws Exception {
     Directory dir = newDirectory();
     IndexWriterConfig iwConf = newIndexWriterConfig(new MockAnalyzer(random()));
@@ -130,6 +130,23 @@ public class AssertingScorer extends Scorer {
     return in.cost();
   }
 
+  @Override
+  public TwoPhaseIterator asTwoPhaseIterator() {
+    final TwoPhaseIterator inTwoPhase = in.asTwoPhaseIterator();
+    if (inTwoPhase == null) {
+      return null;
+    }
+    assert inTwoPhase.approximation().docID() == docID();
+    return new TwoPhaseIterator(inTwoPhase.approximation()) {
+      @Override
+      public boolean matches() throws IOException {
+        assert iterating();
+        assert approximation.docID() == docID();
+        return inTwoPhase.matches();
+      }
+    };
+  }
+
   @Override
   public String toString() {
     return "AssertingScorer(" + in + ")";
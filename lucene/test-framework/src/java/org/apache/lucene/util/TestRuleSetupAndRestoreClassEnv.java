@@ -34,6 +34,8 @@ import org.apache.lucene.codecs.PostingsFormat;
 import org.apache.lucene.codecs.asserting.AssertingCodec;
 import org.apache.lucene.codecs.cheapbastard.CheapBastardCodec;
 import org.apache.lucene.codecs.compressing.CompressingCodec;
+import org.apache.lucene.codecs.embeddeddb.EDBStoreConfig;
+import org.apache.lucene.codecs.embeddeddb.EDBStoreRegistry;
 import org.apache.lucene.codecs.lucene3x.PreFlexRWCodec;
 import org.apache.lucene.codecs.lucene40.Lucene40RWCodec;
 import org.apache.lucene.codecs.lucene40.Lucene40RWPostingsFormat;
@@ -158,6 +160,10 @@ final class TestRuleSetupAndRestoreClassEnv extends AbstractBeforeAfterRule {
     
     // set back to default
     LuceneTestCase.OLD_FORMAT_IMPERSONATION_IS_ACTIVE = false;
+
+    // EmbeddedDB stores can outlive a suite (e.g. through the static readers of QueryUtils),
+    // so they must not start background threads the thread leak checker would catch
+    EDBStoreRegistry.setDefaultConfig(EDBStoreConfig.testing());
     
     savedCodec = Codec.getDefault();
     int randomVal = random.nextInt(12);
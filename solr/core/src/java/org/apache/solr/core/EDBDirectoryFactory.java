@@ -0,0 +1,70 @@
+package org.apache.solr.core;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.codecs.embeddeddb.EDBStoreConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.EDBDirectory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * Directory factory giving every core a store of its own for the documents of the
+ * {@link EmbeddedDBCodecFactory EmbeddedDB codec}. Index files are kept like
+ * {@link StandardDirectoryFactory} keeps them, and the directory wraps them in an
+ * {@link EDBDirectory} whose store is in the <code>edb</code> directory of the
+ * core's data directory, shared by the index directories replication creates
+ * there. The store takes the same settings as the {@link EmbeddedDBCodecFactory}:
+ * <pre class="prettyprint">
+ * &lt;directoryFactory name="DirectoryFactory" class="solr.EDBDirectoryFactory"&gt;
+ *   &lt;long name="cacheSize"&gt;536870912&lt;/long&gt;
+ *   &lt;str name="durability"&gt;WRITE_NO_SYNC&lt;/str&gt;
+ * &lt;/directoryFactory&gt;
+ * </pre>
+ * The first directory of a core opens the store with these settings, before any
+ * reader or writer of the index needs it, so the settings of one core never
+ * affect the store of another.
+ * @lucene.experimental
+ */
+public class EDBDirectoryFactory extends StandardDirectoryFactory {
+
+  /** Name of the directory holding the store, inside the core's data directory */
+  public static final String STORE_DIRECTORY = "edb";
+
+  private EDBStoreConfig config;
+
+  @Override
+  public void init(NamedList args) {
+    super.init(args);
+    config = EmbeddedDBCodecFactory.createConfig(args);
+  }
+
+  @Override
+  protected Directory create(String path, DirContext dirContext) throws IOException {
+    final File indexDir = new File(path);
+    return new EDBDirectory(FSDirectory.open(indexDir), new File(indexDir.getParentFile(), STORE_DIRECTORY), config);
+  }
+
+  /** Returns the store config this factory was initialized with */
+  public EDBStoreConfig getConfig() {
+    return config.clone();
+  }
+}
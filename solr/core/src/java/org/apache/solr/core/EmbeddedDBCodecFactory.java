@@ -0,0 +1,272 @@
+package org.apache.solr.core;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Locale;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.compressing.CompressionMode;
+import org.apache.lucene.codecs.lucene410.Lucene410Codec;
+import org.apache.lucene.codecs.embeddeddb.EDBStoreConfig;
+import org.apache.lucene.codecs.embeddeddb.EDBStoreRegistry;
+import org.apache.lucene.codecs.embeddeddb.EDBStoreStats;
+import org.apache.lucene.codecs.embeddeddb.EmbeddedDBCodec;
+import org.apache.lucene.store.EDBDirectory;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrException.ErrorCode;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CodecFactory returning the EmbeddedDB codec, with its store tuned from solrconfig.xml:
+ * <pre class="prettyprint">
+ * &lt;codecFactory class="solr.EmbeddedDBCodecFactory"&gt;
+ *   &lt;str name="profile"&gt;production&lt;/str&gt;
+ *   &lt;str name="backend"&gt;BERKELEYDB&lt;/str&gt;
+ *   &lt;long name="cacheSize"&gt;536870912&lt;/long&gt;
+ *   &lt;long name="logFileSize"&gt;67108864&lt;/long&gt;
+ *   &lt;int name="cleanerMinUtilization"&gt;50&lt;/int&gt;
+ *   &lt;str name="durability"&gt;WRITE_NO_SYNC&lt;/str&gt;
+ *   &lt;str name="compression"&gt;FAST&lt;/str&gt;
+ * &lt;/codecFactory&gt;
+ * </pre>
+ * The <code>profile</code> is either <code>production</code> (the default) or <code>testing</code>, which
+ * disables all background threads of the store. The <code>backend</code> is <code>BERKELEYDB</code> (the default)
+ * or <code>MMAP_LOG</code>, and only decides the implementation of stores created in new locations. The other
+ * settings are <code>cachePercent</code>, <code>cleanerThreads</code>, <code>runCheckpointer</code>,
+ * <code>runEvictor</code> and <code>runINCompressor</code>; see {@link EDBStoreConfig} for their meaning. <code>compression</code> is one of
+ * <code>FAST</code>, <code>HIGH_COMPRESSION</code> or <code>FAST_DECOMPRESSION</code> and makes the codec write
+ * documents in compressed blocks, by default every document is stored in a record of its own.
+ * <p>
+ * <code>&lt;bool name="exportRecords"&gt;true&lt;/bool&gt;</code> makes new segments also write their documents to a
+ * records file among the index files. Replication copies these files along with the others, and slaves import
+ * the documents of the segments they pulled into their own store when they open them, see
+ * {@link EDBStoreConfig#setExportRecords}. It is only needed on the master, slaves read records files either way.
+ * <p>
+ * The config is given to the codec of this core, and so applies to the store when the core's writer opens it.
+ * Readers obtain the codec of a segment by its name and open the store with the default config of
+ * {@link EDBStoreRegistry} instead, and cores whose directories are not {@link EDBDirectory EDBDirectories} all
+ * share the default store. To give every core a store of its own, opened with the core's settings before any of
+ * its segments is read, use the {@link EDBDirectoryFactory} and configure the store there.
+ * <p>
+ * Like {@link SchemaCodecFactory}, postings and DocValues formats are taken from the field types of the schema.
+ * Fields are stored in the embedded database, unless their type names another stored fields format, e.g.
+ * small fields every result page loads can be kept in the compressed stored fields files of the index:
+ * <pre class="prettyprint">
+ * &lt;fieldType name="string_hot" class="solr.StrField" storedFieldsFormat="Lucene41"/&gt;
+ * </pre>
+ * The formats are {@link EmbeddedDBCodec#EMBEDDEDDB_FORMAT} and {@link EmbeddedDBCodec#COMPRESSING_FORMAT}, and
+ * documents are then read from the embedded database only when fields stored there are requested.
+ * <p>
+ * The factory is registered as a {@link SolrInfoMBean}, whose statistics are those of all open stores added up,
+ * see {@link EDBStoreStats}: record reads and writes with their latencies and bytes, and the cache, eviction, log
+ * and cleaner figures of BerkeleyDB. Latencies are given in milliseconds.
+ * @lucene.experimental
+ */
+public class EmbeddedDBCodecFactory extends SchemaCodecFactory implements SolrInfoMBean {
+  private static final Logger log = LoggerFactory.getLogger(EmbeddedDBCodecFactory.class);
+
+  private EDBStoreConfig config;
+
+  @Override
+  public void init(NamedList args) {
+    config = createConfig(args);
+    super.init(args);
+  }
+
+  @Override
+  protected Codec createCodec(NamedList args, Lucene410Codec schemaCodec) {
+    return new EmbeddedDBCodec(schemaCodec, config, getCompressionMode(args)) {
+      @Override
+      public String getStoredFieldsFormatForField(String field) {
+        final String storedFieldsFormatName = getSchemaStoredFieldsFormat(field);
+        if (storedFieldsFormatName != null) {
+          return storedFieldsFormatName;
+        }
+        return super.getStoredFieldsFormatForField(field);
+      }
+    };
+  }
+
+  static CompressionMode getCompressionMode(NamedList args) {
+    final Object compression = args.get("compression");
+    if (compression == null) {
+      return null;
+    }
+    for (CompressionMode mode : new CompressionMode[] {
+        CompressionMode.FAST, CompressionMode.HIGH_COMPRESSION, CompressionMode.FAST_DECOMPRESSION}) {
+      if (mode.toString().equalsIgnoreCase(compression.toString().trim())) {
+        return mode;
+      }
+    }
+    throw new SolrException(ErrorCode.SERVER_ERROR, "Unknown EmbeddedDB compression mode: " + compression);
+  }
+
+  static EDBStoreConfig createConfig(NamedList args) {
+    final Object profile = args.get("profile");
+    final EDBStoreConfig config;
+    if (profile == null || "production".equals(profile.toString())) {
+      config = new EDBStoreConfig();
+    } else if ("testing".equals(profile.toString())) {
+      config = EDBStoreConfig.testing();
+    } else {
+      throw new SolrException(ErrorCode.SERVER_ERROR, "Unknown EmbeddedDB store profile: " + profile);
+    }
+    try {
+      final Object backend = args.get("backend");
+      if (backend != null) {
+        config.setBackend(EDBStoreConfig.Backend.valueOf(backend.toString().toUpperCase(Locale.ROOT)));
+      }
+      final Long cacheSize = getLong(args, "cacheSize");
+      if (cacheSize != null) {
+        config.setCacheSize(cacheSize);
+      }
+      final Long cachePercent = getLong(args, "cachePercent");
+      if (cachePercent != null) {
+        config.setCachePercent(cachePercent.intValue());
+      }
+      final Long logFileSize = getLong(args, "logFileSize");
+      if (logFileSize != null) {
+        config.setLogFileSize(logFileSize);
+      }
+      final Long cleanerMinUtilization = getLong(args, "cleanerMinUtilization");
+      if (cleanerMinUtilization != null) {
+        config.setCleanerMinUtilization(cleanerMinUtilization.intValue());
+      }
+      final Long cleanerThreads = getLong(args, "cleanerThreads");
+      if (cleanerThreads != null) {
+        config.setCleanerThreads(cleanerThreads.intValue());
+      }
+      final Object durability = args.get("durability");
+      if (durability != null) {
+        config.setDurability(EDBStoreConfig.Durability.valueOf(durability.toString().toUpperCase(Locale.ROOT)));
+      }
+      final Boolean runCheckpointer = getBoolean(args, "runCheckpointer");
+      if (runCheckpointer != null) {
+        config.setRunCheckpointer(runCheckpointer);
+      }
+      final Boolean runEvictor = getBoolean(args, "runEvictor");
+      if (runEvictor != null) {
+        config.setRunEvictor(runEvictor);
+      }
+      final Boolean runINCompressor = getBoolean(args, "runINCompressor");
+      if (runINCompressor != null) {
+        config.setRunINCompressor(runINCompressor);
+      }
+      final Boolean exportRecords = getBoolean(args, "exportRecords");
+      if (exportRecords != null) {
+        config.setExportRecords(exportRecords);
+      }
+    } catch (IllegalArgumentException e) {
+      throw new SolrException(ErrorCode.SERVER_ERROR, "Invalid EmbeddedDB store configuration: " + e.getMessage(), e);
+    }
+    return config;
+  }
+
+  private static Long getLong(NamedList args, String name) {
+    final Object value = args.get(name);
+    if (value == null) {
+      return null;
+    }
+    return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString().trim());
+  }
+
+  private static Boolean getBoolean(NamedList args, String name) {
+    final Object value = args.get(name);
+    if (value == null) {
+      return null;
+    }
+    return value instanceof Boolean ? (Boolean) value : Boolean.valueOf(value.toString().trim());
+  }
+
+  /** Returns the store config this factory was initialized with */
+  public EDBStoreConfig getConfig() {
+    return config.clone();
+  }
+
+  @Override
+  public String getName() {
+    return getClass().getName();
+  }
+
+  @Override
+  public String getVersion() {
+    return SolrCore.version;
+  }
+
+  @Override
+  public String getDescription() {
+    return "EmbeddedDB stored fields store";
+  }
+
+  @Override
+  public Category getCategory() {
+    return Category.OTHER;
+  }
+
+  @Override
+  public String getSource() {
+    return null;
+  }
+
+  @Override
+  public URL[] getDocs() {
+    return null;
+  }
+
+  @Override
+  public NamedList getStatistics() {
+    NamedList lst = new SimpleOrderedMap();
+    final EDBStoreStats stats;
+    try {
+      stats = EDBStoreStats.sum(EDBStoreRegistry.getStats().values());
+    } catch (IOException e) {
+      log.warn("Failed to read the statistics of the EmbeddedDB stores", e);
+      return lst;
+    }
+    lst.add("stores", stats.getStores());
+    lst.add("reads", stats.getReads());
+    lst.add("bytesRead", stats.getBytesRead());
+    addLatency(lst, "read", stats.getReadLatency());
+    lst.add("writes", stats.getWrites());
+    lst.add("bytesWritten", stats.getBytesWritten());
+    addLatency(lst, "write", stats.getWriteLatency());
+    lst.add("commits", stats.getCommitLatency().getCount());
+    addLatency(lst, "commit", stats.getCommitLatency());
+    lst.add("cacheBytes", stats.getCacheBytes());
+    lst.add("cacheMisses", stats.getCacheMisses());
+    lst.add("cacheMissesPerRead", stats.getCacheMissesPerRead());
+    lst.add("notResident", stats.getNotResident());
+    lst.add("evictPasses", stats.getEvictPasses());
+    lst.add("nodesEvicted", stats.getNodesEvicted());
+    lst.add("logSize", stats.getLogSize());
+    lst.add("cleanerBacklog", stats.getCleanerBacklog());
+    return lst;
+  }
+
+  private static void addLatency(NamedList lst, String operation, EDBStoreStats.Latency latency) {
+    lst.add(operation + "AvgTime", latency.getMeanNanos() / 1000000d);
+    lst.add(operation + "P50Time", latency.getPercentileNanos(50) / 1000000d);
+    lst.add(operation + "P99Time", latency.getPercentileNanos(99) / 1000000d);
+    lst.add(operation + "MaxTime", latency.getMaxNanos() / 1000000d);
+  }
+}
@@ -3,8 +3,12 @@ package org.apache.solr.core;
 import org.apache.lucene.codecs.Codec;
 import org.apache.lucene.codecs.DocValuesFormat;
 import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.StoredFieldsFormat;
 import org.apache.lucene.codecs.lucene410.Lucene410Codec;
+import org.apache.lucene.codecs.perfield.PerFieldStoredFieldsFormat;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.schema.FieldType;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.util.plugin.SolrCoreAware;
 
@@ -29,6 +33,11 @@ import org.apache.solr.util.plugin.SolrCoreAware;
  * Per-field CodecFactory implementation, extends Lucene's 
  * and returns postings format implementations according to the 
  * schema configuration.
+ * <p>
+ * Subclasses may wrap the codec through {@link #createCodec}, e.g. in
+ * one storing fields in other formats. Field types then name the
+ * stored fields format of their fields with <code>storedFieldsFormat</code>,
+ * which must be one of the codec's {@link PerFieldStoredFieldsFormat}.
  * @lucene.experimental
  */
 public class SchemaCodecFactory extends CodecFactory implements SolrCoreAware {
@@ -46,12 +55,39 @@ public class SchemaCodecFactory extends CodecFactory implements SolrCoreAware {
   @Override
   public void inform(SolrCore core) {
     this.core = core;
+    final StoredFieldsFormat storedFieldsFormat = codec.storedFieldsFormat();
+    for (FieldType ft : core.getLatestSchema().getFieldTypes().values()) {
+      final String storedFieldsFormatName = ft.getStoredFieldsFormat();
+      if (storedFieldsFormatName != null && (!(storedFieldsFormat instanceof PerFieldStoredFieldsFormat) ||
+          ((PerFieldStoredFieldsFormat) storedFieldsFormat).getStoredFieldsFormat(storedFieldsFormatName) == null)) {
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "FieldType '" + ft.getTypeName() +
+            "' is configured with stored fields format " + storedFieldsFormatName + ", but the codec does not support it: " + codec.getName());
+      }
+    }
+  }
+
+  /**
+   * Returns the stored fields format configured for the type of
+   * <code>field</code>, or null if there is none.
+   */
+  protected String getSchemaStoredFieldsFormat(String field) {
+    final SchemaField schemaField = core.getLatestSchema().getFieldOrNull(field);
+    return schemaField == null ? null : schemaField.getType().getStoredFieldsFormat();
+  }
+
+  /**
+   * Returns the codec of this factory. The default implementation
+   * returns <code>schemaCodec</code>, which chooses postings and
+   * docvalues formats according to the schema.
+   */
+  protected Codec createCodec(NamedList args, Lucene410Codec schemaCodec) {
+    return schemaCodec;
   }
 
   @Override
   public void init(NamedList args) {
     super.init(args);
-    codec = new Lucene410Codec() {
+    codec = createCodec(args, new Lucene410Codec() {
       @Override
       public PostingsFormat getPostingsFormatForField(String field) {
         final SchemaField schemaField = core.getLatestSchema().getFieldOrNull(field);
@@ -74,7 +110,7 @@ public class SchemaCodecFactory extends CodecFactory implements SolrCoreAware {
         }
         return super.getDocValuesFormatForField(field);
       }
-    };
+    });
   }
 
   @Override
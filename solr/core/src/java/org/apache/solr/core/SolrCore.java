@@ -942,6 +942,11 @@ public final class SolrCore implements SolrInfoMBean, Closeable {
           log.error(msg);
           throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, msg);
         }
+        if (null != ft.getStoredFieldsFormat()) {
+          String msg = "FieldType '" + ft.getTypeName() + "' is configured with a stored fields format, but the codec does not support it: " + factory.getClass();
+          log.error(msg);
+          throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, msg);
+        }
       }
     }
     return factory.getCodec();
@@ -144,6 +144,12 @@ public class BinaryResponseWriter implements BinaryQueryResponseWriter {
       Set<String> fnames = returnFields.getLuceneFieldNames();
       boolean onlyPseudoFields = (fnames == null && !returnFields.wantsAllFields() && !returnFields.hasPatternMatching())
           || (fnames != null && fnames.size() == 1 && SolrReturnFields.SCORE.equals(fnames.iterator().next()));
+      Document[] docs = null;
+      if (!onlyPseudoFields) {
+        // fetch the whole page at once, the codec can then read it in one pass
+        docs = new Document[sz];
+        searcher.readDocs(docs, ids, fnames);
+      }
       context.iterator = ids.iterator();
       for (int i = 0; i < sz; i++) {
         int id = context.iterator.nextDoc();
@@ -152,7 +158,7 @@ public class BinaryResponseWriter implements BinaryQueryResponseWriter {
           // no need to get stored fields of the document, see SOLR-5968
           sdoc = new SolrDocument();
         } else {
-          Document doc = searcher.doc(id, fnames);
+          Document doc = docs[i];
           sdoc = getDoc(doc);
         }
         if( transformer != null ) {
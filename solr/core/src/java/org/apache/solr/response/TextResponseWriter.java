@@ -244,9 +244,12 @@ public abstract class TextResponseWriter {
     }
     int sz = ids.size();
     Set<String> fnames = fields.getLuceneFieldNames();
+    // fetch the whole page at once, the codec can then read it in one pass
+    Document[] docs = new Document[sz];
+    context.searcher.readDocs(docs, ids, fnames);
     for (int i=0; i<sz; i++) {
       int id = context.iterator.nextDoc();
-      Document doc = context.searcher.doc(id, fnames);
+      Document doc = docs[i];
       SolrDocument sdoc = toSolrDocument( doc );
       if( transformer != null ) {
         transformer.transform( sdoc, id);
@@ -184,6 +184,7 @@ public abstract class FieldType extends FieldProperties {
 
     this.postingsFormat = initArgs.remove(POSTINGS_FORMAT);
     this.docValuesFormat = initArgs.remove(DOC_VALUES_FORMAT);
+    this.storedFieldsFormat = initArgs.remove(STORED_FIELDS_FORMAT);
 
     if (initArgs.size() > 0) {
       throw new RuntimeException("schema fieldtype " + typeName
@@ -661,6 +662,15 @@ public abstract class FieldType extends FieldProperties {
     return docValuesFormat;
   }
 
+  /**
+   * The stored fields format used for this field type
+   */
+  protected String storedFieldsFormat;
+
+  public final String getStoredFieldsFormat() {
+    return storedFieldsFormat;
+  }
+
   /**
    * calls back to TextResponseWriter to write the field value
    */
@@ -808,6 +818,7 @@ public abstract class FieldType extends FieldProperties {
 
   private static final String POSTINGS_FORMAT = "postingsFormat";
   private static final String DOC_VALUES_FORMAT = "docValuesFormat";
+  private static final String STORED_FIELDS_FORMAT = "storedFieldsFormat";
   private static final String AUTO_GENERATE_PHRASE_QUERIES = "autoGeneratePhraseQueries";
   private static final String ARGS = "args";
   private static final String POSITION_INCREMENT_GAP = "positionIncrementGap";
@@ -860,6 +871,9 @@ public abstract class FieldType extends FieldProperties {
       if (null != getDocValuesFormat()) {
         namedPropertyValues.add(DOC_VALUES_FORMAT, getDocValuesFormat());
       }
+      if (null != getStoredFieldsFormat()) {
+        namedPropertyValues.add(STORED_FIELDS_FORMAT, getStoredFieldsFormat());
+      }
     } else { // Don't show defaults
       Set<String> fieldProperties = new HashSet<>();
       for (String propertyName : FieldProperties.propertyNames) {
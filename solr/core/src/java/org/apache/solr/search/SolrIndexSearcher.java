@@ -35,6 +35,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
 import org.apache.lucene.document.DoubleField;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
@@ -62,6 +63,7 @@ import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.ConjunctionDISI;
 import org.apache.lucene.search.ConstantScoreQuery;
 import org.apache.lucene.search.DocIdSet;
 import org.apache.lucene.search.DocIdSetIterator;
@@ -640,6 +642,37 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     }
     getIndexReader().document(n, visitor);
   }
+
+  /** Visit the fields of several documents, documents missing from the
+   *  Solr document cache are read in a single batch.
+   *  This method does not currently add to the Solr document cache.
+   * 
+   * @see IndexReader#document(int[], StoredFieldVisitor[]) */
+  @Override
+  public void doc(int[] docIDs, StoredFieldVisitor[] visitors) throws IOException {
+    if (documentCache == null) {
+      getIndexReader().document(docIDs, visitors);
+      return;
+    }
+    if (docIDs.length != visitors.length) {
+      throw new IllegalArgumentException("docIDs and visitors must have the same length: " + docIDs.length + " != " + visitors.length);
+    }
+    int[] missingIDs = new int[docIDs.length];
+    StoredFieldVisitor[] missingVisitors = new StoredFieldVisitor[docIDs.length];
+    int numMissing = 0;
+    for (int i=0; i<docIDs.length; i++) {
+      Document cached = documentCache.get(docIDs[i]);
+      if (cached != null) {
+        visitFromCached(cached, visitors[i]);
+      } else {
+        missingIDs[numMissing] = docIDs[i];
+        missingVisitors[numMissing++] = visitors[i];
+      }
+    }
+    if (numMissing > 0) {
+      getIndexReader().document(Arrays.copyOf(missingIDs, numMissing), Arrays.copyOf(missingVisitors, numMissing));
+    }
+  }
   
   /** Executes a stored field visitor against a hit from the document cache */
   private void visitFromCached(Document document, StoredFieldVisitor visitor) throws IOException {
@@ -720,9 +753,47 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
    * and reads them into an array of Documents.
    */
   public void readDocs(Document[] docs, DocList ids, Set<String> fields) throws IOException {
+    int[] docIDs = new int[docs.length];
     DocIterator iter = ids.iterator();
     for (int i=0; i<docs.length; i++) {
-      docs[i] = doc(iter.nextDoc(), fields);
+      docIDs[i] = iter.nextDoc();
+    }
+    readDocs(docs, docIDs, fields);
+  }
+
+  /**
+   * Takes an array of doc ids and a set of fields to load, and reads them
+   * into an array of Documents like {@link #doc(int, Set)} does. Documents
+   * missing from the document cache are fetched from the index in a single
+   * batch, which lets the codec read a whole page of results in one pass.
+   */
+  public void readDocs(Document[] docs, int[] docIDs, Set<String> fields) throws IOException {
+    int[] missing = new int[docIDs.length];
+    int numMissing = 0;
+    for (int i=0; i<docIDs.length; i++) {
+      docs[i] = documentCache == null ? null : documentCache.get(docIDs[i]);
+      if (docs[i] == null) {
+        missing[numMissing++] = i;
+      }
+    }
+    if (numMissing == 0) return;
+
+    final IndexReader reader = getIndexReader();
+    final boolean lazy = enableLazyFieldLoading && fields != null;
+    int[] missingIDs = new int[numMissing];
+    StoredFieldVisitor[] visitors = new StoredFieldVisitor[numMissing];
+    for (int j=0; j<numMissing; j++) {
+      missingIDs[j] = docIDs[missing[j]];
+      visitors[j] = lazy ? new SetNonLazyFieldSelector(fields, reader, missingIDs[j]) : new DocumentStoredFieldVisitor();
+    }
+    reader.document(missingIDs, visitors);
+
+    for (int j=0; j<numMissing; j++) {
+      Document d = lazy ? ((SetNonLazyFieldSelector) visitors[j]).doc : ((DocumentStoredFieldVisitor) visitors[j]).getDocument();
+      docs[missing[j]] = d;
+      if (documentCache != null) {
+        documentCache.put(missingIDs[j], d);
+      }
     }
   }
 
@@ -2442,8 +2513,9 @@ class FilterImpl extends Filter {
       }
       if (iterators.size()==0) return null;
       if (iterators.size()==1) return iterators.get(0);
-      if (iterators.size()==2) return new DualFilterIterator(iterators.get(0), iterators.get(1));
-      return new FilterIterator(iterators.toArray(new DocIdSetIterator[iterators.size()]));
+      // scorers which expose an approximation, such as phrase queries, only
+      // verify their matches once all other filters agree on a document
+      return ConjunctionDISI.intersect(iterators);
     }
 
     @Override
@@ -2457,96 +2529,4 @@ class FilterImpl extends Filter {
     }
   }
 
-  private static class FilterIterator extends DocIdSetIterator {
-    final DocIdSetIterator[] iterators;
-    final DocIdSetIterator first;
-
-    public FilterIterator(DocIdSetIterator[] iterators) {
-      this.iterators = iterators;
-      this.first = iterators[0];
-    }
-
-    @Override
-    public int docID() {
-      return first.docID();
-    }
-
-    private int doNext(int doc) throws IOException {
-      int which=0;  // index of the iterator with the highest id
-      int i=1;
-      outer: for(;;) {
-        for (; i<iterators.length; i++) {
-          if (i == which) continue;
-          DocIdSetIterator iter = iterators[i];
-          int next = iter.advance(doc);
-          if (next != doc) {
-            doc = next;
-            which = i;
-            i = 0;
-            continue outer;
-          }
-        }
-        return doc;
-      }
-    }
-
-
-    @Override
-    public int nextDoc() throws IOException {
-      return doNext(first.nextDoc());
-    }
-
-    @Override
-    public int advance(int target) throws IOException {
-      return doNext(first.advance(target));
-    }
-
-    @Override
-    public long cost() {
-      return first.cost();
-    }
-  }
-
-  private static class DualFilterIterator extends DocIdSetIterator {
-    final DocIdSetIterator a;
-    final DocIdSetIterator b;
-
-    public DualFilterIterator(DocIdSetIterator a, DocIdSetIterator b) {
-      this.a = a;
-      this.b = b;
-    }
-
-    @Override
-    public int docID() {
-      return a.docID();
-    }
-
-    @Override
-    public int nextDoc() throws IOException {
-      int doc = a.nextDoc();
-      for(;;) {
-        int other = b.advance(doc);
-        if (other == doc) return doc;
-        doc = a.advance(other);
-        if (other == doc) return doc;
-      }
-    }
-
-    @Override
-    public int advance(int target) throws IOException {
-      int doc = a.advance(target);
-      for(;;) {
-        int other = b.advance(doc);
-        if (other == doc) return doc;
-        doc = a.advance(other);
-        if (other == doc) return doc;
-      }
-    }
-
-    @Override
-    public long cost() {
-      return Math.min(a.cost(), b.cost());
-    }
-  }
-
 }